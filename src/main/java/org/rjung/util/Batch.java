@@ -0,0 +1,105 @@
+package org.rjung.util;
+
+import java.io.UnsupportedEncodingException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.rjung.util.gravatar.hash.DigestEngine;
+import org.rjung.util.gravatar.hash.Digester;
+
+/**
+ * Splits the work on a list of email-addresses into ranges that are processed
+ * in parallel. Each range is processed with one {@link Digester}, the results
+ * are written by index, so they stay in the order of the input.
+ */
+final class Batch {
+
+    static final int RANGE_SIZE = 512;
+
+    private Batch() {
+    }
+
+    interface Range {
+        void process(int pFrom, int pTo, Digester pDigester)
+                throws UnsupportedEncodingException, NoSuchAlgorithmException;
+    }
+
+    static void process(final int pSize, final DigestEngine pEngine,
+            final Executor pExecutor, final Range pRange)
+            throws GravatarException {
+        try {
+            if (pSize <= RANGE_SIZE) {
+                process(pEngine, pRange, 0, pSize);
+            } else if (pExecutor instanceof ForkJoinPool) {
+                ((ForkJoinPool) pExecutor)
+                        .invoke(new Split(pEngine, pRange, 0, pSize));
+            } else {
+                final int ranges = Math.min((pSize + RANGE_SIZE - 1)
+                        / RANGE_SIZE,
+                        Runtime.getRuntime().availableProcessors() * 4);
+                final CompletableFuture<?>[] futures = new CompletableFuture<?>[ranges];
+                for (int i = 0; i < ranges; i++) {
+                    final int from = (int) ((long) pSize * i / ranges);
+                    final int to = (int) ((long) pSize * (i + 1) / ranges);
+                    futures[i] = CompletableFuture.runAsync(
+                            () -> process(pEngine, pRange, from, to),
+                            pExecutor);
+                }
+                CompletableFuture.allOf(futures).join();
+            }
+        } catch (RuntimeException e) {
+            for (Throwable cause = e; cause != null; cause = cause
+                    .getCause()) {
+                if (cause instanceof UnsupportedEncodingException
+                        || cause instanceof NoSuchAlgorithmException) {
+                    throw new GravatarException(cause.getMessage(), cause);
+                }
+            }
+            throw e;
+        }
+    }
+
+    private static void process(final DigestEngine pEngine,
+            final Range pRange, final int pFrom, final int pTo) {
+        final Digester digester = pEngine.acquire();
+        try {
+            pRange.process(pFrom, pTo, digester);
+        } catch (UnsupportedEncodingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            pEngine.release(digester);
+        }
+    }
+
+    private static final class Split extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient DigestEngine engine;
+        private final transient Range range;
+        private final int from;
+        private final int to;
+
+        Split(final DigestEngine pEngine, final Range pRange, final int pFrom,
+                final int pTo) {
+            this.engine = pEngine;
+            this.range = pRange;
+            this.from = pFrom;
+            this.to = pTo;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= RANGE_SIZE) {
+                process(engine, range, from, to);
+            } else {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new Split(engine, range, from, middle),
+                        new Split(engine, range, middle, to));
+            }
+        }
+    }
+}
@@ -1,17 +1,31 @@
 package org.rjung.util;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-import java.security.MessageDigest;
+import java.lang.management.ManagementFactory;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Locale;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import org.rjung.util.gravatar.Default;
+import org.rjung.util.gravatar.Hosts;
 import org.rjung.util.gravatar.Protocol;
 import org.rjung.util.gravatar.Rating;
+import org.rjung.util.gravatar.cache.HashCache;
+import org.rjung.util.gravatar.hash.DigestEngine;
+import org.rjung.util.gravatar.hash.Digester;
+import org.rjung.util.gravatar.hash.EmailBatch;
+import org.rjung.util.gravatar.hash.EmailNormalizer;
+import org.rjung.util.gravatar.hash.HashAlgorithm;
+import org.rjung.util.gravatar.hash.Hex;
+import org.rjung.util.gravatar.hash.MultiLaneMd5;
+import org.rjung.util.gravatar.metrics.GravatarListener;
+import org.rjung.util.gravatar.metrics.GravatarListener.Cache;
+import org.rjung.util.gravatar.metrics.GravatarListener.Render;
+import org.rjung.util.gravatar.store.HashStore;
 
 /**
  * {@link Gravatar} provides you a simple methods retrieve a Gravatar-URL. This
@@ -21,28 +35,18 @@ import org.rjung.util.gravatar.Rating;
  */
 public final class Gravatar {
 
-    private static final int GRAVATAR_SIZE_MIN = 1;
-    private static final int GRAVATAR_SIZE_MAX = 2048;
-    private static final String GRAVATAR_CHARSET = "CP1252";
-    private static final String GRAVATAR_IMAGE_BASE_URL = "s.gravatar.com/avatar/";
-    private static final char[] HEX_ARRAY = "0123456789ABCDEF".toCharArray();
-    private static final String PARAM_DEFAULT = "d";
-    private static final String PARAM_RATING = "r";
-    private static final String PARAM_SIZE = "s";
+    static final int GRAVATAR_DIGEST_LENGTH = 16;
 
-    private final String email;
-    private Protocol protocol;
-    private final Map<String, Object> parameters;
+    private static volatile HashCache hashCache;
+    private static volatile HashStore hashStore;
+    private static volatile GravatarListener listener = GravatarListener.NOOP;
 
-    private Gravatar(final String pEmail) {
-        this(pEmail, Protocol.NONE, new HashMap<String, Object>());
-    }
+    private final String email;
+    private GravatarSpec spec;
 
-    private Gravatar(final String pEmail, final Protocol pProtocol,
-            final Map<String, Object> pParameters) {
+    private Gravatar(final String pEmail, final GravatarSpec pSpec) {
         this.email = pEmail;
-        this.protocol = pProtocol;
-        this.parameters = pParameters;
+        this.spec = pSpec;
     }
 
     /**
@@ -53,7 +57,178 @@ public final class Gravatar {
      * @return {@link Gravatar} instance for the given email-address
      */
     public static Gravatar forEmail(final String pEmail) {
-        return new Gravatar(pEmail);
+        return new Gravatar(pEmail, GravatarSpec.DEFAULT);
+    }
+
+    /**
+     * Start with the options of a {@link GravatarSpec} to build a
+     * {@link Gravatar}.
+     *
+     * @param pEmail
+     *            the email address to be encoded
+     * @param pSpec
+     *            the {@link GravatarSpec} with the options to start with
+     * @return {@link Gravatar} instance for the given email-address
+     */
+    public static Gravatar forEmail(final String pEmail,
+            final GravatarSpec pSpec) {
+        if (pSpec == null) {
+            throw new IllegalArgumentException("spec is required");
+        }
+        return new Gravatar(pEmail, pSpec);
+    }
+
+    /**
+     * Set a {@link HashCache} to be used by all {@link Gravatar}s. If the same
+     * email-addresses are rendered over and over again, the cache saves to
+     * calculate the hash each time.
+     *
+     * @param pHashCache
+     *            The {@link HashCache} to use. A <code>null</code>-value
+     *            disables caching, which is the default.
+     */
+    public static void setHashCache(final HashCache pHashCache) {
+        hashCache = pHashCache;
+    }
+
+    /**
+     * Get the {@link HashCache} used by all {@link Gravatar}s.
+     *
+     * @return the {@link HashCache} or <code>null</code> if none is set
+     */
+    public static HashCache getHashCache() {
+        return hashCache;
+    }
+
+    /**
+     * Set a {@link HashStore} to be used by all {@link Gravatar}s. The store
+     * is consulted before a hash is calculated, calculated hashes are added to
+     * it. As the store is kept on disk, the hashes are available right after
+     * a restart.
+     *
+     * @param pHashStore
+     *            The {@link HashStore} to use. A <code>null</code>-value
+     *            disables the store, which is the default.
+     */
+    public static void setHashStore(final HashStore pHashStore) {
+        hashStore = pHashStore;
+    }
+
+    /**
+     * Get the {@link HashStore} used by all {@link Gravatar}s.
+     *
+     * @return the {@link HashStore} or <code>null</code> if none is set
+     */
+    public static HashStore getHashStore() {
+        return hashStore;
+    }
+
+    /**
+     * Set a {@link GravatarListener} to be told about the hashes and URLs
+     * rendered by all {@link Gravatar}s and {@link GravatarTemplate}s.
+     *
+     * @param pListener
+     *            The {@link GravatarListener} to use. A <code>null</code>-value
+     *            selects {@link GravatarListener#NOOP}, which is the default.
+     */
+    public static void setListener(final GravatarListener pListener) {
+        listener = pListener == null ? GravatarListener.NOOP : pListener;
+    }
+
+    /**
+     * Get the {@link GravatarListener} used by all {@link Gravatar}s.
+     *
+     * @return the {@link GravatarListener}, {@link GravatarListener#NOOP} if
+     *         none is set
+     */
+    public static GravatarListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Retrieve the URLs of many email-addresses with the same options. This is
+     * the same as calling {@link #toUrl()} for each email-address, but the
+     * options are compiled once and the work is split between the threads of
+     * the {@link ForkJoinPool#commonPool()}.
+     *
+     * @param pEmails
+     *            the email addresses to be encoded
+     * @param pOptions
+     *            a {@link Gravatar} with the options to use, its email-address
+     *            is ignored
+     * @return the {@link Gravatar}-image-urls in the order of the
+     *         email-addresses
+     * @throws GravatarException
+     *             If some Character-encoding fails, you will receive a
+     *             {@link GravatarException}.
+     */
+    public static List<String> toUrls(final List<String> pEmails,
+            final Gravatar pOptions) throws GravatarException {
+        return pOptions.compile().urlsFor(pEmails);
+    }
+
+    /**
+     * Calculate the hashes of many email-addresses. The work is split between
+     * the threads of the {@link ForkJoinPool#commonPool()}.
+     *
+     * @param pEmails
+     *            the email addresses to be hashed
+     * @return the hashes, 16 bytes per email-address in the order of the
+     *         email-addresses
+     * @throws GravatarException
+     *             If some Character-encoding fails, you will receive a
+     *             {@link GravatarException}.
+     */
+    public static byte[] toHashes(final List<String> pEmails)
+            throws GravatarException {
+        return toHashes(pEmails, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Calculate the hashes of many email-addresses. The work is split between
+     * the threads of the given {@link Executor}. The {@link HashCache} is not
+     * used for this, the {@link HashStore} is.
+     *
+     * @param pEmails
+     *            the email addresses to be hashed
+     * @param pExecutor
+     *            the {@link Executor} to run the work on
+     * @return the hashes, 16 bytes per email-address in the order of the
+     *         email-addresses
+     * @throws GravatarException
+     *             If some Character-encoding fails, you will receive a
+     *             {@link GravatarException}.
+     */
+    public static byte[] toHashes(final List<String> pEmails,
+            final Executor pExecutor) throws GravatarException {
+        final String[] emails = pEmails.toArray(new String[0]);
+        final byte[] result = new byte[emails.length * GRAVATAR_DIGEST_LENGTH];
+        final DigestEngine engine = HashAlgorithm.MD5.engine();
+        Batch.process(emails.length, engine, pExecutor,
+                (from, to, digester) -> {
+            if (hashStore != null) {
+                for (int i = from; i < to; i++) {
+                    System.arraycopy(digest(HashAlgorithm.MD5, emails[i],
+                            digester), 0, result, i * GRAVATAR_DIGEST_LENGTH,
+                            GRAVATAR_DIGEST_LENGTH);
+                }
+                return;
+            }
+            final EmailBatch batch = new EmailBatch(to - from);
+            for (int i = from; i < to; i++) {
+                batch.add(emails[i]);
+            }
+            final GravatarListener current = listener;
+            final long start = current == GravatarListener.NOOP ? 0L
+                    : System.nanoTime();
+            batch.digest(MultiLaneMd5.get(), result,
+                    from * GRAVATAR_DIGEST_LENGTH);
+            if (current != GravatarListener.NOOP && to > from) {
+                current.hashed(HashAlgorithm.MD5, to - from,
+                        System.nanoTime() - start);
+            }
+        });
+        return result;
     }
 
     /**
@@ -79,11 +254,41 @@ public final class Gravatar {
      */
     public Gravatar with(final Protocol pProtocol) {
         if (pProtocol != null) {
-            this.protocol = pProtocol;
+            this.spec = spec.with(pProtocol);
         }
         return this;
     }
 
+    /**
+     * Pages with many avatars load them faster from several hosts, as
+     * browsers open only a few HTTP/1.1-connections per host. The host of an
+     * avatar is selected by its hash, so it is always the same.
+     *
+     * @param pHosts
+     *            The {@link Hosts} to spread the URLs over, like
+     *            <code>Hosts.numbered(3)</code>. A <code>null</code>-value
+     *            selects {@link Hosts#DEFAULT}.
+     * @return {@link Gravatar}
+     */
+    public Gravatar with(final Hosts pHosts) {
+        this.spec = spec.with(pHosts);
+        return this;
+    }
+
+    /**
+     * Gravatar accepts MD5- and SHA-256-hashes of the email-address. MD5 is
+     * the default, use {@link HashAlgorithm#SHA256} to switch.
+     *
+     * @param pAlgorithm
+     *            The {@link HashAlgorithm} to hash the email-address with. A
+     *            <code>null</code>-value selects {@link HashAlgorithm#MD5}.
+     * @return {@link Gravatar}
+     */
+    public Gravatar with(final HashAlgorithm pAlgorithm) {
+        this.spec = spec.with(pAlgorithm);
+        return this;
+    }
+
     /**
      * If you may not display any kind of image (like the images could be seen
      * by children) you can set a Rating-level. The information will be
@@ -100,11 +305,7 @@ public final class Gravatar {
      * @return {@link Gravatar}
      */
     public Gravatar with(final Rating pRating) {
-        if (pRating == null) {
-            this.parameters.remove(PARAM_RATING);
-        } else {
-            this.parameters.put(PARAM_RATING, pRating);
-        }
+        this.spec = spec.with(pRating);
         return this;
     }
 
@@ -118,15 +319,7 @@ public final class Gravatar {
      * @return {@link Gravatar}
      */
     public Gravatar size(final Integer pSize) {
-        if (pSize == null) {
-            this.parameters.remove(PARAM_SIZE);
-        } else if (pSize.intValue() < GRAVATAR_SIZE_MIN
-                || pSize.intValue() > GRAVATAR_SIZE_MAX) {
-            throw new IllegalArgumentException(
-                    "size needs to be within 1 and 2048");
-        } else {
-            this.parameters.put(PARAM_SIZE, pSize);
-        }
+        this.spec = spec.withSize(pSize);
         return this;
     }
 
@@ -140,11 +333,7 @@ public final class Gravatar {
      * @return {@link Gravatar}
      */
     public Gravatar defaultImage(final String pUrl) {
-        if (pUrl == null) {
-            this.parameters.remove(PARAM_DEFAULT);
-        } else {
-            this.parameters.put(PARAM_DEFAULT, pUrl);
-        }
+        this.spec = spec.withDefaultImage(pUrl);
         return this;
     }
 
@@ -160,11 +349,7 @@ public final class Gravatar {
      * @return {@link Gravatar}
      */
     public Gravatar defaultImage(final Default pDefaultImage) {
-        if (pDefaultImage == null) {
-            this.parameters.remove(PARAM_DEFAULT);
-        } else {
-            this.parameters.put(PARAM_DEFAULT, pDefaultImage);
-        }
+        this.spec = spec.withDefaultImage(pDefaultImage);
         return this;
     }
 
@@ -177,58 +362,368 @@ public final class Gravatar {
      *             {@link GravatarException}.
      */
     public String toUrl() throws GravatarException {
+        return spec.toUrl(email);
+    }
+
+    /**
+     * Retrieve the <code>srcset</code> of the {@link Gravatar}-image for high
+     * density displays, the email-address is hashed only once. See
+     * {@link GravatarSpec#srcset(double...)}; to render many of them, keep the
+     * {@link GravatarSrcset}.
+     *
+     * @param pDensities
+     *            the pixel densities, like <code>1, 2, 3</code>
+     * @return the URLs with their density descriptors, separated by commas
+     * @throws GravatarException
+     *             If some Character-encoding fails, you will receive a
+     *             {@link GravatarException}.
+     */
+    public String toSrcset(final double... pDensities)
+            throws GravatarException {
+        return spec.srcset(pDensities).srcsetFor(email);
+    }
+
+    /**
+     * The options of this {@link Gravatar} as an immutable
+     * {@link GravatarSpec}. Later changes to this {@link Gravatar} do not
+     * affect the returned {@link GravatarSpec}.
+     *
+     * @return {@link GravatarSpec} with the options of this {@link Gravatar}
+     */
+    public GravatarSpec getSpec() {
+        return spec;
+    }
+
+    /**
+     * Compile the options of this {@link Gravatar} into a
+     * {@link GravatarTemplate}. The template renders the same URL as
+     * {@link #toUrl()} for any email-address, but only needs to calculate the
+     * hash for each one. The email-address of this {@link Gravatar} is not
+     * used, later changes to this {@link Gravatar} do not affect the template.
+     *
+     * @return {@link GravatarTemplate} with the options of this
+     *         {@link Gravatar}
+     * @throws GravatarException
+     *             If some Character-encoding fails, you will receive a
+     *             {@link GravatarException}.
+     */
+    public GravatarTemplate compile() throws GravatarException {
+        return spec.compile();
+    }
+
+    /**
+     * Write the URL of the {@link Gravatar}-image to an {@link Appendable}.
+     * The result is the same as of {@link #toUrl()}, but no intermediate
+     * {@link String}s are created. To render URLs of many email-addresses
+     * without allocating, use
+     * {@link GravatarTemplate#writeUrl(String, Appendable)}.
+     *
+     * @param <A>
+     *            type of the {@link Appendable}
+     * @param pOutput
+     *            the {@link Appendable} to write to
+     * @return the given {@link Appendable}
+     * @throws GravatarException
+     *             If some Character-encoding fails, you will receive a
+     *             {@link GravatarException}.
+     * @throws IOException
+     *             If writing to the {@link Appendable} fails.
+     */
+    public <A extends Appendable> A writeUrl(final A pOutput)
+            throws GravatarException, IOException {
+        final GravatarListener current = listener;
+        if (current == GravatarListener.NOOP) {
+            return write(pOutput);
+        }
+        final long allocated = allocatedBytes(current);
+        final long start = System.nanoTime();
+        write(pOutput);
+        rendered(current, Render.WRITE, 1, spec.length(), start, allocated);
+        return pOutput;
+    }
+
+    private <A extends Appendable> A write(final A pOutput)
+            throws GravatarException, IOException {
+        final String query = spec.query();
         try {
-            return appendParameters(protocol, Gravatar.pureImageUrl(email),
-                    parameters);
+            writeHex(spec.getAlgorithm(), email, spec.prefixes(), pOutput);
         } catch (UnsupportedEncodingException | NoSuchAlgorithmException e) {
             throw new GravatarException(e.getMessage(), e);
         }
+        pOutput.append(query);
+        return pOutput;
     }
 
-    private static String pureImageUrl(final String pEmail)
+    /**
+     * Write the URL of the {@link Gravatar}-image to a {@link StringBuilder},
+     * see {@link #writeUrl(Appendable)}.
+     *
+     * @param pOutput
+     *            the {@link StringBuilder} to write to
+     * @return the given {@link StringBuilder}
+     * @throws GravatarException
+     *             If some Character-encoding fails, you will receive a
+     *             {@link GravatarException}.
+     */
+    public StringBuilder writeUrl(final StringBuilder pOutput)
+            throws GravatarException {
+        try {
+            writeUrl((Appendable) pOutput);
+            return pOutput;
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Write the URL of the {@link Gravatar}-image as ASCII-bytes to a
+     * {@link ByteBuffer}. If the URL does not fit in the remaining bytes, the
+     * {@link ByteBuffer} is left unchanged.
+     *
+     * @param pOutput
+     *            the {@link ByteBuffer} to write to
+     * @return the given {@link ByteBuffer}
+     * @throws GravatarException
+     *             If some Character-encoding fails, you will receive a
+     *             {@link GravatarException}.
+     * @throws java.nio.BufferOverflowException
+     *             If the URL does not fit into the {@link ByteBuffer}.
+     */
+    public ByteBuffer writeUrl(final ByteBuffer pOutput)
+            throws GravatarException {
+        final int length = spec.length();
+        if (pOutput.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        final GravatarListener current = listener;
+        if (current == GravatarListener.NOOP) {
+            return write(pOutput);
+        }
+        final long allocated = allocatedBytes(current);
+        final long start = System.nanoTime();
+        write(pOutput);
+        rendered(current, Render.WRITE, 1, length, start, allocated);
+        return pOutput;
+    }
+
+    private ByteBuffer write(final ByteBuffer pOutput)
+            throws GravatarException {
+        final String query = spec.query();
+        try {
+            writeHex(spec.getAlgorithm(), email, spec.prefixes(), pOutput);
+        } catch (UnsupportedEncodingException | NoSuchAlgorithmException e) {
+            throw new GravatarException(e.getMessage(), e);
+        }
+        writeAscii(query, pOutput);
+        return pOutput;
+    }
+
+    static String hex(final byte[] pArray) {
+        return Hex.encode(pArray);
+    }
+
+    static String gravatarHex(final String pEmail)
             throws NoSuchAlgorithmException, UnsupportedEncodingException {
-        return new StringBuilder().append(GRAVATAR_IMAGE_BASE_URL)
-                .append(gravatarHex(pEmail)).toString();
+        return gravatarHex(HashAlgorithm.MD5, pEmail);
     }
 
-    private static String hex(final byte[] pArray) {
-      final StringBuilder result = new StringBuilder();
-      for (final byte element : pArray) {
-          final int v = element & 0xFF;
-          result.append(HEX_ARRAY[v >>> 4]);
-          result.append(HEX_ARRAY[v & 0x0F]);
-      }
-      return result.toString();
+    static String gravatarHex(final HashAlgorithm pAlgorithm,
+            final String pEmail)
+            throws NoSuchAlgorithmException, UnsupportedEncodingException {
+        final HashCache cache = hashCache;
+        final String key = cache == null ? null
+                : cacheKey(pAlgorithm, EmailNormalizer.normalize(pEmail));
+        if (cache != null) {
+            final String cached = cache.get(key);
+            if (cached != null) {
+                listener.cacheHit(Cache.HASH_CACHE);
+                return cached;
+            }
+            listener.cacheMiss(Cache.HASH_CACHE);
+        }
+        final int length = pAlgorithm.getDigestLength();
+        final char[] hex = new char[length * 2];
+        final DigestEngine engine = pAlgorithm.engine();
+        final Digester digester = engine.acquire();
+        try {
+            Hex.encode(digest(pAlgorithm, pEmail, digester), 0, length, hex,
+                    0);
+        } finally {
+            engine.release(digester);
+        }
+        final String result = new String(hex);
+        if (cache != null) {
+            cache.put(key, result);
+        }
+        return result;
     }
 
-    private static String gravatarHex(final String pEmail)
+    static void gravatarHex(final HashAlgorithm pAlgorithm,
+            final String pEmail, final char[] pOutput, final int pOffset)
             throws NoSuchAlgorithmException, UnsupportedEncodingException {
-        final MessageDigest md = MessageDigest.getInstance("MD5");
-        return hex(md.digest((pEmail == null ? "" : pEmail).trim()
-                .toLowerCase(Locale.getDefault()).getBytes(GRAVATAR_CHARSET)))
-                        .toLowerCase(Locale.getDefault());
-    }
-
-    private static String appendParameters(final Protocol pProtocol,
-            final String pUrl, final Map<String, Object> pParameters)
-            throws UnsupportedEncodingException {
-        final StringBuilder result = new StringBuilder(pProtocol.getPrefix());
-        result.append(pUrl);
-        final Iterator<Entry<String, Object>> iterator = pParameters.entrySet()
-                .iterator();
-        if (iterator.hasNext()) {
-            result.append(pUrl.contains("?") ? "&" : "?");
-            while (iterator.hasNext()) {
-                final Entry<String, Object> entry = iterator.next();
-                result.append(entry.getKey());
-                result.append("=");
-                result.append(URLEncoder.encode(entry.getValue().toString(),
-                        GRAVATAR_CHARSET));
-                if (iterator.hasNext()) {
-                    result.append("&");
-                }
+        final DigestEngine engine = pAlgorithm.engine();
+        final Digester digester = engine.acquire();
+        try {
+            gravatarHex(pAlgorithm, pEmail, pOutput, pOffset, digester);
+        } finally {
+            engine.release(digester);
+        }
+    }
+
+    static void gravatarHex(final HashAlgorithm pAlgorithm,
+            final String pEmail, final char[] pOutput, final int pOffset,
+            final Digester pDigester)
+            throws NoSuchAlgorithmException, UnsupportedEncodingException {
+        if (hashCache != null) {
+            final String hex = gravatarHex(pAlgorithm, pEmail);
+            hex.getChars(0, hex.length(), pOutput, pOffset);
+        } else {
+            Hex.encode(digest(pAlgorithm, pEmail, pDigester), 0,
+                    pAlgorithm.getDigestLength(), pOutput, pOffset);
+        }
+    }
+
+    /**
+     * Write the prefix of the host selected by the hash, followed by the
+     * hash.
+     */
+    static void writeHex(final HashAlgorithm pAlgorithm, final String pEmail,
+            final Prefixes pPrefixes, final Appendable pOutput)
+            throws NoSuchAlgorithmException, UnsupportedEncodingException,
+            IOException {
+        if (hashCache != null) {
+            final String hex = gravatarHex(pAlgorithm, pEmail);
+            pOutput.append(pPrefixes.get(pPrefixes.select(hex))).append(hex);
+            return;
+        }
+        final DigestEngine engine = pAlgorithm.engine();
+        final Digester digester = engine.acquire();
+        try {
+            final byte[] digest = digest(pAlgorithm, pEmail, digester);
+            pOutput.append(pPrefixes.get(pPrefixes.select(digest, 0)));
+            Hex.encode(digest, 0, pAlgorithm.getDigestLength(), pOutput);
+        } finally {
+            engine.release(digester);
+        }
+    }
+
+    static void writeHex(final HashAlgorithm pAlgorithm, final String pEmail,
+            final Prefixes pPrefixes, final ByteBuffer pOutput)
+            throws NoSuchAlgorithmException, UnsupportedEncodingException {
+        if (hashCache != null) {
+            final String hex = gravatarHex(pAlgorithm, pEmail);
+            pOutput.put(pPrefixes.getBytes(pPrefixes.select(hex)));
+            writeAscii(hex, pOutput);
+            return;
+        }
+        final DigestEngine engine = pAlgorithm.engine();
+        final Digester digester = engine.acquire();
+        try {
+            final byte[] digest = digest(pAlgorithm, pEmail, digester);
+            pOutput.put(pPrefixes.getBytes(pPrefixes.select(digest, 0)));
+            Hex.encode(digest, 0, pAlgorithm.getDigestLength(), pOutput);
+        } finally {
+            engine.release(digester);
+        }
+    }
+
+    static void writeAscii(final String pValue, final ByteBuffer pOutput) {
+        for (int i = 0; i < pValue.length(); i++) {
+            pOutput.put((byte) pValue.charAt(i));
+        }
+    }
+
+    private static String cacheKey(final HashAlgorithm pAlgorithm,
+            final String pNormalized) {
+        // a normalized email-address never starts with a control character
+        return pAlgorithm == HashAlgorithm.MD5 ? pNormalized
+                : '\0' + pAlgorithm.getName() + '\0' + pNormalized;
+    }
+
+    private static byte[] digest(final HashAlgorithm pAlgorithm,
+            final String pEmail, final Digester pDigester) {
+        final byte[] buffer = pDigester.buffer(Math.max(GRAVATAR_DIGEST_LENGTH,
+                pEmail == null ? 0 : pEmail.length() * 2));
+        final int length = EmailNormalizer.normalize(pEmail, buffer);
+        final HashStore store = pAlgorithm == HashAlgorithm.MD5 ? hashStore
+                : null;
+        if (store == null) {
+            return hash(pAlgorithm, buffer, length, pDigester);
+        }
+        if (store.get(buffer, 0, length, buffer, 0)) {
+            listener.cacheHit(Cache.HASH_STORE);
+            return buffer;
+        }
+        listener.cacheMiss(Cache.HASH_STORE);
+        final byte[] result = hash(pAlgorithm, buffer, length, pDigester);
+        try {
+            store.put(buffer, 0, length, result, 0);
+        } catch (UncheckedIOException | IllegalStateException e) {
+            // the hash is there, it is just not stored for the next time
+            listener.cacheFailed(Cache.HASH_STORE, e);
+        }
+        return result;
+    }
+
+    private static byte[] hash(final HashAlgorithm pAlgorithm,
+            final byte[] pInput, final int pLength, final Digester pDigester) {
+        final GravatarListener current = listener;
+        if (current == GravatarListener.NOOP) {
+            return pDigester.update(pInput, 0, pLength).digest();
+        }
+        final long start = System.nanoTime();
+        final byte[] result = pDigester.update(pInput, 0, pLength).digest();
+        current.hashed(pAlgorithm, 1, System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * The bytes allocated by the current thread so far, if the
+     * {@link GravatarListener} measures allocations.
+     *
+     * @return allocated bytes or <code>-1</code>
+     */
+    static long allocatedBytes(final GravatarListener pListener) {
+        return pListener.measuresAllocations() ? Allocations.current() : -1L;
+    }
+
+    static void rendered(final GravatarListener pListener,
+            final Render pRender, final int pCount, final int pLength,
+            final long pStart, final long pAllocated) {
+        final long nanos = System.nanoTime() - pStart;
+        pListener.rendered(pRender, pCount, pLength, nanos, pAllocated < 0
+                ? -1L : Allocations.current() - pAllocated);
+    }
+
+    /**
+     * Reads the allocated bytes of the current thread, only loaded if a
+     * {@link GravatarListener} measures allocations.
+     */
+    private static final class Allocations {
+
+        private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+        private Allocations() {
+        }
+
+        static long current() {
+            return THREADS == null ? -1L
+                    : THREADS.getThreadAllocatedBytes(
+                            Thread.currentThread().getId());
+        }
+
+        private static com.sun.management.ThreadMXBean threads() {
+            if (!(ManagementFactory
+                    .getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+                return null;
+            }
+            final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                    .getThreadMXBean();
+            if (!threads.isThreadAllocatedMemorySupported()) {
+                return null;
             }
+            threads.setThreadAllocatedMemoryEnabled(true);
+            return threads;
         }
-        return result.toString();
     }
 }
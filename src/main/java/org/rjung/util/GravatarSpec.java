@@ -0,0 +1,489 @@
+package org.rjung.util;
+
+import java.io.UnsupportedEncodingException;
+import java.security.NoSuchAlgorithmException;
+
+import org.rjung.util.gravatar.Default;
+import org.rjung.util.gravatar.Hosts;
+import org.rjung.util.gravatar.Protocol;
+import org.rjung.util.gravatar.Rating;
+import org.rjung.util.gravatar.hash.EmailNormalizer;
+import org.rjung.util.gravatar.hash.HashAlgorithm;
+import org.rjung.util.gravatar.metrics.GravatarListener;
+import org.rjung.util.gravatar.metrics.GravatarListener.Render;
+
+/**
+ * A {@link GravatarSpec} holds the options of a Gravatar-URL. Unlike the
+ * {@link Gravatar}-builder it is immutable, every <code>with</code>-method
+ * returns a new instance. So a {@link GravatarSpec} can be kept in a constant
+ * and shared between threads:
+ * <code>
+ * static final GravatarSpec AVATAR = GravatarSpec.DEFAULT.with(Protocol.HTTPS).withSize(80);
+ * </code><br>
+ * The query parameters are always rendered in the same order
+ * (<code>r</code>, <code>s</code>, <code>d</code>), so equal specs render
+ * equal URLs.
+ */
+public final class GravatarSpec {
+
+    /**
+     * The {@link GravatarSpec} without any options, using
+     * {@link Protocol#NONE}.
+     */
+    public static final GravatarSpec DEFAULT = new GravatarSpec(
+            Prefixes.of(Protocol.NONE, Hosts.DEFAULT), HashAlgorithm.MD5,
+            null, 0, null);
+
+    private static final int SIZE_MIN = 1;
+    private static final int SIZE_MAX = 2048;
+    private static final int SIZE_DEFAULT = 80;
+    private static final String HEX_DIGITS = "0123456789ABCDEF";
+    private static final String PARAM_DEFAULT = "d";
+    private static final String PARAM_RATING = "r";
+    private static final String PARAM_SIZE = "s";
+
+    // protocol and hosts
+    private final Prefixes prefixes;
+    private final HashAlgorithm algorithm;
+    private final Rating rating;
+    private final int size;
+    private final String defaultImage;
+    private String query;
+
+    private GravatarSpec(final Prefixes pPrefixes,
+            final HashAlgorithm pAlgorithm, final Rating pRating,
+            final int pSize, final String pDefaultImage) {
+        this.prefixes = pPrefixes;
+        this.algorithm = pAlgorithm;
+        this.rating = pRating;
+        this.size = pSize;
+        this.defaultImage = pDefaultImage;
+    }
+
+    /**
+     * Use another {@link Protocol}, see {@link Gravatar#with(Protocol)}.
+     *
+     * @param pProtocol
+     *            One of {@link Protocol#HTTP}, {@link Protocol#HTTPS} and
+     *            {@link Protocol#NONE}. A <code>null</code>-value is the same
+     *            as {@link Protocol#NONE}.
+     * @return {@link GravatarSpec} with the given {@link Protocol}
+     */
+    public GravatarSpec with(final Protocol pProtocol) {
+        final Protocol value = pProtocol == null ? Protocol.NONE : pProtocol;
+        return value == getProtocol() ? this
+                : new GravatarSpec(Prefixes.of(value, getHosts()), algorithm,
+                        rating, size, defaultImage);
+    }
+
+    /**
+     * Spread the URLs over other {@link Hosts}, see
+     * {@link Gravatar#with(Hosts)}.
+     *
+     * @param pHosts
+     *            The {@link Hosts} to load the images from. A
+     *            <code>null</code>-value is the same as {@link Hosts#DEFAULT}.
+     * @return {@link GravatarSpec} with the given {@link Hosts}
+     */
+    public GravatarSpec with(final Hosts pHosts) {
+        final Hosts value = pHosts == null ? Hosts.DEFAULT : pHosts;
+        return value.equals(getHosts()) ? this
+                : new GravatarSpec(Prefixes.of(getProtocol(), value),
+                        algorithm, rating, size, defaultImage);
+    }
+
+    /**
+     * Use another {@link HashAlgorithm}, see
+     * {@link Gravatar#with(HashAlgorithm)}.
+     *
+     * @param pAlgorithm
+     *            The {@link HashAlgorithm} to hash the email-address with. A
+     *            <code>null</code>-value is the same as
+     *            {@link HashAlgorithm#MD5}.
+     * @return {@link GravatarSpec} with the given {@link HashAlgorithm}
+     */
+    public GravatarSpec with(final HashAlgorithm pAlgorithm) {
+        final HashAlgorithm value = pAlgorithm == null ? HashAlgorithm.MD5
+                : pAlgorithm;
+        return value == algorithm ? this
+                : new GravatarSpec(prefixes, value, rating, size,
+                        defaultImage);
+    }
+
+    /**
+     * Use another {@link Rating}, see {@link Gravatar#with(Rating)}.
+     *
+     * @param pRating
+     *            The {@link Rating} to set. A <code>null</code>-value removes
+     *            the definition.
+     * @return {@link GravatarSpec} with the given {@link Rating}
+     */
+    public GravatarSpec with(final Rating pRating) {
+        return pRating == rating ? this
+                : new GravatarSpec(prefixes, algorithm, pRating, size,
+                        defaultImage);
+    }
+
+    /**
+     * Use another size, see {@link Gravatar#size(Integer)}.
+     *
+     * @param pSize
+     *            The size of the image in pixels (1-2048). A <code>null</code>
+     *            -value removes the definition.
+     * @return {@link GravatarSpec} with the given size
+     */
+    public GravatarSpec withSize(final Integer pSize) {
+        if (pSize == null) {
+            return size == 0 ? this
+                    : new GravatarSpec(prefixes, algorithm, rating, 0,
+                            defaultImage);
+        }
+        if (pSize.intValue() < SIZE_MIN || pSize.intValue() > SIZE_MAX) {
+            throw new IllegalArgumentException(
+                    "size needs to be within 1 and 2048");
+        }
+        return pSize.intValue() == size ? this
+                : new GravatarSpec(prefixes, algorithm, rating,
+                        pSize.intValue(), defaultImage);
+    }
+
+    /**
+     * Use the URL of a default-image, see
+     * {@link Gravatar#defaultImage(String)}.
+     *
+     * @param pUrl
+     *            The URL of an image to use if no image is available. A
+     *            <code>null</code>-value removes the definition.
+     * @return {@link GravatarSpec} with the given default-image
+     */
+    public GravatarSpec withDefaultImage(final String pUrl) {
+        return pUrl == null ? withoutDefaultImage()
+                : pUrl.equals(defaultImage) ? this
+                        : new GravatarSpec(prefixes, algorithm, rating, size,
+                                pUrl);
+    }
+
+    /**
+     * Use one of the generated default-images, see
+     * {@link Gravatar#defaultImage(Default)}.
+     *
+     * @param pDefaultImage
+     *            One of the {@link Default}-values. A <code>null</code>-value
+     *            removes the definition.
+     * @return {@link GravatarSpec} with the given default-image
+     */
+    public GravatarSpec withDefaultImage(final Default pDefaultImage) {
+        return pDefaultImage == null ? withoutDefaultImage()
+                : withDefaultImage(pDefaultImage.toString());
+    }
+
+    private GravatarSpec withoutDefaultImage() {
+        return defaultImage == null ? this
+                : new GravatarSpec(prefixes, algorithm, rating, size, null);
+    }
+
+    /**
+     * The {@link Protocol} of the URLs.
+     *
+     * @return {@link Protocol}, never <code>null</code>
+     */
+    public Protocol getProtocol() {
+        return prefixes.getProtocol();
+    }
+
+    /**
+     * The {@link Hosts} the images are loaded from.
+     *
+     * @return {@link Hosts}, never <code>null</code>
+     */
+    public Hosts getHosts() {
+        return prefixes.getHosts();
+    }
+
+    /**
+     * The {@link HashAlgorithm} the email-addresses are hashed with.
+     *
+     * @return {@link HashAlgorithm}, never <code>null</code>
+     */
+    public HashAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * The {@link Rating} of the images.
+     *
+     * @return {@link Rating} or <code>null</code> if not defined
+     */
+    public Rating getRating() {
+        return rating;
+    }
+
+    /**
+     * The size of the images in pixels.
+     *
+     * @return size or <code>0</code> if not defined
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * The default-image, either the URL of an image or the code of a
+     * {@link Default}.
+     *
+     * @return default-image or <code>null</code> if not defined
+     */
+    public String getDefaultImage() {
+        return defaultImage;
+    }
+
+    /**
+     * Retrieve the URL of the {@link Gravatar}-image of an email-address.
+     *
+     * @param pEmail
+     *            the email address to be encoded
+     * @return {@link Gravatar}-image-url
+     * @throws GravatarException
+     *             If some Character-encoding fails, you will receive a
+     *             {@link GravatarException}.
+     */
+    public String toUrl(final String pEmail) throws GravatarException {
+        final GravatarListener listener = Gravatar.getListener();
+        if (listener == GravatarListener.NOOP) {
+            return render(pEmail);
+        }
+        final long allocated = Gravatar.allocatedBytes(listener);
+        final long start = System.nanoTime();
+        final String result = render(pEmail);
+        Gravatar.rendered(listener, Render.URL, 1, result.length(), start,
+                allocated);
+        return result;
+    }
+
+    private String render(final String pEmail) throws GravatarException {
+        final Prefixes urlPrefixes = prefixes();
+        final String suffix = query();
+        final int hash = urlPrefixes.maxLength();
+        final int hashLength = algorithm.getDigestLength() * 2;
+        final char[] result = new char[hash + hashLength + suffix.length()];
+        try {
+            Gravatar.gravatarHex(algorithm, pEmail, result, hash);
+        } catch (UnsupportedEncodingException | NoSuchAlgorithmException e) {
+            throw new GravatarException(e.getMessage(), e);
+        }
+        suffix.getChars(0, suffix.length(), result, hash + hashLength);
+        return urlPrefixes.toUrl(result, hash);
+    }
+
+    /**
+     * Retrieve the URL of the {@link Gravatar}-image of a hash that was
+     * calculated before, e.g. one taken from another URL.
+     *
+     * @param pHash
+     *            the hexadecimal hash of the email-address, as long as the
+     *            hashes of the {@link HashAlgorithm} of this spec;
+     *            upper-case digits are written in lower-case
+     * @return {@link Gravatar}-image-url
+     * @throws GravatarException
+     *             If some Character-encoding fails, you will receive a
+     *             {@link GravatarException}.
+     * @throws IllegalArgumentException
+     *             If the hash has the wrong length or is not hexadecimal.
+     */
+    public String toUrlOfHash(final CharSequence pHash)
+            throws GravatarException {
+        final int hashLength = algorithm.getDigestLength() * 2;
+        if (pHash == null || pHash.length() != hashLength) {
+            throw new IllegalArgumentException(
+                    "hash needs " + hashLength + " hexadecimal digits");
+        }
+        final Prefixes urlPrefixes = prefixes();
+        final String suffix = query();
+        final int hash = urlPrefixes.maxLength();
+        final char[] result = new char[hash + hashLength + suffix.length()];
+        for (int i = 0; i < hashLength; i++) {
+            final char c = pHash.charAt(i);
+            if (c >= 'A' && c <= 'F') {
+                result[hash + i] = (char) (c + 32);
+            } else if (c >= '0' && c <= '9' || c >= 'a' && c <= 'f') {
+                result[hash + i] = c;
+            } else {
+                throw new IllegalArgumentException(
+                        "no hexadecimal digit at " + i);
+            }
+        }
+        suffix.getChars(0, suffix.length(), result, hash + hashLength);
+        return urlPrefixes.toUrl(result, hash);
+    }
+
+    /**
+     * Compile this {@link GravatarSpec} into a {@link GravatarTemplate}.
+     *
+     * @return {@link GravatarTemplate} with the options of this
+     *         {@link GravatarSpec}
+     * @throws GravatarException
+     *             If some Character-encoding fails, you will receive a
+     *             {@link GravatarException}.
+     */
+    public GravatarTemplate compile() throws GravatarException {
+        return new GravatarTemplate(prefixes(), query(), algorithm);
+    }
+
+    /**
+     * Create a {@link GravatarSrcset} for high density displays: the size of
+     * this {@link GravatarSpec} (80 if it is not defined) is multiplied with
+     * every density, the URLs get density descriptors like <code>2x</code>.
+     *
+     * @param pDensities
+     *            the pixel densities, like <code>1, 2, 3</code> or
+     *            <code>1.5</code>
+     * @return {@link GravatarSrcset} with one URL per density
+     * @throws GravatarException
+     *             If some Character-encoding fails, you will receive a
+     *             {@link GravatarException}.
+     * @throws IllegalArgumentException
+     *             If a resulting size is not within 1 and 2048.
+     */
+    public GravatarSrcset srcset(final double... pDensities)
+            throws GravatarException {
+        final int base = size == 0 ? SIZE_DEFAULT : size;
+        final int[] sizes = new int[pDensities.length];
+        final String[] descriptors = new String[pDensities.length];
+        for (int i = 0; i < pDensities.length; i++) {
+            final double density = pDensities[i];
+            if (!(density > 0) || Double.isInfinite(density)) {
+                throw new IllegalArgumentException(
+                        "density needs to be positive");
+            }
+            sizes[i] = (int) Math.min(Integer.MAX_VALUE,
+                    Math.round(base * density));
+            descriptors[i] = (density == Math.rint(density)
+                    ? Long.toString((long) density)
+                    : Double.toString(density)) + 'x';
+        }
+        return new GravatarSrcset(this, sizes, descriptors);
+    }
+
+    /**
+     * Create a {@link GravatarSrcset} for layouts of different widths: the
+     * URLs get width descriptors like <code>80w</code>, the size of this
+     * {@link GravatarSpec} is not used.
+     *
+     * @param pSizes
+     *            the sizes of the images in pixels (1-2048)
+     * @return {@link GravatarSrcset} with one URL per size
+     * @throws GravatarException
+     *             If some Character-encoding fails, you will receive a
+     *             {@link GravatarException}.
+     * @throws IllegalArgumentException
+     *             If a size is not within 1 and 2048.
+     */
+    public GravatarSrcset srcsetWidths(final int... pSizes)
+            throws GravatarException {
+        final String[] descriptors = new String[pSizes.length];
+        for (int i = 0; i < pSizes.length; i++) {
+            descriptors[i] = Integer.toString(pSizes[i]) + 'w';
+        }
+        return new GravatarSrcset(this, pSizes, descriptors);
+    }
+
+    /**
+     * The length of the longest URL, they only differ if the hosts do.
+     */
+    int length() throws GravatarException {
+        return prefixes().maxLength() + algorithm.getDigestLength() * 2
+                + query().length();
+    }
+
+    Prefixes prefixes() {
+        return prefixes;
+    }
+
+    String query() throws GravatarException {
+        String result = query;
+        if (result == null) {
+            final StringBuilder builder = new StringBuilder();
+            if (rating != null) {
+                appendParameter(builder, PARAM_RATING, rating.getCode());
+            }
+            if (size != 0) {
+                appendParameter(builder, PARAM_SIZE, Integer.toString(size));
+            }
+            if (defaultImage != null) {
+                appendParameter(builder, PARAM_DEFAULT, "");
+                urlEncode(defaultImage, builder);
+            }
+            result = builder.toString();
+            query = result;
+        }
+        return result;
+    }
+
+    /**
+     * Append a value like {@link java.net.URLEncoder} does with the
+     * <code>CP1252</code>-charset, without looking up the charset.
+     */
+    private static void urlEncode(final String pValue,
+            final StringBuilder pBuilder) {
+        for (int i = 0; i < pValue.length(); i++) {
+            final char c = pValue.charAt(i);
+            if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z'
+                    || c >= '0' && c <= '9' || c == '.' || c == '-'
+                    || c == '*' || c == '_') {
+                pBuilder.append(c);
+            } else if (c == ' ') {
+                pBuilder.append('+');
+            } else {
+                if (Character.isHighSurrogate(c) && i + 1 < pValue.length()
+                        && Character.isLowSurrogate(pValue.charAt(i + 1))) {
+                    i++;
+                }
+                final int b = EmailNormalizer.encode(c) & 0xFF;
+                pBuilder.append('%').append(HEX_DIGITS.charAt(b >>> 4))
+                        .append(HEX_DIGITS.charAt(b & 0x0F));
+            }
+        }
+    }
+
+    private static void appendParameter(final StringBuilder pBuilder,
+            final String pKey, final String pValue) {
+        pBuilder.append(pBuilder.length() == 0 ? '?' : '&').append(pKey)
+                .append('=').append(pValue);
+    }
+
+    @Override
+    public boolean equals(final Object pOther) {
+        if (this == pOther) {
+            return true;
+        }
+        if (!(pOther instanceof GravatarSpec)) {
+            return false;
+        }
+        final GravatarSpec other = (GravatarSpec) pOther;
+        return getProtocol() == other.getProtocol()
+                && getHosts().equals(other.getHosts())
+                && algorithm.equals(other.algorithm) && rating == other.rating
+                && size == other.size
+                && (defaultImage == null ? other.defaultImage == null
+                        : defaultImage.equals(other.defaultImage));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = getProtocol().ordinal();
+        result = 31 * result + getHosts().hashCode();
+        result = 31 * result + algorithm.getName().hashCode();
+        result = 31 * result + (rating == null ? 0 : rating.ordinal() + 1);
+        result = 31 * result + size;
+        return 31 * result
+                + (defaultImage == null ? 0 : defaultImage.hashCode());
+    }
+
+    @Override
+    public String toString() {
+        return "GravatarSpec[protocol=" + getProtocol() + ", hosts="
+                + getHosts() + ", algorithm=" + algorithm.getName()
+                + ", rating=" + rating
+                + ", size=" + size + ", defaultImage=" + defaultImage + "]";
+    }
+}
@@ -0,0 +1,166 @@
+package org.rjung.util;
+
+import java.io.UnsupportedEncodingException;
+import java.security.NoSuchAlgorithmException;
+
+import org.rjung.util.gravatar.hash.HashAlgorithm;
+import org.rjung.util.gravatar.metrics.GravatarListener;
+import org.rjung.util.gravatar.metrics.GravatarListener.Render;
+
+/**
+ * A {@link GravatarSrcset} renders the URLs of one email-address in several
+ * sizes, e.g. for the <code>srcset</code>-attribute of an
+ * <code>img</code>-element on high density displays:
+ * <code>
+ * GravatarSrcset srcset = GravatarSpec.DEFAULT.withSize(40).srcset(1, 2, 3);
+ * </code><br>
+ * The email-address is hashed once for all sizes and everything but the hash
+ * is rendered when the {@link GravatarSrcset} is created, so the cost of a
+ * <code>srcset</code> is about the cost of a single URL. A
+ * {@link GravatarSrcset} is immutable and can be shared between threads.
+ */
+public final class GravatarSrcset {
+
+    private static final String SEPARATOR = ", ";
+
+    private final Prefixes prefixes;
+    private final HashAlgorithm algorithm;
+    private final int hashLength;
+    private final int[] sizes;
+    private final String[] suffixes;
+    private final String[] descriptors;
+    private final int length;
+
+    GravatarSrcset(final GravatarSpec pSpec, final int[] pSizes,
+            final String[] pDescriptors) throws GravatarException {
+        if (pSizes.length == 0) {
+            throw new IllegalArgumentException("no sizes given");
+        }
+        this.prefixes = pSpec.prefixes();
+        this.algorithm = pSpec.getAlgorithm();
+        this.hashLength = algorithm.getDigestLength() * 2;
+        this.sizes = pSizes.clone();
+        this.suffixes = new String[pSizes.length];
+        this.descriptors = new String[pSizes.length];
+        int total = SEPARATOR.length() * (pSizes.length - 1);
+        for (int i = 0; i < pSizes.length; i++) {
+            // checks the bounds of the size like Gravatar.size(Integer)
+            suffixes[i] = pSpec.withSize(pSizes[i]).query();
+            descriptors[i] = ' ' + pDescriptors[i];
+            total += prefixes.maxLength() + hashLength + suffixes[i].length()
+                    + descriptors[i].length();
+        }
+        this.length = total;
+    }
+
+    /**
+     * The sizes of the images in pixels, in the order of the URLs.
+     *
+     * @return a copy of the sizes
+     */
+    public int[] getSizes() {
+        return sizes.clone();
+    }
+
+    /**
+     * Render the value of a <code>srcset</code>-attribute, the URLs with their
+     * descriptors separated by commas, like
+     * <code>https://...?s=40 1x, https://...?s=80 2x</code>.
+     *
+     * @param pEmail
+     *            the email address to be encoded
+     * @return the <code>srcset</code>
+     * @throws GravatarException
+     *             If some Character-encoding fails, you will receive a
+     *             {@link GravatarException}.
+     */
+    public String srcsetFor(final String pEmail) throws GravatarException {
+        final GravatarListener listener = Gravatar.getListener();
+        if (listener == GravatarListener.NOOP) {
+            return renderSrcset(pEmail);
+        }
+        final long allocated = Gravatar.allocatedBytes(listener);
+        final long start = System.nanoTime();
+        final String result = renderSrcset(pEmail);
+        Gravatar.rendered(listener, Render.URL, sizes.length, length, start,
+                allocated);
+        return result;
+    }
+
+    private String renderSrcset(final String pEmail) throws GravatarException {
+        final char[] result = new char[length];
+        // room for the longest prefix, the hash selects the host
+        final int hash = prefixes.maxLength();
+        hex(pEmail, result, hash);
+        final String prefix = prefixes.get(prefixes.select(result, hash));
+        final int start = hash - prefix.length();
+        prefix.getChars(0, prefix.length(), result, start);
+        int position = hash + hashLength;
+        for (int i = 0; i < sizes.length; i++) {
+            if (i > 0) {
+                SEPARATOR.getChars(0, SEPARATOR.length(), result, position);
+                position += SEPARATOR.length();
+                prefix.getChars(0, prefix.length(), result, position);
+                System.arraycopy(result, hash, result,
+                        position + prefix.length(), hashLength);
+                position += prefix.length() + hashLength;
+            }
+            position = append(suffixes[i], result, position);
+            position = append(descriptors[i], result, position);
+        }
+        return new String(result, start, position - start);
+    }
+
+    /**
+     * Render the URLs of all sizes, without descriptors.
+     *
+     * @param pEmail
+     *            the email address to be encoded
+     * @return the URLs in the order of {@link #getSizes()}
+     * @throws GravatarException
+     *             If some Character-encoding fails, you will receive a
+     *             {@link GravatarException}.
+     */
+    public String[] urlsFor(final String pEmail) throws GravatarException {
+        final GravatarListener listener = Gravatar.getListener();
+        final long allocated = listener == GravatarListener.NOOP ? -1L
+                : Gravatar.allocatedBytes(listener);
+        final long start = listener == GravatarListener.NOOP ? 0L
+                : System.nanoTime();
+        final char[] hex = new char[hashLength];
+        hex(pEmail, hex, 0);
+        final String prefix = prefixes.get(prefixes.select(hex, 0));
+        final String[] result = new String[sizes.length];
+        int total = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            final char[] url = new char[prefix.length() + hashLength
+                    + suffixes[i].length()];
+            prefix.getChars(0, prefix.length(), url, 0);
+            System.arraycopy(hex, 0, url, prefix.length(), hashLength);
+            suffixes[i].getChars(0, suffixes[i].length(), url,
+                    prefix.length() + hashLength);
+            result[i] = new String(url);
+            total += url.length;
+        }
+        if (listener != GravatarListener.NOOP) {
+            Gravatar.rendered(listener, Render.URL, sizes.length, total,
+                    start, allocated);
+        }
+        return result;
+    }
+
+    private void hex(final String pEmail, final char[] pOutput,
+            final int pOffset) throws GravatarException {
+        try {
+            Gravatar.gravatarHex(algorithm, pEmail, pOutput, pOffset);
+        } catch (UnsupportedEncodingException | NoSuchAlgorithmException e) {
+            throw new GravatarException(e.getMessage(), e);
+        }
+    }
+
+    private static int append(final String pValue, final char[] pOutput,
+            final int pPosition) {
+        pValue.getChars(0, pValue.length(), pOutput, pPosition);
+        return pPosition + pValue.length();
+    }
+}
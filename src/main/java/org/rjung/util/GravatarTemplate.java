@@ -0,0 +1,360 @@
+package org.rjung.util;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import org.rjung.util.gravatar.Hosts;
+import org.rjung.util.gravatar.hash.EmailBatch;
+import org.rjung.util.gravatar.hash.HashAlgorithm;
+import org.rjung.util.gravatar.hash.Hex;
+import org.rjung.util.gravatar.hash.MultiLaneMd5;
+import org.rjung.util.gravatar.metrics.GravatarListener;
+import org.rjung.util.gravatar.metrics.GravatarListener.Render;
+
+/**
+ * A {@link GravatarTemplate} renders the URL for any email-address with
+ * options fixed once, like the {@link org.rjung.util.gravatar.Protocol}, the
+ * size or the {@link org.rjung.util.gravatar.Rating}. Everything but the hash
+ * is rendered when the template is compiled, so rendering a URL costs one hash
+ * and one exactly sized buffer.<br>
+ * A {@link GravatarTemplate} is immutable and can be shared between threads:
+ * <code>
+ * GravatarTemplate template = Gravatar.forEmail(null).size(80).compile();
+ * </code>
+ */
+public final class GravatarTemplate {
+
+    private final Prefixes prefixes;
+    private final String suffix;
+    private final HashAlgorithm algorithm;
+    private final int hashLength;
+    private final byte[] suffixBytes;
+
+    GravatarTemplate(final Prefixes pPrefixes, final String pSuffix,
+            final HashAlgorithm pAlgorithm) {
+        this.prefixes = pPrefixes;
+        this.suffix = pSuffix;
+        this.algorithm = pAlgorithm;
+        this.hashLength = pAlgorithm.getDigestLength() * 2;
+        this.suffixBytes = pSuffix.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Retrieve the URL of the {@link Gravatar}-image of an email-address. The
+     * result is the same as of {@link Gravatar#toUrl()} with the options of
+     * this template.
+     *
+     * @param pEmail
+     *            the email address to be encoded
+     * @return {@link Gravatar}-image-url
+     * @throws GravatarException
+     *             If some Character-encoding fails, you will receive a
+     *             {@link GravatarException}.
+     */
+    public String urlFor(final String pEmail) throws GravatarException {
+        final GravatarListener listener = Gravatar.getListener();
+        if (listener == GravatarListener.NOOP) {
+            return render(pEmail);
+        }
+        final long allocated = Gravatar.allocatedBytes(listener);
+        final long start = System.nanoTime();
+        final String result = render(pEmail);
+        Gravatar.rendered(listener, Render.URL, 1, length(), start,
+                allocated);
+        return result;
+    }
+
+    private String render(final String pEmail) throws GravatarException {
+        final char[] result = new char[length()];
+        final int hash = prefixes.maxLength();
+        try {
+            Gravatar.gravatarHex(algorithm, pEmail, result, hash);
+        } catch (UnsupportedEncodingException | NoSuchAlgorithmException e) {
+            throw new GravatarException(e.getMessage(), e);
+        }
+        suffix.getChars(0, suffix.length(), result, hash + hashLength);
+        return prefixes.toUrl(result, hash);
+    }
+
+    /**
+     * Write the URL of the {@link Gravatar}-image of an email-address to an
+     * {@link Appendable}. Unless a {@link org.rjung.util.gravatar.cache.HashCache}
+     * is set, this does not allocate any objects for ASCII email-addresses.
+     *
+     * @param <A>
+     *            type of the {@link Appendable}
+     * @param pEmail
+     *            the email address to be encoded
+     * @param pOutput
+     *            the {@link Appendable} to write to
+     * @return the given {@link Appendable}
+     * @throws GravatarException
+     *             If some Character-encoding fails, you will receive a
+     *             {@link GravatarException}.
+     * @throws IOException
+     *             If writing to the {@link Appendable} fails.
+     */
+    public <A extends Appendable> A writeUrl(final String pEmail,
+            final A pOutput) throws GravatarException, IOException {
+        final GravatarListener listener = Gravatar.getListener();
+        if (listener == GravatarListener.NOOP) {
+            return write(pEmail, pOutput);
+        }
+        final long allocated = Gravatar.allocatedBytes(listener);
+        final long start = System.nanoTime();
+        write(pEmail, pOutput);
+        Gravatar.rendered(listener, Render.WRITE, 1, length(), start,
+                allocated);
+        return pOutput;
+    }
+
+    private <A extends Appendable> A write(final String pEmail,
+            final A pOutput) throws GravatarException, IOException {
+        try {
+            Gravatar.writeHex(algorithm, pEmail, prefixes, pOutput);
+        } catch (UnsupportedEncodingException | NoSuchAlgorithmException e) {
+            throw new GravatarException(e.getMessage(), e);
+        }
+        pOutput.append(suffix);
+        return pOutput;
+    }
+
+    /**
+     * Write the URL of the {@link Gravatar}-image of an email-address to a
+     * {@link StringBuilder}, see {@link #writeUrl(String, Appendable)}.
+     *
+     * @param pEmail
+     *            the email address to be encoded
+     * @param pOutput
+     *            the {@link StringBuilder} to write to
+     * @return the given {@link StringBuilder}
+     * @throws GravatarException
+     *             If some Character-encoding fails, you will receive a
+     *             {@link GravatarException}.
+     */
+    public StringBuilder writeUrl(final String pEmail,
+            final StringBuilder pOutput) throws GravatarException {
+        try {
+            writeUrl(pEmail, (Appendable) pOutput);
+            return pOutput;
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Write the URL of the {@link Gravatar}-image of an email-address as
+     * ASCII-bytes to a {@link ByteBuffer}. Unless a
+     * {@link org.rjung.util.gravatar.cache.HashCache} is set, this does not
+     * allocate any objects for ASCII email-addresses. If the URL does not fit
+     * in the remaining bytes, the {@link ByteBuffer} is left unchanged.
+     *
+     * @param pEmail
+     *            the email address to be encoded
+     * @param pOutput
+     *            the {@link ByteBuffer} to write to
+     * @return the given {@link ByteBuffer}
+     * @throws GravatarException
+     *             If some Character-encoding fails, you will receive a
+     *             {@link GravatarException}.
+     * @throws java.nio.BufferOverflowException
+     *             If the URL does not fit into the {@link ByteBuffer}.
+     */
+    public ByteBuffer writeUrl(final String pEmail, final ByteBuffer pOutput)
+            throws GravatarException {
+        if (pOutput.remaining() < length()) {
+            throw new BufferOverflowException();
+        }
+        final GravatarListener listener = Gravatar.getListener();
+        if (listener == GravatarListener.NOOP) {
+            return write(pEmail, pOutput);
+        }
+        final long allocated = Gravatar.allocatedBytes(listener);
+        final long start = System.nanoTime();
+        write(pEmail, pOutput);
+        Gravatar.rendered(listener, Render.WRITE, 1, length(), start,
+                allocated);
+        return pOutput;
+    }
+
+    private ByteBuffer write(final String pEmail, final ByteBuffer pOutput)
+            throws GravatarException {
+        try {
+            Gravatar.writeHex(algorithm, pEmail, prefixes, pOutput);
+        } catch (UnsupportedEncodingException | NoSuchAlgorithmException e) {
+            throw new GravatarException(e.getMessage(), e);
+        }
+        pOutput.put(suffixBytes);
+        return pOutput;
+    }
+
+    /**
+     * The length of the URLs rendered by this template. If the
+     * {@link Hosts} differ in length, this is the length of the longest URL.
+     *
+     * @return length of the URLs in chars
+     */
+    public int length() {
+        return prefixes.maxLength() + hashLength + suffix.length();
+    }
+
+    /**
+     * Create a {@link GravatarTemplate} with the same options, but another
+     * {@link HashAlgorithm}.
+     *
+     * @param pAlgorithm
+     *            The {@link HashAlgorithm} to hash the email-addresses with. A
+     *            <code>null</code>-value selects {@link HashAlgorithm#MD5}.
+     * @return {@link GravatarTemplate} with the given {@link HashAlgorithm}
+     */
+    public GravatarTemplate with(final HashAlgorithm pAlgorithm) {
+        final HashAlgorithm value = pAlgorithm == null ? HashAlgorithm.MD5
+                : pAlgorithm;
+        return value == algorithm ? this
+                : new GravatarTemplate(prefixes, suffix, value);
+    }
+
+    /**
+     * Retrieve the URLs for a list of email-addresses. The work is split
+     * between the threads of the {@link ForkJoinPool#commonPool()}.
+     *
+     * @param pEmails
+     *            the email addresses to be encoded
+     * @return the {@link Gravatar}-image-urls in the order of the
+     *         email-addresses
+     * @throws GravatarException
+     *             If some Character-encoding fails, you will receive a
+     *             {@link GravatarException}.
+     */
+    public List<String> urlsFor(final List<String> pEmails)
+            throws GravatarException {
+        return urlsFor(pEmails, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Retrieve the URLs for a list of email-addresses. The work is split
+     * between the threads of the given {@link Executor}.
+     *
+     * @param pEmails
+     *            the email addresses to be encoded
+     * @param pExecutor
+     *            the {@link Executor} to run the work on
+     * @return the {@link Gravatar}-image-urls in the order of the
+     *         email-addresses
+     * @throws GravatarException
+     *             If some Character-encoding fails, you will receive a
+     *             {@link GravatarException}.
+     */
+    public List<String> urlsFor(final List<String> pEmails,
+            final Executor pExecutor) throws GravatarException {
+        final String[] emails = pEmails.toArray(new String[0]);
+        final String[] result = new String[emails.length];
+        final GravatarListener listener = Gravatar.getListener();
+        final long start = listener == GravatarListener.NOOP ? 0L
+                : System.nanoTime();
+        Batch.process(emails.length, algorithm.engine(), pExecutor,
+                (from, to, digester) -> {
+            final char[] url = new char[length()];
+            final int hash = prefixes.maxLength();
+            suffix.getChars(0, suffix.length(), url, hash + hashLength);
+            if (algorithm != HashAlgorithm.MD5
+                    || Gravatar.getHashCache() != null
+                    || Gravatar.getHashStore() != null) {
+                for (int i = from; i < to; i++) {
+                    Gravatar.gravatarHex(algorithm, emails[i], url, hash,
+                            digester);
+                    result[i] = prefixes.toUrl(url, hash);
+                }
+                return;
+            }
+            final EmailBatch batch = new EmailBatch(to - from);
+            for (int i = from; i < to; i++) {
+                batch.add(emails[i]);
+            }
+            final byte[] digests = new byte[batch.size()
+                    * Gravatar.GRAVATAR_DIGEST_LENGTH];
+            final long hashStart = listener == GravatarListener.NOOP ? 0L
+                    : System.nanoTime();
+            batch.digest(MultiLaneMd5.get(), digests, 0);
+            if (listener != GravatarListener.NOOP && batch.size() > 0) {
+                listener.hashed(algorithm, batch.size(),
+                        System.nanoTime() - hashStart);
+            }
+            for (int i = from; i < to; i++) {
+                Hex.encode(digests, (i - from)
+                        * Gravatar.GRAVATAR_DIGEST_LENGTH,
+                        Gravatar.GRAVATAR_DIGEST_LENGTH, url, hash);
+                result[i] = prefixes.toUrl(url, hash);
+            }
+        });
+        if (listener != GravatarListener.NOOP && emails.length > 0) {
+            Gravatar.rendered(listener, Render.BATCH, emails.length,
+                    emails.length * length(), start, -1L);
+        }
+        return Arrays.asList(result);
+    }
+
+    /**
+     * The part of the URL in front of the hash, including the protocol and the
+     * host. With several {@link Hosts} this is the prefix of the first, see
+     * {@link #getPrefix(int)}.
+     *
+     * @return prefix of the URLs
+     */
+    public String getPrefix() {
+        return prefixes.get(0);
+    }
+
+    /**
+     * The part of the URL in front of the hash for one of the {@link Hosts}.
+     *
+     * @param pHost
+     *            index of the host, see {@link Hosts#select(byte[], int)}
+     * @return prefix of the URLs of the host
+     */
+    public String getPrefix(final int pHost) {
+        return prefixes.get(pHost);
+    }
+
+    /**
+     * The {@link Hosts} the URLs are spread over.
+     *
+     * @return {@link Hosts}
+     */
+    public Hosts getHosts() {
+        return prefixes.getHosts();
+    }
+
+    /**
+     * The {@link HashAlgorithm} the email-addresses are hashed with.
+     *
+     * @return {@link HashAlgorithm}
+     */
+    public HashAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * The part of the URL after the hash, this is the encoded query including
+     * the <code>?</code>, or an empty {@link String} if there are no
+     * parameters.
+     *
+     * @return suffix of the URLs
+     */
+    public String getSuffix() {
+        return suffix;
+    }
+
+    @Override
+    public String toString() {
+        return prefixes + "{hash}" + suffix;
+    }
+}
@@ -0,0 +1,129 @@
+package org.rjung.util;
+
+import java.nio.charset.StandardCharsets;
+
+import org.rjung.util.gravatar.Hosts;
+import org.rjung.util.gravatar.Protocol;
+
+/**
+ * The parts of the URLs in front of the hash, one for each of the
+ * {@link Hosts}. As the host depends on the hash, a URL is rendered with
+ * room for the longest prefix in front of the hash, the prefix of the
+ * selected host is written right before it.
+ */
+final class Prefixes {
+
+    private static final String PATH = "/avatar/";
+    private static final Prefixes[] DEFAULTS = new Prefixes[Protocol
+            .values().length];
+
+    static {
+        for (final Protocol protocol : Protocol.values()) {
+            DEFAULTS[protocol.ordinal()] = new Prefixes(protocol,
+                    Hosts.DEFAULT);
+        }
+    }
+
+    private final Protocol protocol;
+    private final Hosts hosts;
+    private final String[] values;
+    private final byte[][] bytes;
+    private final int maxLength;
+
+    private Prefixes(final Protocol pProtocol, final Hosts pHosts) {
+        this.protocol = pProtocol;
+        this.hosts = pHosts;
+        this.values = new String[pHosts.size()];
+        this.bytes = new byte[pHosts.size()][];
+        int max = 0;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = pProtocol.getPrefix() + pHosts.get(i) + PATH;
+            bytes[i] = values[i].getBytes(StandardCharsets.US_ASCII);
+            max = Math.max(max, values[i].length());
+        }
+        this.maxLength = max;
+    }
+
+    static Prefixes of(final Protocol pProtocol, final Hosts pHosts) {
+        return pHosts.equals(Hosts.DEFAULT) ? DEFAULTS[pProtocol.ordinal()]
+                : new Prefixes(pProtocol, pHosts);
+    }
+
+    Protocol getProtocol() {
+        return protocol;
+    }
+
+    Hosts getHosts() {
+        return hosts;
+    }
+
+    String get(final int pHost) {
+        return values[pHost];
+    }
+
+    byte[] getBytes(final int pHost) {
+        return bytes[pHost];
+    }
+
+    int maxLength() {
+        return maxLength;
+    }
+
+    int select(final byte[] pDigest, final int pOffset) {
+        return hosts.select(pDigest, pOffset);
+    }
+
+    int select(final CharSequence pHex) {
+        if (values.length == 1) {
+            return 0;
+        }
+        int bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits = bits << 4 | digit(pHex.charAt(i));
+        }
+        return hosts.select(bits);
+    }
+
+    int select(final char[] pHex, final int pOffset) {
+        if (values.length == 1) {
+            return 0;
+        }
+        int bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits = bits << 4 | digit(pHex[pOffset + i]);
+        }
+        return hosts.select(bits);
+    }
+
+    /**
+     * The value of a lower-case hex digit, as written by
+     * {@link org.rjung.util.gravatar.hash.Hex}.
+     */
+    private static int digit(final char pDigit) {
+        return pDigit <= '9' ? pDigit - '0' : pDigit - 'a' + 10;
+    }
+
+    /**
+     * Write the prefix selected by the hash in front of it and take the URL
+     * from there.
+     *
+     * @param pUrl
+     *            the URL with {@link #maxLength()} chars of room in front of
+     *            the hash
+     * @param pHash
+     *            position of the hex-encoded hash in <code>pUrl</code>
+     * @return the URL
+     */
+    String toUrl(final char[] pUrl, final int pHash) {
+        final String prefix = values[select(pUrl, pHash)];
+        final int start = pHash - prefix.length();
+        prefix.getChars(0, prefix.length(), pUrl, start);
+        return new String(pUrl, start, pUrl.length - start);
+    }
+
+    @Override
+    public String toString() {
+        return values.length == 1 ? values[0]
+                : protocol.getPrefix() + "{" + hosts + "}" + PATH;
+    }
+}
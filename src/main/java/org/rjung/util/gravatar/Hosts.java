@@ -0,0 +1,168 @@
+package org.rjung.util.gravatar;
+
+import java.util.Arrays;
+
+/**
+ * The hostnames the Gravatar-images are loaded from. By default every URL
+ * points to <code>s.gravatar.com</code>. A browser talking HTTP/1.1 opens
+ * only a few connections per host, so a page with hundreds of avatars loads
+ * them faster from several hosts, like <code>0.gravatar.com</code>,
+ * <code>1.gravatar.com</code> and <code>2.gravatar.com</code>.<br>
+ * The host of an avatar is taken from the first 32 bits of its hash, so an
+ * email-address always gets the same host and its image stays in the cache
+ * of the browser. The hosts are spread evenly over all hashes.
+ */
+public final class Hosts {
+
+    /**
+     * The single host <code>s.gravatar.com</code>.
+     */
+    public static final Hosts DEFAULT = new Hosts(
+            new String[] { "s.gravatar.com" });
+
+    private static final String GRAVATAR_DOMAIN = ".gravatar.com";
+
+    private final String[] names;
+
+    private Hosts(final String[] pNames) {
+        this.names = pNames;
+    }
+
+    /**
+     * Spread the URLs over the given hosts.
+     *
+     * @param pNames
+     *            the hostnames, like <code>secure.gravatar.com</code>; the
+     *            order matters, as it decides which avatar goes to which host
+     * @return {@link Hosts}
+     * @throws IllegalArgumentException
+     *             If there is no host, a host is given twice or contains
+     *             other characters than letters, digits, <code>.</code> and
+     *             <code>-</code>.
+     */
+    public static Hosts of(final String... pNames) {
+        if (pNames == null || pNames.length == 0) {
+            throw new IllegalArgumentException("at least one host is needed");
+        }
+        final String[] names = new String[pNames.length];
+        for (int i = 0; i < pNames.length; i++) {
+            names[i] = lowerCase(pNames[i]);
+            for (int j = 0; j < i; j++) {
+                if (names[j].equals(names[i])) {
+                    throw new IllegalArgumentException(
+                            "host " + names[i] + " is given twice");
+                }
+            }
+        }
+        return names.length == 1 && names[0].equals(DEFAULT.names[0])
+                ? DEFAULT
+                : new Hosts(names);
+    }
+
+    /**
+     * Spread the URLs over the numbered hosts of Gravatar,
+     * <code>0.gravatar.com</code> to <code>{pCount - 1}.gravatar.com</code>.
+     *
+     * @param pCount
+     *            number of hosts, Gravatar has three
+     * @return {@link Hosts}
+     */
+    public static Hosts numbered(final int pCount) {
+        if (pCount < 1) {
+            throw new IllegalArgumentException(
+                    "number of hosts needs to be positive");
+        }
+        final String[] names = new String[pCount];
+        for (int i = 0; i < pCount; i++) {
+            names[i] = i + GRAVATAR_DOMAIN;
+        }
+        return new Hosts(names);
+    }
+
+    /**
+     * The number of hosts.
+     *
+     * @return number of hosts
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * One of the hostnames.
+     *
+     * @param pIndex
+     *            index of the host, as returned by {@link #select(int)}
+     * @return hostname
+     */
+    public String get(final int pIndex) {
+        return names[pIndex];
+    }
+
+    /**
+     * Select the host for a hash.
+     *
+     * @param pBits
+     *            the first 32 bits of the hash, big-endian
+     * @return index of the host
+     */
+    public int select(final int pBits) {
+        // scale instead of a modulo, every host gets an equal share
+        return (int) ((pBits & 0xFFFFFFFFL) * names.length >>> 32);
+    }
+
+    /**
+     * Select the host for a hash.
+     *
+     * @param pDigest
+     *            array containing the hash
+     * @param pOffset
+     *            position of the hash in <code>pDigest</code>
+     * @return index of the host
+     */
+    public int select(final byte[] pDigest, final int pOffset) {
+        if (names.length == 1) {
+            return 0;
+        }
+        return select((pDigest[pOffset] & 0xFF) << 24
+                | (pDigest[pOffset + 1] & 0xFF) << 16
+                | (pDigest[pOffset + 2] & 0xFF) << 8
+                | pDigest[pOffset + 3] & 0xFF);
+    }
+
+    private static String lowerCase(final String pName) {
+        if (pName == null || pName.isEmpty()) {
+            throw new IllegalArgumentException("host must not be empty");
+        }
+        final char[] result = new char[pName.length()];
+        for (int i = 0; i < result.length; i++) {
+            final char c = pName.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                result[i] = (char) (c + 32);
+            } else if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9'
+                    || c == '.' || c == '-') {
+                result[i] = c;
+            } else {
+                throw new IllegalArgumentException(
+                        "invalid character in host " + pName);
+            }
+        }
+        return new String(result);
+    }
+
+    @Override
+    public boolean equals(final Object pOther) {
+        return this == pOther || pOther instanceof Hosts
+                && Arrays.equals(names, ((Hosts) pOther).names);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(names);
+    }
+
+    @Override
+    public String toString() {
+        return String.join(",", names);
+    }
+}
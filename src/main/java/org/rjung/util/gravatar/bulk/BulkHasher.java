@@ -0,0 +1,457 @@
+package org.rjung.util.gravatar.bulk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.rjung.util.Gravatar;
+import org.rjung.util.GravatarException;
+import org.rjung.util.GravatarTemplate;
+import org.rjung.util.gravatar.Default;
+import org.rjung.util.gravatar.Hosts;
+import org.rjung.util.gravatar.Protocol;
+import org.rjung.util.gravatar.Rating;
+import org.rjung.util.gravatar.hash.DigestEngine;
+import org.rjung.util.gravatar.hash.Digester;
+import org.rjung.util.gravatar.hash.EmailBatch;
+import org.rjung.util.gravatar.hash.HashAlgorithm;
+import org.rjung.util.gravatar.hash.Hex;
+import org.rjung.util.gravatar.hash.MultiLaneMd5;
+
+/**
+ * {@link BulkHasher} reads a file with one email-address per line and writes
+ * a row <code>email,hash,url</code> for each non-empty line.<br>
+ * The input is memory-mapped in chunks that end on a line boundary. The chunks
+ * are hashed in parallel straight from their bytes, without creating a
+ * {@link String} per line for ASCII email-addresses. The lines of a chunk are
+ * hashed in batches, by {@link MultiLaneMd5#get()} for
+ * {@link HashAlgorithm#MD5}, one after the other for other algorithms. The rows are written in
+ * the order of the input. Only a few chunks are processed at a time, so the
+ * memory needed does not grow with the size of the file.
+ *
+ * <pre>
+ * new BulkHasher(Gravatar.forEmail(null).with(Protocol.HTTPS).compile())
+ *         .parallelism(4).run(Paths.get("emails.txt"), Paths.get("out.csv"));
+ * </pre>
+ */
+public final class BulkHasher {
+
+    private static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+    private static final int SCAN_SIZE = 256;
+    private static final int LINES_PER_BATCH = 256;
+
+    private final Hosts hosts;
+    private final byte[][] prefixes;
+    private final byte[] suffix;
+    private final HashAlgorithm algorithm;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private Charset charset = StandardCharsets.UTF_8;
+
+    /**
+     * Create a {@link BulkHasher} that renders the URLs with the given
+     * {@link GravatarTemplate}.
+     *
+     * @param pTemplate
+     *            the {@link GravatarTemplate} to render the URLs with
+     */
+    public BulkHasher(final GravatarTemplate pTemplate) {
+        this.hosts = pTemplate.getHosts();
+        this.prefixes = new byte[hosts.size()][];
+        for (int i = 0; i < prefixes.length; i++) {
+            prefixes[i] = pTemplate.getPrefix(i)
+                    .getBytes(StandardCharsets.US_ASCII);
+        }
+        this.suffix = pTemplate.getSuffix().getBytes(StandardCharsets.US_ASCII);
+        this.algorithm = pTemplate.getAlgorithm();
+    }
+
+    /**
+     * Set the number of threads hashing the input. The default is the number
+     * of available processors.
+     *
+     * @param pParallelism
+     *            number of threads
+     * @return {@link BulkHasher}
+     */
+    public BulkHasher parallelism(final int pParallelism) {
+        if (pParallelism < 1) {
+            throw new IllegalArgumentException(
+                    "parallelism needs to be positive");
+        }
+        this.parallelism = pParallelism;
+        return this;
+    }
+
+    /**
+     * Set the number of bytes of the input processed in one piece. The
+     * default is 4 MiB.
+     *
+     * @param pChunkSize
+     *            size of the chunks in bytes
+     * @return {@link BulkHasher}
+     */
+    public BulkHasher chunkSize(final int pChunkSize) {
+        if (pChunkSize < 1) {
+            throw new IllegalArgumentException(
+                    "chunk size needs to be positive");
+        }
+        this.chunkSize = pChunkSize;
+        return this;
+    }
+
+    /**
+     * Set the {@link Charset} of the input file. It is only needed for lines
+     * that are not pure ASCII, the default is UTF-8. The email-addresses are
+     * written to the output as they are in the input.
+     *
+     * @param pCharset
+     *            {@link Charset} of the input
+     * @return {@link BulkHasher}
+     */
+    public BulkHasher charset(final Charset pCharset) {
+        if (pCharset == null) {
+            throw new IllegalArgumentException("charset is required");
+        }
+        this.charset = pCharset;
+        return this;
+    }
+
+    /**
+     * Hash all email-addresses of the input and write the rows to the output.
+     * An existing output file is replaced.
+     *
+     * @param pInput
+     *            file with one email-address per line
+     * @param pOutput
+     *            file to write the rows to
+     * @return the number of rows written
+     * @throws IOException
+     *             If reading or writing fails.
+     */
+    public long run(final Path pInput, final Path pOutput) throws IOException {
+        final int window = parallelism * 2;
+        final BlockingQueue<ByteBuffer> buffers = new ArrayBlockingQueue<ByteBuffer>(
+                window + 1);
+        final ExecutorService workers = Executors
+                .newFixedThreadPool(parallelism);
+        try (FileChannel input = FileChannel.open(pInput,
+                StandardOpenOption.READ);
+                FileChannel output = FileChannel.open(pOutput,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            final Deque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+            final long size = input.size();
+            long rows = 0;
+            long position = 0;
+            while (position < size) {
+                final long end = lineEnd(input,
+                        Math.min(position + chunkSize, size), size);
+                pending.add(workers.submit(
+                        new ChunkTask(buffers, input, position, end)));
+                position = end;
+                if (pending.size() >= window) {
+                    rows += write(pending.poll(), output, buffers);
+                }
+            }
+            while (!pending.isEmpty()) {
+                rows += write(pending.poll(), output, buffers);
+            }
+            output.force(false);
+            return rows;
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private static long lineEnd(final FileChannel pInput, final long pFrom,
+            final long pSize) throws IOException {
+        final ByteBuffer scan = ByteBuffer.allocate(SCAN_SIZE);
+        long position = pFrom;
+        while (position < pSize) {
+            scan.clear();
+            final int read = pInput.read(scan, position);
+            if (read < 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (scan.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return pSize;
+    }
+
+    private static long write(final Future<Chunk> pChunk,
+            final FileChannel pOutput, final BlockingQueue<ByteBuffer> pBuffers)
+            throws IOException {
+        final Chunk chunk;
+        try {
+            chunk = pChunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        final ByteBuffer buffer = chunk.output;
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            pOutput.write(buffer);
+        }
+        buffer.clear();
+        pBuffers.offer(buffer);
+        return chunk.rows;
+    }
+
+    private static final class Chunk {
+        final ByteBuffer output;
+        final long rows;
+
+        Chunk(final ByteBuffer pOutput, final long pRows) {
+            this.output = pOutput;
+            this.rows = pRows;
+        }
+    }
+
+    private final class ChunkTask implements Callable<Chunk> {
+
+        private final BlockingQueue<ByteBuffer> buffers;
+        private final FileChannel input;
+        private final long from;
+        private final long to;
+        private final EmailBatch batch = new EmailBatch(LINES_PER_BATCH);
+        private final int[] starts = new int[LINES_PER_BATCH];
+        private final int[] ends = new int[LINES_PER_BATCH];
+        private final int digestLength = algorithm.getDigestLength();
+        private final byte[] digests = new byte[LINES_PER_BATCH
+                * digestLength];
+        private final byte[] hex = new byte[digestLength * 2];
+        private byte[] line = new byte[256];
+        private ByteBuffer output;
+
+        ChunkTask(final BlockingQueue<ByteBuffer> pBuffers,
+                final FileChannel pInput, final long pFrom, final long pTo) {
+            this.buffers = pBuffers;
+            this.input = pInput;
+            this.from = pFrom;
+            this.to = pTo;
+        }
+
+        @Override
+        public Chunk call() throws IOException {
+            final MappedByteBuffer map = input.map(FileChannel.MapMode.READ_ONLY,
+                    from, to - from);
+            final ByteBuffer buffer = buffers.poll();
+            output = buffer == null ? ByteBuffer.allocate(chunkSize * 2)
+                    : buffer;
+            long rows = 0;
+            final int limit = map.limit();
+            int start = 0;
+            for (int i = 0; i <= limit; i++) {
+                if (i == limit || map.get(i) == '\n') {
+                    if (line(map, start, i)) {
+                        rows++;
+                    }
+                    if (batch.size() == LINES_PER_BATCH) {
+                        flush(map);
+                    }
+                    start = i + 1;
+                }
+            }
+            flush(map);
+            return new Chunk(output, rows);
+        }
+
+        private boolean line(final ByteBuffer pMap, final int pFrom,
+                final int pTo) {
+            int start = pFrom;
+            int end = pTo;
+            while (start < end && (pMap.get(start) & 0xFF) <= ' ') {
+                start++;
+            }
+            while (end > start && (pMap.get(end - 1) & 0xFF) <= ' ') {
+                end--;
+            }
+            final int length = end - start;
+            if (length == 0) {
+                return false;
+            }
+            read(pMap, start, length);
+            starts[batch.size()] = start;
+            ends[batch.size()] = end;
+            if (!batch.addAscii(line, 0, length)) {
+                batch.add(new String(line, 0, length, charset));
+            }
+            return true;
+        }
+
+        private void flush(final ByteBuffer pMap) {
+            if (algorithm == HashAlgorithm.MD5) {
+                batch.digest(MultiLaneMd5.get(), digests, 0);
+            } else {
+                final DigestEngine engine = algorithm.engine();
+                final Digester digester = engine.acquire();
+                try {
+                    batch.digest(digester, digests, 0);
+                } finally {
+                    engine.release(digester);
+                }
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                final int length = ends[i] - starts[i];
+                read(pMap, starts[i], length);
+                Hex.encode(digests, i * digestLength, digestLength, hex, 0);
+                final byte[] prefix = prefixes[hosts.select(digests,
+                        i * digestLength)];
+                ensureCapacity(length * 2 + 2 * hex.length + prefix.length
+                        + suffix.length + 5);
+                writeEmail(length);
+                output.put((byte) ',').put(hex).put((byte) ',').put(prefix)
+                        .put(hex).put(suffix).put((byte) '\n');
+            }
+            batch.clear();
+        }
+
+        private void read(final ByteBuffer pMap, final int pFrom,
+                final int pLength) {
+            if (line.length < pLength) {
+                line = new byte[Integer.highestOneBit(pLength) << 1];
+            }
+            pMap.position(pFrom);
+            pMap.get(line, 0, pLength);
+        }
+
+        private void writeEmail(final int pLength) {
+            boolean quote = false;
+            for (int i = 0; i < pLength && !quote; i++) {
+                quote = line[i] == ',' || line[i] == '"';
+            }
+            if (!quote) {
+                output.put(line, 0, pLength);
+                return;
+            }
+            output.put((byte) '"');
+            for (int i = 0; i < pLength; i++) {
+                if (line[i] == '"') {
+                    output.put((byte) '"');
+                }
+                output.put(line[i]);
+            }
+            output.put((byte) '"');
+        }
+
+        private void ensureCapacity(final int pBytes) {
+            if (output.remaining() < pBytes) {
+                final ByteBuffer grown = ByteBuffer.allocate(
+                        Math.max(output.capacity() * 2,
+                                output.position() + pBytes));
+                output.flip();
+                grown.put(output);
+                output = grown;
+            }
+        }
+    }
+
+    /**
+     * Hash a file from the command line:<br>
+     * <code>java -jar gravatar.jar input.txt output.csv [options]</code><br>
+     * Options are <code>--protocol http|https|none</code>,
+     * <code>--size 1-2048</code>, <code>--rating g|pg|r|x</code>,
+     * <code>--default &lt;Default|url&gt;</code>,
+     * <code>--algorithm md5|sha256</code>, <code>--hosts host,host,..</code>,
+     * <code>--threads n</code> and
+     * <code>--charset name</code>.
+     *
+     * @param pArgs
+     *            the command line arguments
+     * @throws IOException
+     *             If reading or writing fails.
+     * @throws GravatarException
+     *             If the options can not be rendered.
+     */
+    public static void main(final String[] pArgs)
+            throws IOException, GravatarException {
+        if (pArgs.length < 2 || pArgs.length % 2 != 0) {
+            System.err.println("usage: BulkHasher <input> <output>"
+                    + " [--protocol http|https|none] [--size n]"
+                    + " [--rating g|pg|r|x] [--default default|url]"
+                    + " [--algorithm md5|sha256] [--hosts host,host,..]"
+                    + " [--threads n] [--charset name]");
+            System.exit(1);
+            return;
+        }
+        final Gravatar options = Gravatar.forEmail(null);
+        Integer threads = null;
+        Charset charset = null;
+        for (int i = 2; i < pArgs.length; i += 2) {
+            final String value = pArgs[i + 1];
+            if ("--protocol".equals(pArgs[i])) {
+                options.with(Protocol.valueOf(value.toUpperCase()));
+            } else if ("--size".equals(pArgs[i])) {
+                options.size(Integer.valueOf(value));
+            } else if ("--rating".equals(pArgs[i])) {
+                options.with(Rating.valueOf(value.toUpperCase()));
+            } else if ("--default".equals(pArgs[i])) {
+                options.defaultImage(value);
+                for (final Default defaultImage : Default.values()) {
+                    if (defaultImage.toString().equals(value)) {
+                        options.defaultImage(defaultImage);
+                    }
+                }
+            } else if ("--algorithm".equals(pArgs[i])) {
+                options.with(algorithm(value));
+            } else if ("--hosts".equals(pArgs[i])) {
+                options.with(Hosts.of(value.split(",")));
+            } else if ("--threads".equals(pArgs[i])) {
+                threads = Integer.valueOf(value);
+            } else if ("--charset".equals(pArgs[i])) {
+                charset = Charset.forName(value);
+            } else {
+                throw new IllegalArgumentException(
+                        "unknown option " + pArgs[i]);
+            }
+        }
+        final BulkHasher hasher = new BulkHasher(options.compile());
+        if (threads != null) {
+            hasher.parallelism(threads.intValue());
+        }
+        if (charset != null) {
+            hasher.charset(charset);
+        }
+        final long start = System.nanoTime();
+        final long rows = hasher.run(Paths.get(pArgs[0]), Paths.get(pArgs[1]));
+        System.err.printf("%d rows in %d ms%n", rows,
+                (System.nanoTime() - start) / 1000000);
+    }
+
+    private static HashAlgorithm algorithm(final String pName) {
+        if ("md5".equalsIgnoreCase(pName)) {
+            return HashAlgorithm.MD5;
+        } else if ("sha256".equalsIgnoreCase(pName)
+                || "sha-256".equalsIgnoreCase(pName)) {
+            return HashAlgorithm.SHA256;
+        }
+        throw new IllegalArgumentException("unknown algorithm " + pName);
+    }
+}
@@ -0,0 +1,7 @@
+/**
+ * Hashing of large files of email-addresses.<br>
+ * {@link org.rjung.util.gravatar.bulk.BulkHasher} turns a file with one
+ * email-address per line into rows of <code>email,hash,url</code>. It can be
+ * used as a library or from the command line.
+ */
+package org.rjung.util.gravatar.bulk;
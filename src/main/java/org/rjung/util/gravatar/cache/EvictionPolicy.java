@@ -0,0 +1,81 @@
+package org.rjung.util.gravatar.cache;
+
+/**
+ * An {@link EvictionPolicy} decides which entry of a full {@link HashCache}
+ * is removed. {@link #lru()} and {@link #lfu()} are provided, own policies can
+ * be plugged in by implementing this interface.
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Create a new {@link Tracker} for one segment of a {@link HashCache}.
+     *
+     * @param <K>
+     *            type of the keys
+     * @param pCapacity
+     *            maximum number of keys the segment will hold
+     * @return a new, empty {@link Tracker}
+     */
+    <K> Tracker<K> newTracker(int pCapacity);
+
+    /**
+     * The bookkeeping of an {@link EvictionPolicy} for one segment of a
+     * {@link HashCache}. A {@link Tracker} is only called with the lock of
+     * its segment held, so it does not need to be thread-safe.
+     *
+     * @param <K>
+     *            type of the keys
+     */
+    interface Tracker<K> {
+
+        /**
+         * A key has been added.
+         *
+         * @param pKey
+         *            the new key
+         */
+        void recordInsert(K pKey);
+
+        /**
+         * An existing key has been read or replaced.
+         *
+         * @param pKey
+         *            the key that was used
+         */
+        void recordAccess(K pKey);
+
+        /**
+         * A key has been removed.
+         *
+         * @param pKey
+         *            the removed key
+         */
+        void recordRemoval(K pKey);
+
+        /**
+         * Choose the key to be removed next.
+         *
+         * @return the key to remove, <code>null</code> if there are no keys
+         */
+        K victim();
+    }
+
+    /**
+     * Remove the least recently used entry.
+     *
+     * @return {@link EvictionPolicy} based on the last access
+     */
+    static EvictionPolicy lru() {
+        return LruPolicy.INSTANCE;
+    }
+
+    /**
+     * Remove the least frequently used entry. Of entries used equally often,
+     * the least recently used one is removed.
+     *
+     * @return {@link EvictionPolicy} based on the number of accesses
+     */
+    static EvictionPolicy lfu() {
+        return LfuPolicy.INSTANCE;
+    }
+}
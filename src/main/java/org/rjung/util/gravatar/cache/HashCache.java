@@ -0,0 +1,258 @@
+package org.rjung.util.gravatar.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.rjung.util.gravatar.cache.EvictionPolicy.Tracker;
+
+/**
+ * A size-bounded cache of the hashes of normalized (trimmed and lower-cased)
+ * email-addresses. The cache is split into segments with their own lock, so
+ * concurrent lookups of different emails rarely wait for each other. If a
+ * segment is full, its {@link EvictionPolicy} decides which entry is removed.
+ * <br>
+ * The number of hits, misses and evictions is counted, to judge if the
+ * capacity of the cache fits the number of active users.
+ */
+public final class HashCache {
+
+    private final Segment[] segments;
+    private final int mask;
+    private final int capacity;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a {@link HashCache} that removes the least recently used entries.
+     *
+     * @param pCapacity
+     *            maximum number of hashes to keep
+     */
+    public HashCache(final int pCapacity) {
+        this(pCapacity, EvictionPolicy.lru());
+    }
+
+    /**
+     * Create a {@link HashCache} with one segment per expected concurrent
+     * thread.
+     *
+     * @param pCapacity
+     *            maximum number of hashes to keep
+     * @param pPolicy
+     *            {@link EvictionPolicy} to choose entries to remove
+     */
+    public HashCache(final int pCapacity, final EvictionPolicy pPolicy) {
+        this(pCapacity, pPolicy,
+                Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * Create a {@link HashCache}.
+     *
+     * @param pCapacity
+     *            maximum number of hashes to keep
+     * @param pPolicy
+     *            {@link EvictionPolicy} to choose entries to remove
+     * @param pConcurrency
+     *            expected number of concurrent threads, the number of
+     *            segments is derived from this
+     */
+    public HashCache(final int pCapacity, final EvictionPolicy pPolicy,
+            final int pConcurrency) {
+        if (pCapacity < 1) {
+            throw new IllegalArgumentException("capacity needs to be positive");
+        }
+        if (pPolicy == null) {
+            throw new IllegalArgumentException("policy is required");
+        }
+        int count = 1;
+        while (count < pConcurrency && count * 2 <= pCapacity) {
+            count <<= 1;
+        }
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(pPolicy,
+                    pCapacity / count + (i < pCapacity % count ? 1 : 0));
+        }
+        this.mask = count - 1;
+        this.capacity = pCapacity;
+    }
+
+    /**
+     * Get the cached hash of a normalized email.
+     *
+     * @param pEmail
+     *            the normalized email-address
+     * @return the hash or <code>null</code> if it is not cached
+     */
+    public String get(final String pEmail) {
+        final String result = segmentFor(pEmail).get(pEmail);
+        if (result == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return result;
+    }
+
+    /**
+     * Add the hash of a normalized email. If the cache is full, another entry
+     * is removed.
+     *
+     * @param pEmail
+     *            the normalized email-address
+     * @param pHash
+     *            the hash of the email
+     */
+    public void put(final String pEmail, final String pHash) {
+        if (segmentFor(pEmail).put(pEmail, pHash)) {
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Remove all entries. The counters are not reset.
+     */
+    public void clear() {
+        for (final Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * The number of cached hashes.
+     *
+     * @return number of entries
+     */
+    public int size() {
+        int result = 0;
+        for (final Segment segment : segments) {
+            result += segment.size();
+        }
+        return result;
+    }
+
+    /**
+     * The maximum number of cached hashes.
+     *
+     * @return capacity of the cache
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * The number of lookups that found a hash.
+     *
+     * @return number of hits
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * The number of lookups that did not find a hash.
+     *
+     * @return number of misses
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * The number of entries removed to make room for new ones.
+     *
+     * @return number of evictions
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "HashCache[size=" + size() + ", capacity=" + capacity
+                + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount() + "]";
+    }
+
+    private Segment segmentFor(final String pEmail) {
+        final int hash = pEmail.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & mask];
+    }
+
+    private static final class Segment extends ReentrantLock {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient Map<String, String> entries;
+        private final transient Tracker<String> tracker;
+        private final int capacity;
+
+        Segment(final EvictionPolicy pPolicy, final int pCapacity) {
+            this.entries = new HashMap<String, String>(
+                    Math.max(16, pCapacity * 4 / 3 + 1));
+            this.tracker = pPolicy.newTracker(pCapacity);
+            this.capacity = pCapacity;
+        }
+
+        String get(final String pEmail) {
+            lock();
+            try {
+                final String result = entries.get(pEmail);
+                if (result != null) {
+                    tracker.recordAccess(pEmail);
+                }
+                return result;
+            } finally {
+                unlock();
+            }
+        }
+
+        boolean put(final String pEmail, final String pHash) {
+            lock();
+            try {
+                if (entries.put(pEmail, pHash) != null) {
+                    tracker.recordAccess(pEmail);
+                    return false;
+                }
+                boolean evicted = false;
+                if (entries.size() > capacity) {
+                    final String victim = tracker.victim();
+                    if (victim != null) {
+                        entries.remove(victim);
+                        tracker.recordRemoval(victim);
+                        evicted = true;
+                    }
+                }
+                tracker.recordInsert(pEmail);
+                return evicted;
+            } finally {
+                unlock();
+            }
+        }
+
+        void clear() {
+            lock();
+            try {
+                for (final String email : entries.keySet()) {
+                    tracker.recordRemoval(email);
+                }
+                entries.clear();
+            } finally {
+                unlock();
+            }
+        }
+
+        int size() {
+            lock();
+            try {
+                return entries.size();
+            } finally {
+                unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.rjung.util.gravatar.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+final class LfuPolicy implements EvictionPolicy {
+
+    static final LfuPolicy INSTANCE = new LfuPolicy();
+
+    private LfuPolicy() {
+    }
+
+    @Override
+    public <K> Tracker<K> newTracker(final int pCapacity) {
+        return new LfuTracker<K>(pCapacity);
+    }
+
+    /**
+     * Constant time LFU: the keys are kept in buckets of equal access count,
+     * the buckets are linked in ascending order of their count. Within a
+     * bucket, the keys are ordered by their last access.
+     */
+    private static final class LfuTracker<K> implements Tracker<K> {
+
+        private final Map<K, Node<K>> nodes;
+        private final Bucket<K> head = new Bucket<K>(0);
+
+        LfuTracker(final int pCapacity) {
+            this.nodes = new HashMap<K, Node<K>>(
+                    Math.max(16, pCapacity * 4 / 3 + 1));
+            head.prev = head;
+            head.next = head;
+        }
+
+        @Override
+        public void recordInsert(final K pKey) {
+            final Node<K> node = new Node<K>(pKey);
+            nodes.put(pKey, node);
+            moveTo(node, head, 1);
+        }
+
+        @Override
+        public void recordAccess(final K pKey) {
+            final Node<K> node = nodes.get(pKey);
+            if (node != null) {
+                final Bucket<K> from = node.bucket;
+                node.unlink();
+                final Bucket<K> after = from.isEmpty() ? from.unlink() : from;
+                moveTo(node, after, from.count == Integer.MAX_VALUE
+                        ? Integer.MAX_VALUE : from.count + 1);
+            }
+        }
+
+        @Override
+        public void recordRemoval(final K pKey) {
+            final Node<K> node = nodes.remove(pKey);
+            if (node != null) {
+                final Bucket<K> from = node.bucket;
+                node.unlink();
+                if (from.isEmpty()) {
+                    from.unlink();
+                }
+            }
+        }
+
+        @Override
+        public K victim() {
+            return head.next == head ? null : head.next.first.next.key;
+        }
+
+        private void moveTo(final Node<K> pNode, final Bucket<K> pAfter,
+                final int pCount) {
+            Bucket<K> target = pAfter.next;
+            if (target == head || target.count != pCount) {
+                target = pAfter.count == pCount && pAfter != head ? pAfter
+                        : pAfter.insertAfter(new Bucket<K>(pCount));
+            }
+            target.append(pNode);
+        }
+    }
+
+    private static final class Bucket<K> {
+        final int count;
+        final Node<K> first = new Node<K>(null);
+        Bucket<K> prev;
+        Bucket<K> next;
+
+        Bucket(final int pCount) {
+            this.count = pCount;
+            first.prev = first;
+            first.next = first;
+        }
+
+        boolean isEmpty() {
+            return first.next == first;
+        }
+
+        void append(final Node<K> pNode) {
+            pNode.bucket = this;
+            pNode.prev = first.prev;
+            pNode.next = first;
+            first.prev.next = pNode;
+            first.prev = pNode;
+        }
+
+        Bucket<K> insertAfter(final Bucket<K> pBucket) {
+            pBucket.prev = this;
+            pBucket.next = next;
+            next.prev = pBucket;
+            next = pBucket;
+            return pBucket;
+        }
+
+        Bucket<K> unlink() {
+            final Bucket<K> before = prev;
+            prev.next = next;
+            next.prev = prev;
+            return before;
+        }
+    }
+
+    private static final class Node<K> {
+        final K key;
+        Bucket<K> bucket;
+        Node<K> prev;
+        Node<K> next;
+
+        Node(final K pKey) {
+            this.key = pKey;
+        }
+
+        void unlink() {
+            prev.next = next;
+            next.prev = prev;
+        }
+    }
+}
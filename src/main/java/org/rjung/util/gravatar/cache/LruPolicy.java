@@ -0,0 +1,48 @@
+package org.rjung.util.gravatar.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+final class LruPolicy implements EvictionPolicy {
+
+    static final LruPolicy INSTANCE = new LruPolicy();
+
+    private LruPolicy() {
+    }
+
+    @Override
+    public <K> Tracker<K> newTracker(final int pCapacity) {
+        return new LruTracker<K>(pCapacity);
+    }
+
+    private static final class LruTracker<K> implements Tracker<K> {
+
+        private final LinkedHashMap<K, Boolean> order;
+
+        LruTracker(final int pCapacity) {
+            this.order = new LinkedHashMap<K, Boolean>(
+                    Math.max(16, pCapacity * 4 / 3 + 1), 0.75f, true);
+        }
+
+        @Override
+        public void recordInsert(final K pKey) {
+            order.put(pKey, Boolean.TRUE);
+        }
+
+        @Override
+        public void recordAccess(final K pKey) {
+            order.get(pKey);
+        }
+
+        @Override
+        public void recordRemoval(final K pKey) {
+            order.remove(pKey);
+        }
+
+        @Override
+        public K victim() {
+            final Iterator<K> iterator = order.keySet().iterator();
+            return iterator.hasNext() ? iterator.next() : null;
+        }
+    }
+}
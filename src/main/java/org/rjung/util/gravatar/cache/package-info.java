@@ -0,0 +1,9 @@
+/**
+ * Caching of the hashes of email-addresses.<br>
+ * A {@link org.rjung.util.gravatar.cache.HashCache} can be set with
+ * {@link org.rjung.util.Gravatar#setHashCache(HashCache)}, it is then shared
+ * by all {@link org.rjung.util.Gravatar}-builders. The
+ * {@link org.rjung.util.gravatar.cache.EvictionPolicy} decides which entry
+ * has to go when the cache is full.
+ */
+package org.rjung.util.gravatar.cache;
@@ -0,0 +1,206 @@
+package org.rjung.util.gravatar.client;
+
+import java.net.URI;
+
+/**
+ * An image fetched by the {@link AvatarClient}. An {@link Avatar} is
+ * immutable, the array returned by {@link #getBody()} is shared and must not
+ * be changed.
+ */
+public final class Avatar {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final URI uri;
+    private final int status;
+    private final byte[] body;
+    private final String contentType;
+    private final String etag;
+    private final String lastModified;
+    private final long expires;
+    private final boolean revalidated;
+
+    /**
+     * Create an {@link Avatar}.
+     *
+     * @param pUri
+     *            the {@link URI} the image was fetched from
+     * @param pStatus
+     *            the HTTP status of the response
+     * @param pBody
+     *            the image, <code>null</code> for an empty body
+     * @param pContentType
+     *            the <code>Content-Type</code> of the image, if known
+     * @param pEtag
+     *            the <code>ETag</code> of the image, if known
+     * @param pLastModified
+     *            the <code>Last-Modified</code> header of the image, if known
+     */
+    public Avatar(final URI pUri, final int pStatus, final byte[] pBody,
+            final String pContentType, final String pEtag,
+            final String pLastModified) {
+        this(pUri, pStatus, pBody, pContentType, pEtag, pLastModified, 0L);
+    }
+
+    /**
+     * Create an {@link Avatar} that may be used without asking the server
+     * until the given time.
+     *
+     * @param pUri
+     *            the {@link URI} the image was fetched from
+     * @param pStatus
+     *            the HTTP status of the response
+     * @param pBody
+     *            the image, <code>null</code> for an empty body
+     * @param pContentType
+     *            the <code>Content-Type</code> of the image, if known
+     * @param pEtag
+     *            the <code>ETag</code> of the image, if known
+     * @param pLastModified
+     *            the <code>Last-Modified</code> header of the image, if known
+     * @param pExpires
+     *            milliseconds since the epoch until the image is fresh,
+     *            <code>0</code> if it always has to be revalidated
+     */
+    public Avatar(final URI pUri, final int pStatus, final byte[] pBody,
+            final String pContentType, final String pEtag,
+            final String pLastModified, final long pExpires) {
+        this(pUri, pStatus, pBody, pContentType, pEtag, pLastModified,
+                pExpires, false);
+    }
+
+    private Avatar(final URI pUri, final int pStatus, final byte[] pBody,
+            final String pContentType, final String pEtag,
+            final String pLastModified, final long pExpires,
+            final boolean pRevalidated) {
+        this.uri = pUri;
+        this.status = pStatus;
+        this.body = pBody == null ? EMPTY : pBody;
+        this.contentType = pContentType;
+        this.etag = pEtag;
+        this.lastModified = pLastModified;
+        this.expires = pExpires;
+        this.revalidated = pRevalidated;
+    }
+
+    /**
+     * The same {@link Avatar}, marked as confirmed by the server with a
+     * <code>304 Not Modified</code>.
+     *
+     * @param pExpires
+     *            the new time until the image is fresh
+     * @return revalidated {@link Avatar}
+     */
+    Avatar revalidated(final long pExpires) {
+        return new Avatar(uri, status, body, contentType, etag, lastModified,
+                pExpires, true);
+    }
+
+    /**
+     * The {@link URI} the image was fetched from.
+     *
+     * @return {@link URI}
+     */
+    public URI getUri() {
+        return uri;
+    }
+
+    /**
+     * The HTTP status of the response. It is <code>200</code> for an image
+     * and <code>404</code> if the email-address has no Gravatar and
+     * {@link org.rjung.util.gravatar.Default#FOUR_O_FOUR} was requested.
+     *
+     * @return HTTP status
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Check if an image was found.
+     *
+     * @return <code>true</code> if the response contained an image
+     */
+    public boolean isFound() {
+        return status == 200;
+    }
+
+    /**
+     * The bytes of the image, an empty array if there is no image.
+     *
+     * @return the image, must not be changed
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * The <code>Content-Type</code> of the image, like
+     * <code>image/png</code>.
+     *
+     * @return the content type or <code>null</code>
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * The <code>ETag</code> of the image, it is sent with the next request
+     * for the same {@link URI} as <code>If-None-Match</code>.
+     *
+     * @return the entity tag or <code>null</code>
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * The <code>Last-Modified</code>-header of the image, it is sent with the
+     * next request for the same {@link URI} as
+     * <code>If-Modified-Since</code>.
+     *
+     * @return the date of the last change or <code>null</code>
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * The time until the image may be used without asking the server, as
+     * allowed by the <code>Cache-Control</code> or <code>Expires</code>
+     * header of the response.
+     *
+     * @return milliseconds since the epoch, <code>0</code> if the image always
+     *         has to be revalidated
+     */
+    public long getExpires() {
+        return expires;
+    }
+
+    /**
+     * Check if the image may be used without asking the server.
+     *
+     * @param pNow
+     *            the current time in milliseconds since the epoch
+     * @return <code>true</code> if the image is fresh
+     */
+    public boolean isFresh(final long pNow) {
+        return pNow < expires;
+    }
+
+    /**
+     * Check if the image was taken from the {@link AvatarCache} after the
+     * server answered with <code>304 Not Modified</code>.
+     *
+     * @return <code>true</code> if the image was revalidated
+     */
+    public boolean isRevalidated() {
+        return revalidated;
+    }
+
+    @Override
+    public String toString() {
+        return "Avatar[" + uri + ", " + status + ", " + body.length
+                + " bytes" + (revalidated ? ", revalidated]" : "]");
+    }
+}
@@ -0,0 +1,58 @@
+package org.rjung.util.gravatar.client;
+
+/**
+ * Keeps the {@link Avatar}s fetched by an {@link AvatarClient}, so they can be
+ * revalidated with a conditional request instead of being downloaded again.
+ * Implementations have to be thread-safe.
+ */
+public interface AvatarCache {
+
+    /**
+     * An {@link AvatarCache} that keeps nothing, every request downloads the
+     * image.
+     */
+    AvatarCache NONE = new AvatarCache() {
+        @Override
+        public Avatar get(final String pKey) {
+            return null;
+        }
+
+        @Override
+        public void put(final String pKey, final Avatar pAvatar) {
+            // nothing is kept
+        }
+
+        @Override
+        public void remove(final String pKey) {
+            // nothing is kept
+        }
+    };
+
+    /**
+     * Look up an {@link Avatar}.
+     *
+     * @param pKey
+     *            the key of the image, its hash and query for a Gravatar
+     * @return the cached {@link Avatar} or <code>null</code>
+     */
+    Avatar get(String pKey);
+
+    /**
+     * Keep an {@link Avatar}, replacing an older one with the same key.
+     *
+     * @param pKey
+     *            the key of the image, its hash and query for a Gravatar
+     * @param pAvatar
+     *            the {@link Avatar} to keep
+     */
+    void put(String pKey, Avatar pAvatar);
+
+    /**
+     * Remove an {@link Avatar}, e.g. because the server does not allow to
+     * store it any longer.
+     *
+     * @param pKey
+     *            the key of the image, its hash and query for a Gravatar
+     */
+    void remove(String pKey);
+}
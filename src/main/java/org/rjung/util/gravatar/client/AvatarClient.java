@@ -0,0 +1,397 @@
+package org.rjung.util.gravatar.client;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.rjung.util.Gravatar;
+import org.rjung.util.GravatarException;
+
+/**
+ * {@link AvatarClient} fetches the images of Gravatar-URLs asynchronously.
+ * <br>
+ * All requests of a client share one {@link HttpClient}, so connections are
+ * pooled and, where the server supports it, multiplexed over HTTP/2. The
+ * number of requests in flight is limited, further requests wait without
+ * blocking a thread. Concurrent fetches of the same image share one request,
+ * so an avatar dropping out of a cache does not cause a burst of identical
+ * requests. Images with an <code>ETag</code> or
+ * <code>Last-Modified</code>-header are kept in an {@link AvatarCache}. They
+ * are used without a request while the <code>Cache-Control</code> or
+ * <code>Expires</code>-header of the response allows it, afterwards they are
+ * revalidated with a conditional request.
+ *
+ * <pre>
+ * AvatarClient client = AvatarClient.builder().maxConcurrency(16)
+ *         .cache(new MemoryAvatarCache(16 &lt;&lt; 20)).build();
+ * client.fetch(Gravatar.forEmail("example@example.com").size(80))
+ *         .thenAccept(avatar -&gt; badge.draw(avatar.getBody()));
+ * </pre>
+ */
+public final class AvatarClient {
+
+    /**
+     * The {@link URI} images of {@link Gravatar}s are fetched from, unless
+     * another one is set with {@link Builder#baseUri(URI)}.
+     */
+    public static final URI GRAVATAR_BASE_URI = URI
+            .create("https://s.gravatar.com/avatar/");
+
+    private static final String SCHEME_END = "://";
+    private static final String AVATAR_PATH = "/avatar/";
+    private static final String GRAVATAR_DOMAIN = "gravatar.com";
+    private static final int DEFAULT_CONCURRENCY = 32;
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration DEFAULT_MAX_WAIT = Duration.ofSeconds(30);
+
+    private final HttpClient client;
+    private final URI baseUri;
+    private final Duration timeout;
+    private final AvatarCache cache;
+    private final ConcurrencyLimiter limiter;
+    private final SingleFlight<String, Avatar> flights;
+
+    private AvatarClient(final Builder pBuilder) {
+        this.client = pBuilder.client != null ? pBuilder.client
+                : newHttpClient(pBuilder);
+        this.baseUri = pBuilder.baseUri;
+        this.timeout = pBuilder.timeout;
+        this.cache = pBuilder.cache;
+        this.limiter = new ConcurrencyLimiter(pBuilder.maxConcurrency);
+        this.flights = new SingleFlight<String, Avatar>(pBuilder.maxWait);
+    }
+
+    /**
+     * Start to configure an {@link AvatarClient}.
+     *
+     * @return {@link Builder} with the default options
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Fetch the image of a {@link Gravatar}. The protocol and the
+     * {@link org.rjung.util.gravatar.Hosts} of the {@link Gravatar} are
+     * ignored, the image is fetched from the base {@link URI} of this client.
+     *
+     * @param pGravatar
+     *            the {@link Gravatar} to fetch
+     * @return {@link CompletableFuture} of the {@link Avatar}, it fails with
+     *         an {@link IOException} if the image can not be fetched
+     * @throws GravatarException
+     *             If the URL of the {@link Gravatar} can not be rendered.
+     */
+    public CompletableFuture<Avatar> fetch(final Gravatar pGravatar)
+            throws GravatarException {
+        final String url = pGravatar.toUrl();
+        // a host never contains a slash, the first path is the one after it
+        return fetch(baseUri.resolve(url.substring(
+                url.indexOf(AVATAR_PATH) + AVATAR_PATH.length())));
+    }
+
+    /**
+     * Fetch an image. A Gravatar-URL is fetched from the base {@link URI} of
+     * this client, others are fetched as they are. Gravatar-URLs have the
+     * path <code>/avatar/</code> and either no protocol, or a host of
+     * <code>gravatar.com</code> like the ones of
+     * {@link org.rjung.util.gravatar.Hosts#numbered(int)}.
+     *
+     * @param pUrl
+     *            the URL of the image
+     * @return {@link CompletableFuture} of the {@link Avatar}, it fails with
+     *         an {@link IOException} if the image can not be fetched
+     */
+    public CompletableFuture<Avatar> fetch(final String pUrl) {
+        return fetch(resolve(pUrl));
+    }
+
+    /**
+     * Fetch an image. If the same image is already being fetched, the result
+     * of that request is shared. Images of {@link Gravatar}s are the same if
+     * they have the same hash and query, the query parameters of a
+     * {@link Gravatar} are always in the same order.
+     *
+     * @param pUri
+     *            the {@link URI} of the image
+     * @return {@link CompletableFuture} of the {@link Avatar}, it fails with
+     *         an {@link IOException} if the image can not be fetched, or a
+     *         {@link java.util.concurrent.TimeoutException} if it takes
+     *         longer than the maximum wait
+     */
+    public CompletableFuture<Avatar> fetch(final URI pUri) {
+        final String key = baseUri.relativize(pUri).toString();
+        final Avatar cached = cache.get(key);
+        if (cached != null && cached.isFresh(System.currentTimeMillis())) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return flights.run(key, () -> limiter.submit(() -> send(pUri, key)));
+    }
+
+    /**
+     * The number of requests currently in flight.
+     *
+     * @return number of running requests
+     */
+    public int running() {
+        return limiter.running();
+    }
+
+    /**
+     * The number of requests waiting for a running one to complete.
+     *
+     * @return number of waiting requests
+     */
+    public int waiting() {
+        return limiter.waiting();
+    }
+
+    /**
+     * The number of distinct images currently being fetched, including the
+     * ones waiting for the concurrency limit.
+     *
+     * @return number of fetches in flight
+     */
+    public int inFlight() {
+        return flights.inFlight();
+    }
+
+    /**
+     * The number of fetches that shared the request of an earlier fetch of
+     * the same image, instead of sending an own one.
+     *
+     * @return number of coalesced fetches
+     */
+    public long coalesced() {
+        return flights.shared();
+    }
+
+    URI resolve(final String pUrl) {
+        final int host = pUrl.indexOf(SCHEME_END) + SCHEME_END.length();
+        final int path = pUrl.indexOf('/', host);
+        if (host >= SCHEME_END.length() && path > host
+                && pUrl.startsWith(AVATAR_PATH, path)
+                && (host == SCHEME_END.length() || isGravatarHost(pUrl, host,
+                        path))) {
+            return baseUri.resolve(
+                    pUrl.substring(path + AVATAR_PATH.length()));
+        }
+        return URI.create(pUrl);
+    }
+
+    private static boolean isGravatarHost(final String pUrl, final int pStart,
+            final int pEnd) {
+        final int domain = pEnd - GRAVATAR_DOMAIN.length();
+        return domain >= pStart
+                && pUrl.regionMatches(true, domain, GRAVATAR_DOMAIN, 0,
+                        GRAVATAR_DOMAIN.length())
+                && (domain == pStart || pUrl.charAt(domain - 1) == '.');
+    }
+
+    private CompletableFuture<Avatar> send(final URI pUri, final String pKey) {
+        final Avatar cached = cache.get(pKey);
+        final HttpRequest.Builder request = HttpRequest.newBuilder(pUri)
+                .timeout(timeout).header("Accept", "image/*");
+        if (cached != null && cached.getEtag() != null) {
+            request.header("If-None-Match", cached.getEtag());
+        }
+        if (cached != null && cached.getLastModified() != null) {
+            request.header("If-Modified-Since", cached.getLastModified());
+        }
+        return client
+                .sendAsync(request.build(),
+                        HttpResponse.BodyHandlers.ofByteArray())
+                .thenCompose(response -> receive(pKey, cached, response));
+    }
+
+    private CompletableFuture<Avatar> receive(final String pKey,
+            final Avatar pCached, final HttpResponse<byte[]> pResponse) {
+        final int status = pResponse.statusCode();
+        final long now = System.currentTimeMillis();
+        final long expires = CacheHeaders.expires(pResponse.headers(), now);
+        if (status == 304 && pCached != null) {
+            final Avatar avatar = pCached.revalidated(Math.max(expires, 0L));
+            if (expires == CacheHeaders.NO_STORE) {
+                cache.remove(pKey);
+            } else if (expires != pCached.getExpires()) {
+                cache.put(pKey, avatar);
+            }
+            return CompletableFuture.completedFuture(avatar);
+        }
+        if (status != 200 && status != 404) {
+            return CompletableFuture.failedFuture(new IOException(
+                    "unexpected status " + status + " for " + pKey));
+        }
+        final Avatar avatar = new Avatar(pResponse.uri(), status,
+                pResponse.body(), header(pResponse, "Content-Type"),
+                header(pResponse, "ETag"), header(pResponse, "Last-Modified"),
+                Math.max(expires, 0L));
+        if (status == 200 && expires != CacheHeaders.NO_STORE
+                && (avatar.getEtag() != null
+                        || avatar.getLastModified() != null
+                        || avatar.isFresh(now))) {
+            cache.put(pKey, avatar);
+        }
+        return CompletableFuture.completedFuture(avatar);
+    }
+
+    private static String header(final HttpResponse<?> pResponse,
+            final String pName) {
+        return pResponse.headers().firstValue(pName).orElse(null);
+    }
+
+    private static HttpClient newHttpClient(final Builder pBuilder) {
+        final HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(pBuilder.timeout);
+        if (pBuilder.executor != null) {
+            builder.executor(pBuilder.executor);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Configures an {@link AvatarClient}.
+     */
+    public static final class Builder {
+
+        private HttpClient client;
+        private Executor executor;
+        private URI baseUri = GRAVATAR_BASE_URI;
+        private Duration timeout = DEFAULT_TIMEOUT;
+        private AvatarCache cache = AvatarCache.NONE;
+        private int maxConcurrency = DEFAULT_CONCURRENCY;
+        private Duration maxWait = DEFAULT_MAX_WAIT;
+
+        private Builder() {
+        }
+
+        /**
+         * Use an own {@link HttpClient}, e.g. to share it with other code. The
+         * options {@link #executor(Executor)} and the connect timeout are then
+         * taken from that {@link HttpClient}.
+         *
+         * @param pClient
+         *            the {@link HttpClient} to send the requests with
+         * @return {@link Builder}
+         */
+        public Builder httpClient(final HttpClient pClient) {
+            this.client = pClient;
+            return this;
+        }
+
+        /**
+         * Set the {@link Executor} the responses are handled on. The default
+         * is the one of {@link HttpClient}.
+         *
+         * @param pExecutor
+         *            {@link Executor} for the {@link HttpClient}
+         * @return {@link Builder}
+         */
+        public Builder executor(final Executor pExecutor) {
+            this.executor = pExecutor;
+            return this;
+        }
+
+        /**
+         * Set the {@link URI} images of {@link Gravatar}s are fetched from,
+         * e.g. a proxy or a stand-in server for tests. The default is
+         * {@link AvatarClient#GRAVATAR_BASE_URI}.
+         *
+         * @param pBaseUri
+         *            {@link URI} ending with a <code>/</code>, the hash is
+         *            appended to it
+         * @return {@link Builder}
+         */
+        public Builder baseUri(final URI pBaseUri) {
+            if (pBaseUri == null || !pBaseUri.getPath().endsWith("/")) {
+                throw new IllegalArgumentException(
+                        "base uri needs to end with /");
+            }
+            this.baseUri = pBaseUri;
+            return this;
+        }
+
+        /**
+         * Set the time to wait for a connection and for a response. The
+         * default is 10 seconds.
+         *
+         * @param pTimeout
+         *            {@link Duration} to wait
+         * @return {@link Builder}
+         */
+        public Builder timeout(final Duration pTimeout) {
+            if (pTimeout == null || pTimeout.isNegative()
+                    || pTimeout.isZero()) {
+                throw new IllegalArgumentException(
+                        "timeout needs to be positive");
+            }
+            this.timeout = pTimeout;
+            return this;
+        }
+
+        /**
+         * Set the {@link AvatarCache} to keep images for revalidation. The
+         * default is {@link AvatarCache#NONE}.
+         *
+         * @param pCache
+         *            {@link AvatarCache} to use
+         * @return {@link Builder}
+         */
+        public Builder cache(final AvatarCache pCache) {
+            this.cache = pCache == null ? AvatarCache.NONE : pCache;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of requests in flight. The default is 32.
+         *
+         * @param pMaxConcurrency
+         *            number of concurrent requests
+         * @return {@link Builder}
+         */
+        public Builder maxConcurrency(final int pMaxConcurrency) {
+            if (pMaxConcurrency < 1) {
+                throw new IllegalArgumentException(
+                        "concurrency needs to be positive");
+            }
+            this.maxConcurrency = pMaxConcurrency;
+            return this;
+        }
+
+        /**
+         * Set the maximum time a fetch waits for its result, including the
+         * time waiting for the concurrency limit and for a shared request.
+         * A fetch taking longer fails, the shared request goes on for the
+         * other callers. The default is 30 seconds.
+         *
+         * @param pMaxWait
+         *            {@link Duration} to wait
+         * @return {@link Builder}
+         */
+        public Builder maxWait(final Duration pMaxWait) {
+            if (pMaxWait == null || pMaxWait.isNegative()
+                    || pMaxWait.isZero()) {
+                throw new IllegalArgumentException(
+                        "max wait needs to be positive");
+            }
+            this.maxWait = pMaxWait;
+            return this;
+        }
+
+        /**
+         * Create the {@link AvatarClient}.
+         *
+         * @return {@link AvatarClient}
+         */
+        public AvatarClient build() {
+            return new AvatarClient(this);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.rjung.util.gravatar.client;
+
+import java.net.http.HttpHeaders;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * Reads the freshness of a response from its <code>Cache-Control</code> and
+ * <code>Expires</code> headers, as a private cache would.
+ */
+final class CacheHeaders {
+
+    /**
+     * The response must not be stored.
+     */
+    static final long NO_STORE = -1L;
+
+    private CacheHeaders() {
+    }
+
+    /**
+     * Calculate until when a response is fresh.
+     *
+     * @param pHeaders
+     *            the headers of the response
+     * @param pNow
+     *            the current time in milliseconds since the epoch
+     * @return milliseconds since the epoch, <code>0</code> if the response
+     *         has to be revalidated before each use or {@link #NO_STORE}
+     */
+    static long expires(final HttpHeaders pHeaders, final long pNow) {
+        boolean noCache = false;
+        long maxAge = -1;
+        for (final String header : pHeaders.allValues("Cache-Control")) {
+            for (final String part : header.split(",")) {
+                final String directive = part.trim()
+                        .toLowerCase(Locale.ROOT);
+                if ("no-store".equals(directive)) {
+                    return NO_STORE;
+                } else if ("no-cache".equals(directive)) {
+                    noCache = true;
+                } else if (directive.startsWith("max-age=")) {
+                    maxAge = seconds(directive.substring(8));
+                }
+            }
+        }
+        if (noCache) {
+            return 0L;
+        }
+        if (maxAge >= 0) {
+            return maxAge == 0 ? 0L : pNow + maxAge * 1000;
+        }
+        return pHeaders.firstValue("Expires").map(CacheHeaders::date)
+                .orElse(0L);
+    }
+
+    private static long seconds(final String pValue) {
+        try {
+            return Math.min(Long.parseLong(pValue.replace("\"", "")),
+                    Integer.MAX_VALUE);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long date(final String pValue) {
+        try {
+            return ZonedDateTime
+                    .parse(pValue, DateTimeFormatter.RFC_1123_DATE_TIME)
+                    .toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            // an invalid date means already expired
+            return 0L;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.rjung.util.gravatar.client;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of asynchronous tasks running at the same time. Tasks
+ * above the limit wait in a queue and are started in order when a running
+ * task completes, no thread is blocked while waiting.<br>
+ * The queue is drained by a loop, not by each task starting the next one, so
+ * a long queue of tasks that complete right away, e.g. because they fail,
+ * does not grow the stack.
+ */
+final class ConcurrencyLimiter {
+
+    private final int limit;
+    private final Queue<Runnable> waiting = new ArrayDeque<Runnable>();
+    private int running;
+    private int released;
+    private boolean draining;
+
+    ConcurrencyLimiter(final int pLimit) {
+        if (pLimit < 1) {
+            throw new IllegalArgumentException(
+                    "concurrency needs to be positive");
+        }
+        this.limit = pLimit;
+    }
+
+    <T> CompletableFuture<T> submit(
+            final Supplier<CompletableFuture<T>> pTask) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        final Runnable start = () -> {
+            CompletableFuture<T> task;
+            try {
+                task = pTask.get();
+            } catch (RuntimeException e) {
+                task = CompletableFuture.failedFuture(e);
+            }
+            task.whenComplete((value, error) -> {
+                release();
+                if (error == null) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(error);
+                }
+            });
+        };
+        final boolean now;
+        synchronized (this) {
+            now = running < limit;
+            if (now) {
+                running++;
+            } else {
+                waiting.add(start);
+            }
+        }
+        if (now) {
+            start.run();
+        }
+        return result;
+    }
+
+    synchronized int running() {
+        return running;
+    }
+
+    synchronized int waiting() {
+        return waiting.size();
+    }
+
+    private void release() {
+        synchronized (this) {
+            released++;
+            if (draining) {
+                // the thread draining the queue hands on this slot
+                return;
+            }
+            draining = true;
+        }
+        while (true) {
+            final Runnable next;
+            synchronized (this) {
+                if (released == 0) {
+                    draining = false;
+                    return;
+                }
+                released--;
+                next = waiting.poll();
+                if (next == null) {
+                    running--;
+                    continue;
+                }
+            }
+            next.run();
+        }
+    }
+}
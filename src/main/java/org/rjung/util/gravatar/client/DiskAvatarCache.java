@@ -0,0 +1,701 @@
+package org.rjung.util.gravatar.client;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+/**
+ * An {@link AvatarCache} in a directory, so the images survive a restart.<br>
+ * The images are appended to segment files as records with a checksum. The
+ * index of the records is kept on the heap and rebuilt from the segments when
+ * the cache is opened. A record that was not completely written, e.g. after a
+ * crash, fails its checksum and is dropped with the rest of its segment, so a
+ * crash loses at most the latest images, but never returns a broken one.
+ * Removed and evicted entries are marked by a tombstone record, so they do not
+ * come back on the next open.<br>
+ * The images of all entries together are limited to a number of bytes, the
+ * least recently used entries are removed first. Entries can also be limited
+ * to a time to live. Segments without live entries are deleted, the oldest
+ * segment is compacted if the files take more than twice the limit.<br>
+ * Hits of the sealed segments are read from a memory-mapping, the image of an
+ * entry can also be copied to a channel without passing the heap with
+ * {@link #transferTo(String, WritableByteChannel)}.<br>
+ * The cache never fails a fetch: if the disk can not be written, e.g. because
+ * it is full, the image is just not kept, and an entry that can not be read
+ * is a miss.
+ *
+ * <pre>
+ * AvatarClient client = AvatarClient.builder()
+ *         .cache(DiskAvatarCache.open(Paths.get("/var/cache/avatars"), 256 &lt;&lt; 20))
+ *         .build();
+ * </pre>
+ */
+public final class DiskAvatarCache implements AvatarCache, Closeable {
+
+    private static final int MAGIC = 0x41565247;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int HEADER_LENGTH = 40;
+    private static final String SUFFIX = ".seg";
+    private static final long MIN_SEGMENT_SIZE = 4 << 10;
+    private static final long MAX_SEGMENT_SIZE = 64 << 20;
+
+    private final Path directory;
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final long segmentSize;
+    private final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<String, Entry>(
+            16, 0.75f, true);
+    private Segment active;
+    private long liveBytes;
+    private long diskBytes;
+    private boolean closed;
+
+    private DiskAvatarCache(final Path pDirectory, final long pMaxBytes,
+            final long pTtlMillis) {
+        this.directory = pDirectory;
+        this.maxBytes = pMaxBytes;
+        this.ttlMillis = pTtlMillis;
+        this.segmentSize = Math.max(MIN_SEGMENT_SIZE,
+                Math.min(MAX_SEGMENT_SIZE, pMaxBytes / 8));
+    }
+
+    /**
+     * Open a {@link DiskAvatarCache} without time to live, the directory is
+     * created if it does not exist.
+     *
+     * @param pDirectory
+     *            the directory of the segment files
+     * @param pMaxBytes
+     *            maximum number of bytes of all entries together
+     * @return {@link DiskAvatarCache}
+     * @throws IOException
+     *             If the directory can not be read or written.
+     */
+    public static DiskAvatarCache open(final Path pDirectory,
+            final long pMaxBytes) throws IOException {
+        return open(pDirectory, pMaxBytes, null);
+    }
+
+    /**
+     * Open a {@link DiskAvatarCache}, the directory is created if it does not
+     * exist.
+     *
+     * @param pDirectory
+     *            the directory of the segment files
+     * @param pMaxBytes
+     *            maximum number of bytes of all entries together
+     * @param pTtl
+     *            time after which an entry is removed, even if the server
+     *            would still confirm it, <code>null</code> for no limit
+     * @return {@link DiskAvatarCache}
+     * @throws IOException
+     *             If the directory can not be read or written.
+     */
+    public static DiskAvatarCache open(final Path pDirectory,
+            final long pMaxBytes, final Duration pTtl) throws IOException {
+        if (pMaxBytes < 1) {
+            throw new IllegalArgumentException(
+                    "max bytes needs to be positive");
+        }
+        if (pTtl != null && (pTtl.isNegative() || pTtl.isZero())) {
+            throw new IllegalArgumentException("ttl needs to be positive");
+        }
+        Files.createDirectories(pDirectory);
+        final DiskAvatarCache result = new DiskAvatarCache(pDirectory,
+                pMaxBytes, pTtl == null ? Long.MAX_VALUE : pTtl.toMillis());
+        try {
+            result.load();
+        } catch (IOException | RuntimeException e) {
+            result.close();
+            throw e;
+        }
+        return result;
+    }
+
+    @Override
+    public Avatar get(final String pKey) {
+        final Entry entry = lookup(pKey);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return read(entry);
+        } catch (IOException e) {
+            // the segment was compacted or closed meanwhile
+            return null;
+        }
+    }
+
+    /**
+     * Copy the image of an entry to a channel. The bytes are transferred by
+     * the operating system, without passing the heap. The segment of the
+     * entry is kept open until the image is written, even if the entry is
+     * removed or moved meanwhile.
+     *
+     * @param pKey
+     *            the key of the image
+     * @param pTarget
+     *            a blocking channel to write the image to
+     * @return the number of bytes written, <code>-1</code> if there is no
+     *         entry for the key
+     * @throws IOException
+     *             If the image can not be written.
+     */
+    public long transferTo(final String pKey, final WritableByteChannel pTarget)
+            throws IOException {
+        final Entry entry = pin(pKey);
+        if (entry == null) {
+            return -1;
+        }
+        try {
+            final FileChannel channel = entry.segment.channel;
+            long position = entry.offset + entry.bodyOffset;
+            long remaining = entry.length - entry.bodyOffset;
+            while (remaining > 0) {
+                final long written = channel.transferTo(position, remaining,
+                        pTarget);
+                if (written <= 0) {
+                    throw new EOFException("segment ends before the image");
+                }
+                position += written;
+                remaining -= written;
+            }
+            return entry.length - entry.bodyOffset;
+        } finally {
+            unpin(entry.segment);
+        }
+    }
+
+    @Override
+    public void put(final String pKey, final Avatar pAvatar) {
+        final long now = System.currentTimeMillis();
+        final ByteBuffer record = encode(PUT, pKey, pAvatar, now);
+        final int length = record.remaining();
+        synchronized (this) {
+            if (closed || length > maxBytes) {
+                return;
+            }
+            try {
+                final long offset = append(record);
+                final Entry entry = new Entry(active, offset, length,
+                        length - pAvatar.getBody().length, now);
+                add(pKey, entry);
+                evict();
+                reclaim();
+            } catch (IOException e) {
+                // the image is not kept, or older ones not yet deleted
+            }
+        }
+    }
+
+    @Override
+    public void remove(final String pKey) {
+        synchronized (this) {
+            final Entry entry = index.remove(pKey);
+            if (closed || entry == null) {
+                return;
+            }
+            release(entry);
+            try {
+                tombstone(pKey);
+                reclaim();
+            } catch (IOException e) {
+                // without the tombstone the entry is back after the next open
+            }
+        }
+    }
+
+    /**
+     * The number of entries in the cache.
+     *
+     * @return number of entries
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * The number of bytes of the records of all entries, it is kept below the
+     * maximum given on open.
+     *
+     * @return number of bytes
+     */
+    public synchronized long bytes() {
+        return liveBytes;
+    }
+
+    /**
+     * The number of bytes of all segment files, including records that are
+     * no longer used.
+     *
+     * @return number of bytes on disk
+     */
+    public synchronized long diskBytes() {
+        return diskBytes;
+    }
+
+    /**
+     * Write all changes to the disk.
+     *
+     * @throws IOException
+     *             If the changes can not be written.
+     */
+    public synchronized void flush() throws IOException {
+        if (!closed && active != null) {
+            active.channel.force(false);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        IOException failure = null;
+        for (final Segment segment : segments.values()) {
+            try {
+                retire(segment);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        index.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private synchronized Entry lookup(final String pKey) {
+        if (closed) {
+            return null;
+        }
+        final Entry entry = index.get(pKey);
+        if (entry != null && expired(entry, System.currentTimeMillis())) {
+            index.remove(pKey);
+            release(entry);
+            try {
+                reclaim();
+            } catch (IOException e) {
+                // the segments are deleted by a later reclaim
+            }
+            return null;
+        }
+        return entry;
+    }
+
+    private synchronized Entry pin(final String pKey) {
+        final Entry entry = lookup(pKey);
+        if (entry != null) {
+            entry.segment.pins++;
+        }
+        return entry;
+    }
+
+    private synchronized void unpin(final Segment pSegment) {
+        pSegment.pins--;
+        if (pSegment.pins == 0 && pSegment.retired) {
+            try {
+                dispose(pSegment);
+            } catch (IOException e) {
+                // the channel is gone anyway, the file stays until the next
+                // open
+            }
+        }
+    }
+
+    private boolean expired(final Entry pEntry, final long pNow) {
+        return pNow - pEntry.storedAt > ttlMillis;
+    }
+
+    private void load() throws IOException {
+        final List<Path> files = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files
+                .newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (final Path file : stream) {
+                files.add(file);
+            }
+        }
+        final TreeMap<Long, Path> sorted = new TreeMap<Long, Path>();
+        for (final Path file : files) {
+            final String name = file.getFileName().toString();
+            try {
+                sorted.put(Long.valueOf(
+                        name.substring(0, name.length() - SUFFIX.length())),
+                        file);
+            } catch (NumberFormatException e) {
+                // not one of our segments
+            }
+        }
+        for (final Map.Entry<Long, Path> file : sorted.entrySet()) {
+            final Segment segment = new Segment(file.getKey().longValue(),
+                    file.getValue());
+            segments.put(segment.id, segment);
+            scan(segment);
+        }
+        final long now = System.currentTimeMillis();
+        final Iterator<Entry> entries = index.values().iterator();
+        while (entries.hasNext()) {
+            final Entry entry = entries.next();
+            if (expired(entry, now)) {
+                entries.remove();
+                release(entry);
+            }
+        }
+        if (!segments.isEmpty()
+                && segments.lastEntry().getValue().size < segmentSize) {
+            active = segments.lastEntry().getValue();
+        } else {
+            roll();
+        }
+        for (final Segment segment : segments.values()) {
+            if (segment != active) {
+                segment.seal();
+            }
+        }
+        evict();
+        reclaim();
+    }
+
+    private void scan(final Segment pSegment) throws IOException {
+        final FileChannel channel = pSegment.channel;
+        final long size = channel.size();
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        long position = 0;
+        while (position + HEADER_LENGTH <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            final int keyLength = header.getInt(12);
+            final int metaLength = header.getInt(16);
+            final int bodyLength = header.getInt(20);
+            final long length = (long) HEADER_LENGTH + keyLength + metaLength
+                    + bodyLength;
+            if (header.getInt(0) != MAGIC || keyLength < 0 || metaLength < 0
+                    || bodyLength < 0 || position + length > size) {
+                break;
+            }
+            final ByteBuffer record = ByteBuffer.allocate((int) length)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, record, position);
+            if (record.getInt(4) != checksum(record)) {
+                break;
+            }
+            final String key = new String(record.array(), HEADER_LENGTH,
+                    keyLength, StandardCharsets.UTF_8);
+            if (record.get(8) == PUT) {
+                add(key, new Entry(pSegment, position, (int) length,
+                        HEADER_LENGTH + keyLength + metaLength,
+                        record.getLong(24)));
+            } else {
+                final Entry previous = index.remove(key);
+                if (previous != null) {
+                    release(previous);
+                }
+                pSegment.tombstones++;
+            }
+            position += length;
+        }
+        if (position < size) {
+            // drop a record that was not completely written
+            channel.truncate(position);
+        }
+        pSegment.size = position;
+        diskBytes += position;
+    }
+
+    private void add(final String pKey, final Entry pEntry) {
+        final Entry previous = index.put(pKey, pEntry);
+        if (previous != null) {
+            release(previous);
+        }
+        pEntry.segment.live++;
+        liveBytes += pEntry.length;
+    }
+
+    private void release(final Entry pEntry) {
+        pEntry.segment.live--;
+        liveBytes -= pEntry.length;
+    }
+
+    private long append(final ByteBuffer pRecord) throws IOException {
+        if (active.size > 0 && active.size + pRecord.remaining() > segmentSize) {
+            active.seal();
+            roll();
+        }
+        final long offset = active.size;
+        long position = offset;
+        while (pRecord.hasRemaining()) {
+            position += active.channel.write(pRecord, position);
+        }
+        diskBytes += position - offset;
+        active.size = position;
+        return offset;
+    }
+
+    private void roll() throws IOException {
+        final long id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        final Segment segment = new Segment(id,
+                directory.resolve(String.format("%016d%s", id, SUFFIX)));
+        segments.put(id, segment);
+        active = segment;
+    }
+
+    private void evict() throws IOException {
+        final Iterator<Map.Entry<String, Entry>> eldest = index.entrySet()
+                .iterator();
+        final List<String> evicted = new ArrayList<String>();
+        while (liveBytes > maxBytes && eldest.hasNext()) {
+            final Map.Entry<String, Entry> entry = eldest.next();
+            eldest.remove();
+            release(entry.getValue());
+            evicted.add(entry.getKey());
+        }
+        for (final String key : evicted) {
+            tombstone(key);
+        }
+    }
+
+    private void tombstone(final String pKey) throws IOException {
+        // without it, the record would be back after the next open
+        append(encode(REMOVE, pKey, null, 0L));
+        active.tombstones++;
+    }
+
+    private void reclaim() throws IOException {
+        final Iterator<Segment> iterator = segments.values().iterator();
+        boolean oldest = true;
+        while (iterator.hasNext()) {
+            final Segment segment = iterator.next();
+            // tombstones are needed while an older segment may still hold
+            // the removed records
+            if (segment != active && segment.live == 0
+                    && (oldest || segment.tombstones == 0)) {
+                iterator.remove();
+                delete(segment);
+            } else {
+                oldest = false;
+            }
+        }
+        while (diskBytes > 2 * maxBytes
+                && segments.firstEntry().getValue() != active) {
+            compact(segments.pollFirstEntry().getValue());
+        }
+    }
+
+    private void compact(final Segment pSegment) throws IOException {
+        for (final Map.Entry<String, Entry> item : index.entrySet()) {
+            final Entry entry = item.getValue();
+            if (entry.segment == pSegment) {
+                final ByteBuffer record = pSegment.read(entry.offset,
+                        entry.length);
+                final long offset = append(record);
+                final Entry moved = new Entry(active, offset, entry.length,
+                        entry.bodyOffset, entry.storedAt);
+                // setValue keeps the access order of the entry
+                item.setValue(moved);
+                pSegment.live--;
+                active.live++;
+            }
+        }
+        delete(pSegment);
+    }
+
+    private void delete(final Segment pSegment) throws IOException {
+        diskBytes -= pSegment.size;
+        pSegment.removed = true;
+        retire(pSegment);
+    }
+
+    private static void retire(final Segment pSegment) throws IOException {
+        pSegment.retired = true;
+        // a pinned segment is disposed by the last transfer out of it
+        if (pSegment.pins == 0) {
+            dispose(pSegment);
+        }
+    }
+
+    private static void dispose(final Segment pSegment) throws IOException {
+        pSegment.channel.close();
+        if (pSegment.removed) {
+            Files.deleteIfExists(pSegment.path);
+        }
+    }
+
+    private static ByteBuffer encode(final byte pType, final String pKey,
+            final Avatar pAvatar, final long pNow) {
+        final byte[] key = pKey.getBytes(StandardCharsets.UTF_8);
+        final byte[][] meta = pAvatar == null ? new byte[0][]
+                : new byte[][] { bytes(pAvatar.getUri() == null ? null
+                        : pAvatar.getUri().toString()),
+                        bytes(pAvatar.getContentType()),
+                        bytes(pAvatar.getEtag()),
+                        bytes(pAvatar.getLastModified()) };
+        int metaLength = 0;
+        for (final byte[] value : meta) {
+            metaLength += 2 + (value == null ? 0 : value.length);
+        }
+        final byte[] body = pAvatar == null ? new byte[0] : pAvatar.getBody();
+        final ByteBuffer result = ByteBuffer
+                .allocate(HEADER_LENGTH + key.length + metaLength + body.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        result.putInt(MAGIC).putInt(0).put(pType).put((byte) 0)
+                .putShort((short) (pAvatar == null ? 0 : pAvatar.getStatus()))
+                .putInt(key.length).putInt(metaLength).putInt(body.length)
+                .putLong(pNow)
+                .putLong(pAvatar == null ? 0L : pAvatar.getExpires())
+                .put(key);
+        for (final byte[] value : meta) {
+            result.putShort((short) (value == null ? -1 : value.length));
+            if (value != null) {
+                result.put(value);
+            }
+        }
+        result.put(body).flip();
+        result.putInt(4, checksum(result));
+        return result;
+    }
+
+    private static Avatar read(final Entry pEntry) throws IOException {
+        final Segment segment = pEntry.segment;
+        final byte[] body = new byte[pEntry.length - pEntry.bodyOffset];
+        final ByteBuffer head;
+        if (segment.map != null) {
+            head = segment.read(pEntry.offset, pEntry.length);
+            head.position(pEntry.bodyOffset);
+            head.get(body);
+        } else {
+            // read the image straight into its array, not through a buffer
+            head = ByteBuffer.allocate(pEntry.bodyOffset);
+            readFully(segment.channel, head, pEntry.offset);
+            readFully(segment.channel, ByteBuffer.wrap(body),
+                    pEntry.offset + pEntry.bodyOffset);
+        }
+        return decode(head.order(ByteOrder.LITTLE_ENDIAN), body);
+    }
+
+    private static Avatar decode(final ByteBuffer pHead, final byte[] pBody) {
+        final int status = pHead.getShort(10);
+        final int keyLength = pHead.getInt(12);
+        final long expires = pHead.getLong(32);
+        pHead.position(HEADER_LENGTH + keyLength);
+        final String uri = string(pHead);
+        final String contentType = string(pHead);
+        final String etag = string(pHead);
+        final String lastModified = string(pHead);
+        return new Avatar(uri == null ? null : URI.create(uri), status, pBody,
+                contentType, etag, lastModified, expires);
+    }
+
+    private static byte[] bytes(final String pValue) {
+        return pValue == null ? null : pValue.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(final ByteBuffer pRecord) {
+        final int length = pRecord.getShort();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] value = new byte[length];
+        pRecord.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static int checksum(final ByteBuffer pRecord) {
+        final CRC32C crc = new CRC32C();
+        final ByteBuffer content = pRecord.duplicate();
+        content.position(8);
+        crc.update(content);
+        return (int) crc.getValue();
+    }
+
+    private static void readFully(final FileChannel pChannel,
+            final ByteBuffer pBuffer, final long pPosition) throws IOException {
+        long position = pPosition;
+        while (pBuffer.hasRemaining()) {
+            final int read = pChannel.read(pBuffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+        pBuffer.flip();
+    }
+
+    private static final class Segment {
+        final long id;
+        final Path path;
+        final FileChannel channel;
+        long size;
+        int live;
+        int tombstones;
+        int pins;
+        boolean retired;
+        boolean removed;
+        volatile MappedByteBuffer map;
+
+        Segment(final long pId, final Path pPath) throws IOException {
+            this.id = pId;
+            this.path = pPath;
+            this.channel = FileChannel.open(pPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        void seal() throws IOException {
+            if (map == null && size > 0) {
+                map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+        }
+
+        ByteBuffer read(final long pOffset, final int pLength)
+                throws IOException {
+            final MappedByteBuffer mapped = map;
+            if (mapped != null) {
+                final ByteBuffer result = mapped.duplicate();
+                result.position((int) pOffset).limit((int) pOffset + pLength);
+                return result.slice();
+            }
+            final ByteBuffer result = ByteBuffer.allocate(pLength);
+            readFully(channel, result, pOffset);
+            return result;
+        }
+    }
+
+    private static final class Entry {
+        final Segment segment;
+        final long offset;
+        final int length;
+        final int bodyOffset;
+        final long storedAt;
+
+        Entry(final Segment pSegment, final long pOffset, final int pLength,
+                final int pBodyOffset, final long pStoredAt) {
+            this.segment = pSegment;
+            this.offset = pOffset;
+            this.length = pLength;
+            this.bodyOffset = pBodyOffset;
+            this.storedAt = pStoredAt;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package org.rjung.util.gravatar.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * A pull-parser for JSON. The document is read in small pieces from a
+ * {@link Reader} while the caller walks through it, so a response is never
+ * held as a whole. Values that are not needed are skipped without creating
+ * objects for them.
+ */
+final class JsonReader implements Closeable {
+
+    /**
+     * The kinds of tokens of a JSON document.
+     */
+    enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER,
+        BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int NONEMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private final Reader in;
+    private final char[] buffer = new char[2048];
+    private final StringBuilder text = new StringBuilder();
+    private int position;
+    private int limit;
+    private int[] stack = new int[16];
+    private int depth;
+    private Token peeked;
+
+    JsonReader(final Reader pIn) {
+        this.in = pIn;
+        stack[depth++] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * The kind of the next token, without consuming it.
+     *
+     * @return {@link Token}
+     * @throws IOException
+     *             If reading fails or the document is malformed.
+     */
+    Token peek() throws IOException {
+        if (peeked == null) {
+            peeked = next();
+        }
+        return peeked;
+    }
+
+    void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+    }
+
+    void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+    }
+
+    void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+    }
+
+    void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+    }
+
+    /**
+     * Check if the current object or array has more elements.
+     *
+     * @return <code>true</code> if there is another element
+     * @throws IOException
+     *             If reading fails or the document is malformed.
+     */
+    boolean hasNext() throws IOException {
+        final Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY
+                && token != Token.END_DOCUMENT;
+    }
+
+    String nextName() throws IOException {
+        expect(Token.NAME);
+        return text.toString();
+    }
+
+    /**
+     * Read a string, a number or a boolean as text.
+     *
+     * @return the value, <code>null</code> for a JSON <code>null</code>
+     * @throws IOException
+     *             If reading fails, the next token is no simple value or the
+     *             document is malformed.
+     */
+    String nextString() throws IOException {
+        final Token token = peek();
+        if (token == Token.NULL) {
+            peeked = null;
+            return null;
+        }
+        if (token != Token.STRING && token != Token.NUMBER
+                && token != Token.BOOLEAN) {
+            throw syntaxError("expected a value but was " + token);
+        }
+        peeked = null;
+        return text.toString();
+    }
+
+    /**
+     * Skip the next value, with all elements if it is an object or array.
+     *
+     * @throws IOException
+     *             If reading fails or the document is malformed.
+     */
+    void skipValue() throws IOException {
+        int open = 0;
+        do {
+            final Token token = peek();
+            peeked = null;
+            if (token == Token.BEGIN_OBJECT || token == Token.BEGIN_ARRAY) {
+                open++;
+            } else if (token == Token.END_OBJECT
+                    || token == Token.END_ARRAY) {
+                open--;
+            } else if (token == Token.END_DOCUMENT) {
+                throw syntaxError("unexpected end of document");
+            }
+        } while (open > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void expect(final Token pToken) throws IOException {
+        final Token token = peek();
+        if (token != pToken) {
+            throw syntaxError("expected " + pToken + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    private Token next() throws IOException {
+        final int state = stack[depth - 1];
+        int c;
+        switch (state) {
+        case EMPTY_DOCUMENT:
+            stack[depth - 1] = NONEMPTY_DOCUMENT;
+            return value(nextNonWhitespace());
+        case NONEMPTY_DOCUMENT:
+            if (nextNonWhitespace() != -1) {
+                throw syntaxError("more than one value");
+            }
+            return Token.END_DOCUMENT;
+        case EMPTY_ARRAY:
+        case NONEMPTY_ARRAY:
+            c = nextNonWhitespace();
+            if (c == ']') {
+                depth--;
+                return Token.END_ARRAY;
+            }
+            if (state == NONEMPTY_ARRAY) {
+                if (c != ',') {
+                    throw syntaxError("expected , or ]");
+                }
+                c = nextNonWhitespace();
+            }
+            stack[depth - 1] = NONEMPTY_ARRAY;
+            return value(c);
+        case EMPTY_OBJECT:
+        case NONEMPTY_OBJECT:
+            c = nextNonWhitespace();
+            if (c == '}') {
+                depth--;
+                return Token.END_OBJECT;
+            }
+            if (state == NONEMPTY_OBJECT) {
+                if (c != ',') {
+                    throw syntaxError("expected , or }");
+                }
+                c = nextNonWhitespace();
+            }
+            if (c != '"') {
+                throw syntaxError("expected a name");
+            }
+            string();
+            stack[depth - 1] = DANGLING_NAME;
+            return Token.NAME;
+        case DANGLING_NAME:
+            if (nextNonWhitespace() != ':') {
+                throw syntaxError("expected :");
+            }
+            stack[depth - 1] = NONEMPTY_OBJECT;
+            return value(nextNonWhitespace());
+        default:
+            throw new IllegalStateException("state " + state);
+        }
+    }
+
+    private Token value(final int pFirst) throws IOException {
+        switch (pFirst) {
+        case '{':
+            push(EMPTY_OBJECT);
+            return Token.BEGIN_OBJECT;
+        case '[':
+            push(EMPTY_ARRAY);
+            return Token.BEGIN_ARRAY;
+        case '"':
+            string();
+            return Token.STRING;
+        case 't':
+        case 'f':
+        case 'n':
+            return literal(pFirst);
+        case -1:
+            throw syntaxError("unexpected end of document");
+        default:
+            if (pFirst == '-' || pFirst >= '0' && pFirst <= '9') {
+                return number(pFirst);
+            }
+            throw syntaxError("unexpected character " + (char) pFirst);
+        }
+    }
+
+    private void push(final int pState) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = pState;
+    }
+
+    private void string() throws IOException {
+        text.setLength(0);
+        while (true) {
+            final int c = read();
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                escape();
+            } else if (c < 0x20) {
+                throw syntaxError(c == -1 ? "unterminated string"
+                        : "control character in string");
+            } else {
+                text.append((char) c);
+            }
+        }
+    }
+
+    private void escape() throws IOException {
+        final int c = read();
+        switch (c) {
+        case '"':
+        case '\\':
+        case '/':
+            text.append((char) c);
+            break;
+        case 'b':
+            text.append('\b');
+            break;
+        case 'f':
+            text.append('\f');
+            break;
+        case 'n':
+            text.append('\n');
+            break;
+        case 'r':
+            text.append('\r');
+            break;
+        case 't':
+            text.append('\t');
+            break;
+        case 'u':
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                final int digit = Character.digit(read(), 16);
+                if (digit < 0) {
+                    throw syntaxError("invalid unicode escape");
+                }
+                value = value << 4 | digit;
+            }
+            text.append((char) value);
+            break;
+        default:
+            throw syntaxError("invalid escape");
+        }
+    }
+
+    private Token literal(final int pFirst) throws IOException {
+        text.setLength(0);
+        text.append((char) pFirst);
+        while (Character.isLetter(peekChar())) {
+            text.append((char) read());
+        }
+        final String value = text.toString();
+        if ("true".equals(value) || "false".equals(value)) {
+            return Token.BOOLEAN;
+        } else if ("null".equals(value)) {
+            return Token.NULL;
+        }
+        throw syntaxError("unexpected literal " + value);
+    }
+
+    private Token number(final int pFirst) throws IOException {
+        text.setLength(0);
+        text.append((char) pFirst);
+        int c = peekChar();
+        while (c >= '0' && c <= '9' || c == '.' || c == 'e' || c == 'E'
+                || c == '+' || c == '-') {
+            text.append((char) read());
+            c = peekChar();
+        }
+        return Token.NUMBER;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c = read();
+        while (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+            c = read();
+        }
+        return c;
+    }
+
+    private int peekChar() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position];
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+
+    private boolean fill() throws IOException {
+        final int read = in.read(buffer);
+        position = 0;
+        limit = Math.max(read, 0);
+        return read > 0;
+    }
+
+    private IOException syntaxError(final String pMessage) {
+        return new IOException("malformed JSON: " + pMessage);
+    }
+}
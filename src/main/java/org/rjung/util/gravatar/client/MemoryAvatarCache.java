@@ -0,0 +1,76 @@
+package org.rjung.util.gravatar.client;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An {@link AvatarCache} on the heap, bounded by the number of bytes of the
+ * images. If it is full, the least recently used {@link Avatar}s are removed.
+ */
+public final class MemoryAvatarCache implements AvatarCache {
+
+    private final long capacity;
+    private final LinkedHashMap<String, Avatar> entries = new LinkedHashMap<String, Avatar>(
+            16, 0.75f, true);
+    private long bytes;
+
+    /**
+     * Create a {@link MemoryAvatarCache}.
+     *
+     * @param pCapacity
+     *            maximum number of bytes of all images together
+     */
+    public MemoryAvatarCache(final long pCapacity) {
+        if (pCapacity < 1) {
+            throw new IllegalArgumentException("capacity needs to be positive");
+        }
+        this.capacity = pCapacity;
+    }
+
+    @Override
+    public synchronized Avatar get(final String pKey) {
+        return entries.get(pKey);
+    }
+
+    @Override
+    public synchronized void put(final String pKey, final Avatar pAvatar) {
+        final Avatar previous = entries.put(pKey, pAvatar);
+        if (previous != null) {
+            bytes -= previous.getBody().length;
+        }
+        bytes += pAvatar.getBody().length;
+        final Iterator<Map.Entry<String, Avatar>> eldest = entries.entrySet()
+                .iterator();
+        while (bytes > capacity && eldest.hasNext()) {
+            bytes -= eldest.next().getValue().getBody().length;
+            eldest.remove();
+        }
+    }
+
+    @Override
+    public synchronized void remove(final String pKey) {
+        final Avatar previous = entries.remove(pKey);
+        if (previous != null) {
+            bytes -= previous.getBody().length;
+        }
+    }
+
+    /**
+     * The number of {@link Avatar}s in the cache.
+     *
+     * @return number of entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * The number of bytes of all images in the cache.
+     *
+     * @return number of bytes
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,22 @@
+package org.rjung.util.gravatar.client;
+
+/**
+ * What a {@link PresenceIndex} knows about the avatar of a hash.
+ */
+public enum Presence {
+
+    /**
+     * The hash has an avatar; with about 1% false positives.
+     */
+    PRESENT,
+
+    /**
+     * The hash had no avatar when it was probed.
+     */
+    ABSENT,
+
+    /**
+     * The hash was not probed within the time to live.
+     */
+    UNKNOWN
+}
@@ -0,0 +1,380 @@
+package org.rjung.util.gravatar.client;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.rjung.util.Gravatar;
+import org.rjung.util.GravatarException;
+import org.rjung.util.gravatar.hash.DigestEngine;
+import org.rjung.util.gravatar.hash.Digester;
+import org.rjung.util.gravatar.hash.EmailNormalizer;
+import org.rjung.util.gravatar.hash.HashAlgorithm;
+import org.rjung.util.gravatar.hash.Hex;
+
+/**
+ * {@link PresenceClient} finds out which email-addresses have a Gravatar, e.g.
+ * to show initials instead of a default image. It asks with a
+ * <code>HEAD</code>-request for the smallest image and <code>d=404</code>, so
+ * the answer has no body, and keeps the result in a {@link PresenceIndex}.
+ * Later questions are answered from the index without a request:
+ *
+ * <pre>
+ * PresenceClient client = PresenceClient.builder().maxConcurrency(16).build();
+ * client.probeAll(emails).get();
+ * ...
+ * if (client.hasAvatar(email)) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * As in {@link AvatarClient} the number of requests in flight is limited and
+ * concurrent probes of the same hash share one request.
+ */
+public final class PresenceClient {
+
+    private static final int HASH_LENGTH = 16;
+    private static final String QUERY = "?d=404&s=1";
+    private static final int DEFAULT_CONCURRENCY = 16;
+    private static final int DEFAULT_CAPACITY = 100000;
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration DEFAULT_MAX_WAIT = Duration.ofSeconds(30);
+    private static final Duration DEFAULT_TTL = Duration.ofDays(7);
+    private static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofDays(1);
+
+    private final HttpClient client;
+    private final URI baseUri;
+    private final Duration timeout;
+    private final PresenceIndex index;
+    private final ConcurrencyLimiter limiter;
+    private final SingleFlight<String, Boolean> flights;
+
+    private PresenceClient(final Builder pBuilder) {
+        this.client = pBuilder.client != null ? pBuilder.client
+                : newHttpClient(pBuilder);
+        this.baseUri = pBuilder.baseUri;
+        this.timeout = pBuilder.timeout;
+        this.index = pBuilder.index != null ? pBuilder.index
+                : new PresenceIndex(DEFAULT_CAPACITY, DEFAULT_TTL,
+                        DEFAULT_NEGATIVE_TTL);
+        this.limiter = new ConcurrencyLimiter(pBuilder.maxConcurrency);
+        this.flights = new SingleFlight<String, Boolean>(pBuilder.maxWait);
+    }
+
+    /**
+     * Start to configure a {@link PresenceClient}.
+     *
+     * @return {@link Builder} with the default options
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Answer from the {@link PresenceIndex} whether an email-address has a
+     * Gravatar. No request is sent, an email-address that was not probed yet
+     * has none.
+     *
+     * @param pEmail
+     *            the email-address
+     * @return <code>true</code> if the email-address was found with a
+     *         Gravatar
+     */
+    public boolean hasAvatar(final String pEmail) {
+        return presence(pEmail) == Presence.PRESENT;
+    }
+
+    /**
+     * Answer from the {@link PresenceIndex} what is known about the Gravatar
+     * of an email-address. No request is sent and, unless the digests are
+     * new, nothing is allocated.
+     *
+     * @param pEmail
+     *            the email-address
+     * @return {@link Presence} of the email-address
+     */
+    public Presence presence(final String pEmail) {
+        final DigestEngine engine = HashAlgorithm.MD5.engine();
+        final Digester digester = engine.acquire();
+        try {
+            return index.lookup(digest(pEmail, digester), 0);
+        } finally {
+            engine.release(digester);
+        }
+    }
+
+    /**
+     * Find out whether an email-address has a Gravatar. A request is only
+     * sent if the {@link PresenceIndex} does not know it.
+     *
+     * @param pEmail
+     *            the email-address
+     * @return {@link CompletableFuture} that is <code>true</code> if the
+     *         email-address has a Gravatar, it fails with an
+     *         {@link IOException} if the server answers with another status
+     *         than 200 or 404
+     */
+    public CompletableFuture<Boolean> probe(final String pEmail) {
+        final DigestEngine engine = HashAlgorithm.MD5.engine();
+        final Digester digester = engine.acquire();
+        final byte[] hash;
+        try {
+            hash = Arrays.copyOf(digest(pEmail, digester), HASH_LENGTH);
+        } finally {
+            engine.release(digester);
+        }
+        return probe(hash, 0);
+    }
+
+    /**
+     * Find out which of many email-addresses have a Gravatar. All addresses
+     * are hashed at once, only the ones unknown to the {@link PresenceIndex}
+     * are probed, concurrently.
+     *
+     * @param pEmails
+     *            the email-addresses
+     * @return {@link CompletableFuture} of whether each email-address has a
+     *         Gravatar, in the order of the email-addresses. It fails if one
+     *         of the probes fails.
+     * @throws GravatarException
+     *             If some Character-encoding fails, you will receive a
+     *             {@link GravatarException}.
+     */
+    public CompletableFuture<Map<String, Boolean>> probeAll(
+            final Collection<String> pEmails) throws GravatarException {
+        final List<String> emails = new ArrayList<String>(pEmails);
+        final byte[] hashes = Gravatar.toHashes(emails);
+        final List<CompletableFuture<Boolean>> probes = new ArrayList<CompletableFuture<Boolean>>(
+                emails.size());
+        for (int i = 0; i < emails.size(); i++) {
+            probes.add(probe(hashes, i * HASH_LENGTH));
+        }
+        return CompletableFuture
+                .allOf(probes.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> {
+                    final Map<String, Boolean> result = new LinkedHashMap<String, Boolean>();
+                    for (int i = 0; i < emails.size(); i++) {
+                        result.put(emails.get(i), probes.get(i).join());
+                    }
+                    return result;
+                });
+    }
+
+    /**
+     * The {@link PresenceIndex} of this client, e.g. to save it.
+     *
+     * @return {@link PresenceIndex}
+     */
+    public PresenceIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * The number of hashes currently being probed, including the ones waiting
+     * for the concurrency limit.
+     *
+     * @return number of probes in flight
+     */
+    public int inFlight() {
+        return flights.inFlight();
+    }
+
+    private CompletableFuture<Boolean> probe(final byte[] pHashes,
+            final int pOffset) {
+        final Presence known = index.lookup(pHashes, pOffset);
+        if (known != Presence.UNKNOWN) {
+            return CompletableFuture
+                    .completedFuture(known == Presence.PRESENT);
+        }
+        final byte[] hash = Arrays.copyOfRange(pHashes, pOffset,
+                pOffset + HASH_LENGTH);
+        final String hex = Hex.encode(hash);
+        return flights.run(hex, () -> limiter.submit(() -> send(hash, hex)));
+    }
+
+    private CompletableFuture<Boolean> send(final byte[] pHash,
+            final String pHex) {
+        final HttpRequest request = HttpRequest
+                .newBuilder(baseUri.resolve(pHex + QUERY)).timeout(timeout)
+                .method("HEAD", HttpRequest.BodyPublishers.noBody()).build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .thenCompose(response -> {
+                    final int status = response.statusCode();
+                    if (status != 200 && status != 404) {
+                        return CompletableFuture.failedFuture(new IOException(
+                                "unexpected status " + status + " for "
+                                        + pHex));
+                    }
+                    index.record(pHash, 0, status == 200);
+                    return CompletableFuture.completedFuture(status == 200);
+                });
+    }
+
+    private static byte[] digest(final String pEmail,
+            final Digester pDigester) {
+        final byte[] buffer = pDigester.buffer(
+                pEmail == null ? 0 : pEmail.length() * 2);
+        final int length = EmailNormalizer.normalize(pEmail, buffer);
+        return pDigester.update(buffer, 0, length).digest();
+    }
+
+    private static HttpClient newHttpClient(final Builder pBuilder) {
+        final HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(pBuilder.timeout);
+        if (pBuilder.executor != null) {
+            builder.executor(pBuilder.executor);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Configures a {@link PresenceClient}.
+     */
+    public static final class Builder {
+
+        private HttpClient client;
+        private Executor executor;
+        private URI baseUri = AvatarClient.GRAVATAR_BASE_URI;
+        private Duration timeout = DEFAULT_TIMEOUT;
+        private int maxConcurrency = DEFAULT_CONCURRENCY;
+        private Duration maxWait = DEFAULT_MAX_WAIT;
+        private PresenceIndex index;
+
+        private Builder() {
+        }
+
+        /**
+         * Use an own {@link HttpClient}, e.g. to share it with an
+         * {@link AvatarClient}. The options {@link #executor(Executor)} and
+         * the connect timeout are then taken from that {@link HttpClient}.
+         *
+         * @param pClient
+         *            the {@link HttpClient} to send the requests with
+         * @return {@link Builder}
+         */
+        public Builder httpClient(final HttpClient pClient) {
+            this.client = pClient;
+            return this;
+        }
+
+        /**
+         * Set the {@link Executor} the responses are handled on. The default
+         * is the one of {@link HttpClient}.
+         *
+         * @param pExecutor
+         *            {@link Executor} for the {@link HttpClient}
+         * @return {@link Builder}
+         */
+        public Builder executor(final Executor pExecutor) {
+            this.executor = pExecutor;
+            return this;
+        }
+
+        /**
+         * Set the {@link URI} the images are probed at. The default is
+         * {@link AvatarClient#GRAVATAR_BASE_URI}.
+         *
+         * @param pBaseUri
+         *            {@link URI} ending with a <code>/</code>, the hash is
+         *            appended to it
+         * @return {@link Builder}
+         */
+        public Builder baseUri(final URI pBaseUri) {
+            if (pBaseUri == null || !pBaseUri.getPath().endsWith("/")) {
+                throw new IllegalArgumentException(
+                        "base uri needs to end with /");
+            }
+            this.baseUri = pBaseUri;
+            return this;
+        }
+
+        /**
+         * Set the time to wait for a connection and for a response. The
+         * default is 10 seconds.
+         *
+         * @param pTimeout
+         *            {@link Duration} to wait
+         * @return {@link Builder}
+         */
+        public Builder timeout(final Duration pTimeout) {
+            if (pTimeout == null || pTimeout.isNegative()
+                    || pTimeout.isZero()) {
+                throw new IllegalArgumentException(
+                        "timeout needs to be positive");
+            }
+            this.timeout = pTimeout;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of requests in flight. The default is 16.
+         *
+         * @param pMaxConcurrency
+         *            number of concurrent requests
+         * @return {@link Builder}
+         */
+        public Builder maxConcurrency(final int pMaxConcurrency) {
+            if (pMaxConcurrency < 1) {
+                throw new IllegalArgumentException(
+                        "concurrency needs to be positive");
+            }
+            this.maxConcurrency = pMaxConcurrency;
+            return this;
+        }
+
+        /**
+         * Set the maximum time a probe waits for its result, including the
+         * time waiting for the concurrency limit and for a shared request.
+         * The default is 30 seconds.
+         *
+         * @param pMaxWait
+         *            {@link Duration} to wait
+         * @return {@link Builder}
+         */
+        public Builder maxWait(final Duration pMaxWait) {
+            if (pMaxWait == null || pMaxWait.isNegative()
+                    || pMaxWait.isZero()) {
+                throw new IllegalArgumentException(
+                        "max wait needs to be positive");
+            }
+            this.maxWait = pMaxWait;
+            return this;
+        }
+
+        /**
+         * Set the {@link PresenceIndex} to keep the results in, e.g. one
+         * loaded from a file. The default keeps 100000 hashes, the ones with
+         * a Gravatar for seven days and the ones without for one day.
+         *
+         * @param pIndex
+         *            {@link PresenceIndex} to use
+         * @return {@link Builder}
+         */
+        public Builder index(final PresenceIndex pIndex) {
+            this.index = pIndex;
+            return this;
+        }
+
+        /**
+         * Create the {@link PresenceClient}.
+         *
+         * @return {@link PresenceClient}
+         */
+        public PresenceClient build() {
+            return new PresenceClient(this);
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package org.rjung.util.gravatar.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * {@link PresenceIndex} remembers which hashes have an avatar, as found out
+ * by a {@link PresenceClient}. It answers from memory without hashing again:
+ * the MD5 of an email-address is random enough to take the bit positions of
+ * two Bloom filters from it, one for the hashes with an avatar and one for
+ * the hashes without. A Bloom filter can not forget single entries, so each
+ * consists of four generations of which the oldest is cleared when its time
+ * is over; an entry is forgotten after three to four quarters of its time to
+ * live. Both filters are sized for about 1% false positives at the given
+ * capacity, that is about ten bytes per hash of capacity.<br>
+ * The index is thread-safe, lookups do not lock or allocate. It can be saved
+ * to a file and loaded again, so the knowledge survives a restart:
+ *
+ * <pre>
+ * PresenceIndex index = Files.exists(path) ? PresenceIndex.load(path)
+ *         : new PresenceIndex(1000000, Duration.ofDays(7), Duration.ofDays(1));
+ * ...
+ * index.save(path);
+ * </pre>
+ */
+public final class PresenceIndex {
+
+    private static final int MAGIC = 0x47505849; // "GPXI"
+    private static final int VERSION = 1;
+    private static final int GENERATIONS = 4;
+    private static final int PROBES = 7;
+    private static final double BITS_PER_ENTRY = 9.6;
+    private static final int DIGEST_LENGTH = 16;
+
+    private final int capacity;
+    private final long ttl;
+    private final long negativeTtl;
+    private final LongSupplier clock;
+    private final Filter present;
+    private final Filter absent;
+
+    /**
+     * Create an empty {@link PresenceIndex}.
+     *
+     * @param pCapacity
+     *            the number of hashes to keep within one time to live
+     * @param pTtl
+     *            how long a hash with an avatar is remembered
+     * @param pNegativeTtl
+     *            how long a hash without an avatar is remembered
+     */
+    public PresenceIndex(final int pCapacity, final Duration pTtl,
+            final Duration pNegativeTtl) {
+        this(pCapacity, pTtl.toMillis(), pNegativeTtl.toMillis(),
+                System::currentTimeMillis);
+    }
+
+    PresenceIndex(final int pCapacity, final long pTtl,
+            final long pNegativeTtl, final LongSupplier pClock) {
+        if (pCapacity < 1) {
+            throw new IllegalArgumentException(
+                    "capacity needs to be positive");
+        }
+        if (pTtl < GENERATIONS || pNegativeTtl < GENERATIONS) {
+            throw new IllegalArgumentException(
+                    "time to live is too short");
+        }
+        this.capacity = pCapacity;
+        this.ttl = pTtl;
+        this.negativeTtl = pNegativeTtl;
+        this.clock = pClock;
+        final int words = (int) Math.min(Integer.MAX_VALUE / 64,
+                (long) Math.ceil(pCapacity * BITS_PER_ENTRY / 64));
+        this.present = new Filter(words, pTtl / GENERATIONS);
+        this.absent = new Filter(words, pNegativeTtl / GENERATIONS);
+    }
+
+    /**
+     * Load a {@link PresenceIndex} saved with {@link #save(Path)}. Entries
+     * that expired in the meantime are forgotten.
+     *
+     * @param pPath
+     *            the file to read
+     * @return the loaded {@link PresenceIndex}
+     * @throws IOException
+     *             If the file can not be read or is no presence index.
+     */
+    public static PresenceIndex load(final Path pPath) throws IOException {
+        return load(pPath, System::currentTimeMillis);
+    }
+
+    static PresenceIndex load(final Path pPath, final LongSupplier pClock)
+            throws IOException {
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(pPath)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException(pPath + " is no presence index");
+            }
+            final PresenceIndex result = new PresenceIndex(input.readInt(),
+                    input.readLong(), input.readLong(), pClock);
+            result.present.read(input);
+            result.absent.read(input);
+            return result;
+        }
+    }
+
+    /**
+     * Save this {@link PresenceIndex} to a file. The file is written next to
+     * the target and moved in place, so a crash leaves the previous version.
+     *
+     * @param pPath
+     *            the file to write
+     * @throws IOException
+     *             If the file can not be written.
+     */
+    public void save(final Path pPath) throws IOException {
+        final Path directory = pPath.toAbsolutePath().getParent();
+        final Path temporary = Files.createTempFile(directory,
+                pPath.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream output = new DataOutputStream(
+                    new BufferedOutputStream(
+                            Files.newOutputStream(temporary)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeInt(capacity);
+                output.writeLong(ttl);
+                output.writeLong(negativeTtl);
+                present.write(output);
+                absent.write(output);
+            }
+            Files.move(temporary, pPath, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Look up what is known about a MD5-hash.
+     *
+     * @param pDigest
+     *            array containing the MD5-hash
+     * @param pOffset
+     *            position of the 16 bytes of the hash in <code>pDigest</code>
+     * @return {@link Presence} of the hash
+     */
+    public Presence lookup(final byte[] pDigest, final int pOffset) {
+        final long first = readLong(pDigest, pOffset);
+        final long second = readLong(pDigest, pOffset + 8);
+        final long now = clock.getAsLong();
+        if (present.contains(first, second, now)) {
+            return Presence.PRESENT;
+        }
+        return absent.contains(first, second, now) ? Presence.ABSENT
+                : Presence.UNKNOWN;
+    }
+
+    /**
+     * Record whether a MD5-hash has an avatar. A hash found with an avatar
+     * is {@link Presence#PRESENT} from now on, even if it was recorded as
+     * absent before.
+     *
+     * @param pDigest
+     *            array containing the MD5-hash
+     * @param pOffset
+     *            position of the 16 bytes of the hash in <code>pDigest</code>
+     * @param pPresent
+     *            <code>true</code> if the hash has an avatar
+     */
+    public void record(final byte[] pDigest, final int pOffset,
+            final boolean pPresent) {
+        if (pDigest.length - pOffset < DIGEST_LENGTH) {
+            throw new IllegalArgumentException("a MD5-hash has 16 bytes");
+        }
+        (pPresent ? present : absent).add(readLong(pDigest, pOffset),
+                readLong(pDigest, pOffset + 8), clock.getAsLong());
+    }
+
+    /**
+     * The number of hashes this index keeps within one time to live at about
+     * 1% false positives.
+     *
+     * @return capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private static long readLong(final byte[] pInput, final int pOffset) {
+        long result = 0;
+        for (int i = 0; i < 8; i++) {
+            result = result << 8 | (pInput[pOffset + i] & 0xFF);
+        }
+        return result;
+    }
+
+    /**
+     * A Bloom filter in generations of equal time slices. The slice of a
+     * generation is stored with it, a generation older than the last
+     * {@link PresenceIndex#GENERATIONS} slices is ignored and cleared when
+     * its turn comes again.
+     */
+    private static final class Filter {
+
+        private final long bits;
+        private final long slice;
+        private final AtomicLongArray[] generations = new AtomicLongArray[GENERATIONS];
+        private final AtomicLongArray slices = new AtomicLongArray(
+                GENERATIONS);
+
+        Filter(final int pWords, final long pSlice) {
+            this.bits = (long) pWords * 64;
+            this.slice = pSlice;
+            for (int i = 0; i < GENERATIONS; i++) {
+                generations[i] = new AtomicLongArray(pWords);
+                slices.set(i, Long.MIN_VALUE);
+            }
+        }
+
+        boolean contains(final long pFirst, final long pSecond,
+                final long pNow) {
+            final long current = pNow / slice;
+            for (int g = 0; g < GENERATIONS; g++) {
+                final long generation = slices.get(g);
+                if (generation > current - GENERATIONS
+                        && generation <= current
+                        && contains(generations[g], pFirst, pSecond)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void add(final long pFirst, final long pSecond, final long pNow) {
+            final long current = pNow / slice;
+            final int g = (int) Math.floorMod(current, (long) GENERATIONS);
+            if (slices.get(g) != current) {
+                turn(g, current);
+            }
+            final AtomicLongArray words = generations[g];
+            long hash = pFirst;
+            for (int i = 0; i < PROBES; i++) {
+                final long bit = index(hash);
+                final int word = (int) (bit >>> 6);
+                final long mask = 1L << bit;
+                if ((words.get(word) & mask) == 0) {
+                    words.accumulateAndGet(word, mask, (a, b) -> a | b);
+                }
+                hash += pSecond | 1;
+            }
+        }
+
+        private boolean contains(final AtomicLongArray pWords,
+                final long pFirst, final long pSecond) {
+            long hash = pFirst;
+            for (int i = 0; i < PROBES; i++) {
+                final long bit = index(hash);
+                if ((pWords.get((int) (bit >>> 6)) & 1L << bit) == 0) {
+                    return false;
+                }
+                hash += pSecond | 1;
+            }
+            return true;
+        }
+
+        private synchronized void turn(final int pGeneration,
+                final long pSlice) {
+            if (slices.get(pGeneration) >= pSlice) {
+                return;
+            }
+            // hidden from lookups while it is cleared
+            slices.set(pGeneration, Long.MIN_VALUE);
+            final AtomicLongArray words = generations[pGeneration];
+            for (int i = 0; i < words.length(); i++) {
+                words.set(i, 0L);
+            }
+            slices.set(pGeneration, pSlice);
+        }
+
+        /**
+         * Map the upper 32 bits of a hash onto the bits of the filter,
+         * without a division.
+         */
+        private long index(final long pHash) {
+            return (pHash >>> 32) * bits >>> 32;
+        }
+
+        void write(final DataOutputStream pOutput) throws IOException {
+            for (int g = 0; g < GENERATIONS; g++) {
+                pOutput.writeLong(slices.get(g));
+                final AtomicLongArray words = generations[g];
+                for (int i = 0; i < words.length(); i++) {
+                    pOutput.writeLong(words.get(i));
+                }
+            }
+        }
+
+        void read(final DataInputStream pInput) throws IOException {
+            for (int g = 0; g < GENERATIONS; g++) {
+                slices.set(g, pInput.readLong());
+                final AtomicLongArray words = generations[g];
+                for (int i = 0; i < words.length(); i++) {
+                    words.set(i, pInput.readLong());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package org.rjung.util.gravatar.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The public profile of a Gravatar, as returned by a {@link ProfileClient}.
+ * Only the commonly used fields are kept, all others are skipped while the
+ * response is parsed.
+ */
+public final class Profile {
+
+    private final String hash;
+    private final String displayName;
+    private final String preferredUsername;
+    private final String profileUrl;
+    private final String thumbnailUrl;
+    private final String aboutMe;
+    private final String currentLocation;
+    private final List<Link> urls;
+
+    private Profile(final String pHash, final Fields pFields) {
+        this.hash = pHash;
+        this.displayName = pFields.displayName;
+        this.preferredUsername = pFields.preferredUsername;
+        this.profileUrl = pFields.profileUrl;
+        this.thumbnailUrl = pFields.thumbnailUrl;
+        this.aboutMe = pFields.aboutMe;
+        this.currentLocation = pFields.currentLocation;
+        this.urls = Collections.unmodifiableList(pFields.urls);
+    }
+
+    /**
+     * The hash of the email-address the profile was looked up with.
+     *
+     * @return hexadecimal hash
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public String getPreferredUsername() {
+        return preferredUsername;
+    }
+
+    public String getProfileUrl() {
+        return profileUrl;
+    }
+
+    public String getThumbnailUrl() {
+        return thumbnailUrl;
+    }
+
+    public String getAboutMe() {
+        return aboutMe;
+    }
+
+    public String getCurrentLocation() {
+        return currentLocation;
+    }
+
+    /**
+     * The links the user added to the profile.
+     *
+     * @return unmodifiable {@link List} of {@link Link}s, empty if there are
+     *         none
+     */
+    public List<Link> getUrls() {
+        return urls;
+    }
+
+    @Override
+    public String toString() {
+        return "Profile [" + hash + ", " + displayName + "]";
+    }
+
+    /**
+     * Read a profile-document, i.e. <code>{"entry":[{...}]}</code>.
+     *
+     * @param pHash
+     *            the hash the profile was requested for
+     * @param pReader
+     *            {@link JsonReader} positioned at the start of the document
+     * @return the first {@link Profile} of the document, <code>null</code> if
+     *         it has no entries
+     * @throws IOException
+     *             If reading fails or the document is malformed.
+     */
+    static Profile read(final String pHash, final JsonReader pReader)
+            throws IOException {
+        Profile result = null;
+        pReader.beginObject();
+        while (pReader.hasNext()) {
+            if ("entry".equals(pReader.nextName())
+                    && pReader.peek() == JsonReader.Token.BEGIN_ARRAY) {
+                pReader.beginArray();
+                while (pReader.hasNext()) {
+                    if (result == null
+                            && pReader.peek() == JsonReader.Token.BEGIN_OBJECT) {
+                        result = new Profile(pHash, entry(pReader));
+                    } else {
+                        pReader.skipValue();
+                    }
+                }
+                pReader.endArray();
+            } else {
+                pReader.skipValue();
+            }
+        }
+        pReader.endObject();
+        return result;
+    }
+
+    private static Fields entry(final JsonReader pReader) throws IOException {
+        final Fields fields = new Fields();
+        pReader.beginObject();
+        while (pReader.hasNext()) {
+            final String name = pReader.nextName();
+            if ("urls".equals(name)
+                    && pReader.peek() == JsonReader.Token.BEGIN_ARRAY) {
+                links(pReader, fields.urls);
+            } else if (pReader.peek() == JsonReader.Token.BEGIN_OBJECT
+                    || pReader.peek() == JsonReader.Token.BEGIN_ARRAY) {
+                pReader.skipValue();
+            } else if ("displayName".equals(name)) {
+                fields.displayName = pReader.nextString();
+            } else if ("preferredUsername".equals(name)) {
+                fields.preferredUsername = pReader.nextString();
+            } else if ("profileUrl".equals(name)) {
+                fields.profileUrl = pReader.nextString();
+            } else if ("thumbnailUrl".equals(name)) {
+                fields.thumbnailUrl = pReader.nextString();
+            } else if ("aboutMe".equals(name)) {
+                fields.aboutMe = pReader.nextString();
+            } else if ("currentLocation".equals(name)) {
+                fields.currentLocation = pReader.nextString();
+            } else {
+                pReader.skipValue();
+            }
+        }
+        pReader.endObject();
+        return fields;
+    }
+
+    private static void links(final JsonReader pReader,
+            final List<Link> pLinks) throws IOException {
+        pReader.beginArray();
+        while (pReader.hasNext()) {
+            if (pReader.peek() != JsonReader.Token.BEGIN_OBJECT) {
+                pReader.skipValue();
+                continue;
+            }
+            String title = null;
+            String value = null;
+            pReader.beginObject();
+            while (pReader.hasNext()) {
+                final String name = pReader.nextName();
+                final JsonReader.Token token = pReader.peek();
+                if (token == JsonReader.Token.BEGIN_OBJECT
+                        || token == JsonReader.Token.BEGIN_ARRAY) {
+                    pReader.skipValue();
+                } else if ("title".equals(name)) {
+                    title = pReader.nextString();
+                } else if ("value".equals(name)) {
+                    value = pReader.nextString();
+                } else {
+                    pReader.skipValue();
+                }
+            }
+            pReader.endObject();
+            if (value != null) {
+                pLinks.add(new Link(title, value));
+            }
+        }
+        pReader.endArray();
+    }
+
+    private static final class Fields {
+        private String displayName;
+        private String preferredUsername;
+        private String profileUrl;
+        private String thumbnailUrl;
+        private String aboutMe;
+        private String currentLocation;
+        private final List<Link> urls = new ArrayList<Link>();
+    }
+
+    /**
+     * A link of a {@link Profile}.
+     */
+    public static final class Link {
+
+        private final String title;
+        private final String value;
+
+        Link(final String pTitle, final String pValue) {
+            this.title = pTitle;
+            this.value = pValue;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        /**
+         * The URL of the link.
+         *
+         * @return URL
+         */
+        public String getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return title + " <" + value + ">";
+        }
+    }
+}
@@ -0,0 +1,478 @@
+package org.rjung.util.gravatar.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.rjung.util.Gravatar;
+import org.rjung.util.GravatarException;
+import org.rjung.util.gravatar.hash.Hex;
+
+/**
+ * {@link ProfileClient} looks up the public {@link Profile}s of Gravatars.
+ * <br>
+ * Profiles are requested by the same hash a Gravatar-URL contains, the
+ * email-addresses are hashed with the batch-hashing of {@link Gravatar}. Each
+ * lookup runs on an own thread, virtual threads where the Java runtime has
+ * them, and the number of requests in flight is limited. The responses are
+ * parsed while they are read. Found profiles and missing ones are kept for a
+ * while, so repeated lookups do not cause requests, and concurrent lookups of
+ * the same hash share one request.
+ *
+ * <pre>
+ * try (ProfileClient client = ProfileClient.builder().build()) {
+ *     Map&lt;String, Profile&gt; profiles = client.lookupAll(emails).get();
+ * }
+ * </pre>
+ */
+public final class ProfileClient implements Closeable {
+
+    /**
+     * The {@link URI} profiles are requested from, unless another one is set
+     * with {@link Builder#baseUri(URI)}.
+     */
+    public static final URI GRAVATAR_PROFILE_URI = URI
+            .create("https://en.gravatar.com/");
+
+    private static final int DEFAULT_CONCURRENCY = 16;
+    private static final int DEFAULT_CACHE_SIZE = 10000;
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration DEFAULT_TTL = Duration.ofHours(1);
+    private static final Duration DEFAULT_NEGATIVE_TTL = Duration
+            .ofMinutes(10);
+    private static final Duration DEFAULT_MAX_WAIT = Duration.ofSeconds(30);
+    private static final int HASH_LENGTH = 16;
+
+    private final HttpClient client;
+    private final URI baseUri;
+    private final Duration timeout;
+    private final ExecutorService executor;
+    private final boolean ownExecutor;
+    private final Semaphore permits;
+    private final SingleFlight<String, Profile> flights;
+    private final ProfileCache cache;
+    private final long ttl;
+    private final long negativeTtl;
+
+    private ProfileClient(final Builder pBuilder) {
+        this.client = pBuilder.client != null ? pBuilder.client
+                : HttpClient.newBuilder()
+                        .followRedirects(HttpClient.Redirect.NORMAL)
+                        .connectTimeout(pBuilder.timeout).build();
+        this.baseUri = pBuilder.baseUri;
+        this.timeout = pBuilder.timeout;
+        this.ownExecutor = pBuilder.executor == null;
+        this.executor = ownExecutor ? newExecutor(pBuilder.maxConcurrency)
+                : pBuilder.executor;
+        this.permits = new Semaphore(pBuilder.maxConcurrency);
+        this.flights = new SingleFlight<String, Profile>(pBuilder.maxWait);
+        this.cache = new ProfileCache(pBuilder.cacheSize);
+        this.ttl = pBuilder.ttl.toMillis();
+        this.negativeTtl = pBuilder.negativeTtl.toMillis();
+    }
+
+    /**
+     * Start to configure a {@link ProfileClient}.
+     *
+     * @return {@link Builder} with the default options
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Look up the {@link Profile} of an email-address.
+     *
+     * @param pEmail
+     *            the email-address
+     * @return {@link CompletableFuture} of the {@link Profile}, completed
+     *         with <code>null</code> if there is no profile, it fails with
+     *         an {@link IOException} if the profile can not be requested
+     * @throws GravatarException
+     *             If some Character-encoding fails, you will receive a
+     *             {@link GravatarException}.
+     */
+    public CompletableFuture<Profile> lookup(final String pEmail)
+            throws GravatarException {
+        return lookupHash(Hex.encode(
+                Gravatar.toHashes(Collections.singletonList(pEmail))));
+    }
+
+    /**
+     * Look up the {@link Profile} of a hash, e.g. one taken from a
+     * Gravatar-URL.
+     *
+     * @param pHash
+     *            the hexadecimal hash of the email-address
+     * @return {@link CompletableFuture} of the {@link Profile}, completed
+     *         with <code>null</code> if there is no profile, it fails with
+     *         an {@link IOException} if the profile can not be requested, or
+     *         a {@link java.util.concurrent.TimeoutException} if it takes
+     *         longer than the maximum wait
+     */
+    public CompletableFuture<Profile> lookupHash(final String pHash) {
+        final ProfileCache.Value cached = cache.get(pHash,
+                System.currentTimeMillis());
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached.profile);
+        }
+        return flights.run(pHash,
+                () -> CompletableFuture.supplyAsync(() -> load(pHash),
+                        executor));
+    }
+
+    /**
+     * Look up the {@link Profile}s of many email-addresses. All addresses are
+     * hashed at once, and the lookups run concurrently.
+     *
+     * @param pEmails
+     *            the email-addresses
+     * @return {@link CompletableFuture} of the found {@link Profile}s by
+     *         their email-address, in the order of the email-addresses;
+     *         addresses without a profile are missing. It fails if one of
+     *         the lookups fails.
+     * @throws GravatarException
+     *             If some Character-encoding fails, you will receive a
+     *             {@link GravatarException}.
+     */
+    public CompletableFuture<Map<String, Profile>> lookupAll(
+            final Collection<String> pEmails) throws GravatarException {
+        final List<String> emails = new ArrayList<String>(pEmails);
+        final byte[] hashes = Gravatar.toHashes(emails);
+        final char[] hex = new char[HASH_LENGTH * 2];
+        final List<CompletableFuture<Profile>> lookups = new ArrayList<CompletableFuture<Profile>>(
+                emails.size());
+        for (int i = 0; i < emails.size(); i++) {
+            Hex.encode(hashes, i * HASH_LENGTH, HASH_LENGTH, hex, 0);
+            lookups.add(lookupHash(new String(hex)));
+        }
+        return CompletableFuture
+                .allOf(lookups.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> {
+                    final Map<String, Profile> result = new LinkedHashMap<String, Profile>();
+                    for (int i = 0; i < emails.size(); i++) {
+                        final Profile profile = lookups.get(i).join();
+                        if (profile != null) {
+                            result.put(emails.get(i), profile);
+                        }
+                    }
+                    return result;
+                });
+    }
+
+    /**
+     * The number of hashes currently being looked up, including the ones
+     * waiting for the concurrency limit.
+     *
+     * @return number of lookups in flight
+     */
+    public int inFlight() {
+        return flights.inFlight();
+    }
+
+    /**
+     * Stop the threads of this client, unless they belong to an
+     * {@link ExecutorService} set with {@link Builder#executor}. Lookups in
+     * flight are finished.
+     */
+    @Override
+    public void close() {
+        if (ownExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    private Profile load(final String pHash) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
+        try {
+            final Profile profile = request(pHash);
+            final long now = System.currentTimeMillis();
+            cache.put(pHash, profile, now + (profile != null ? ttl
+                    : negativeTtl));
+            return profile;
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private Profile request(final String pHash)
+            throws IOException, InterruptedException {
+        final HttpRequest request = HttpRequest
+                .newBuilder(baseUri.resolve(pHash + ".json"))
+                .timeout(timeout).header("Accept", "application/json")
+                .header("User-Agent", "rjung-gravatar").build();
+        final HttpResponse<InputStream> response = client.send(request,
+                HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream body = response.body()) {
+            final int status = response.statusCode();
+            if (status == 404) {
+                return null;
+            } else if (status != 200) {
+                throw new IOException(
+                        "unexpected status " + status + " for " + pHash);
+            }
+            return Profile.read(pHash, new JsonReader(
+                    new InputStreamReader(body, StandardCharsets.UTF_8)));
+        }
+    }
+
+    private static ExecutorService newExecutor(final int pThreads) {
+        try {
+            // available from Java 21 on, the library is built for Java 11
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            final AtomicInteger count = new AtomicInteger();
+            return Executors.newFixedThreadPool(pThreads, runnable -> {
+                final Thread thread = new Thread(runnable,
+                        "gravatar-profile-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * The looked up profiles, including the missing ones, bounded by the
+     * number of entries.
+     */
+    private static final class ProfileCache {
+
+        private final Map<String, Value> entries;
+
+        ProfileCache(final int pSize) {
+            this.entries = new LinkedHashMap<String, Value>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(
+                        final Map.Entry<String, Value> pEldest) {
+                    return size() > pSize;
+                }
+            };
+        }
+
+        synchronized Value get(final String pHash, final long pNow) {
+            final Value entry = entries.get(pHash);
+            if (entry != null && entry.expires <= pNow) {
+                entries.remove(pHash);
+                return null;
+            }
+            return entry;
+        }
+
+        synchronized void put(final String pHash, final Profile pProfile,
+                final long pExpires) {
+            entries.put(pHash, new Value(pProfile, pExpires));
+        }
+
+        private static final class Value {
+            private final Profile profile;
+            private final long expires;
+
+            Value(final Profile pProfile, final long pExpires) {
+                this.profile = pProfile;
+                this.expires = pExpires;
+            }
+        }
+    }
+
+    /**
+     * Configures a {@link ProfileClient}.
+     */
+    public static final class Builder {
+
+        private HttpClient client;
+        private ExecutorService executor;
+        private URI baseUri = GRAVATAR_PROFILE_URI;
+        private Duration timeout = DEFAULT_TIMEOUT;
+        private int maxConcurrency = DEFAULT_CONCURRENCY;
+        private int cacheSize = DEFAULT_CACHE_SIZE;
+        private Duration ttl = DEFAULT_TTL;
+        private Duration negativeTtl = DEFAULT_NEGATIVE_TTL;
+        private Duration maxWait = DEFAULT_MAX_WAIT;
+
+        private Builder() {
+        }
+
+        /**
+         * Use an own {@link HttpClient}, e.g. to share it with other code.
+         *
+         * @param pClient
+         *            the {@link HttpClient} to send the requests with
+         * @return {@link Builder}
+         */
+        public Builder httpClient(final HttpClient pClient) {
+            this.client = pClient;
+            return this;
+        }
+
+        /**
+         * Set the {@link ExecutorService} the lookups run on. It is not shut
+         * down by {@link ProfileClient#close()}. The default runs each lookup
+         * on a virtual thread, or on a pool of
+         * {@link #maxConcurrency(int)} threads before Java 21.
+         *
+         * @param pExecutor
+         *            {@link ExecutorService} for the lookups
+         * @return {@link Builder}
+         */
+        public Builder executor(final ExecutorService pExecutor) {
+            this.executor = pExecutor;
+            return this;
+        }
+
+        /**
+         * Set the {@link URI} profiles are requested from, e.g. a stand-in
+         * server for tests. The default is
+         * {@link ProfileClient#GRAVATAR_PROFILE_URI}.
+         *
+         * @param pBaseUri
+         *            {@link URI} ending with a <code>/</code>, the hash and
+         *            <code>.json</code> are appended to it
+         * @return {@link Builder}
+         */
+        public Builder baseUri(final URI pBaseUri) {
+            if (pBaseUri == null || !pBaseUri.getPath().endsWith("/")) {
+                throw new IllegalArgumentException(
+                        "base uri needs to end with /");
+            }
+            this.baseUri = pBaseUri;
+            return this;
+        }
+
+        /**
+         * Set the time to wait for a connection and for a response. The
+         * default is 10 seconds.
+         *
+         * @param pTimeout
+         *            {@link Duration} to wait
+         * @return {@link Builder}
+         */
+        public Builder timeout(final Duration pTimeout) {
+            this.timeout = positive(pTimeout, "timeout");
+            return this;
+        }
+
+        /**
+         * Set the maximum number of requests in flight. The default is 16.
+         *
+         * @param pMaxConcurrency
+         *            number of concurrent requests
+         * @return {@link Builder}
+         */
+        public Builder maxConcurrency(final int pMaxConcurrency) {
+            if (pMaxConcurrency < 1) {
+                throw new IllegalArgumentException(
+                        "concurrency needs to be positive");
+            }
+            this.maxConcurrency = pMaxConcurrency;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of profiles kept, found and missing ones
+         * together. The default is 10000.
+         *
+         * @param pCacheSize
+         *            number of profiles
+         * @return {@link Builder}
+         */
+        public Builder cacheSize(final int pCacheSize) {
+            if (pCacheSize < 0) {
+                throw new IllegalArgumentException(
+                        "cache size must not be negative");
+            }
+            this.cacheSize = pCacheSize;
+            return this;
+        }
+
+        /**
+         * Set how long a found profile is kept. The default is one hour.
+         *
+         * @param pTtl
+         *            {@link Duration} to keep a profile
+         * @return {@link Builder}
+         */
+        public Builder ttl(final Duration pTtl) {
+            this.ttl = positive(pTtl, "ttl");
+            return this;
+        }
+
+        /**
+         * Set how long it is kept that a hash has no profile. The default is
+         * ten minutes.
+         *
+         * @param pNegativeTtl
+         *            {@link Duration} to keep a missing profile
+         * @return {@link Builder}
+         */
+        public Builder negativeTtl(final Duration pNegativeTtl) {
+            this.negativeTtl = positive(pNegativeTtl, "negative ttl");
+            return this;
+        }
+
+        /**
+         * Set the maximum time a lookup waits for its result, including the
+         * time waiting for the concurrency limit and for a shared request.
+         * The default is 30 seconds.
+         *
+         * @param pMaxWait
+         *            {@link Duration} to wait
+         * @return {@link Builder}
+         */
+        public Builder maxWait(final Duration pMaxWait) {
+            this.maxWait = positive(pMaxWait, "max wait");
+            return this;
+        }
+
+        /**
+         * Create the {@link ProfileClient}.
+         *
+         * @return {@link ProfileClient}
+         */
+        public ProfileClient build() {
+            return new ProfileClient(this);
+        }
+
+        private static Duration positive(final Duration pDuration,
+                final String pName) {
+            if (pDuration == null || pDuration.isNegative()
+                    || pDuration.isZero()) {
+                throw new IllegalArgumentException(
+                        pName + " needs to be positive");
+            }
+            return pDuration;
+        }
+    }
+}
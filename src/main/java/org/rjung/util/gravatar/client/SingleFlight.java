@@ -0,0 +1,82 @@
+package org.rjung.util.gravatar.client;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent asynchronous tasks with the same key. While a task is
+ * in flight, callers with the same key share its result instead of starting
+ * the task again. Every caller gets an own copy of the shared future, so a
+ * caller cancelling or timing out does not affect the others.
+ *
+ * @param <K>
+ *            type of the keys
+ * @param <V>
+ *            type of the results
+ */
+final class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> flights = new ConcurrentHashMap<K, CompletableFuture<V>>();
+    private final long maxWaitNanos;
+    private final LongAdder shared = new LongAdder();
+
+    SingleFlight(final Duration pMaxWait) {
+        this.maxWaitNanos = pMaxWait.toNanos();
+    }
+
+    /**
+     * Run a task, unless a task with the same key is in flight.
+     *
+     * @param pKey
+     *            the key of the task
+     * @param pTask
+     *            starts the task, only called if no task with the key is in
+     *            flight
+     * @return future of the result, it fails with a
+     *         {@link java.util.concurrent.TimeoutException} if the result
+     *         takes longer than the maximum wait
+     */
+    CompletableFuture<V> run(final K pKey,
+            final Supplier<CompletableFuture<V>> pTask) {
+        final CompletableFuture<V> flight = new CompletableFuture<V>();
+        final CompletableFuture<V> existing = flights.putIfAbsent(pKey,
+                flight);
+        if (existing != null) {
+            shared.increment();
+            return bounded(existing);
+        }
+        CompletableFuture<V> task;
+        try {
+            task = pTask.get();
+        } catch (RuntimeException e) {
+            task = CompletableFuture.failedFuture(e);
+        }
+        task.whenComplete((value, error) -> {
+            // later callers start a new flight instead of getting this result
+            flights.remove(pKey, flight);
+            if (error == null) {
+                flight.complete(value);
+            } else {
+                flight.completeExceptionally(error);
+            }
+        });
+        return bounded(flight);
+    }
+
+    int inFlight() {
+        return flights.size();
+    }
+
+    long shared() {
+        return shared.sum();
+    }
+
+    private CompletableFuture<V> bounded(final CompletableFuture<V> pFlight) {
+        return pFlight.copy().orTimeout(maxWaitNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,13 @@
+/**
+ * Fetching the images behind Gravatar-URLs, for server-side uses like
+ * generated documents or emails.<br>
+ * An {@link org.rjung.util.gravatar.client.AvatarClient} fetches the images
+ * asynchronously with a limited number of requests in flight. An
+ * {@link org.rjung.util.gravatar.client.AvatarCache} keeps the images, so they
+ * are only revalidated with a conditional request instead of downloaded again.
+ * A {@link org.rjung.util.gravatar.client.ProfileClient} looks up the public
+ * profiles of Gravatars, a
+ * {@link org.rjung.util.gravatar.client.PresenceClient} finds out which
+ * email-addresses have a Gravatar at all.
+ */
+package org.rjung.util.gravatar.client;
@@ -0,0 +1,568 @@
+package org.rjung.util.gravatar.flow;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.rjung.util.Gravatar;
+import org.rjung.util.GravatarException;
+import org.rjung.util.GravatarTemplate;
+import org.rjung.util.gravatar.Hosts;
+import org.rjung.util.gravatar.hash.DigestEngine;
+import org.rjung.util.gravatar.hash.Digester;
+import org.rjung.util.gravatar.hash.EmailBatch;
+import org.rjung.util.gravatar.hash.HashAlgorithm;
+import org.rjung.util.gravatar.hash.Hex;
+import org.rjung.util.gravatar.hash.MultiLaneMd5;
+import org.rjung.util.gravatar.metrics.GravatarListener;
+
+/**
+ * A {@link Flow.Processor} that turns a stream of email-addresses into
+ * {@link GravatarResult}s with their URLs or hashes, e.g. to be plugged into
+ * a reactive pipeline:
+ *
+ * <pre>
+ * GravatarProcessor processor = GravatarProcessor
+ *         .urls(Gravatar.forEmail(null).size(80).compile())
+ *         .parallelism(4).build();
+ * emails.subscribe(processor);
+ * processor.subscribe(subscriber);
+ * </pre>
+ *
+ * The processor requests a bounded number of email-addresses ahead, at most
+ * <code>batchSize * parallelism</code>, and only requests more as its
+ * subscriber consumes the results. Received email-addresses are hashed in
+ * batches on the {@link Executor}; while all <code>parallelism</code>
+ * batches are busy, new ones collect into the next batch, so batches grow
+ * under load instead of waiting for a timer. The
+ * {@link org.rjung.util.gravatar.cache.HashCache} and the
+ * {@link org.rjung.util.gravatar.store.HashStore} are not used.<br>
+ * The results keep the order of the email-addresses unless
+ * {@link Builder#ordered(boolean)} is switched off, then each batch is
+ * passed on as soon as it is done. An email-address that can not be
+ * processed becomes a failed {@link GravatarResult}, only an error of the
+ * upstream publisher ends the stream with <code>onError</code>. A processor
+ * serves one subscriber.
+ */
+public final class GravatarProcessor
+        implements Flow.Processor<String, GravatarResult> {
+
+    private static final int DEFAULT_BATCH_SIZE = 256;
+    private static final int MAX_EMIT = 256;
+
+    private final String[] prefixes;
+    private final Hosts hosts;
+    private final int maxPrefix;
+    private final String suffix;
+    private final HashAlgorithm algorithm;
+    private final int batchSize;
+    private final int parallelism;
+    private final boolean ordered;
+    private final Executor executor;
+    private final int prefetch;
+    private final int replenish;
+    private final AtomicInteger wip = new AtomicInteger();
+
+    // guarded by this
+    private Flow.Subscription upstream;
+    private Flow.Subscriber<? super GravatarResult> downstream;
+    private boolean subscribed;
+    private boolean started;
+    private List<String> pending = new ArrayList<String>();
+    private final ArrayDeque<Batch> batches = new ArrayDeque<Batch>();
+    private int running;
+    private long demand;
+    private int emitted;
+    private boolean done;
+    private Throwable error;
+    private Throwable invalid;
+    private boolean cancelled;
+    private boolean terminated;
+
+    private GravatarProcessor(final Builder pBuilder) {
+        this.prefixes = pBuilder.prefixes;
+        this.hosts = pBuilder.hosts;
+        int max = 0;
+        for (final String prefix : prefixes) {
+            max = Math.max(max, prefix.length());
+        }
+        this.maxPrefix = max;
+        this.suffix = pBuilder.suffix;
+        this.algorithm = pBuilder.algorithm;
+        this.batchSize = pBuilder.batchSize;
+        this.parallelism = pBuilder.parallelism;
+        this.ordered = pBuilder.ordered;
+        this.executor = pBuilder.executor;
+        this.prefetch = (int) Math.min(Integer.MAX_VALUE,
+                (long) batchSize * parallelism);
+        this.replenish = Math.max(1, prefetch / 2);
+    }
+
+    /**
+     * Start to configure a {@link GravatarProcessor} that renders the URLs of
+     * a {@link GravatarTemplate}.
+     *
+     * @param pTemplate
+     *            the {@link GravatarTemplate} with the options of the URLs
+     * @return {@link Builder}
+     */
+    public static Builder urls(final GravatarTemplate pTemplate) {
+        final String[] prefixes = new String[pTemplate.getHosts().size()];
+        for (int i = 0; i < prefixes.length; i++) {
+            prefixes[i] = pTemplate.getPrefix(i);
+        }
+        return new Builder(prefixes, pTemplate.getHosts(),
+                pTemplate.getSuffix(), pTemplate.getAlgorithm());
+    }
+
+    /**
+     * Start to configure a {@link GravatarProcessor} that renders the
+     * hex-encoded hashes of the email-addresses.
+     *
+     * @param pAlgorithm
+     *            The {@link HashAlgorithm} to hash the email-addresses with. A
+     *            <code>null</code>-value selects {@link HashAlgorithm#MD5}.
+     * @return {@link Builder}
+     */
+    public static Builder hashes(final HashAlgorithm pAlgorithm) {
+        return new Builder(new String[] { "" }, Hosts.DEFAULT, "",
+                pAlgorithm == null ? HashAlgorithm.MD5 : pAlgorithm);
+    }
+
+    @Override
+    public void onSubscribe(final Flow.Subscription pSubscription) {
+        Objects.requireNonNull(pSubscription, "subscription is required");
+        final boolean accepted;
+        synchronized (this) {
+            accepted = upstream == null && !cancelled && !terminated;
+            if (accepted) {
+                upstream = pSubscription;
+            }
+        }
+        if (!accepted) {
+            pSubscription.cancel();
+            return;
+        }
+        drain();
+    }
+
+    @Override
+    public void onNext(final String pEmail) {
+        Objects.requireNonNull(pEmail, "email is required");
+        synchronized (this) {
+            if (cancelled || done) {
+                return;
+            }
+            pending.add(pEmail);
+        }
+        drain();
+    }
+
+    @Override
+    public void onError(final Throwable pError) {
+        Objects.requireNonNull(pError, "error is required");
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            done = true;
+            error = pError;
+        }
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (this) {
+            done = true;
+        }
+        drain();
+    }
+
+    @Override
+    public void subscribe(
+            final Flow.Subscriber<? super GravatarResult> pSubscriber) {
+        Objects.requireNonNull(pSubscriber, "subscriber is required");
+        final boolean accepted;
+        synchronized (this) {
+            accepted = downstream == null;
+            if (accepted) {
+                downstream = pSubscriber;
+            }
+        }
+        if (!accepted) {
+            pSubscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(final long pCount) {
+                    // nothing will be sent
+                }
+
+                @Override
+                public void cancel() {
+                    // nothing will be sent
+                }
+            });
+            pSubscriber.onError(new IllegalStateException(
+                    "a GravatarProcessor serves only one subscriber"));
+            return;
+        }
+        pSubscriber.onSubscribe(new Subscription());
+        synchronized (this) {
+            // no signal may overtake onSubscribe
+            subscribed = true;
+        }
+        drain();
+    }
+
+    /**
+     * Runs the steps until nothing is left to do. Only one thread drains at a
+     * time, calls from other threads while it runs make it loop once more, so
+     * the subscriber is never called concurrently.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            while (step()) {
+                // until there is no more progress
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private boolean step() {
+        final List<Batch> start = new ArrayList<Batch>();
+        final List<GravatarResult> emit = new ArrayList<GravatarResult>();
+        final Flow.Subscriber<? super GravatarResult> target;
+        Flow.Subscription request = null;
+        long amount = 0;
+        Flow.Subscription cancel = null;
+        Throwable failure = null;
+        boolean complete = false;
+        synchronized (this) {
+            if (terminated || cancelled || !subscribed) {
+                return false;
+            }
+            target = downstream;
+            if (invalid != null) {
+                terminated = true;
+                failure = invalid;
+                cancel = upstream;
+                pending.clear();
+                batches.clear();
+            } else {
+                if (!started && upstream != null) {
+                    started = true;
+                    request = upstream;
+                    amount = prefetch;
+                }
+                while (running < parallelism && !pending.isEmpty()) {
+                    start.add(nextBatch());
+                }
+                while (demand > 0 && emit.size() < MAX_EMIT) {
+                    final Batch head = batches.peek();
+                    if (head == null || !head.done) {
+                        break;
+                    }
+                    emit.add(head.results[head.position++]);
+                    demand--;
+                    if (head.position == head.results.length) {
+                        batches.poll();
+                    }
+                }
+                emitted += emit.size();
+                if (emitted >= replenish && started && !done) {
+                    request = upstream;
+                    amount += emitted;
+                    emitted = 0;
+                }
+                if (emit.isEmpty() && done && pending.isEmpty()
+                        && running == 0 && batches.isEmpty()) {
+                    terminated = true;
+                    failure = error;
+                    complete = error == null;
+                }
+            }
+        }
+        if (cancel != null) {
+            cancel.cancel();
+        }
+        if (request != null) {
+            request.request(amount);
+        }
+        for (final Batch batch : start) {
+            try {
+                executor.execute(batch);
+            } catch (RejectedExecutionException e) {
+                batch.fail(e);
+            }
+        }
+        for (final GravatarResult result : emit) {
+            target.onNext(result);
+        }
+        if (failure != null) {
+            target.onError(failure);
+        } else if (complete) {
+            target.onComplete();
+        }
+        return !start.isEmpty() || !emit.isEmpty() || request != null;
+    }
+
+    private Batch nextBatch() {
+        final String[] emails;
+        if (pending.size() <= batchSize) {
+            emails = pending.toArray(new String[0]);
+            pending = new ArrayList<String>();
+        } else {
+            final List<String> head = pending.subList(0, batchSize);
+            emails = head.toArray(new String[0]);
+            head.clear();
+        }
+        final Batch batch = new Batch(emails);
+        running++;
+        if (ordered) {
+            batches.add(batch);
+        }
+        return batch;
+    }
+
+    private void completed(final Batch pBatch) {
+        synchronized (this) {
+            running--;
+            pBatch.done = true;
+            if (!ordered && !cancelled) {
+                batches.add(pBatch);
+            }
+        }
+        drain();
+    }
+
+    /**
+     * The email-addresses hashed together, and their results.
+     */
+    private final class Batch implements Runnable {
+
+        private final String[] emails;
+        private final GravatarResult[] results;
+        private int position;
+        private boolean done;
+
+        Batch(final String[] pEmails) {
+            this.emails = pEmails;
+            this.results = new GravatarResult[pEmails.length];
+        }
+
+        @Override
+        public void run() {
+            try {
+                render(0, emails.length);
+            } catch (RuntimeException e) {
+                // find the email-addresses that fail
+                for (int i = 0; i < emails.length; i++) {
+                    try {
+                        render(i, i + 1);
+                    } catch (RuntimeException f) {
+                        results[i] = GravatarResult.failure(emails[i],
+                                new GravatarException(String.valueOf(
+                                        f.getMessage()), f));
+                    }
+                }
+            }
+            completed(this);
+        }
+
+        void fail(final Exception pError) {
+            for (int i = 0; i < emails.length; i++) {
+                results[i] = GravatarResult.failure(emails[i],
+                        new GravatarException(String.valueOf(
+                                pError.getMessage()), pError));
+            }
+            completed(this);
+        }
+
+        private void render(final int pFrom, final int pTo) {
+            final int length = algorithm.getDigestLength();
+            final EmailBatch batch = new EmailBatch(pTo - pFrom);
+            for (int i = pFrom; i < pTo; i++) {
+                batch.add(emails[i]);
+            }
+            final byte[] digests = new byte[batch.size() * length];
+            final GravatarListener listener = Gravatar.getListener();
+            final long start = listener == GravatarListener.NOOP ? 0L
+                    : System.nanoTime();
+            if (algorithm == HashAlgorithm.MD5) {
+                batch.digest(MultiLaneMd5.get(), digests, 0);
+            } else {
+                final DigestEngine engine = algorithm.engine();
+                final Digester digester = engine.acquire();
+                try {
+                    batch.digest(digester, digests, 0);
+                } finally {
+                    engine.release(digester);
+                }
+            }
+            if (listener != GravatarListener.NOOP) {
+                listener.hashed(algorithm, batch.size(),
+                        System.nanoTime() - start);
+            }
+            // room for the longest prefix, the hash selects the host
+            final char[] value = new char[maxPrefix + length * 2
+                    + suffix.length()];
+            suffix.getChars(0, suffix.length(), value,
+                    maxPrefix + length * 2);
+            for (int i = pFrom; i < pTo; i++) {
+                final int digest = (i - pFrom) * length;
+                Hex.encode(digests, digest, length, value, maxPrefix);
+                final String prefix = prefixes[hosts.select(digests,
+                        digest)];
+                final int offset = maxPrefix - prefix.length();
+                prefix.getChars(0, prefix.length(), value, offset);
+                results[i] = GravatarResult.success(emails[i],
+                        new String(value, offset, value.length - offset));
+            }
+        }
+    }
+
+    /**
+     * The {@link Flow.Subscription} of the subscriber of the results.
+     */
+    private final class Subscription implements Flow.Subscription {
+
+        @Override
+        public void request(final long pCount) {
+            synchronized (GravatarProcessor.this) {
+                if (pCount <= 0) {
+                    if (invalid == null) {
+                        invalid = new IllegalArgumentException(
+                                "requested " + pCount + " results");
+                    }
+                } else {
+                    demand = demand + pCount < 0 ? Long.MAX_VALUE
+                            : demand + pCount;
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            final Flow.Subscription subscription;
+            synchronized (GravatarProcessor.this) {
+                if (cancelled || terminated) {
+                    return;
+                }
+                cancelled = true;
+                subscription = upstream;
+                pending.clear();
+                batches.clear();
+            }
+            if (subscription != null) {
+                subscription.cancel();
+            }
+        }
+    }
+
+    /**
+     * Configures a {@link GravatarProcessor}.
+     */
+    public static final class Builder {
+
+        private final String[] prefixes;
+        private final Hosts hosts;
+        private final String suffix;
+        private final HashAlgorithm algorithm;
+        private int batchSize = DEFAULT_BATCH_SIZE;
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private boolean ordered = true;
+        private Executor executor = ForkJoinPool.commonPool();
+
+        private Builder(final String[] pPrefixes, final Hosts pHosts,
+                final String pSuffix, final HashAlgorithm pAlgorithm) {
+            this.prefixes = pPrefixes;
+            this.hosts = pHosts;
+            this.suffix = pSuffix;
+            this.algorithm = pAlgorithm;
+        }
+
+        /**
+         * Set the maximum number of email-addresses hashed together. The
+         * default is 256.
+         *
+         * @param pBatchSize
+         *            number of email-addresses per batch
+         * @return {@link Builder}
+         */
+        public Builder batchSize(final int pBatchSize) {
+            if (pBatchSize < 1) {
+                throw new IllegalArgumentException(
+                        "batch size needs to be positive");
+            }
+            this.batchSize = pBatchSize;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of batches hashed at the same time. The
+         * default is the number of available processors.
+         *
+         * @param pParallelism
+         *            number of concurrent batches
+         * @return {@link Builder}
+         */
+        public Builder parallelism(final int pParallelism) {
+            if (pParallelism < 1) {
+                throw new IllegalArgumentException(
+                        "parallelism needs to be positive");
+            }
+            this.parallelism = pParallelism;
+            return this;
+        }
+
+        /**
+         * Set whether the results keep the order of the email-addresses,
+         * which is the default. Without order, a slow batch does not hold
+         * back the ones after it.
+         *
+         * @param pOrdered
+         *            <code>false</code> to pass on batches as they are done
+         * @return {@link Builder}
+         */
+        public Builder ordered(final boolean pOrdered) {
+            this.ordered = pOrdered;
+            return this;
+        }
+
+        /**
+         * Set the {@link Executor} the batches are hashed on. The default is
+         * the {@link ForkJoinPool#commonPool()}.
+         *
+         * @param pExecutor
+         *            {@link Executor} for the batches
+         * @return {@link Builder}
+         */
+        public Builder executor(final Executor pExecutor) {
+            if (pExecutor == null) {
+                throw new IllegalArgumentException("executor is required");
+            }
+            this.executor = pExecutor;
+            return this;
+        }
+
+        /**
+         * Create the {@link GravatarProcessor}.
+         *
+         * @return {@link GravatarProcessor}
+         */
+        public GravatarProcessor build() {
+            return new GravatarProcessor(this);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.rjung.util.gravatar.flow;
+
+import org.rjung.util.GravatarException;
+
+/**
+ * The outcome for one email-address passed through a
+ * {@link GravatarProcessor}: either the URL or hash, or the
+ * {@link GravatarException} that prevented it. Failures of single
+ * email-addresses are passed on as values, so they do not end the stream.
+ */
+public final class GravatarResult {
+
+    private final String email;
+    private final String value;
+    private final GravatarException error;
+
+    private GravatarResult(final String pEmail, final String pValue,
+            final GravatarException pError) {
+        this.email = pEmail;
+        this.value = pValue;
+        this.error = pError;
+    }
+
+    static GravatarResult success(final String pEmail, final String pValue) {
+        return new GravatarResult(pEmail, pValue, null);
+    }
+
+    static GravatarResult failure(final String pEmail,
+            final GravatarException pError) {
+        return new GravatarResult(pEmail, null, pError);
+    }
+
+    /**
+     * The email-address as it was received.
+     *
+     * @return email-address
+     */
+    public String getEmail() {
+        return email;
+    }
+
+    /**
+     * The URL or the hex-encoded hash of the email-address.
+     *
+     * @return URL or hash, <code>null</code> if it failed
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * The reason the email-address could not be processed.
+     *
+     * @return {@link GravatarException} or <code>null</code> if it succeeded
+     */
+    public GravatarException getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return email + " -> " + (error == null ? value : error);
+    }
+}
@@ -0,0 +1,8 @@
+/**
+ * Rendering Gravatar-URLs in reactive streams.<br>
+ * A {@link org.rjung.util.gravatar.flow.GravatarProcessor} is a
+ * {@link java.util.concurrent.Flow.Processor} from email-addresses to
+ * {@link org.rjung.util.gravatar.flow.GravatarResult}s. It hashes in batches
+ * and requests only as many email-addresses as its subscriber can take.
+ */
+package org.rjung.util.gravatar.flow;
@@ -0,0 +1,204 @@
+package org.rjung.util.gravatar.hash;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link DigestEngine} keeps a lock-free pool of {@link Digester}s for one
+ * algorithm. Looking up a {@link MessageDigest} through the security providers
+ * is expensive compared to hashing an email-address, so the digests are
+ * reused instead.<br>
+ * The pool does not use {@link ThreadLocal}s or monitors, it is safe to be
+ * used from any number of (virtual) threads. A {@link Digester} is taken with
+ * {@link #acquire()} and must be given back with
+ * {@link #release(Digester)}:
+ *
+ * <pre>
+ * final Digester digester = engine.acquire();
+ * try {
+ *     digester.update(bytes, 0, bytes.length).digest(out, 0);
+ * } finally {
+ *     engine.release(digester);
+ * }
+ * </pre>
+ */
+public final class DigestEngine {
+
+    private static final String MD5 = "MD5";
+    private static final String MD5_PROPERTY = "org.rjung.util.gravatar.md5";
+    private static final String NATIVE_IMAGE_PROPERTY = "org.graalvm.nativeimage.imagecode";
+    private static final ConcurrentMap<String, DigestEngine> ENGINES = new ConcurrentHashMap<String, DigestEngine>();
+
+    private final String algorithm;
+    private final MessageDigest prototype;
+    private final AtomicReferenceArray<Digester> pool;
+    private final int mask;
+
+    private DigestEngine(final String pAlgorithm)
+            throws NoSuchAlgorithmException {
+        this.algorithm = pAlgorithm;
+        this.prototype = MD5.equals(pAlgorithm) && plainMd5() ? new Md5()
+                : MessageDigest.getInstance(pAlgorithm);
+        final int size = Integer.highestOneBit(
+                Math.max(4, Runtime.getRuntime().availableProcessors() * 4)
+                        - 1) << 1;
+        this.pool = new AtomicReferenceArray<Digester>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Get the shared {@link DigestEngine} of an algorithm.
+     *
+     * @param pAlgorithm
+     *            name of the algorithm, like <code>MD5</code>
+     * @return {@link DigestEngine} for the algorithm
+     * @throws NoSuchAlgorithmException
+     *             If the algorithm is not available.
+     */
+    public static DigestEngine forAlgorithm(final String pAlgorithm)
+            throws NoSuchAlgorithmException {
+        final DigestEngine engine = ENGINES.get(pAlgorithm);
+        if (engine != null) {
+            return engine;
+        }
+        final DigestEngine created = new DigestEngine(pAlgorithm);
+        final DigestEngine existing = ENGINES.putIfAbsent(pAlgorithm, created);
+        return existing == null ? created : existing;
+    }
+
+    /**
+     * The name of the algorithm of this {@link DigestEngine}.
+     *
+     * @return name of the algorithm
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * The length of the digests calculated by this {@link DigestEngine} in
+     * bytes.
+     *
+     * @return length of the digest in bytes
+     */
+    public int getDigestLength() {
+        return prototype.getDigestLength();
+    }
+
+    /**
+     * Take a {@link Digester} from the pool, a new one is created if the pool
+     * is empty. The {@link Digester} belongs to the caller until it is given
+     * back with {@link #release(Digester)}.
+     *
+     * @return a reset {@link Digester}
+     */
+    public Digester acquire() {
+        final int start = probe();
+        for (int i = 0; i <= mask; i++) {
+            final int slot = (start + i) & mask;
+            final Digester digester = pool.get(slot);
+            if (digester != null && pool.compareAndSet(slot, digester, null)) {
+                return digester;
+            }
+        }
+        return new Digester(newDigest());
+    }
+
+    /**
+     * Give a {@link Digester} back to the pool. If the pool is full, the
+     * {@link Digester} is left to the garbage collector.
+     *
+     * @param pDigester
+     *            a {@link Digester} received from {@link #acquire()}
+     */
+    public void release(final Digester pDigester) {
+        pDigester.reset();
+        final int start = probe();
+        for (int i = 0; i <= mask; i++) {
+            final int slot = (start + i) & mask;
+            if (pool.get(slot) == null
+                    && pool.compareAndSet(slot, null, pDigester)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Calculate the digest of some bytes and write it to the given buffer.
+     *
+     * @param pInput
+     *            the bytes to hash
+     * @param pOffset
+     *            first byte in <code>pInput</code> to hash
+     * @param pLength
+     *            number of bytes to hash
+     * @param pOutput
+     *            buffer to write the digest to
+     * @param pOutputOffset
+     *            position in <code>pOutput</code> to start writing at
+     * @return number of bytes written, see {@link #getDigestLength()}
+     */
+    public int digest(final byte[] pInput, final int pOffset,
+            final int pLength, final byte[] pOutput, final int pOutputOffset) {
+        final Digester digester = acquire();
+        try {
+            return digester.update(pInput, pOffset, pLength).digest(pOutput,
+                    pOutputOffset);
+        } finally {
+            release(digester);
+        }
+    }
+
+    /**
+     * Calculate the digest of some bytes.
+     *
+     * @param pInput
+     *            the bytes to hash
+     * @return a new array containing the digest
+     */
+    public byte[] digest(final byte[] pInput) {
+        final byte[] result = new byte[getDigestLength()];
+        digest(pInput, 0, pInput.length, result, 0);
+        return result;
+    }
+
+    private MessageDigest newDigest() {
+        try {
+            return (MessageDigest) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            try {
+                return MessageDigest.getInstance(algorithm,
+                        prototype.getProvider());
+            } catch (NoSuchAlgorithmException e1) {
+                throw new IllegalStateException(e1);
+            }
+        }
+    }
+
+    /**
+     * Whether MD5 is calculated in plain Java instead of by the security
+     * providers. The system property <code>org.rjung.util.gravatar.md5</code>
+     * selects <code>java</code> or <code>jdk</code>, without it plain Java is
+     * used in native images only.
+     */
+    static boolean plainMd5() {
+        final String value = System.getProperty(MD5_PROPERTY);
+        return value == null ? inNativeImage()
+                : "java".equalsIgnoreCase(value);
+    }
+
+    /**
+     * Whether this runs in a GraalVM native image, at build time or run time.
+     */
+    static boolean inNativeImage() {
+        return System.getProperty(NATIVE_IMAGE_PROPERTY) != null;
+    }
+
+    private static int probe() {
+        final long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 16)) * 0x9E3779B9;
+    }
+}
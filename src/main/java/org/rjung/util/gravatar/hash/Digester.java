@@ -0,0 +1,99 @@
+package org.rjung.util.gravatar.hash;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+
+/**
+ * A reusable {@link MessageDigest} that is handed out by a
+ * {@link DigestEngine}. A {@link Digester} is confined to the caller between
+ * {@link DigestEngine#acquire()} and {@link DigestEngine#release(Digester)}
+ * and must not be shared between threads in this time.
+ */
+public final class Digester {
+
+    private final MessageDigest digest;
+    private final byte[] result;
+    private byte[] buffer = new byte[64];
+
+    Digester(final MessageDigest pDigest) {
+        this.digest = pDigest;
+        this.result = new byte[pDigest.getDigestLength()];
+    }
+
+    /**
+     * The length of the digests calculated by this {@link Digester} in bytes.
+     *
+     * @return length of the digest in bytes
+     */
+    public int getDigestLength() {
+        return result.length;
+    }
+
+    /**
+     * Add some bytes to the digest.
+     *
+     * @param pInput
+     *            the bytes to add
+     * @param pOffset
+     *            first byte in <code>pInput</code> to add
+     * @param pLength
+     *            number of bytes to add
+     * @return {@link Digester}
+     */
+    public Digester update(final byte[] pInput, final int pOffset,
+            final int pLength) {
+        digest.update(pInput, pOffset, pLength);
+        return this;
+    }
+
+    /**
+     * Complete the digest and write it to the given buffer. The
+     * {@link Digester} is reset afterwards and can be used again.
+     *
+     * @param pOutput
+     *            buffer to write the digest to
+     * @param pOffset
+     *            position in <code>pOutput</code> to start writing at
+     * @return number of bytes written, see {@link #getDigestLength()}
+     */
+    public int digest(final byte[] pOutput, final int pOffset) {
+        try {
+            return digest.digest(pOutput, pOffset, result.length);
+        } catch (DigestException e) {
+            throw new IllegalArgumentException(
+                    "output buffer is too small for the digest", e);
+        }
+    }
+
+    /**
+     * Complete the digest and return it in a buffer owned by this
+     * {@link Digester}. The content of the buffer is only valid until the
+     * next call to this {@link Digester}.
+     *
+     * @return the internal buffer containing the digest
+     */
+    public byte[] digest() {
+        digest(result, 0);
+        return result;
+    }
+
+    /**
+     * Get a buffer owned by this {@link Digester} to prepare the input in. It
+     * is reused as long as it is large enough, so preparing the input does not
+     * need to allocate.
+     *
+     * @param pLength
+     *            the minimum length of the buffer
+     * @return a buffer of at least the given length
+     */
+    public byte[] buffer(final int pLength) {
+        if (buffer.length < pLength) {
+            buffer = new byte[Math.max(pLength, buffer.length * 2)];
+        }
+        return buffer;
+    }
+
+    void reset() {
+        digest.reset();
+    }
+}
@@ -0,0 +1,150 @@
+package org.rjung.util.gravatar.hash;
+
+import java.util.Arrays;
+
+/**
+ * Collects the normalized bytes of many email-addresses in one array, so they
+ * can be hashed together by a {@link MultiLaneMd5} or one after the other by a
+ * {@link Digester}. A batch is meant to be
+ * filled, digested, cleared and filled again by one thread.
+ */
+public final class EmailBatch {
+
+    private byte[] data;
+    private int[] offsets;
+    private int[] lengths;
+    private byte[] scratch;
+    private int size;
+    private int position;
+
+    /**
+     * Create an empty batch.
+     *
+     * @param pCapacity
+     *            the expected number of email-addresses, the batch grows if
+     *            more are added
+     */
+    public EmailBatch(final int pCapacity) {
+        final int capacity = Math.max(1, pCapacity);
+        this.data = new byte[capacity * 32];
+        this.offsets = new int[capacity];
+        this.lengths = new int[capacity];
+        this.scratch = new byte[64];
+    }
+
+    /**
+     * Remove all email-addresses, keeping the allocated arrays.
+     */
+    public void clear() {
+        size = 0;
+        position = 0;
+    }
+
+    /**
+     * The number of email-addresses in this batch.
+     *
+     * @return number of email-addresses
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Normalize an email-address and add it to the batch.
+     *
+     * @param pEmail
+     *            the email-address, <code>null</code> is treated as empty
+     */
+    public void add(final CharSequence pEmail) {
+        final byte[] buffer = scratch(
+                pEmail == null ? 0 : pEmail.length() * 2);
+        append(buffer, EmailNormalizer.normalize(pEmail, buffer));
+    }
+
+    /**
+     * Normalize an email-address given as ASCII-bytes and add it to the batch.
+     * Nothing is added if the bytes are not pure ASCII, see
+     * {@link EmailNormalizer#normalizeAscii(byte[], int, int, byte[])}.
+     *
+     * @param pInput
+     *            the bytes containing the email-address
+     * @param pFrom
+     *            first byte of the email-address in <code>pInput</code>
+     * @param pTo
+     *            end of the email-address in <code>pInput</code>, exclusive
+     * @return <code>true</code> if the email-address was added
+     */
+    public boolean addAscii(final byte[] pInput, final int pFrom,
+            final int pTo) {
+        final byte[] buffer = scratch(pTo - pFrom);
+        final int length = EmailNormalizer.normalizeAscii(pInput, pFrom, pTo,
+                buffer);
+        if (length < 0) {
+            return false;
+        }
+        append(buffer, length);
+        return true;
+    }
+
+    /**
+     * Calculate the digests of all email-addresses in this batch.
+     *
+     * @param pEngine
+     *            the {@link MultiLaneMd5} to use
+     * @param pOutput
+     *            array to write the digests to,
+     *            {@link MultiLaneMd5#DIGEST_LENGTH} bytes per email-address in
+     *            the order they were added
+     * @param pOffset
+     *            position in <code>pOutput</code> to write the first digest to
+     */
+    public void digest(final MultiLaneMd5 pEngine, final byte[] pOutput,
+            final int pOffset) {
+        pEngine.digest(data, offsets, lengths, size, pOutput, pOffset);
+    }
+
+    /**
+     * Calculate the digests of all email-addresses in this batch one after
+     * the other, for algorithms without a {@link MultiLaneMd5}.
+     *
+     * @param pDigester
+     *            the {@link Digester} to use, it is reset afterwards
+     * @param pOutput
+     *            array to write the digests to,
+     *            {@link Digester#getDigestLength()} bytes per email-address in
+     *            the order they were added
+     * @param pOffset
+     *            position in <code>pOutput</code> to write the first digest to
+     */
+    public void digest(final Digester pDigester, final byte[] pOutput,
+            final int pOffset) {
+        final int length = pDigester.getDigestLength();
+        for (int i = 0; i < size; i++) {
+            pDigester.update(data, offsets[i], lengths[i]).digest(pOutput,
+                    pOffset + i * length);
+        }
+    }
+
+    private byte[] scratch(final int pLength) {
+        if (scratch.length < pLength) {
+            scratch = new byte[Math.max(pLength, scratch.length * 2)];
+        }
+        return scratch;
+    }
+
+    private void append(final byte[] pBytes, final int pLength) {
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+        }
+        if (position + pLength > data.length) {
+            data = Arrays.copyOf(data,
+                    Math.max(position + pLength, data.length * 2));
+        }
+        System.arraycopy(pBytes, 0, data, position, pLength);
+        offsets[size] = position;
+        lengths[size] = pLength;
+        size++;
+        position += pLength;
+    }
+}
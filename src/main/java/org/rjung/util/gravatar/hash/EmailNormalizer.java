@@ -0,0 +1,197 @@
+package org.rjung.util.gravatar.hash;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The rules to turn an email-address into the bytes that are hashed for the
+ * gravatar-URL: surrounding whitespace is removed, the address is lower-cased
+ * with {@link #LOCALE} and encoded with the <code>CP1252</code>-charset.<br>
+ * {@link #normalize(CharSequence, byte[])} does all of this in one pass into
+ * a given array. Characters that can not be encoded become <code>?</code>,
+ * like they do with {@link String#getBytes(String)}.
+ */
+public final class EmailNormalizer {
+
+    /**
+     * The charset the normalized email-address is encoded with.
+     */
+    public static final String CHARSET = "CP1252";
+
+    /**
+     * The {@link Locale} email-addresses are lower-cased with. It is fixed, so
+     * the hashes do not depend on the default {@link Locale} of the JVM (with
+     * a turkish {@link Locale} <code>I</code> would not become
+     * <code>i</code>).
+     */
+    public static final Locale LOCALE = Locale.ROOT;
+
+    private static final byte UNMAPPABLE = '?';
+    private static final char CAPITAL_I_WITH_DOT = '\u0130';
+    private static final char UNDEFINED = '\uFFFD';
+    /**
+     * The characters of the bytes <code>0x80</code> to <code>0x9F</code> in
+     * <code>CP1252</code>, all other bytes are the same as in ISO-8859-1. The
+     * table is kept here instead of asking the {@link java.nio.charset.Charset}
+     * on startup, which is slow and not available in every native image.
+     */
+    private static final String SPECIAL = "\u20AC\uFFFD\u201A\u0192\u201E\u2026"
+            + "\u2020\u2021\u02C6\u2030\u0160\u2039\u0152\uFFFD\u017D\uFFFD"
+            + "\uFFFD\u2018\u2019\u201C\u201D\u2022\u2013\u2014\u02DC\u2122"
+            + "\u0161\u203A\u0153\uFFFD\u017E\u0178";
+    private static final int SPECIAL_START = 0x80;
+    private static final int LATIN_LIMIT = 0x100;
+
+    private EmailNormalizer() {
+    }
+
+    /**
+     * Trim and lower-case an email-address.
+     *
+     * @param pEmail
+     *            the email-address, <code>null</code> is treated as empty
+     * @return the normalized email-address
+     */
+    public static String normalize(final String pEmail) {
+        return (pEmail == null ? "" : pEmail).trim().toLowerCase(LOCALE);
+    }
+
+    /**
+     * Encode a normalized email-address to the bytes to be hashed.
+     *
+     * @param pNormalized
+     *            the normalized email-address
+     * @return the bytes to hash
+     */
+    public static byte[] encode(final String pNormalized) {
+        final byte[] buffer = new byte[pNormalized.length()];
+        int position = 0;
+        for (int i = 0; i < pNormalized.length(); i++) {
+            final char c = pNormalized.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < pNormalized.length()
+                    && Character.isLowSurrogate(pNormalized.charAt(i + 1))) {
+                i++;
+            }
+            buffer[position++] = encode(c);
+        }
+        return position == buffer.length ? buffer
+                : Arrays.copyOf(buffer, position);
+    }
+
+    /**
+     * Normalize an email-address into the bytes to be hashed, without creating
+     * a {@link String}. The result is the same as
+     * <code>encode(normalize(pEmail))</code>.
+     *
+     * @param pEmail
+     *            the email-address, <code>null</code> is treated as empty
+     * @param pOutput
+     *            array to write the bytes to hash to, twice the length of the
+     *            email-address is always enough
+     * @return the number of bytes written or <code>-1</code> if
+     *         <code>pOutput</code> is too small
+     */
+    public static int normalize(final CharSequence pEmail,
+            final byte[] pOutput) {
+        if (pEmail == null) {
+            return 0;
+        }
+        int from = 0;
+        int to = pEmail.length();
+        while (from < to && pEmail.charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && pEmail.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        final int limit = pOutput.length;
+        int position = 0;
+        for (int i = from; i < to; i++) {
+            if (position == limit) {
+                return -1;
+            }
+            final char c = pEmail.charAt(i);
+            if (c < 0x80) {
+                pOutput[position++] = (byte) (c >= 'A' && c <= 'Z' ? c + 32
+                        : c);
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < to
+                        && Character.isLowSurrogate(pEmail.charAt(i + 1))) {
+                    i++;
+                }
+                pOutput[position++] = UNMAPPABLE;
+            } else if (c == CAPITAL_I_WITH_DOT) {
+                // lower-cased to 'i' followed by a combining dot above
+                if (position + 1 == limit) {
+                    return -1;
+                }
+                pOutput[position++] = 'i';
+                pOutput[position++] = UNMAPPABLE;
+            } else {
+                pOutput[position++] = encode(Character.toLowerCase(c));
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Normalize an email-address given as ASCII-bytes, without creating a
+     * {@link String}. If the bytes are not pure ASCII, the result would depend
+     * on their charset and <code>-1</code> is returned; the caller has to
+     * decode the bytes and use {@link #normalize(CharSequence, byte[])}
+     * instead.
+     *
+     * @param pInput
+     *            the bytes containing the email-address
+     * @param pFrom
+     *            first byte of the email-address in <code>pInput</code>
+     * @param pTo
+     *            end of the email-address in <code>pInput</code>, exclusive
+     * @param pOutput
+     *            array to write the bytes to hash to, it needs room for
+     *            <code>pTo - pFrom</code> bytes
+     * @return the number of bytes written or <code>-1</code>
+     */
+    public static int normalizeAscii(final byte[] pInput, final int pFrom,
+            final int pTo, final byte[] pOutput) {
+        int from = pFrom;
+        int to = pTo;
+        while (from < to && (pInput[from] & 0xFF) <= ' ') {
+            from++;
+        }
+        while (to > from && (pInput[to - 1] & 0xFF) <= ' ') {
+            to--;
+        }
+        for (int i = from; i < to; i++) {
+            final byte b = pInput[i];
+            if (b < 0) {
+                return -1;
+            }
+            pOutput[i - from] = b >= 'A' && b <= 'Z' ? (byte) (b + 32) : b;
+        }
+        return to - from;
+    }
+
+    /**
+     * Encode a single character with the <code>CP1252</code>-charset.
+     * Characters that can not be encoded, including surrogates, become
+     * <code>?</code>.
+     *
+     * @param pChar
+     *            the character to encode
+     * @return the byte of the character
+     */
+    public static byte encode(final char pChar) {
+        if (pChar < LATIN_LIMIT) {
+            return pChar >= SPECIAL_START && pChar < SPECIAL_START
+                    + SPECIAL.length() ? UNMAPPABLE : (byte) pChar;
+        }
+        if (pChar != UNDEFINED) {
+            final int index = SPECIAL.indexOf(pChar);
+            if (index >= 0) {
+                return (byte) (SPECIAL_START + index);
+            }
+        }
+        return UNMAPPABLE;
+    }
+}
@@ -0,0 +1,43 @@
+package org.rjung.util.gravatar.hash;
+
+/**
+ * The hash function that turns a normalized email-address into the hash of a
+ * Gravatar-URL. Gravatar accepts {@link #MD5}, which is the default, and
+ * {@link #SHA256}. Other algorithms can be plugged in by implementing this
+ * interface; implementations have to be thread-safe.
+ */
+public interface HashAlgorithm {
+
+    /**
+     * MD5, a 16 byte digest rendered as 32 hex-characters.
+     */
+    HashAlgorithm MD5 = new JdkHashAlgorithm("MD5", 16);
+
+    /**
+     * SHA-256, a 32 byte digest rendered as 64 hex-characters.
+     */
+    HashAlgorithm SHA256 = new JdkHashAlgorithm("SHA-256", 32);
+
+    /**
+     * The name of the algorithm, like <code>MD5</code>.
+     *
+     * @return name of the algorithm
+     */
+    String getName();
+
+    /**
+     * The length of a digest in bytes, its hex-representation is twice as
+     * long.
+     *
+     * @return length of a digest
+     */
+    int getDigestLength();
+
+    /**
+     * The {@link DigestEngine} with reusable {@link Digester}s to calculate
+     * the digests.
+     *
+     * @return shared {@link DigestEngine}
+     */
+    DigestEngine engine();
+}
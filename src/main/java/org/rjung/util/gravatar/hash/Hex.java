@@ -0,0 +1,165 @@
+package org.rjung.util.gravatar.hash;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Lower-case hexadecimal rendering of hashes, as used in gravatar-URLs.
+ */
+public final class Hex {
+
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    private Hex() {
+    }
+
+    /**
+     * Write the hexadecimal representation of some bytes to a char-array.
+     *
+     * @param pInput
+     *            the bytes to render
+     * @param pOffset
+     *            first byte in <code>pInput</code> to render
+     * @param pLength
+     *            number of bytes to render
+     * @param pOutput
+     *            array to write <code>2 * pLength</code> chars to
+     * @param pOutputOffset
+     *            position in <code>pOutput</code> to start writing at
+     */
+    public static void encode(final byte[] pInput, final int pOffset,
+            final int pLength, final char[] pOutput, final int pOutputOffset) {
+        int position = pOutputOffset;
+        for (int i = pOffset; i < pOffset + pLength; i++) {
+            final int v = pInput[i] & 0xFF;
+            pOutput[position++] = DIGITS[v >>> 4];
+            pOutput[position++] = DIGITS[v & 0x0F];
+        }
+    }
+
+    /**
+     * Write the hexadecimal representation of some bytes as ASCII-characters
+     * to a byte-array.
+     *
+     * @param pInput
+     *            the bytes to render
+     * @param pOffset
+     *            first byte in <code>pInput</code> to render
+     * @param pLength
+     *            number of bytes to render
+     * @param pOutput
+     *            array to write <code>2 * pLength</code> characters to
+     * @param pOutputOffset
+     *            position in <code>pOutput</code> to start writing at
+     */
+    public static void encode(final byte[] pInput, final int pOffset,
+            final int pLength, final byte[] pOutput, final int pOutputOffset) {
+        int position = pOutputOffset;
+        for (int i = pOffset; i < pOffset + pLength; i++) {
+            final int v = pInput[i] & 0xFF;
+            pOutput[position++] = (byte) DIGITS[v >>> 4];
+            pOutput[position++] = (byte) DIGITS[v & 0x0F];
+        }
+    }
+
+    /**
+     * Append the hexadecimal representation of some bytes to an
+     * {@link Appendable}.
+     *
+     * @param pInput
+     *            the bytes to render
+     * @param pOffset
+     *            first byte in <code>pInput</code> to render
+     * @param pLength
+     *            number of bytes to render
+     * @param pOutput
+     *            {@link Appendable} to write <code>2 * pLength</code> chars to
+     * @throws IOException
+     *             If writing to the {@link Appendable} fails.
+     */
+    public static void encode(final byte[] pInput, final int pOffset,
+            final int pLength, final Appendable pOutput) throws IOException {
+        for (int i = pOffset; i < pOffset + pLength; i++) {
+            final int v = pInput[i] & 0xFF;
+            pOutput.append(DIGITS[v >>> 4]).append(DIGITS[v & 0x0F]);
+        }
+    }
+
+    /**
+     * Write the hexadecimal representation of some bytes as ASCII-characters
+     * to a {@link ByteBuffer}.
+     *
+     * @param pInput
+     *            the bytes to render
+     * @param pOffset
+     *            first byte in <code>pInput</code> to render
+     * @param pLength
+     *            number of bytes to render
+     * @param pOutput
+     *            {@link ByteBuffer} to write <code>2 * pLength</code> bytes to
+     */
+    public static void encode(final byte[] pInput, final int pOffset,
+            final int pLength, final ByteBuffer pOutput) {
+        for (int i = pOffset; i < pOffset + pLength; i++) {
+            final int v = pInput[i] & 0xFF;
+            pOutput.put((byte) DIGITS[v >>> 4]).put((byte) DIGITS[v & 0x0F]);
+        }
+    }
+
+    /**
+     * Get the hexadecimal representation of some bytes.
+     *
+     * @param pInput
+     *            the bytes to render
+     * @return hexadecimal {@link String} with two chars per byte
+     */
+    public static String encode(final byte[] pInput) {
+        final char[] result = new char[pInput.length * 2];
+        encode(pInput, 0, pInput.length, result, 0);
+        return new String(result);
+    }
+
+    /**
+     * Read the bytes of a hexadecimal representation, e.g. the hash of a
+     * Gravatar-URL. Upper- and lower-case digits are accepted.
+     *
+     * @param pInput
+     *            the hexadecimal characters
+     * @param pOffset
+     *            position of the first character in <code>pInput</code>
+     * @param pOutput
+     *            array to write the bytes to, two characters are read for
+     *            each byte
+     * @param pOutputOffset
+     *            position in <code>pOutput</code> to start writing at
+     * @param pLength
+     *            number of bytes to write
+     * @throws IllegalArgumentException
+     *             If a character is no hexadecimal digit or
+     *             <code>pInput</code> is too short.
+     */
+    public static void decode(final CharSequence pInput, final int pOffset,
+            final byte[] pOutput, final int pOutputOffset, final int pLength) {
+        if (pInput.length() - pOffset < pLength * 2) {
+            throw new IllegalArgumentException("too few hexadecimal digits");
+        }
+        for (int i = 0; i < pLength; i++) {
+            pOutput[pOutputOffset + i] = (byte) (digit(pInput,
+                    pOffset + i * 2) << 4
+                    | digit(pInput, pOffset + i * 2 + 1));
+        }
+    }
+
+    private static int digit(final CharSequence pInput, final int pIndex) {
+        final char c = pInput.charAt(pIndex);
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        throw new IllegalArgumentException(
+                "no hexadecimal digit at " + pIndex);
+    }
+}
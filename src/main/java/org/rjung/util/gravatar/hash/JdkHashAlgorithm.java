@@ -0,0 +1,48 @@
+package org.rjung.util.gravatar.hash;
+
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * {@link HashAlgorithm} of a {@link java.security.MessageDigest} of the JDK.
+ * MD5 and SHA-256 have to be available on every Java platform.
+ */
+final class JdkHashAlgorithm implements HashAlgorithm {
+
+    private final String name;
+    private final int digestLength;
+    private volatile DigestEngine engine;
+
+    JdkHashAlgorithm(final String pName, final int pDigestLength) {
+        this.name = pName;
+        this.digestLength = pDigestLength;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getDigestLength() {
+        return digestLength;
+    }
+
+    @Override
+    public DigestEngine engine() {
+        DigestEngine result = engine;
+        if (result == null) {
+            try {
+                result = DigestEngine.forAlgorithm(name);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+            engine = result;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,210 @@
+package org.rjung.util.gravatar.hash;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+
+/**
+ * MD5 (RFC 1321) in plain Java. It is used instead of the MD5 of the security
+ * providers when the system property
+ * <code>org.rjung.util.gravatar.md5=java</code> is set and in native images,
+ * so the first hash does not have to initialize the providers. On a warm
+ * HotSpot JVM the provider is faster, it has an intrinsic for MD5.
+ */
+final class Md5 extends MessageDigest implements Cloneable {
+
+    private static final int BLOCK = 64;
+    private static final int LENGTH = 16;
+    private static final int[] SHIFTS = { 7, 12, 17, 22, 5, 9, 14, 20, 4, 11,
+            16, 23, 6, 10, 15, 21 };
+    // the integer part of abs(sin(i + 1)) * 2^32
+    private static final int[] SINES = {
+            0xd76aa478, 0xe8c7b756, 0x242070db, 0xc1bdceee,
+            0xf57c0faf, 0x4787c62a, 0xa8304613, 0xfd469501,
+            0x698098d8, 0x8b44f7af, 0xffff5bb1, 0x895cd7be,
+            0x6b901122, 0xfd987193, 0xa679438e, 0x49b40821,
+            0xf61e2562, 0xc040b340, 0x265e5a51, 0xe9b6c7aa,
+            0xd62f105d, 0x02441453, 0xd8a1e681, 0xe7d3fbc8,
+            0x21e1cde6, 0xc33707d6, 0xf4d50d87, 0x455a14ed,
+            0xa9e3e905, 0xfcefa3f8, 0x676f02d9, 0x8d2a4c8a,
+            0xfffa3942, 0x8771f681, 0x6d9d6122, 0xfde5380c,
+            0xa4beea44, 0x4bdecfa9, 0xf6bb4b60, 0xbebfbc70,
+            0x289b7ec6, 0xeaa127fa, 0xd4ef3085, 0x04881d05,
+            0xd9d4d039, 0xe6db99e5, 0x1fa27cf8, 0xc4ac5665,
+            0xf4292244, 0x432aff97, 0xab9423a7, 0xfc93a039,
+            0x655b59c3, 0x8f0ccc92, 0xffeff47d, 0x85845dd1,
+            0x6fa87e4f, 0xfe2ce6e0, 0xa3014314, 0x4e0811a1,
+            0xf7537e82, 0xbd3af235, 0x2ad7d2bb, 0xeb86d391 };
+
+    private int a;
+    private int b;
+    private int c;
+    private int d;
+    private byte[] buffer = new byte[BLOCK];
+    private int[] words = new int[16];
+    private int buffered;
+    private long count;
+
+    Md5() {
+        super("MD5");
+        engineReset();
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return LENGTH;
+    }
+
+    @Override
+    protected void engineUpdate(final byte pInput) {
+        buffer[buffered++] = pInput;
+        count++;
+        if (buffered == BLOCK) {
+            compress(buffer, 0);
+            buffered = 0;
+        }
+    }
+
+    @Override
+    protected void engineUpdate(final byte[] pInput, final int pOffset,
+            final int pLength) {
+        int offset = pOffset;
+        int remaining = pLength;
+        count += pLength;
+        if (buffered > 0) {
+            final int length = Math.min(remaining, BLOCK - buffered);
+            System.arraycopy(pInput, offset, buffer, buffered, length);
+            buffered += length;
+            offset += length;
+            remaining -= length;
+            if (buffered < BLOCK) {
+                return;
+            }
+            compress(buffer, 0);
+            buffered = 0;
+        }
+        while (remaining >= BLOCK) {
+            compress(pInput, offset);
+            offset += BLOCK;
+            remaining -= BLOCK;
+        }
+        System.arraycopy(pInput, offset, buffer, 0, remaining);
+        buffered = remaining;
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        final byte[] result = new byte[LENGTH];
+        finish(result, 0);
+        return result;
+    }
+
+    @Override
+    protected int engineDigest(final byte[] pOutput, final int pOffset,
+            final int pLength) throws DigestException {
+        if (pLength < LENGTH || pOutput.length - pOffset < LENGTH) {
+            throw new DigestException("output buffer is too small");
+        }
+        finish(pOutput, pOffset);
+        return LENGTH;
+    }
+
+    @Override
+    protected void engineReset() {
+        a = 0x67452301;
+        b = 0xefcdab89;
+        c = 0x98badcfe;
+        d = 0x10325476;
+        buffered = 0;
+        count = 0;
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        final Md5 result = (Md5) super.clone();
+        result.buffer = buffer.clone();
+        result.words = new int[16];
+        return result;
+    }
+
+    private void finish(final byte[] pOutput, final int pOffset) {
+        final long bits = count << 3;
+        buffer[buffered++] = (byte) 0x80;
+        if (buffered > BLOCK - 8) {
+            while (buffered < BLOCK) {
+                buffer[buffered++] = 0;
+            }
+            compress(buffer, 0);
+            buffered = 0;
+        }
+        while (buffered < BLOCK - 8) {
+            buffer[buffered++] = 0;
+        }
+        for (int i = 0; i < 8; i++) {
+            buffer[BLOCK - 8 + i] = (byte) (bits >>> (i * 8));
+        }
+        compress(buffer, 0);
+        putInt(a, pOutput, pOffset);
+        putInt(b, pOutput, pOffset + 4);
+        putInt(c, pOutput, pOffset + 8);
+        putInt(d, pOutput, pOffset + 12);
+        engineReset();
+    }
+
+    private void compress(final byte[] pBlock, final int pOffset) {
+        for (int i = 0; i < 16; i++) {
+            final int j = pOffset + i * 4;
+            words[i] = pBlock[j] & 0xFF | (pBlock[j + 1] & 0xFF) << 8
+                    | (pBlock[j + 2] & 0xFF) << 16
+                    | (pBlock[j + 3] & 0xFF) << 24;
+        }
+        int va = a;
+        int vb = b;
+        int vc = c;
+        int vd = d;
+        int t;
+        for (int i = 0; i < 16; i++) {
+            t = vd;
+            vd = vc;
+            vc = vb;
+            vb += Integer.rotateLeft(va + (vd & vb | ~vb & t) + SINES[i]
+                    + words[i], SHIFTS[i & 3]);
+            va = t;
+        }
+        for (int i = 16; i < 32; i++) {
+            t = vd;
+            vd = vc;
+            vc = vb;
+            vb += Integer.rotateLeft(va + (t & vb | ~t & vd) + SINES[i]
+                    + words[(5 * i + 1) & 15], SHIFTS[4 + (i & 3)]);
+            va = t;
+        }
+        for (int i = 32; i < 48; i++) {
+            t = vd;
+            vd = vc;
+            vc = vb;
+            vb += Integer.rotateLeft(va + (vb ^ vd ^ t) + SINES[i]
+                    + words[(3 * i + 5) & 15], SHIFTS[8 + (i & 3)]);
+            va = t;
+        }
+        for (int i = 48; i < 64; i++) {
+            t = vd;
+            vd = vc;
+            vc = vb;
+            vb += Integer.rotateLeft(va + (vd ^ (vb | ~t)) + SINES[i]
+                    + words[(7 * i) & 15], SHIFTS[12 + (i & 3)]);
+            va = t;
+        }
+        a += va;
+        b += vb;
+        c += vc;
+        d += vd;
+    }
+
+    private static void putInt(final int pValue, final byte[] pOutput,
+            final int pOffset) {
+        pOutput[pOffset] = (byte) pValue;
+        pOutput[pOffset + 1] = (byte) (pValue >>> 8);
+        pOutput[pOffset + 2] = (byte) (pValue >>> 16);
+        pOutput[pOffset + 3] = (byte) (pValue >>> 24);
+    }
+}
@@ -0,0 +1,146 @@
+package org.rjung.util.gravatar.hash;
+
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * MD5 of many short messages at once. Email-addresses almost always fit into
+ * a single MD5-block of 64 bytes, so several of them can be hashed side by
+ * side in the lanes of a vector register.<br>
+ * {@link #get()} returns an implementation based on the incubating Vector
+ * API if it is available. This needs a build with the <code>vector</code>
+ * profile, Java 17 or newer and the JVM option
+ * <code>--add-modules jdk.incubator.vector</code>, it is never used in a
+ * native image. Otherwise the messages are hashed one after the other by a
+ * pooled {@link Digester}.
+ */
+public abstract class MultiLaneMd5 {
+
+    /**
+     * The length of a MD5 digest in bytes.
+     */
+    public static final int DIGEST_LENGTH = 16;
+
+    /**
+     * Messages up to this length in bytes fit into a single MD5-block.
+     */
+    public static final int MAX_SINGLE_BLOCK = 55;
+
+    private static final String VECTOR_IMPLEMENTATION = "org.rjung.util.gravatar.hash.VectorMd5";
+    private static final String VECTOR_PROPERTY = "org.rjung.util.gravatar.vector";
+
+    MultiLaneMd5() {
+    }
+
+    /**
+     * The best available {@link MultiLaneMd5}. The Vector API can be disabled
+     * with the system property
+     * <code>org.rjung.util.gravatar.vector=false</code>.
+     *
+     * @return shared {@link MultiLaneMd5}
+     */
+    public static MultiLaneMd5 get() {
+        return Holder.BEST;
+    }
+
+    /**
+     * The {@link MultiLaneMd5} that hashes one message after the other.
+     *
+     * @return shared scalar {@link MultiLaneMd5}
+     */
+    public static MultiLaneMd5 scalar() {
+        return Holder.SCALAR;
+    }
+
+    /**
+     * The number of messages hashed side by side.
+     *
+     * @return number of lanes, <code>1</code> for the scalar implementation
+     */
+    public abstract int lanes();
+
+    /**
+     * Calculate the MD5 of many messages. Messages longer than
+     * {@link #MAX_SINGLE_BLOCK} are supported, but hashed one by one.
+     *
+     * @param pInput
+     *            array containing all messages
+     * @param pOffsets
+     *            start of each message in <code>pInput</code>
+     * @param pLengths
+     *            length of each message
+     * @param pCount
+     *            number of messages
+     * @param pOutput
+     *            array to write the digests to, {@link #DIGEST_LENGTH} bytes
+     *            per message in the order of the messages
+     * @param pOutputOffset
+     *            position in <code>pOutput</code> to write the first digest to
+     */
+    public abstract void digest(byte[] pInput, int[] pOffsets, int[] pLengths,
+            int pCount, byte[] pOutput, int pOutputOffset);
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[lanes=" + lanes() + "]";
+    }
+
+    private static final class Holder {
+        static final MultiLaneMd5 SCALAR = new ScalarMd5();
+        static final MultiLaneMd5 BEST = best();
+
+        private Holder() {
+        }
+
+        private static MultiLaneMd5 best() {
+            if ("false".equalsIgnoreCase(System.getProperty(VECTOR_PROPERTY))
+                    || DigestEngine.inNativeImage()) {
+                // native images do not support the Vector API
+                return SCALAR;
+            }
+            try {
+                return (MultiLaneMd5) Class.forName(VECTOR_IMPLEMENTATION)
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return SCALAR;
+            }
+        }
+    }
+
+    static final class ScalarMd5 extends MultiLaneMd5 {
+
+        private final DigestEngine engine;
+
+        ScalarMd5() {
+            try {
+                this.engine = DigestEngine.forAlgorithm("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public int lanes() {
+            return 1;
+        }
+
+        @Override
+        public void digest(final byte[] pInput, final int[] pOffsets,
+                final int[] pLengths, final int pCount, final byte[] pOutput,
+                final int pOutputOffset) {
+            final Digester digester = engine.acquire();
+            try {
+                for (int i = 0; i < pCount; i++) {
+                    digester.update(pInput, pOffsets[i], pLengths[i])
+                            .digest(pOutput, pOutputOffset + i * DIGEST_LENGTH);
+                }
+            } finally {
+                engine.release(digester);
+            }
+        }
+
+        void digest(final byte[] pInput, final int pOffset, final int pLength,
+                final byte[] pOutput, final int pOutputOffset) {
+            engine.digest(pInput, pOffset, pLength, pOutput, pOutputOffset);
+        }
+    }
+}
@@ -0,0 +1,8 @@
+/**
+ * Hashing of email-addresses for the gravatar-URL.<br>
+ * {@link org.rjung.util.gravatar.hash.DigestEngine} keeps a pool of reusable
+ * {@link org.rjung.util.gravatar.hash.Digester}s, so the hot path of
+ * {@link org.rjung.util.Gravatar#toUrl()} does not need to look up a
+ * {@link java.security.MessageDigest} for every URL.
+ */
+package org.rjung.util.gravatar.hash;
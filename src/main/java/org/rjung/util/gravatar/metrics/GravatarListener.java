@@ -0,0 +1,139 @@
+package org.rjung.util.gravatar.metrics;
+
+import org.rjung.util.gravatar.hash.HashAlgorithm;
+
+/**
+ * Receives what happens while URLs and hashes are rendered, set with
+ * {@link org.rjung.util.Gravatar#setListener(GravatarListener)}. All methods
+ * are called on the rendering thread, so implementations have to be
+ * thread-safe and should return quickly.<br>
+ * The default is {@link #NOOP}. While it is set, the rendering code skips the
+ * timing entirely, the only cost left is reading the listener.
+ */
+public interface GravatarListener {
+
+    /**
+     * A {@link GravatarListener} that ignores everything, this is the
+     * default.
+     */
+    GravatarListener NOOP = new GravatarListener() {
+    };
+
+    /**
+     * The ways a URL is rendered.
+     */
+    enum Render {
+        /**
+         * A URL is returned as {@link String}, e.g. by
+         * {@link org.rjung.util.Gravatar#toUrl()}.
+         */
+        URL,
+        /**
+         * A URL is written to an {@link Appendable} or a
+         * {@link java.nio.ByteBuffer}.
+         */
+        WRITE,
+        /**
+         * The URLs of a list of email-addresses are rendered at once.
+         */
+        BATCH
+    }
+
+    /**
+     * The places a hash is looked up before it is calculated.
+     */
+    enum Cache {
+        /**
+         * The {@link org.rjung.util.gravatar.cache.HashCache}.
+         */
+        HASH_CACHE,
+        /**
+         * The {@link org.rjung.util.gravatar.store.HashStore}.
+         */
+        HASH_STORE
+    }
+
+    /**
+     * Whether the bytes allocated by each render should be measured. This
+     * costs about as much as rendering a URL, so it is off by default.
+     *
+     * @return <code>true</code> to receive the allocated bytes in
+     *         {@link #rendered(Render, int, int, long, long)}
+     */
+    default boolean measuresAllocations() {
+        return false;
+    }
+
+    /**
+     * Hashes were calculated.
+     *
+     * @param pAlgorithm
+     *            the {@link HashAlgorithm} used
+     * @param pCount
+     *            number of email-addresses hashed
+     * @param pNanos
+     *            time it took for all of them in nanoseconds
+     */
+    default void hashed(final HashAlgorithm pAlgorithm, final int pCount,
+            final long pNanos) {
+        // ignored
+    }
+
+    /**
+     * A hash was found in a {@link Cache}, so it was not calculated.
+     *
+     * @param pCache
+     *            the {@link Cache} that had the hash
+     */
+    default void cacheHit(final Cache pCache) {
+        // ignored
+    }
+
+    /**
+     * A hash was not found in a {@link Cache}, so it was calculated.
+     *
+     * @param pCache
+     *            the {@link Cache} that missed the hash
+     */
+    default void cacheMiss(final Cache pCache) {
+        // ignored
+    }
+
+    /**
+     * A calculated hash could not be added to a {@link Cache}. The hash is
+     * used anyway, it is only calculated again the next time.
+     *
+     * @param pCache
+     *            the {@link Cache} that failed
+     * @param pException
+     *            why it failed, e.g. the
+     *            {@link org.rjung.util.gravatar.store.HashStore} is full or
+     *            its file could not be grown
+     */
+    default void cacheFailed(final Cache pCache,
+            final RuntimeException pException) {
+        // ignored
+    }
+
+    /**
+     * URLs were rendered.
+     *
+     * @param pRender
+     *            how the URLs were rendered
+     * @param pCount
+     *            number of URLs, 1 unless it is a {@link Render#BATCH}
+     * @param pLength
+     *            number of chars of all URLs together
+     * @param pNanos
+     *            time it took in nanoseconds
+     * @param pAllocated
+     *            bytes allocated by the rendering thread, or <code>-1</code>
+     *            unless {@link #measuresAllocations()} is set; a
+     *            {@link Render#BATCH} is spread over several threads and
+     *            always reports <code>-1</code>
+     */
+    default void rendered(final Render pRender, final int pCount,
+            final int pLength, final long pNanos, final long pAllocated) {
+        // ignored
+    }
+}
@@ -0,0 +1,208 @@
+package org.rjung.util.gravatar.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.rjung.util.gravatar.hash.HashAlgorithm;
+
+/**
+ * A {@link GravatarListener} that counts what happens and keeps histograms of
+ * the latencies, to be read by a monitoring system or logged now and then:
+ *
+ * <pre>
+ * GravatarMetrics metrics = new GravatarMetrics();
+ * Gravatar.setListener(metrics);
+ * ...
+ * log.info("avatar urls: {}", metrics.getLatency(Render.WRITE));
+ * </pre>
+ *
+ * Recording does not lock or allocate.
+ */
+public final class GravatarMetrics implements GravatarListener {
+
+    private final boolean allocations;
+    private final LongAdder hashes = new LongAdder();
+    private final Histogram hashLatency = new Histogram();
+    private final LongAdder[] hits = adders(Cache.values().length);
+    private final LongAdder[] misses = adders(Cache.values().length);
+    private final LongAdder[] failures = adders(Cache.values().length);
+    private final Histogram[] latency = new Histogram[Render.values().length];
+    private final LongAdder[] renders = adders(Render.values().length);
+    private final LongAdder[] chars = adders(Render.values().length);
+    private final LongAdder[] allocated = adders(Render.values().length);
+    private final LongAdder[] measured = adders(Render.values().length);
+
+    /**
+     * Create {@link GravatarMetrics} that do not measure allocations.
+     */
+    public GravatarMetrics() {
+        this(false);
+    }
+
+    /**
+     * Create {@link GravatarMetrics}.
+     *
+     * @param pAllocations
+     *            <code>true</code> to measure the bytes allocated per render,
+     *            see {@link GravatarListener#measuresAllocations()}
+     */
+    public GravatarMetrics(final boolean pAllocations) {
+        this.allocations = pAllocations;
+        for (int i = 0; i < latency.length; i++) {
+            latency[i] = new Histogram();
+        }
+    }
+
+    @Override
+    public boolean measuresAllocations() {
+        return allocations;
+    }
+
+    @Override
+    public void hashed(final HashAlgorithm pAlgorithm, final int pCount,
+            final long pNanos) {
+        if (pCount > 0) {
+            hashes.add(pCount);
+            hashLatency.record(pNanos / pCount, pCount);
+        }
+    }
+
+    @Override
+    public void cacheHit(final Cache pCache) {
+        hits[pCache.ordinal()].increment();
+    }
+
+    @Override
+    public void cacheMiss(final Cache pCache) {
+        misses[pCache.ordinal()].increment();
+    }
+
+    @Override
+    public void cacheFailed(final Cache pCache,
+            final RuntimeException pException) {
+        failures[pCache.ordinal()].increment();
+    }
+
+    @Override
+    public void rendered(final Render pRender, final int pCount,
+            final int pLength, final long pNanos, final long pAllocated) {
+        if (pCount == 0) {
+            return;
+        }
+        final int index = pRender.ordinal();
+        latency[index].record(pNanos / pCount, pCount);
+        renders[index].add(pCount);
+        chars[index].add(pLength);
+        if (pAllocated >= 0) {
+            allocated[index].add(pAllocated);
+            measured[index].add(pCount);
+        }
+    }
+
+    /**
+     * The number of calculated hashes, not counting the ones found in a
+     * {@link Cache}.
+     *
+     * @return number of hashes
+     */
+    public long getHashes() {
+        return hashes.sum();
+    }
+
+    /**
+     * The time to calculate a hash in nanoseconds, for a batch the average
+     * per email-address.
+     *
+     * @return {@link Histogram} of the latencies
+     */
+    public Histogram getHashLatency() {
+        return hashLatency;
+    }
+
+    public long getHits(final Cache pCache) {
+        return hits[pCache.ordinal()].sum();
+    }
+
+    public long getMisses(final Cache pCache) {
+        return misses[pCache.ordinal()].sum();
+    }
+
+    public long getFailures(final Cache pCache) {
+        return failures[pCache.ordinal()].sum();
+    }
+
+    /**
+     * The time to render a URL in nanoseconds, including the hash. For a
+     * {@link Render#BATCH} this is the average per URL.
+     *
+     * @param pRender
+     *            how the URLs were rendered
+     * @return {@link Histogram} of the latencies
+     */
+    public Histogram getLatency(final Render pRender) {
+        return latency[pRender.ordinal()];
+    }
+
+    /**
+     * The number of rendered URLs.
+     *
+     * @param pRender
+     *            how the URLs were rendered
+     * @return number of URLs
+     */
+    public long getRenders(final Render pRender) {
+        return renders[pRender.ordinal()].sum();
+    }
+
+    /**
+     * The number of chars of all rendered URLs, as ASCII this is also the
+     * number of bytes.
+     *
+     * @param pRender
+     *            how the URLs were rendered
+     * @return number of chars
+     */
+    public long getChars(final Render pRender) {
+        return chars[pRender.ordinal()].sum();
+    }
+
+    /**
+     * The average number of bytes allocated to render a URL.
+     *
+     * @param pRender
+     *            how the URLs were rendered
+     * @return bytes per URL, or <code>-1</code> if no allocations were
+     *         measured
+     */
+    public double getAllocatedPerRender(final Render pRender) {
+        final long n = measured[pRender.ordinal()].sum();
+        return n == 0 ? -1 : (double) allocated[pRender.ordinal()].sum() / n;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder result = new StringBuilder("hashes: ")
+                .append(getHashes()).append(", ").append(hashLatency);
+        for (final Cache cache : Cache.values()) {
+            result.append("\n").append(cache).append(": ")
+                    .append(getHits(cache)).append(" hits, ")
+                    .append(getMisses(cache)).append(" misses, ")
+                    .append(getFailures(cache)).append(" failures");
+        }
+        for (final Render render : Render.values()) {
+            result.append("\n").append(render).append(": ")
+                    .append(getLatency(render)).append(", chars=")
+                    .append(getChars(render)).append(", allocated/render=")
+                    .append(String.format("%.1f",
+                            getAllocatedPerRender(render)));
+        }
+        return result.toString();
+    }
+
+    private static LongAdder[] adders(final int pCount) {
+        final LongAdder[] result = new LongAdder[pCount];
+        for (int i = 0; i < pCount; i++) {
+            result[i] = new LongAdder();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,131 @@
+package org.rjung.util.gravatar.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative values like latencies in nanoseconds. Every
+ * power of two is split into eight buckets, so a percentile is off by at most
+ * an eighth of the value. Recording does not lock or allocate, the buckets
+ * take a fixed 4 KiB.
+ */
+public final class Histogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (63 - SUB_BITS + 1) * SUB_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    /**
+     * Record a value.
+     *
+     * @param pValue
+     *            the value, negative values are recorded as 0
+     */
+    public void record(final long pValue) {
+        record(pValue, 1);
+    }
+
+    /**
+     * Record the same value several times, e.g. the average of a batch.
+     *
+     * @param pValue
+     *            the value, negative values are recorded as 0
+     * @param pCount
+     *            how often the value occurred
+     */
+    public void record(final long pValue, final long pCount) {
+        final long value = Math.max(pValue, 0L);
+        buckets.addAndGet(index(value), pCount);
+        count.add(pCount);
+        sum.add(value * pCount);
+        max.accumulate(value);
+    }
+
+    /**
+     * The number of recorded values.
+     *
+     * @return number of values
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * The largest recorded value.
+     *
+     * @return maximum, 0 if nothing was recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * The average of the recorded values.
+     *
+     * @return mean, 0 if nothing was recorded
+     */
+    public double getMean() {
+        final long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * The value below which the given share of the recorded values falls.
+     *
+     * @param pPercentile
+     *            share between 0 and 100, like 99 or 99.9
+     * @return the upper bound of the bucket containing the percentile, but at
+     *         most the maximum; 0 if nothing was recorded
+     */
+    public long getPercentile(final double pPercentile) {
+        if (pPercentile < 0 || pPercentile > 100) {
+            throw new IllegalArgumentException(
+                    "percentile needs to be between 0 and 100");
+        }
+        final long total = count.sum();
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1L,
+                (long) Math.ceil(total * pPercentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.0f p50=%d p99=%d max=%d",
+                getCount(), getMean(), getPercentile(50), getPercentile(99),
+                getMax());
+    }
+
+    static int index(final long pValue) {
+        if (pValue < SUB_COUNT) {
+            return (int) pValue;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(pValue);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT
+                + (int) (pValue >>> (exponent - SUB_BITS)) - SUB_COUNT;
+    }
+
+    static long upperBound(final int pIndex) {
+        if (pIndex < SUB_COUNT) {
+            return pIndex;
+        }
+        final int shift = pIndex / SUB_COUNT - 1;
+        final long lower = (long) (SUB_COUNT + pIndex % SUB_COUNT) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,124 @@
+package org.rjung.util.gravatar.metrics;
+
+import org.rjung.util.gravatar.hash.HashAlgorithm;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A {@link GravatarListener} that emits Java Flight Recorder events, so the
+ * time spent on avatars shows up next to the rest of a recording. It needs
+ * the <code>jdk.jfr</code>-module, which is part of every full JDK.<br>
+ * The render-events (<code>org.rjung.gravatar.Render</code>) are enabled by
+ * default. The hash- and cache-events occur once per email-address and are
+ * disabled by default, enable them in the recording settings if needed:
+ *
+ * <pre>
+ * java -XX:StartFlightRecording:settings=default,org.rjung.gravatar.Hash#enabled=true ...
+ * </pre>
+ *
+ * Nothing is allocated or recorded while no recording is running.
+ */
+public final class JfrGravatarListener implements GravatarListener {
+
+    @Override
+    public void hashed(final HashAlgorithm pAlgorithm, final int pCount,
+            final long pNanos) {
+        final HashEvent event = new HashEvent();
+        if (event.isEnabled()) {
+            event.algorithm = pAlgorithm.getName();
+            event.count = pCount;
+            event.nanos = pNanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void cacheHit(final Cache pCache) {
+        cache(pCache, true);
+    }
+
+    @Override
+    public void cacheMiss(final Cache pCache) {
+        cache(pCache, false);
+    }
+
+    @Override
+    public void rendered(final Render pRender, final int pCount,
+            final int pLength, final long pNanos, final long pAllocated) {
+        final RenderEvent event = new RenderEvent();
+        if (event.isEnabled()) {
+            event.render = pRender.name();
+            event.count = pCount;
+            event.length = pLength;
+            event.nanos = pNanos;
+            event.allocated = pAllocated;
+            event.commit();
+        }
+    }
+
+    private static void cache(final Cache pCache, final boolean pHit) {
+        final CacheEvent event = new CacheEvent();
+        if (event.isEnabled()) {
+            event.cache = pCache.name();
+            event.hit = pHit;
+            event.commit();
+        }
+    }
+
+    @Name("org.rjung.gravatar.Render")
+    @Label("Gravatar Render")
+    @Category("Gravatar")
+    @Description("URLs of Gravatar-images were rendered")
+    @StackTrace(false)
+    static final class RenderEvent extends Event {
+        @Label("Render")
+        String render;
+        @Label("URLs")
+        int count;
+        @Label("Length")
+        int length;
+        @Label("Render Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+
+    @Name("org.rjung.gravatar.Hash")
+    @Label("Gravatar Hash")
+    @Category("Gravatar")
+    @Description("Email-addresses were hashed")
+    @StackTrace(false)
+    @Enabled(false)
+    static final class HashEvent extends Event {
+        @Label("Algorithm")
+        String algorithm;
+        @Label("Email-Addresses")
+        int count;
+        @Label("Hash Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+    }
+
+    @Name("org.rjung.gravatar.Cache")
+    @Label("Gravatar Hash Lookup")
+    @Category("Gravatar")
+    @Description("A hash was looked up before it is calculated")
+    @StackTrace(false)
+    @Enabled(false)
+    static final class CacheEvent extends Event {
+        @Label("Cache")
+        String cache;
+        @Label("Hit")
+        boolean hit;
+    }
+}
@@ -0,0 +1,10 @@
+/**
+ * Observing the work spent on Gravatar-URLs.<br>
+ * A {@link org.rjung.util.gravatar.metrics.GravatarListener} can be set with
+ * {@link org.rjung.util.Gravatar#setListener(GravatarListener)}, it is told
+ * about calculated hashes, cache hits and misses and rendered URLs.
+ * {@link org.rjung.util.gravatar.metrics.GravatarMetrics} keeps counters and
+ * latency histograms, {@link org.rjung.util.gravatar.metrics.JfrGravatarListener}
+ * emits Java Flight Recorder events.
+ */
+package org.rjung.util.gravatar.metrics;
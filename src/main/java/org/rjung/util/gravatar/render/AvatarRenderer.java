@@ -0,0 +1,295 @@
+package org.rjung.util.gravatar.render;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.rjung.util.gravatar.Default;
+import org.rjung.util.gravatar.hash.Hex;
+
+/**
+ * {@link AvatarRenderer} draws the images of {@link Default#IDENTICON} and
+ * {@link Default#RETRO} locally. Both are a pure function of the hash of the
+ * email-address, so a fallback image needs no request to Gravatar:
+ *
+ * <pre>
+ * AvatarRenderer renderer = new AvatarRenderer(4 &lt;&lt; 20);
+ * byte[] png = renderer.render(Default.IDENTICON, ImageFormat.PNG, hash, 80);
+ * </pre>
+ *
+ * The images look like the ones of Gravatar, but are not the same pixel by
+ * pixel: an identicon is a square of nine patches with rotational symmetry,
+ * a retro-image a mirrored pattern of 8 by 8 blocks, each in one color taken
+ * from the hash on white. PNGs have a palette of two colors and are drawn
+ * into a bit per pixel. Rendered images are kept in a cache bounded by their
+ * number of bytes, the least recently used are removed first.<br>
+ * An {@link AvatarRenderer} is thread-safe. The returned arrays are shared
+ * with the cache and must not be changed.
+ */
+public final class AvatarRenderer {
+
+    private static final int HASH_LENGTH = 16;
+    private static final int MIN_SIZE = 1;
+    private static final int MAX_SIZE = 2048;
+    private static final int BACKGROUND = 0xFFFFFF;
+    private static final int PATCH = 4;
+    private static final int IDENTICON_GRID = 3 * PATCH;
+    private static final int RETRO_GRID = 8;
+
+    /**
+     * The patches of an identicon, convex polygons on a square of 4 units.
+     */
+    private static final int[][][] PATCHES = {
+            { { 0, 0, 4, 0, 4, 4, 0, 4 } },
+            { { 0, 0, 4, 0, 0, 4 } },
+            { { 2, 0, 4, 2, 2, 4, 0, 2 } },
+            { { 0, 0, 2, 0, 2, 4, 0, 4 } },
+            { { 1, 1, 3, 1, 3, 3, 1, 3 } },
+            { { 0, 4, 2, 0, 4, 4 } },
+            { { 0, 0, 2, 0, 2, 2, 0, 2 } },
+            { { 0, 0, 2, 0, 0, 2 }, { 4, 4, 2, 4, 4, 2 } },
+            { { 0, 0, 4, 2, 2, 4 } },
+            { { 2, 1, 3, 2, 2, 3, 1, 2 } },
+            { { 0, 0, 4, 0, 2, 2 } },
+            { { 0, 0, 4, 2, 4, 4, 2, 4 } },
+            { { 0, 1, 4, 1, 4, 3, 0, 3 } },
+            { { 0, 0, 2, 2, 0, 4 }, { 4, 0, 2, 2, 4, 4 } },
+            { { 0, 2, 2, 0, 4, 0, 4, 4, 0, 4 } },
+            { { 0, 0, 2, 0, 0, 2 } } };
+
+    /**
+     * The patches that look the same when turned, for the center.
+     */
+    private static final int[] CENTER_PATCHES = { 0, 2, 4, 9 };
+
+    /**
+     * The cells of the corners and of the sides, clockwise.
+     */
+    private static final int[] CORNERS = { 0, 0, 2, 0, 2, 2, 0, 2 };
+    private static final int[] SIDES = { 1, 0, 2, 1, 1, 2, 0, 1 };
+
+    private final long capacity;
+    private final LinkedHashMap<String, byte[]> images = new LinkedHashMap<String, byte[]>(
+            16, 0.75f, true);
+    private long bytes;
+
+    /**
+     * Create an {@link AvatarRenderer}.
+     *
+     * @param pCapacity
+     *            maximum number of bytes of all cached images together
+     */
+    public AvatarRenderer(final long pCapacity) {
+        if (pCapacity < 1) {
+            throw new IllegalArgumentException("capacity needs to be positive");
+        }
+        this.capacity = pCapacity;
+    }
+
+    /**
+     * Whether a {@link Default}-style can be rendered locally.
+     *
+     * @param pStyle
+     *            the {@link Default}-style
+     * @return <code>true</code> for {@link Default#IDENTICON} and
+     *         {@link Default#RETRO}
+     */
+    public static boolean supports(final Default pStyle) {
+        return pStyle == Default.IDENTICON || pStyle == Default.RETRO;
+    }
+
+    /**
+     * Render the image of a hash, as found in a Gravatar-URL.
+     *
+     * @param pStyle
+     *            {@link Default#IDENTICON} or {@link Default#RETRO}
+     * @param pFormat
+     *            the {@link ImageFormat} to render
+     * @param pHash
+     *            the hexadecimal MD5- or SHA-256-hash, only the first 16
+     *            bytes are used
+     * @param pSize
+     *            width and height in pixels, 1 to 2048
+     * @return the image, must not be changed
+     * @throws IllegalArgumentException
+     *             If the style is not supported, the hash is no hexadecimal
+     *             hash or the size is out of bounds.
+     */
+    public byte[] render(final Default pStyle, final ImageFormat pFormat,
+            final String pHash, final int pSize) {
+        final byte[] hash = new byte[HASH_LENGTH];
+        Hex.decode(pHash, 0, hash, 0, HASH_LENGTH);
+        return render(pStyle, pFormat, hash, 0, pSize);
+    }
+
+    /**
+     * Render the image of a hash, e.g. one of
+     * {@link org.rjung.util.Gravatar#toHashes(java.util.List)}.
+     *
+     * @param pStyle
+     *            {@link Default#IDENTICON} or {@link Default#RETRO}
+     * @param pFormat
+     *            the {@link ImageFormat} to render
+     * @param pHashes
+     *            array containing the hash
+     * @param pOffset
+     *            position of the 16 bytes of the hash in <code>pHashes</code>
+     * @param pSize
+     *            width and height in pixels, 1 to 2048
+     * @return the image, must not be changed
+     * @throws IllegalArgumentException
+     *             If the style is not supported or the size is out of bounds.
+     */
+    public byte[] render(final Default pStyle, final ImageFormat pFormat,
+            final byte[] pHashes, final int pOffset, final int pSize) {
+        if (!supports(pStyle)) {
+            throw new IllegalArgumentException(pStyle + " can not be rendered");
+        }
+        if (pSize < MIN_SIZE || pSize > MAX_SIZE) {
+            throw new IllegalArgumentException(
+                    "size needs to be within " + MIN_SIZE + " and " + MAX_SIZE);
+        }
+        if (pHashes.length - pOffset < HASH_LENGTH) {
+            throw new IllegalArgumentException("a hash has 16 bytes");
+        }
+        final char[] key = new char[HASH_LENGTH * 2];
+        Hex.encode(pHashes, pOffset, HASH_LENGTH, key, 0);
+        final String cacheKey = new StringBuilder(48).append(pStyle)
+                .append('/').append(pFormat.ordinal()).append('/')
+                .append(pSize).append('/').append(key).toString();
+        final byte[] cached = get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+        final Drawing drawing = pStyle == Default.IDENTICON
+                ? identicon(pHashes, pOffset)
+                : retro(pHashes, pOffset);
+        final byte[] result = pFormat == ImageFormat.PNG
+                ? PngEncoder.encode(pSize, drawing.scanlines(pSize),
+                        drawing.getBackground(), drawing.getForeground())
+                : drawing.svg(pSize);
+        put(cacheKey, result);
+        return result;
+    }
+
+    /**
+     * The number of images in the cache.
+     *
+     * @return number of entries
+     */
+    public synchronized int size() {
+        return images.size();
+    }
+
+    /**
+     * The number of bytes of all images in the cache.
+     *
+     * @return number of bytes
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    private synchronized byte[] get(final String pKey) {
+        return images.get(pKey);
+    }
+
+    private synchronized void put(final String pKey, final byte[] pImage) {
+        final byte[] previous = images.put(pKey, pImage);
+        if (previous != null) {
+            bytes -= previous.length;
+        }
+        bytes += pImage.length;
+        final Iterator<Map.Entry<String, byte[]>> eldest = images.entrySet()
+                .iterator();
+        while (bytes > capacity && eldest.hasNext()) {
+            bytes -= eldest.next().getValue().length;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Draw an identicon after Don Park: a center patch, four turned copies
+     * of a corner patch and four of a side patch, each possibly inverted.
+     */
+    static Drawing identicon(final byte[] pHash, final int pOffset) {
+        final int first = pHash[pOffset] & 0xFF;
+        final int second = pHash[pOffset + 1] & 0xFF;
+        final int third = pHash[pOffset + 2] & 0xFF;
+        final Drawing result = new Drawing(IDENTICON_GRID, BACKGROUND,
+                color(pHash, pOffset + 3));
+        patch(result, CENTER_PATCHES[first & 3], 1, 1, 0,
+                (first & 4) != 0);
+        final int corner = first >>> 3 & 15;
+        final int side = second >>> 3 & 15;
+        for (int i = 0; i < 4; i++) {
+            patch(result, corner, CORNERS[i * 2], CORNERS[i * 2 + 1],
+                    (second >>> 1) + i, (second & 1) != 0);
+            patch(result, side, SIDES[i * 2], SIDES[i * 2 + 1],
+                    (third >>> 1) + i, (third & 1) != 0);
+        }
+        return result;
+    }
+
+    private static void patch(final Drawing pDrawing, final int pPatch,
+            final int pColumn, final int pRow, final int pTurns,
+            final boolean pInverted) {
+        final int x = pColumn * PATCH;
+        final int y = pRow * PATCH;
+        if (pInverted) {
+            pDrawing.fill(true, x, y, x + PATCH, y, x + PATCH, y + PATCH, x,
+                    y + PATCH);
+        }
+        for (final int[] polygon : PATCHES[pPatch]) {
+            final int[] points = new int[polygon.length];
+            for (int i = 0; i < polygon.length; i += 2) {
+                int px = polygon[i];
+                int py = polygon[i + 1];
+                // turn clockwise around the center of the patch
+                for (int t = 0; t < (pTurns & 3); t++) {
+                    final int turned = PATCH - py;
+                    py = px;
+                    px = turned;
+                }
+                points[i] = x + px;
+                points[i + 1] = y + py;
+            }
+            pDrawing.fill(!pInverted, points);
+        }
+    }
+
+    /**
+     * Draw a retro-image: 8 rows of 4 blocks, mirrored to 8 columns.
+     */
+    static Drawing retro(final byte[] pHash, final int pOffset) {
+        final Drawing result = new Drawing(RETRO_GRID, BACKGROUND,
+                color(pHash, pOffset + 4));
+        for (int row = 0; row < RETRO_GRID; row++) {
+            final int bits = pHash[pOffset + row / 2] >>> (row % 2 * 4) & 15;
+            for (int column = 0; column < RETRO_GRID / 2; column++) {
+                if ((bits & 1 << column) != 0) {
+                    block(result, column, row);
+                    block(result, RETRO_GRID - 1 - column, row);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void block(final Drawing pDrawing, final int pColumn,
+            final int pRow) {
+        pDrawing.fill(true, pColumn, pRow, pColumn + 1, pRow, pColumn + 1,
+                pRow + 1, pColumn, pRow + 1);
+    }
+
+    /**
+     * A color of three bytes of the hash, dark enough to be seen on white.
+     */
+    private static int color(final byte[] pHash, final int pOffset) {
+        int result = 0;
+        for (int i = 0; i < 3; i++) {
+            result = result << 8 | 0x30 + (pHash[pOffset + i] & 0xFF) * 5 / 8;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,212 @@
+package org.rjung.util.gravatar.render;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A square image of two colors, drawn as filled convex polygons on a grid of
+ * whole units. The polygons are painted in order, so a polygon in the
+ * background color cuts a hole into the ones before. The same
+ * {@link Drawing} is rasterized for a PNG or written as SVG.
+ */
+final class Drawing {
+
+    private static final double EPSILON = 1e-9;
+
+    private final int grid;
+    private final int background;
+    private final int foreground;
+    private int[][] polygons = new int[16][];
+    private int count;
+
+    Drawing(final int pGrid, final int pBackground, final int pForeground) {
+        this.grid = pGrid;
+        this.background = pBackground;
+        this.foreground = pForeground;
+    }
+
+    int getBackground() {
+        return background;
+    }
+
+    int getForeground() {
+        return foreground;
+    }
+
+    /**
+     * Add a convex polygon.
+     *
+     * @param pForeground
+     *            <code>true</code> to fill it in the foreground color
+     * @param pPoints
+     *            the corners as x and y in grid units, in order
+     */
+    void fill(final boolean pForeground, final int... pPoints) {
+        if (count == polygons.length) {
+            polygons = Arrays.copyOf(polygons, count * 2);
+        }
+        final int[] polygon = new int[pPoints.length + 1];
+        polygon[0] = pForeground ? 1 : 0;
+        System.arraycopy(pPoints, 0, polygon, 1, pPoints.length);
+        polygons[count++] = polygon;
+    }
+
+    /**
+     * Rasterize into the scanlines of a PNG with a bit depth of 1: each row
+     * starts with the filter type 0, followed by the pixels, the leftmost in
+     * the highest bit. A pixel is painted if its center is within a polygon;
+     * the edges are walked once per polygon to find the span of each row.
+     *
+     * @param pSize
+     *            width and height in pixels
+     * @return the scanlines
+     */
+    byte[] scanlines(final int pSize) {
+        final int stride = 1 + (pSize + 7) / 8;
+        final byte[] result = new byte[stride * pSize];
+        final double scale = (double) pSize / grid;
+        final double[] left = new double[pSize];
+        final double[] right = new double[pSize];
+        for (int p = 0; p < count; p++) {
+            final int[] polygon = polygons[p];
+            int top = Integer.MAX_VALUE;
+            int bottom = Integer.MIN_VALUE;
+            for (int i = 2; i < polygon.length; i += 2) {
+                top = Math.min(top, polygon[i]);
+                bottom = Math.max(bottom, polygon[i]);
+            }
+            final int from = Math.max(0, first(top * scale));
+            final int to = Math.min(pSize - 1, last(bottom * scale));
+            if (from > to) {
+                continue;
+            }
+            Arrays.fill(left, from, to + 1, Double.POSITIVE_INFINITY);
+            Arrays.fill(right, from, to + 1, Double.NEGATIVE_INFINITY);
+            final int corners = (polygon.length - 1) / 2;
+            for (int i = 0; i < corners; i++) {
+                final int j = i + 1 == corners ? 0 : i + 1;
+                edge(polygon[1 + i * 2] * scale, polygon[2 + i * 2] * scale,
+                        polygon[1 + j * 2] * scale,
+                        polygon[2 + j * 2] * scale, from, to, left, right);
+            }
+            for (int y = from; y <= to; y++) {
+                final int start = Math.max(0, first(left[y]));
+                final int end = Math.min(pSize - 1, last(right[y]));
+                if (start <= end) {
+                    fill(result, y * stride + 1, start, end,
+                            polygon[0] == 1);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Widen the spans of the rows whose centers an edge crosses. Horizontal
+     * edges are skipped, their ends are the ends of the adjacent edges.
+     */
+    private static void edge(final double pX0, final double pY0,
+            final double pX1, final double pY1, final int pFrom,
+            final int pTo, final double[] pLeft, final double[] pRight) {
+        if (pY0 == pY1) {
+            return;
+        }
+        final double slope = (pX1 - pX0) / (pY1 - pY0);
+        final int from = Math.max(pFrom, first(Math.min(pY0, pY1)));
+        final int to = Math.min(pTo, last(Math.max(pY0, pY1)));
+        for (int y = from; y <= to; y++) {
+            final double x = pX0 + (y + 0.5 - pY0) * slope;
+            pLeft[y] = Math.min(pLeft[y], x);
+            pRight[y] = Math.max(pRight[y], x);
+        }
+    }
+
+    /**
+     * The first pixel whose center is at or after a coordinate.
+     */
+    private static int first(final double pCoordinate) {
+        return (int) Math.ceil(pCoordinate - 0.5 - EPSILON);
+    }
+
+    /**
+     * The last pixel whose center is at or before a coordinate.
+     */
+    private static int last(final double pCoordinate) {
+        return (int) Math.floor(pCoordinate - 0.5 + EPSILON);
+    }
+
+    /**
+     * Set or clear the bits of pixels <code>pFrom</code> to <code>pTo</code>,
+     * whole bytes at once.
+     */
+    private static void fill(final byte[] pOutput, final int pStart,
+            final int pFrom, final int pTo, final boolean pSet) {
+        final int first = pStart + (pFrom >>> 3);
+        final int last = pStart + (pTo >>> 3);
+        final int head = 0xFF >>> (pFrom & 7);
+        final int tail = 0xFF << (7 - (pTo & 7)) & 0xFF;
+        if (first == last) {
+            apply(pOutput, first, head & tail, pSet);
+            return;
+        }
+        apply(pOutput, first, head, pSet);
+        Arrays.fill(pOutput, first + 1, last, pSet ? (byte) 0xFF : 0);
+        apply(pOutput, last, tail, pSet);
+    }
+
+    private static void apply(final byte[] pOutput, final int pIndex,
+            final int pMask, final boolean pSet) {
+        pOutput[pIndex] = (byte) (pSet ? pOutput[pIndex] | pMask
+                : pOutput[pIndex] & ~pMask);
+    }
+
+    /**
+     * Write the polygons as SVG, consecutive polygons of one color in one
+     * path.
+     *
+     * @param pSize
+     *            width and height in pixels
+     * @return the SVG-document, encoded as UTF-8
+     */
+    byte[] svg(final int pSize) {
+        final StringBuilder result = new StringBuilder(64 + count * 40);
+        result.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"")
+                .append(pSize).append("\" height=\"").append(pSize)
+                .append("\" viewBox=\"0 0 ").append(grid).append(' ')
+                .append(grid).append("\"><rect width=\"").append(grid)
+                .append("\" height=\"").append(grid).append("\" fill=\"");
+        color(background, result).append("\"/>");
+        int color = -1;
+        for (int p = 0; p < count; p++) {
+            final int[] polygon = polygons[p];
+            if (polygon[0] != color) {
+                if (color >= 0) {
+                    result.append("\"/>");
+                }
+                color = polygon[0];
+                result.append("<path fill=\"");
+                color(color == 1 ? foreground : background, result)
+                        .append("\" d=\"");
+            }
+            for (int i = 1; i < polygon.length; i += 2) {
+                result.append(i == 1 ? 'M' : 'L').append(polygon[i])
+                        .append(' ').append(polygon[i + 1]);
+            }
+            result.append('Z');
+        }
+        if (color >= 0) {
+            result.append("\"/>");
+        }
+        return result.append("</svg>").toString()
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static StringBuilder color(final int pRgb,
+            final StringBuilder pOutput) {
+        pOutput.append('#');
+        for (int shift = 20; shift >= 0; shift -= 4) {
+            pOutput.append(Character.forDigit(pRgb >>> shift & 0xF, 16));
+        }
+        return pOutput;
+    }
+}
@@ -0,0 +1,32 @@
+package org.rjung.util.gravatar.render;
+
+/**
+ * The formats an {@link AvatarRenderer} renders images in.
+ */
+public enum ImageFormat {
+
+    /**
+     * A PNG with a palette of two colors.
+     */
+    PNG("image/png"),
+
+    /**
+     * A SVG of filled polygons, scaled by the browser.
+     */
+    SVG("image/svg+xml");
+
+    private final String contentType;
+
+    ImageFormat(final String pContentType) {
+        this.contentType = pContentType;
+    }
+
+    /**
+     * The <code>Content-Type</code> to send the image with.
+     *
+     * @return the media type, like <code>image/png</code>
+     */
+    public String getContentType() {
+        return contentType;
+    }
+}
@@ -0,0 +1,137 @@
+package org.rjung.util.gravatar.render;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes the scanlines of a {@link Drawing} as PNG with a palette of two
+ * colors. The image is written in one pass into an array of its final size,
+ * compressed with the fastest level of {@link Deflater}; the rows of
+ * identicons repeat a lot, so this still gives small files. Creating a
+ * {@link Deflater} costs more than compressing a small image, so they are
+ * kept in a lock-free pool like the digests of the
+ * {@link org.rjung.util.gravatar.hash.DigestEngine}.
+ */
+final class PngEncoder {
+
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G',
+            '\r', '\n', 0x1A, '\n' };
+    private static final int CHUNK_OVERHEAD = 12;
+    private static final int HEADER_LENGTH = 13;
+    private static final int PALETTE_LENGTH = 6;
+    private static final AtomicReferenceArray<Deflater> POOL = new AtomicReferenceArray<Deflater>(
+            Integer.highestOneBit(Math.max(4,
+                    Runtime.getRuntime().availableProcessors() * 2) - 1) << 1);
+
+    private PngEncoder() {
+    }
+
+    static byte[] encode(final int pSize, final byte[] pScanlines,
+            final int pBackground, final int pForeground) {
+        final Deflater deflater = acquire();
+        final byte[] compressed;
+        final int length;
+        try {
+            deflater.setInput(pScanlines);
+            deflater.finish();
+            // the bound of zlib for incompressible input
+            compressed = new byte[pScanlines.length
+                    + (pScanlines.length >> 12) + (pScanlines.length >> 14)
+                    + 64];
+            length = deflater.deflate(compressed);
+            if (!deflater.finished()) {
+                throw new IllegalStateException("deflate exceeds its bound");
+            }
+        } finally {
+            release(deflater);
+        }
+        final byte[] result = new byte[SIGNATURE.length + CHUNK_OVERHEAD * 4
+                + HEADER_LENGTH + PALETTE_LENGTH + length];
+        final CRC32 crc = new CRC32();
+        System.arraycopy(SIGNATURE, 0, result, 0, SIGNATURE.length);
+        int position = SIGNATURE.length;
+
+        int data = start(result, position, "IHDR", HEADER_LENGTH);
+        writeInt(result, data, pSize);
+        writeInt(result, data + 4, pSize);
+        result[data + 8] = 1; // bit depth
+        result[data + 9] = 3; // indexed color
+        position = end(result, position, HEADER_LENGTH, crc);
+
+        data = start(result, position, "PLTE", PALETTE_LENGTH);
+        writeRgb(result, data, pBackground);
+        writeRgb(result, data + 3, pForeground);
+        position = end(result, position, PALETTE_LENGTH, crc);
+
+        data = start(result, position, "IDAT", length);
+        System.arraycopy(compressed, 0, result, data, length);
+        position = end(result, position, length, crc);
+
+        start(result, position, "IEND", 0);
+        end(result, position, 0, crc);
+        return result;
+    }
+
+    private static Deflater acquire() {
+        final int start = probe();
+        for (int i = 0; i < POOL.length(); i++) {
+            final int slot = (start + i) & (POOL.length() - 1);
+            final Deflater deflater = POOL.get(slot);
+            if (deflater != null && POOL.compareAndSet(slot, deflater, null)) {
+                return deflater;
+            }
+        }
+        return new Deflater(Deflater.BEST_SPEED);
+    }
+
+    private static void release(final Deflater pDeflater) {
+        pDeflater.reset();
+        final int start = probe();
+        for (int i = 0; i < POOL.length(); i++) {
+            final int slot = (start + i) & (POOL.length() - 1);
+            if (POOL.get(slot) == null
+                    && POOL.compareAndSet(slot, null, pDeflater)) {
+                return;
+            }
+        }
+        pDeflater.end();
+    }
+
+    private static int probe() {
+        final long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 16)) * 0x9E3779B9;
+    }
+
+    private static int start(final byte[] pOutput, final int pPosition,
+            final String pType, final int pLength) {
+        writeInt(pOutput, pPosition, pLength);
+        for (int i = 0; i < 4; i++) {
+            pOutput[pPosition + 4 + i] = (byte) pType.charAt(i);
+        }
+        return pPosition + 8;
+    }
+
+    private static int end(final byte[] pOutput, final int pPosition,
+            final int pLength, final CRC32 pCrc) {
+        pCrc.reset();
+        pCrc.update(pOutput, pPosition + 4, pLength + 4);
+        writeInt(pOutput, pPosition + 8 + pLength, (int) pCrc.getValue());
+        return pPosition + CHUNK_OVERHEAD + pLength;
+    }
+
+    private static void writeRgb(final byte[] pOutput, final int pPosition,
+            final int pRgb) {
+        pOutput[pPosition] = (byte) (pRgb >>> 16);
+        pOutput[pPosition + 1] = (byte) (pRgb >>> 8);
+        pOutput[pPosition + 2] = (byte) pRgb;
+    }
+
+    private static void writeInt(final byte[] pOutput, final int pPosition,
+            final int pValue) {
+        pOutput[pPosition] = (byte) (pValue >>> 24);
+        pOutput[pPosition + 1] = (byte) (pValue >>> 16);
+        pOutput[pPosition + 2] = (byte) (pValue >>> 8);
+        pOutput[pPosition + 3] = (byte) pValue;
+    }
+}
@@ -0,0 +1,8 @@
+/**
+ * Rendering the images of some {@link org.rjung.util.gravatar.Default}-styles
+ * locally.<br>
+ * An {@link org.rjung.util.gravatar.render.AvatarRenderer} draws identicons
+ * and retro-images from the hash of an email-address as PNG or SVG, so a
+ * fallback image needs no request to Gravatar.
+ */
+package org.rjung.util.gravatar.render;
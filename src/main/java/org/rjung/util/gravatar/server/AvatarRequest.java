@@ -0,0 +1,191 @@
+package org.rjung.util.gravatar.server;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLDecoder;
+
+import org.rjung.util.gravatar.Default;
+import org.rjung.util.gravatar.Rating;
+
+/**
+ * The parts of a request to <code>/avatar/{email-or-hash}?s=..&amp;d=..</code>.
+ * The query is read in one pass over the raw {@link String}, the values are
+ * compared with the codes of {@link Default} and {@link Rating} in place;
+ * only a custom default image is decoded into a new {@link String}. Like
+ * Gravatar the long names <code>size</code>, <code>default</code> and
+ * <code>rating</code> are accepted, unknown parameters are ignored.
+ */
+final class AvatarRequest {
+
+    static final String PATH = "/avatar/";
+
+    private static final Default[] DEFAULTS = Default.values();
+    private static final Rating[] RATINGS = Rating.values();
+    private static final int SIZE_MAX = 2048;
+
+    private String hash;
+    private String email;
+    private int size;
+    private Default defaultImage;
+    private String defaultUrl;
+    private Rating rating;
+
+    private AvatarRequest() {
+    }
+
+    /**
+     * Read a request.
+     *
+     * @param pUri
+     *            the {@link URI} of the request
+     * @param pHashLength
+     *            the number of hexadecimal digits of a hash
+     * @return the {@link AvatarRequest} or <code>null</code> if the path is
+     *         no avatar
+     * @throws IllegalArgumentException
+     *             If a parameter has an invalid value.
+     */
+    static AvatarRequest parse(final URI pUri, final int pHashLength) {
+        final String path = pUri.getPath();
+        if (path == null || !path.startsWith(PATH)
+                || path.length() == PATH.length()
+                || path.indexOf('/', PATH.length()) >= 0) {
+            return null;
+        }
+        final AvatarRequest result = new AvatarRequest();
+        final int end = path.endsWith(".jpg") || path.endsWith(".png")
+                ? path.length() - 4
+                : path.length();
+        if (end - PATH.length() == pHashLength
+                && isHex(path, PATH.length(), end)) {
+            result.hash = path.substring(PATH.length(), end);
+        } else if (path.indexOf('@', PATH.length()) > 0) {
+            result.email = path.substring(PATH.length());
+        } else {
+            return null;
+        }
+        final String query = pUri.getRawQuery();
+        if (query != null) {
+            result.parameters(query);
+        }
+        return result;
+    }
+
+    String getHash() {
+        return hash;
+    }
+
+    String getEmail() {
+        return email;
+    }
+
+    /**
+     * @return the size, <code>0</code> if none was given
+     */
+    int getSize() {
+        return size;
+    }
+
+    Default getDefaultImage() {
+        return defaultImage;
+    }
+
+    String getDefaultUrl() {
+        return defaultUrl;
+    }
+
+    Rating getRating() {
+        return rating;
+    }
+
+    private void parameters(final String pQuery) {
+        int start = 0;
+        while (start < pQuery.length()) {
+            int end = pQuery.indexOf('&', start);
+            if (end < 0) {
+                end = pQuery.length();
+            }
+            int separator = pQuery.indexOf('=', start);
+            if (separator < 0 || separator > end) {
+                separator = end;
+            }
+            parameter(pQuery, start, separator,
+                    Math.min(separator + 1, end), end);
+            start = end + 1;
+        }
+    }
+
+    private void parameter(final String pQuery, final int pKey,
+            final int pKeyEnd, final int pValue, final int pValueEnd) {
+        if (is(pQuery, pKey, pKeyEnd, "s") || is(pQuery, pKey, pKeyEnd,
+                "size")) {
+            size = size(pQuery, pValue, pValueEnd);
+        } else if (is(pQuery, pKey, pKeyEnd, "d")
+                || is(pQuery, pKey, pKeyEnd, "default")) {
+            defaultImage = null;
+            defaultUrl = null;
+            if (pValue == pValueEnd) {
+                return;
+            }
+            for (final Default candidate : DEFAULTS) {
+                if (is(pQuery, pValue, pValueEnd, candidate.toString())) {
+                    defaultImage = candidate;
+                    return;
+                }
+            }
+            defaultUrl = decode(pQuery.substring(pValue, pValueEnd));
+        } else if (is(pQuery, pKey, pKeyEnd, "r")
+                || is(pQuery, pKey, pKeyEnd, "rating")) {
+            for (final Rating candidate : RATINGS) {
+                if (is(pQuery, pValue, pValueEnd, candidate.getCode())) {
+                    rating = candidate;
+                    return;
+                }
+            }
+            throw new IllegalArgumentException("unknown rating");
+        }
+    }
+
+    private static int size(final String pQuery, final int pFrom,
+            final int pTo) {
+        int result = 0;
+        for (int i = pFrom; i < pTo && result <= SIZE_MAX; i++) {
+            final char c = pQuery.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("size is no number");
+            }
+            result = result * 10 + c - '0';
+        }
+        if (result < 1 || result > SIZE_MAX) {
+            throw new IllegalArgumentException(
+                    "size needs to be within 1 and " + SIZE_MAX);
+        }
+        return result;
+    }
+
+    private static boolean is(final String pQuery, final int pFrom,
+            final int pTo, final String pValue) {
+        return pTo - pFrom == pValue.length()
+                && pQuery.regionMatches(true, pFrom, pValue, 0, pTo - pFrom);
+    }
+
+    private static boolean isHex(final String pValue, final int pFrom,
+            final int pTo) {
+        for (int i = pFrom; i < pTo; i++) {
+            final char c = pValue.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f'
+                    || c >= 'A' && c <= 'F')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String decode(final String pValue) {
+        try {
+            return URLDecoder.decode(pValue, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
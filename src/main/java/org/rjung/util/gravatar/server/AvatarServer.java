@@ -0,0 +1,458 @@
+package org.rjung.util.gravatar.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.rjung.util.GravatarException;
+import org.rjung.util.GravatarSpec;
+import org.rjung.util.gravatar.Default;
+import org.rjung.util.gravatar.Hosts;
+import org.rjung.util.gravatar.Protocol;
+import org.rjung.util.gravatar.Rating;
+import org.rjung.util.gravatar.client.Avatar;
+import org.rjung.util.gravatar.client.AvatarClient;
+import org.rjung.util.gravatar.client.MemoryAvatarCache;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * {@link AvatarServer} serves <code>/avatar/{email-or-hash}?s=..&amp;d=..&amp;r=..</code>,
+ * so pages can link avatars by email-address without hashing it themselves.
+ * By default a request is answered with a redirect (<code>302</code>) to the
+ * URL {@link GravatarSpec#toUrl(String)} renders; with an
+ * {@link AvatarClient} the image is fetched, cached by the client and
+ * answered directly. Both are sent with a long-lived
+ * <code>Cache-Control</code>, as the same request always gives the same URL.
+ * <br>
+ * The server runs on the {@link HttpServer} of the JDK, each request on its
+ * own virtual thread (Java 21 and later, a thread pool before). Parameters
+ * are read without regular expressions or maps into {@link Rating} and
+ * {@link Default}, the {@link GravatarSpec}s of their combinations are kept,
+ * so a redirect renders a single URL.<br>
+ * The {@link HttpServer} writes headers and body separately, so every
+ * response with a body waits about 40 ms for a delayed ACK unless the JVM is
+ * started with <code>-Dsun.net.httpserver.nodelay=true</code>. The property
+ * applies to every {@link HttpServer} of the JVM, so only {@link #main(String[])}
+ * sets it.
+ *
+ * <pre>
+ * try (AvatarServer server = AvatarServer.builder().port(8080).start()) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * It can also be started from the command line:
+ *
+ * <pre>
+ * java -cp gravatar.jar org.rjung.util.gravatar.server.AvatarServer --port 8080
+ * </pre>
+ */
+public final class AvatarServer implements Closeable {
+
+    private static final int DEFAULT_PORT = 8080;
+    private static final Duration DEFAULT_MAX_AGE = Duration.ofDays(1);
+    private static final int SIZES = 2048 + 1;
+    private static final int DEFAULTS = Default.values().length + 1;
+    private static final int RATINGS = Rating.values().length + 1;
+    private static final byte[] NOT_FOUND = "not found\n"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FOUND = "found\n"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NOT_ALLOWED = "method not allowed\n"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FAILED = "failed\n"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BAD_GATEWAY = "bad gateway\n"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final boolean ownExecutor;
+    private final GravatarSpec spec;
+    private final int hashLength;
+    private final AvatarClient client;
+    private final String cacheControl;
+    private final AtomicReferenceArray<GravatarSpec> specs;
+
+    private AvatarServer(final Builder pBuilder) throws IOException {
+        this.spec = pBuilder.spec;
+        this.hashLength = spec.getAlgorithm().getDigestLength() * 2;
+        this.client = pBuilder.client;
+        this.cacheControl = "public, max-age=" + pBuilder.maxAge.getSeconds();
+        // one spec for each combination of rating, default and size, about
+        // 330 KB of references, filled when a combination is first requested
+        this.specs = new AtomicReferenceArray<GravatarSpec>(
+                RATINGS * DEFAULTS * SIZES);
+        this.ownExecutor = pBuilder.executor == null;
+        this.executor = ownExecutor ? newExecutor() : pBuilder.executor;
+        this.server = HttpServer.create(pBuilder.address, pBuilder.backlog);
+        // all paths, the JDK closes the connection after its own 404
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Start to configure an {@link AvatarServer}.
+     *
+     * @return {@link Builder} with the default options
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * The address the server listens on, with the actual port if port
+     * <code>0</code> was requested.
+     *
+     * @return {@link InetSocketAddress} of the server
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Stop the server without waiting for running requests, and its threads
+     * unless they belong to an executor set with {@link Builder#executor}.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        if (ownExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    private void handle(final HttpExchange pExchange) throws IOException {
+        try {
+            final String method = pExchange.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                pExchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                text(pExchange, 405, NOT_ALLOWED);
+                return;
+            }
+            final AvatarRequest request;
+            try {
+                request = AvatarRequest.parse(pExchange.getRequestURI(),
+                        hashLength);
+            } catch (IllegalArgumentException e) {
+                text(pExchange, 400, (e.getMessage() + "\n")
+                        .getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            if (request == null) {
+                text(pExchange, 404, NOT_FOUND);
+                return;
+            }
+            final GravatarSpec options = specFor(request);
+            final String url = request.getHash() != null
+                    ? options.toUrlOfHash(request.getHash())
+                    : options.toUrl(request.getEmail());
+            if (client == null) {
+                final Headers headers = pExchange.getResponseHeaders();
+                headers.set("Location", url);
+                headers.set("Cache-Control", cacheControl);
+                text(pExchange, 302, FOUND);
+            } else {
+                proxy(pExchange, url);
+            }
+        } catch (GravatarException | RuntimeException e) {
+            // without a response the connection would just be closed
+            text(pExchange, 500, FAILED);
+        } finally {
+            pExchange.close();
+        }
+    }
+
+    private void proxy(final HttpExchange pExchange, final String pUrl)
+            throws IOException {
+        final Avatar avatar;
+        try {
+            avatar = client.fetch(pUrl).join();
+        } catch (RuntimeException e) {
+            // a CompletionException, or a cache that failed right away
+            text(pExchange, 502, BAD_GATEWAY);
+            return;
+        }
+        final Headers headers = pExchange.getResponseHeaders();
+        if (!avatar.isFound()) {
+            headers.set("Cache-Control", "no-cache");
+            text(pExchange, 404, NOT_FOUND);
+            return;
+        }
+        headers.set("Cache-Control", cacheControl);
+        if (avatar.getEtag() != null) {
+            headers.set("ETag", avatar.getEtag());
+            if (avatar.getEtag().equals(pExchange.getRequestHeaders()
+                    .getFirst("If-None-Match"))) {
+                pExchange.sendResponseHeaders(304, -1);
+                return;
+            }
+        }
+        if (avatar.getContentType() != null) {
+            headers.set("Content-Type", avatar.getContentType());
+        }
+        send(pExchange, 200, avatar.getBody());
+    }
+
+    private GravatarSpec specFor(final AvatarRequest pRequest) {
+        if (pRequest.getDefaultUrl() != null) {
+            return options(pRequest.getRating(), pRequest.getSize())
+                    .withDefaultImage(pRequest.getDefaultUrl());
+        }
+        final int rating = pRequest.getRating() == null ? 0
+                : pRequest.getRating().ordinal() + 1;
+        final int defaultImage = pRequest.getDefaultImage() == null ? 0
+                : pRequest.getDefaultImage().ordinal() + 1;
+        final int index = (rating * DEFAULTS + defaultImage) * SIZES
+                + pRequest.getSize();
+        GravatarSpec result = specs.get(index);
+        if (result == null) {
+            result = options(pRequest.getRating(), pRequest.getSize());
+            if (pRequest.getDefaultImage() != null) {
+                result = result.withDefaultImage(pRequest.getDefaultImage());
+            }
+            specs.lazySet(index, result);
+        }
+        return result;
+    }
+
+    private GravatarSpec options(final Rating pRating, final int pSize) {
+        GravatarSpec result = spec;
+        if (pRating != null) {
+            result = result.with(pRating);
+        }
+        return pSize == 0 ? result : result.withSize(pSize);
+    }
+
+    /**
+     * Every response but <code>304</code> gets a body: the {@link HttpServer}
+     * of the JDK resets a kept-alive connection now and then after a response
+     * without one.
+     */
+    private static void text(final HttpExchange pExchange, final int pStatus,
+            final byte[] pBody) throws IOException {
+        pExchange.getResponseHeaders().set("Content-Type",
+                "text/plain; charset=utf-8");
+        send(pExchange, pStatus, pBody);
+    }
+
+    private static void send(final HttpExchange pExchange, final int pStatus,
+            final byte[] pBody) throws IOException {
+        if ("HEAD".equals(pExchange.getRequestMethod())) {
+            pExchange.getResponseHeaders().set("Content-Length",
+                    Integer.toString(pBody.length));
+            pExchange.sendResponseHeaders(pStatus, -1);
+            return;
+        }
+        pExchange.sendResponseHeaders(pStatus, pBody.length);
+        try (OutputStream body = pExchange.getResponseBody()) {
+            body.write(pBody);
+        }
+    }
+
+    private static ExecutorService newExecutor() {
+        try {
+            // available from Java 21 on, the library is built for Java 11
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            final AtomicInteger count = new AtomicInteger();
+            return Executors.newCachedThreadPool(runnable -> {
+                final Thread thread = new Thread(runnable,
+                        "gravatar-server-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Start an {@link AvatarServer} from the command line.
+     *
+     * @param pArgs
+     *            options like <code>--port 8080</code>
+     * @throws IOException
+     *             If the server can not be started.
+     */
+    public static void main(final String[] pArgs) throws IOException {
+        // read once, when the first HttpServer is created
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        if (pArgs.length % 2 != 0) {
+            System.err.println("usage: AvatarServer [--port n]"
+                    + " [--bind address] [--protocol http|https|none]"
+                    + " [--hosts host,host,..]"
+                    + " [--max-age seconds] [--proxy cache-bytes]");
+            System.exit(1);
+            return;
+        }
+        final Builder builder = builder();
+        GravatarSpec spec = builder.spec;
+        int port = DEFAULT_PORT;
+        InetAddress bind = InetAddress.getLoopbackAddress();
+        for (int i = 0; i < pArgs.length; i += 2) {
+            final String value = pArgs[i + 1];
+            if ("--port".equals(pArgs[i])) {
+                port = Integer.parseInt(value);
+            } else if ("--bind".equals(pArgs[i])) {
+                bind = InetAddress.getByName(value);
+            } else if ("--protocol".equals(pArgs[i])) {
+                spec = spec.with(Protocol.valueOf(value.toUpperCase()));
+            } else if ("--hosts".equals(pArgs[i])) {
+                spec = spec.with(Hosts.of(value.split(",")));
+            } else if ("--max-age".equals(pArgs[i])) {
+                builder.maxAge(Duration.ofSeconds(Long.parseLong(value)));
+            } else if ("--proxy".equals(pArgs[i])) {
+                builder.proxy(AvatarClient.builder()
+                        .cache(new MemoryAvatarCache(Long.parseLong(value)))
+                        .build());
+            } else {
+                throw new IllegalArgumentException(
+                        "unknown option " + pArgs[i]);
+            }
+        }
+        final AvatarServer server = builder.spec(spec)
+                .address(new InetSocketAddress(bind, port)).start();
+        System.err.println("serving avatars on " + server.getAddress());
+    }
+
+    /**
+     * Configures an {@link AvatarServer}.
+     */
+    public static final class Builder {
+
+        private InetSocketAddress address = new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), DEFAULT_PORT);
+        private int backlog;
+        private GravatarSpec spec = GravatarSpec.DEFAULT.with(Protocol.HTTPS);
+        private AvatarClient client;
+        private Duration maxAge = DEFAULT_MAX_AGE;
+        private ExecutorService executor;
+
+        private Builder() {
+        }
+
+        /**
+         * Set the address to listen on. The default is port 8080 of the
+         * loopback address, as a sidecar is only asked locally.
+         *
+         * @param pAddress
+         *            {@link InetSocketAddress} to bind to, port
+         *            <code>0</code> chooses a free port
+         * @return {@link Builder}
+         */
+        public Builder address(final InetSocketAddress pAddress) {
+            this.address = pAddress;
+            return this;
+        }
+
+        /**
+         * Set the port to listen on, on the loopback address.
+         *
+         * @param pPort
+         *            the port, <code>0</code> chooses a free port
+         * @return {@link Builder}
+         */
+        public Builder port(final int pPort) {
+            return address(new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), pPort));
+        }
+
+        /**
+         * Set the number of connections waiting to be accepted. The default
+         * is the one of the system.
+         *
+         * @param pBacklog
+         *            length of the queue
+         * @return {@link Builder}
+         */
+        public Builder backlog(final int pBacklog) {
+            this.backlog = pBacklog;
+            return this;
+        }
+
+        /**
+         * Set the options of the URLs, the parameters of a request are set on
+         * top of them. The default is {@link GravatarSpec#DEFAULT} with
+         * {@link Protocol#HTTPS}.
+         *
+         * @param pSpec
+         *            {@link GravatarSpec} with the options
+         * @return {@link Builder}
+         */
+        public Builder spec(final GravatarSpec pSpec) {
+            this.spec = pSpec == null ? GravatarSpec.DEFAULT : pSpec;
+            return this;
+        }
+
+        /**
+         * Answer with the images, fetched by an {@link AvatarClient}, instead
+         * of redirecting to them. Give the client an
+         * {@link org.rjung.util.gravatar.client.AvatarCache} to keep them.
+         *
+         * @param pClient
+         *            {@link AvatarClient} to fetch the images with
+         * @return {@link Builder}
+         */
+        public Builder proxy(final AvatarClient pClient) {
+            this.client = pClient;
+            return this;
+        }
+
+        /**
+         * Set how long browsers and proxies may keep an answer. The default
+         * is one day, a changed image is seen at most that late.
+         *
+         * @param pMaxAge
+         *            {@link Duration} of the <code>max-age</code>
+         * @return {@link Builder}
+         */
+        public Builder maxAge(final Duration pMaxAge) {
+            if (pMaxAge == null || pMaxAge.isNegative()) {
+                throw new IllegalArgumentException(
+                        "max age must not be negative");
+            }
+            this.maxAge = pMaxAge;
+            return this;
+        }
+
+        /**
+         * Set the {@link ExecutorService} to handle the requests on. The
+         * default runs each request on a virtual thread (Java 21 and later,
+         * a thread pool before).
+         *
+         * @param pExecutor
+         *            {@link ExecutorService} for the requests
+         * @return {@link Builder}
+         */
+        public Builder executor(final ExecutorService pExecutor) {
+            this.executor = pExecutor;
+            return this;
+        }
+
+        /**
+         * Create and start the {@link AvatarServer}.
+         *
+         * @return the running {@link AvatarServer}
+         * @throws IOException
+         *             If the address can not be bound.
+         */
+        public AvatarServer start() throws IOException {
+            return new AvatarServer(this);
+        }
+    }
+}
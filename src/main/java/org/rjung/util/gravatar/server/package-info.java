@@ -0,0 +1,9 @@
+/**
+ * A small HTTP-server for avatars, to run next to an application.<br>
+ * An {@link org.rjung.util.gravatar.server.AvatarServer} answers
+ * <code>/avatar/{email-or-hash}</code> with a redirect to the Gravatar-URL
+ * or with the image itself, fetched by an
+ * {@link org.rjung.util.gravatar.client.AvatarClient}. It needs nothing but
+ * the <code>jdk.httpserver</code>-module of the JDK.
+ */
+package org.rjung.util.gravatar.server;
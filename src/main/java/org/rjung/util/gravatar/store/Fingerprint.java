@@ -0,0 +1,92 @@
+package org.rjung.util.gravatar.store;
+
+/**
+ * 128 bit fingerprint of a normalized email-address, the x64 variant of
+ * MurmurHash3. It is much cheaper than MD5 and 128 bits make collisions
+ * between email-addresses practically impossible.
+ */
+final class Fingerprint {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private long high;
+    private long low;
+
+    void compute(final byte[] pInput, final int pOffset, final int pLength) {
+        long h1 = 0;
+        long h2 = 0;
+        final int blocks = pLength >>> 4;
+        int position = pOffset;
+        for (int i = 0; i < blocks; i++) {
+            long k1 = readLong(pInput, position);
+            long k2 = readLong(pInput, position + 8);
+            position += 16;
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+        long k1 = 0;
+        long k2 = 0;
+        final int tail = pLength & 15;
+        for (int i = tail - 1; i >= 8; i--) {
+            k2 = (k2 << 8) | (pInput[position + i] & 0xFFL);
+        }
+        for (int i = Math.min(tail, 8) - 1; i >= 0; i--) {
+            k1 = (k1 << 8) | (pInput[position + i] & 0xFFL);
+        }
+        if (tail > 8) {
+            h2 ^= mixK2(k2);
+        }
+        if (tail > 0) {
+            h1 ^= mixK1(k1);
+        }
+        h1 ^= pLength;
+        h2 ^= pLength;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        this.high = h1;
+        this.low = h2;
+    }
+
+    long high() {
+        return high;
+    }
+
+    long low() {
+        return low;
+    }
+
+    private static long readLong(final byte[] pInput, final int pOffset) {
+        long result = 0;
+        for (int i = 7; i >= 0; i--) {
+            result = (result << 8) | (pInput[pOffset + i] & 0xFFL);
+        }
+        return result;
+    }
+
+    private static long mixK1(final long pK1) {
+        return Long.rotateLeft(pK1 * C1, 31) * C2;
+    }
+
+    private static long mixK2(final long pK2) {
+        return Long.rotateLeft(pK2 * C2, 33) * C1;
+    }
+
+    private static long fmix(final long pValue) {
+        long k = pValue;
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,470 @@
+package org.rjung.util.gravatar.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.StampedLock;
+
+import org.rjung.util.gravatar.hash.EmailNormalizer;
+
+/**
+ * A {@link HashStore} maps normalized email-addresses to their 16 byte MD5
+ * in a memory-mapped file, so the hashes of known users are available right
+ * after a restart.<br>
+ * The email-addresses are not stored, only a 128 bit fingerprint of them.
+ * Each entry is a slot of four <code>long</code>s (fingerprint and digest) in
+ * an open-addressing table with linear probing. The table is the file itself,
+ * so opening a store only maps the file, nothing is read or rebuilt.
+ * <br>
+ * Lookups do not lock and do not allocate. Adding entries is serialized; if
+ * the table gets too full it is rewritten into a file of twice the size,
+ * which replaces the old one. {@link #compact()} rewrites the table to fit
+ * the current number of entries.
+ */
+public final class HashStore implements Closeable {
+
+    /**
+     * The largest number of slots, the file is limited to 1 GiB.
+     */
+    public static final int MAX_CAPACITY = 1 << 25;
+
+    private static final long MAGIC = 0x4752564853544f31L;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 8;
+    private static final int OFFSET_CAPACITY = 12;
+    private static final int OFFSET_SIZE = 16;
+    private static final int OFFSET_USED = 20;
+    private static final int SLOT_SIZE = 32;
+    private static final int DIGEST_LENGTH = 16;
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final long EMPTY = 0;
+    private static final long REMOVED = 1;
+
+    private final Path path;
+    private final StampedLock lock = new StampedLock();
+    private volatile Table table;
+
+    private HashStore(final Path pPath, final Table pTable) {
+        this.path = pPath;
+        this.table = pTable;
+    }
+
+    /**
+     * Open a {@link HashStore}, it is created if the file does not exist.
+     *
+     * @param pPath
+     *            the file to store the hashes in
+     * @return {@link HashStore}
+     * @throws IOException
+     *             If the file can not be read or created, or if it is no
+     *             {@link HashStore}.
+     */
+    public static HashStore open(final Path pPath) throws IOException {
+        return open(pPath, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Open a {@link HashStore}, it is created if the file does not exist.
+     *
+     * @param pPath
+     *            the file to store the hashes in
+     * @param pExpectedSize
+     *            the number of hashes expected, used to size a new file
+     * @return {@link HashStore}
+     * @throws IOException
+     *             If the file can not be read or created, or if it is no
+     *             {@link HashStore}.
+     */
+    public static HashStore open(final Path pPath, final int pExpectedSize)
+            throws IOException {
+        if (Files.exists(pPath)) {
+            return new HashStore(pPath, Table.map(pPath));
+        }
+        return new HashStore(pPath,
+                Table.create(pPath, capacityFor(pExpectedSize)));
+    }
+
+    /**
+     * Look up the digest of a normalized email-address. The output may be the
+     * same array as the input.
+     *
+     * @param pNormalized
+     *            array containing the normalized email-address, see
+     *            {@link EmailNormalizer#normalize(CharSequence, byte[])}
+     * @param pOffset
+     *            first byte of the email-address
+     * @param pLength
+     *            length of the email-address in bytes
+     * @param pOutput
+     *            array to write the 16 byte digest to
+     * @param pOutputOffset
+     *            position in <code>pOutput</code> to write the digest to
+     * @return <code>true</code> if the digest was found and written
+     */
+    public boolean get(final byte[] pNormalized, final int pOffset,
+            final int pLength, final byte[] pOutput, final int pOutputOffset) {
+        // does not escape, so the JIT keeps it in registers
+        final Fingerprint fingerprint = new Fingerprint();
+        fingerprint.compute(pNormalized, pOffset, pLength);
+        final long high = key(fingerprint.high());
+        final long low = fingerprint.low();
+        long stamp = lock.tryOptimisticRead();
+        Table current = table;
+        int slot = current.find(high, low);
+        long digestHigh = slot < 0 ? 0 : current.digestHigh(slot);
+        long digestLow = slot < 0 ? 0 : current.digestLow(slot);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                current = table;
+                slot = current.find(high, low);
+                digestHigh = slot < 0 ? 0 : current.digestHigh(slot);
+                digestLow = slot < 0 ? 0 : current.digestLow(slot);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        if (slot < 0) {
+            return false;
+        }
+        writeLong(digestHigh, pOutput, pOutputOffset);
+        writeLong(digestLow, pOutput, pOutputOffset + 8);
+        return true;
+    }
+
+    /**
+     * Look up the digest of an email-address.
+     *
+     * @param pEmail
+     *            the email-address, it is normalized first
+     * @return the 16 byte digest or <code>null</code> if it is not stored
+     */
+    public byte[] get(final String pEmail) {
+        final byte[] buffer = normalize(pEmail);
+        final byte[] result = new byte[DIGEST_LENGTH];
+        return get(buffer, 0, buffer.length, result, 0) ? result : null;
+    }
+
+    /**
+     * Store the digest of a normalized email-address. An existing digest is
+     * replaced.
+     *
+     * @param pNormalized
+     *            array containing the normalized email-address
+     * @param pOffset
+     *            first byte of the email-address
+     * @param pLength
+     *            length of the email-address in bytes
+     * @param pDigest
+     *            array containing the 16 byte digest
+     * @param pDigestOffset
+     *            position of the digest in <code>pDigest</code>
+     * @throws UncheckedIOException
+     *             If the file needs to grow and that fails.
+     * @throws IllegalStateException
+     *             If the store already holds {@link #MAX_CAPACITY} digests.
+     */
+    public void put(final byte[] pNormalized, final int pOffset,
+            final int pLength, final byte[] pDigest, final int pDigestOffset) {
+        final Fingerprint fingerprint = new Fingerprint();
+        fingerprint.compute(pNormalized, pOffset, pLength);
+        final long high = key(fingerprint.high());
+        final long low = fingerprint.low();
+        final long digestHigh = readLong(pDigest, pDigestOffset);
+        final long digestLow = readLong(pDigest, pDigestOffset + 8);
+        final long stamp = lock.writeLock();
+        try {
+            if (table.needsResize()) {
+                rewrite(Math.min(MAX_CAPACITY, capacityFor(table.size() + 1)));
+            }
+            table.put(high, low, digestHigh, digestLow);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Store the digest of an email-address.
+     *
+     * @param pEmail
+     *            the email-address, it is normalized first
+     * @param pDigest
+     *            the 16 byte digest
+     */
+    public void put(final String pEmail, final byte[] pDigest) {
+        final byte[] buffer = normalize(pEmail);
+        put(buffer, 0, buffer.length, pDigest, 0);
+    }
+
+    /**
+     * Remove the digest of an email-address.
+     *
+     * @param pEmail
+     *            the email-address, it is normalized first
+     * @return <code>true</code> if a digest was removed
+     */
+    public boolean remove(final String pEmail) {
+        final byte[] buffer = normalize(pEmail);
+        final Fingerprint fingerprint = new Fingerprint();
+        fingerprint.compute(buffer, 0, buffer.length);
+        final long stamp = lock.writeLock();
+        try {
+            return table.remove(key(fingerprint.high()), fingerprint.low());
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * The number of stored digests.
+     *
+     * @return number of digests
+     */
+    public int size() {
+        return table.size();
+    }
+
+    /**
+     * The number of slots of the table, the file has 32 bytes per slot.
+     *
+     * @return number of slots
+     */
+    public int capacity() {
+        return table.capacity;
+    }
+
+    /**
+     * Rewrite the table to the smallest size that fits the stored digests,
+     * dropping the slots of removed digests.
+     *
+     * @throws IOException
+     *             If the new file can not be written.
+     */
+    public void compact() throws IOException {
+        final long stamp = lock.writeLock();
+        try {
+            rewrite(capacityFor(table.size()));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Write all changes to the disk.
+     */
+    public void flush() {
+        table.buffer.force();
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+
+    private void rewrite(final int pCapacity) throws IOException {
+        final Path temporary = path
+                .resolveSibling(path.getFileName() + ".tmp");
+        Files.deleteIfExists(temporary);
+        final Table rewritten = Table.create(temporary, pCapacity);
+        table.copyTo(rewritten);
+        rewritten.buffer.force();
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        table = rewritten;
+    }
+
+    private static int capacityFor(final int pSize) {
+        int capacity = 16;
+        while (capacity < MAX_CAPACITY && capacity / 4 * 3 <= pSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static long key(final long pHigh) {
+        // EMPTY and REMOVED mark free slots
+        return pHigh == EMPTY || pHigh == REMOVED ? pHigh + 2 : pHigh;
+    }
+
+    private static byte[] normalize(final String pEmail) {
+        final byte[] buffer = new byte[pEmail == null ? 0
+                : pEmail.length() * 2];
+        final int length = EmailNormalizer.normalize(pEmail, buffer);
+        final byte[] result = new byte[length];
+        System.arraycopy(buffer, 0, result, 0, length);
+        return result;
+    }
+
+    private static long readLong(final byte[] pInput, final int pOffset) {
+        long result = 0;
+        for (int i = 0; i < 8; i++) {
+            result = (result << 8) | (pInput[pOffset + i] & 0xFFL);
+        }
+        return result;
+    }
+
+    private static void writeLong(final long pValue, final byte[] pOutput,
+            final int pOffset) {
+        for (int i = 0; i < 8; i++) {
+            pOutput[pOffset + i] = (byte) (pValue >>> (56 - 8 * i));
+        }
+    }
+
+    private static final class Table {
+        final MappedByteBuffer buffer;
+        final int capacity;
+        final int mask;
+
+        private Table(final MappedByteBuffer pBuffer, final int pCapacity) {
+            this.buffer = pBuffer;
+            this.capacity = pCapacity;
+            this.mask = pCapacity - 1;
+        }
+
+        static Table create(final Path pPath, final int pCapacity)
+                throws IOException {
+            try (FileChannel channel = FileChannel.open(pPath,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                final MappedByteBuffer buffer = channel.map(
+                        FileChannel.MapMode.READ_WRITE, 0,
+                        HEADER_SIZE + (long) pCapacity * SLOT_SIZE);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putLong(OFFSET_MAGIC, MAGIC);
+                buffer.putInt(OFFSET_VERSION, VERSION);
+                buffer.putInt(OFFSET_CAPACITY, pCapacity);
+                return new Table(buffer, pCapacity);
+            }
+        }
+
+        static Table map(final Path pPath) throws IOException {
+            try (FileChannel channel = FileChannel.open(pPath,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                if (channel.size() < HEADER_SIZE) {
+                    throw new IOException(pPath + " is no hash store");
+                }
+                final MappedByteBuffer buffer = channel
+                        .map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                final int capacity = buffer.getInt(OFFSET_CAPACITY);
+                if (buffer.getLong(OFFSET_MAGIC) != MAGIC
+                        || buffer.getInt(OFFSET_VERSION) != VERSION
+                        || Integer.bitCount(capacity) != 1
+                        || capacity > MAX_CAPACITY || channel
+                                .size() != HEADER_SIZE
+                                        + (long) capacity * SLOT_SIZE) {
+                    throw new IOException(pPath + " is no hash store");
+                }
+                return new Table(buffer, capacity);
+            }
+        }
+
+        int size() {
+            return buffer.getInt(OFFSET_SIZE);
+        }
+
+        boolean needsResize() {
+            return capacity < MAX_CAPACITY
+                    && buffer.getInt(OFFSET_USED) + 1 > capacity / 4 * 3;
+        }
+
+        int find(final long pHigh, final long pLow) {
+            int slot = (int) pLow & mask;
+            for (int probes = 0; probes < capacity; probes++) {
+                final long high = buffer.getLong(offset(slot));
+                if (high == EMPTY) {
+                    return -1;
+                }
+                if (high == pHigh
+                        && buffer.getLong(offset(slot) + 8) == pLow) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        long digestHigh(final int pSlot) {
+            return buffer.getLong(offset(pSlot) + 16);
+        }
+
+        long digestLow(final int pSlot) {
+            return buffer.getLong(offset(pSlot) + 24);
+        }
+
+        void put(final long pHigh, final long pLow, final long pDigestHigh,
+                final long pDigestLow) {
+            int slot = (int) pLow & mask;
+            int free = -1;
+            for (int probes = 0; probes < capacity; probes++) {
+                final long high = buffer.getLong(offset(slot));
+                if (high == EMPTY) {
+                    break;
+                }
+                if (high == REMOVED) {
+                    if (free < 0) {
+                        free = slot;
+                    }
+                } else if (high == pHigh
+                        && buffer.getLong(offset(slot) + 8) == pLow) {
+                    write(slot, pHigh, pLow, pDigestHigh, pDigestLow);
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (free < 0) {
+                if (buffer.getLong(offset(slot)) != EMPTY) {
+                    throw new IllegalStateException("hash store is full");
+                }
+                buffer.putInt(OFFSET_USED, buffer.getInt(OFFSET_USED) + 1);
+                free = slot;
+            }
+            write(free, pHigh, pLow, pDigestHigh, pDigestLow);
+            buffer.putInt(OFFSET_SIZE, size() + 1);
+        }
+
+        boolean remove(final long pHigh, final long pLow) {
+            final int slot = find(pHigh, pLow);
+            if (slot < 0) {
+                return false;
+            }
+            buffer.putLong(offset(slot), REMOVED);
+            buffer.putInt(OFFSET_SIZE, size() - 1);
+            return true;
+        }
+
+        void copyTo(final Table pTarget) {
+            for (int slot = 0; slot < capacity; slot++) {
+                final long high = buffer.getLong(offset(slot));
+                if (high != EMPTY && high != REMOVED) {
+                    pTarget.put(high, buffer.getLong(offset(slot) + 8),
+                            digestHigh(slot), digestLow(slot));
+                }
+            }
+        }
+
+        private void write(final int pSlot, final long pHigh, final long pLow,
+                final long pDigestHigh, final long pDigestLow) {
+            final int offset = offset(pSlot);
+            buffer.putLong(offset + 24, pDigestLow);
+            buffer.putLong(offset + 16, pDigestHigh);
+            buffer.putLong(offset + 8, pLow);
+            buffer.putLong(offset, pHigh);
+        }
+
+        private static int offset(final int pSlot) {
+            return HEADER_SIZE + pSlot * SLOT_SIZE;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+/**
+ * Persistent storage of the hashes of email-addresses.<br>
+ * A {@link org.rjung.util.gravatar.store.HashStore} keeps the hashes in a
+ * memory-mapped file, so they survive a restart. It can be set with
+ * {@link org.rjung.util.Gravatar#setHashStore(HashStore)}, it is then
+ * consulted by all {@link org.rjung.util.Gravatar}-builders before a hash is
+ * calculated.
+ */
+package org.rjung.util.gravatar.store;
@@ -0,0 +1,63 @@
+package org.rjung.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point for the JMH benchmarks. It takes the usual JMH command line
+ * options. Unless a thread count is given with <code>-t</code>, every selected
+ * benchmark is run with 1, 2, 4, ... threads up to the number of available
+ * processors, so the numbers show how the code behaves under contention.
+ */
+public final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    public static void main(final String[] pArgs)
+            throws CommandLineOptionException, RunnerException, IOException {
+        final CommandLineOptions options = new CommandLineOptions(pArgs);
+        if (options.shouldHelp() || options.shouldList()) {
+            org.openjdk.jmh.Main.main(pArgs);
+            return;
+        }
+        if (options.getThreads().hasValue()) {
+            new Runner(options).run();
+            return;
+        }
+        final Collection<RunResult> results = new ArrayList<RunResult>();
+        for (final int threads : threadCounts()) {
+            results.addAll(new Runner(new OptionsBuilder().parent(options)
+                    .threads(threads).build()).run());
+        }
+        System.out.println();
+        System.out.println("Summary for all thread counts:");
+        for (final RunResult result : results) {
+            System.out.printf("%-70s %3d threads %14.3f %s%n",
+                    result.getParams().getBenchmark()
+                            + result.getParams().getParamsKeys().toString(),
+                    result.getParams().getThreads(),
+                    result.getPrimaryResult().getScore(),
+                    result.getPrimaryResult().getScoreUnit());
+        }
+    }
+
+    private static List<Integer> threadCounts() {
+        final int processors = Runtime.getRuntime().availableProcessors();
+        final List<Integer> result = new ArrayList<Integer>();
+        for (int threads = 1; threads < processors; threads <<= 1) {
+            result.add(threads);
+        }
+        result.add(processors);
+        return result;
+    }
+}
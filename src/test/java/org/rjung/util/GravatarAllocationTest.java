@@ -0,0 +1,245 @@
+package org.rjung.util;
+
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rjung.util.gravatar.Default;
+import org.rjung.util.gravatar.Hosts;
+import org.rjung.util.gravatar.Protocol;
+import org.rjung.util.gravatar.Rating;
+import org.rjung.util.gravatar.hash.DigestEngine;
+import org.rjung.util.gravatar.hash.EmailNormalizer;
+import org.rjung.util.gravatar.hash.HashAlgorithm;
+import org.rjung.util.gravatar.hash.MultiLaneMd5;
+import org.rjung.util.gravatar.metrics.GravatarMetrics;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+/**
+ * Every rendering path has a budget of bytes it may allocate per call in
+ * steady state, measured with
+ * {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}.
+ * The budgets are the objects the path has to return and nothing more, with
+ * compressed oops: a URL of 78 characters is a <code>char[]</code> of 176
+ * bytes, copied into a <code>String</code> of 24 bytes and its
+ * <code>byte[]</code> of 96 bytes. Rendering with a {@link GravatarTemplate}
+ * and hashing into a buffer must not allocate at all, that is less than one
+ * byte per call; any object allocated per call takes at least 16 bytes.<br>
+ * The budgets only hold for that object layout: with a heap of 32 GB or more
+ * references take 8 bytes, without compact strings chars take 2. The tests
+ * are skipped on such a JVM, as they are when the batches are hashed by the
+ * vector engine, which allocates its lanes per call.<br>
+ * If a change makes a path cheaper, lower its budget with it.
+ */
+public class GravatarAllocationTest {
+
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 10000;
+    private static final String[] EMAILS = { "example@example.com",
+            " Mixed.Case@Example.COM ", "another.user@example.org" };
+    private static final GravatarSpec SPEC = GravatarSpec.DEFAULT
+            .with(Protocol.HTTPS).with(Rating.PG).withSize(80)
+            .withDefaultImage(Default.MM);
+
+    private com.sun.management.ThreadMXBean threads;
+    private Object sink;
+
+    @Before
+    public void setup() {
+        assumeTrue(ManagementFactory
+                .getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        final HotSpotDiagnosticMXBean vm = ManagementFactory
+                .getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+        assumeTrue(vm != null);
+        assumeTrue(option(vm, "UseCompressedOops", "true"));
+        assumeTrue(option(vm, "UseCompressedClassPointers", "true"));
+        assumeTrue(option(vm, "CompactStrings", "true"));
+        assumeTrue(option(vm, "ObjectAlignmentInBytes", "8"));
+        threads.setThreadAllocatedMemoryEnabled(true);
+        Gravatar.setHashCache(null);
+    }
+
+    @After
+    public void reset() {
+        Gravatar.setListener(null);
+    }
+
+    @Test
+    public void verifyWriteUrlToStringBuilderDoesNotAllocate()
+            throws Exception {
+        final GravatarTemplate template = Gravatar.forEmail(null)
+                .with(Protocol.HTTPS).with(Rating.PG).size(80).compile();
+        final StringBuilder output = new StringBuilder(template.length());
+        assertBudget("GravatarTemplate.writeUrl(StringBuilder)", 0, i -> {
+            output.setLength(0);
+            return template.writeUrl(email(i), output);
+        });
+    }
+
+    @Test
+    public void verifyWriteUrlToByteBufferDoesNotAllocate()
+            throws Exception {
+        final GravatarTemplate template = Gravatar.forEmail(null)
+                .with(Protocol.HTTPS).with(Rating.PG).size(80).compile();
+        final ByteBuffer output = ByteBuffer.allocateDirect(template.length());
+        assertBudget("GravatarTemplate.writeUrl(ByteBuffer)", 0, i -> {
+            output.clear();
+            return template.writeUrl(email(i), output);
+        });
+    }
+
+    @Test
+    public void verifyWriteUrlWithMetricsDoesNotAllocate()
+            throws Exception {
+        Gravatar.setListener(new GravatarMetrics());
+        verifyWriteUrlToStringBuilderDoesNotAllocate();
+    }
+
+    @Test
+    public void verifyToUrlBudget() throws Exception {
+        // Gravatar 24 and a URL of 57 characters, without options to render
+        assertBudget("Gravatar.toUrl()", 264,
+                i -> Gravatar.forEmail(email(i)).toUrl());
+    }
+
+    @Test
+    public void verifyToUrlWithOptionsBudget() throws Exception {
+        // each option creates a GravatarSpec, the query is rendered once
+        assertBudget("Gravatar.with(..).toUrl()", 640,
+                i -> Gravatar.forEmail(email(i)).with(Protocol.HTTPS)
+                        .with(Rating.PG).size(80).defaultImage(Default.MM)
+                        .toUrl());
+    }
+
+    @Test
+    public void verifySpecToUrlBudget() throws Exception {
+        assertBudget("GravatarSpec.toUrl(String)", 296,
+                i -> SPEC.toUrl(email(i)));
+    }
+
+    @Test
+    public void verifySpecToUrlWithSha256Budget() throws Exception {
+        final GravatarSpec spec = SPEC.with(HashAlgorithm.SHA256);
+        assertBudget("GravatarSpec.toUrl(String) with SHA-256", 392,
+                i -> spec.toUrl(email(i)));
+    }
+
+    @Test
+    public void verifySpecToUrlWithHostsBudget() throws Exception {
+        // the hosts have the same length, so the URL has too
+        final GravatarSpec spec = SPEC.with(Hosts.numbered(3));
+        assertBudget("GravatarSpec.toUrl(String) with Hosts", 296,
+                i -> spec.toUrl(email(i)));
+    }
+
+    @Test
+    public void verifySpecToUrlOfHashBudget() throws Exception {
+        final String hash = Gravatar.gravatarHex(EMAILS[0]);
+        assertBudget("GravatarSpec.toUrlOfHash(CharSequence)", 296,
+                i -> SPEC.toUrlOfHash(hash));
+    }
+
+    @Test
+    public void verifySrcsetBudget() throws Exception {
+        final GravatarSrcset srcset = SPEC.srcset(1, 2, 3);
+        assertBudget("GravatarSrcset.srcsetFor(String)", 800,
+                i -> srcset.srcsetFor(email(i)));
+    }
+
+    @Test
+    public void verifyHexBudget() throws Exception {
+        // char[] 80, String 24 and its byte[] 48
+        assertBudget("Gravatar.gravatarHex(String)", 152,
+                i -> Gravatar.gravatarHex(email(i)));
+    }
+
+    @Test
+    public void verifyDigestDoesNotAllocate() throws Exception {
+        final DigestEngine engine = HashAlgorithm.MD5.engine();
+        final byte[] input = new byte[256];
+        final byte[] output = new byte[engine.getDigestLength()];
+        assertBudget("EmailNormalizer.normalize + DigestEngine.digest", 0,
+                i -> engine.digest(input, 0,
+                        EmailNormalizer.normalize(email(i), input), output,
+                        0));
+    }
+
+    @Test
+    public void verifyToHashesBudget() throws Exception {
+        assumeTrue(MultiLaneMd5.get() == MultiLaneMd5.scalar());
+        final List<String> emails = Arrays.asList(EMAILS);
+        assertBudget("Gravatar.toHashes(List)", 432,
+                i -> Gravatar.toHashes(emails));
+    }
+
+    @Test
+    public void verifyQueryDoesNotAllocate() throws Exception {
+        assertBudget("GravatarSpec.query()", 0, i -> SPEC.query());
+    }
+
+    @Test
+    public void verifyPrefixesDoNotAllocate() throws Exception {
+        assertBudget("GravatarSpec.prefixes()", 0, i -> SPEC.prefixes());
+    }
+
+    @Test
+    public void verifyNewQueryBudget() throws Exception {
+        // the GravatarSpecs of the options, StringBuilder and query
+        assertBudget("GravatarSpec.with(..).query()", 280,
+                i -> GravatarSpec.DEFAULT.with(Rating.PG).withSize(80)
+                        .withDefaultImage(Default.MM).query());
+    }
+
+    /**
+     * Run an operation until it is compiled, then fail if it allocates more
+     * than its budget per call on average.
+     */
+    private void assertBudget(final String pPath, final long pBudget,
+            final Operation pOperation) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            sink = pOperation.run(i);
+        }
+        final long before = allocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink = pOperation.run(i);
+        }
+        final long perCall = (allocatedBytes() - before) / ITERATIONS;
+        assertThat(pPath + " allocates " + perCall + " bytes per call",
+                perCall, lessThanOrEqualTo(pBudget));
+    }
+
+    private static boolean option(final HotSpotDiagnosticMXBean pVm,
+            final String pName, final String pValue) {
+        try {
+            return pValue.equals(pVm.getVMOption(pName).getValue());
+        } catch (IllegalArgumentException e) {
+            // not a HotSpot option on this JVM
+            return false;
+        }
+    }
+
+    private static String email(final int pIteration) {
+        return EMAILS[pIteration % EMAILS.length];
+    }
+
+    private long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        Object run(int pIteration) throws Exception;
+    }
+}
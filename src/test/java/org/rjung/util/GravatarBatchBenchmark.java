@@ -0,0 +1,84 @@
+package org.rjung.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rjung.util.gravatar.Protocol;
+
+/**
+ * Scaling of the batch API with the number of cores, compared to a loop over
+ * {@link Gravatar#toUrl()}. The parallelism is a parameter of the benchmark,
+ * so run it with a single benchmark thread:
+ * <code>mvn -Pbenchmark verify -Djmh.args="-t 1 GravatarBatchBenchmark"</code>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GravatarBatchBenchmark {
+
+    private static final int EMAIL_COUNT = 100000;
+
+    @Param({ "1", "2", "4", "8" })
+    int parallelism;
+
+    List<String> emails;
+    GravatarTemplate template;
+    ForkJoinPool pool;
+
+    @Setup
+    public void setup() throws GravatarException {
+        emails = new ArrayList<String>(EMAIL_COUNT);
+        for (int i = 0; i < EMAIL_COUNT; i++) {
+            emails.add("User.Number" + i + "@Example.com");
+        }
+        template = Gravatar.forEmail(null).with(Protocol.HTTPS).size(80)
+                .compile();
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EMAIL_COUNT)
+    public List<String> loopToUrl() throws GravatarException {
+        final List<String> result = new ArrayList<String>(EMAIL_COUNT);
+        for (final String email : emails) {
+            result.add(Gravatar.forEmail(email).with(Protocol.HTTPS).size(80)
+                    .toUrl());
+        }
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EMAIL_COUNT)
+    public List<String> urlsFor() throws GravatarException {
+        return template.urlsFor(emails, pool);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EMAIL_COUNT)
+    public byte[] toHashes() throws GravatarException {
+        return Gravatar.toHashes(emails, pool);
+    }
+}
@@ -0,0 +1,208 @@
+package org.rjung.util;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rjung.util.gravatar.Default;
+import org.rjung.util.gravatar.Hosts;
+import org.rjung.util.gravatar.Protocol;
+import org.rjung.util.gravatar.Rating;
+import org.rjung.util.gravatar.cache.EvictionPolicy;
+import org.rjung.util.gravatar.cache.HashCache;
+
+/**
+ * Baseline for {@link Gravatar#toUrl()} and the stages it is built from. Run
+ * with <code>mvn -Pbenchmark verify</code>, see {@link Benchmarks}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GravatarBenchmark {
+
+    private static final int EMAIL_COUNT = 1024;
+
+    @State(Scope.Thread)
+    public static class Emails {
+        String[] emails;
+        byte[][] digests;
+        GravatarSpec spec;
+        GravatarSpec sharded;
+        GravatarTemplate template;
+        GravatarTemplate shardedTemplate;
+        GravatarSrcset srcset;
+        StringBuilder builder;
+        ByteBuffer buffer;
+        int index;
+
+        @Setup
+        public void setup() throws NoSuchAlgorithmException,
+                UnsupportedEncodingException, GravatarException {
+            emails = new String[EMAIL_COUNT];
+            digests = new byte[EMAIL_COUNT][];
+            final MessageDigest md = MessageDigest.getInstance("MD5");
+            for (int i = 0; i < EMAIL_COUNT; i++) {
+                emails[i] = " User.Number" + i + "@Example.com ";
+                digests[i] = md.digest(emails[i].getBytes("CP1252"));
+            }
+            spec = GravatarSpec.DEFAULT.with(Protocol.HTTPS).with(Rating.PG)
+                    .withSize(80).withDefaultImage(Default.IDENTICON);
+            template = spec.compile();
+            // hosts of different length, the longest case
+            sharded = spec.with(Hosts.of("secure.gravatar.com",
+                    "0.gravatar.com", "1.gravatar.com", "2.gravatar.com"));
+            shardedTemplate = sharded.compile();
+            srcset = spec.withSize(40).srcset(1, 2, 3);
+            builder = new StringBuilder(template.length());
+            buffer = ByteBuffer.allocateDirect(shardedTemplate.length());
+        }
+
+        int next() {
+            index = (index + 1) & (EMAIL_COUNT - 1);
+            return index;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class DefaultImage {
+        @Param({ "32", "256", "2048" })
+        int length;
+        String url;
+
+        @Setup
+        public void setup() {
+            final StringBuilder result = new StringBuilder(
+                    "https://images.example.com/avatars/default.png?");
+            while (result.length() < length) {
+                result.append("&k=v%/ ").append(result.length());
+            }
+            url = result.substring(0, length);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Cached {
+        @Param({ "lru", "lfu" })
+        String policy;
+
+        @Setup
+        public void setup() {
+            Gravatar.setHashCache(new HashCache(EMAIL_COUNT * 2,
+                    "lfu".equals(policy) ? EvictionPolicy.lfu()
+                            : EvictionPolicy.lru()));
+        }
+
+        @TearDown
+        public void tearDown() {
+            Gravatar.setHashCache(null);
+        }
+    }
+
+    @Benchmark
+    public String toUrl(final Emails pEmails) throws GravatarException {
+        return Gravatar.forEmail(pEmails.emails[pEmails.next()]).toUrl();
+    }
+
+    @Benchmark
+    public String toUrlWithAllParameters(final Emails pEmails)
+            throws GravatarException {
+        return Gravatar.forEmail(pEmails.emails[pEmails.next()])
+                .with(Protocol.HTTPS).with(Rating.PG).size(80)
+                .defaultImage(Default.IDENTICON).toUrl();
+    }
+
+    @Benchmark
+    public String toUrlWithDefaultImageUrl(final Emails pEmails,
+            final DefaultImage pDefaultImage) throws GravatarException {
+        return Gravatar.forEmail(pEmails.emails[pEmails.next()])
+                .defaultImage(pDefaultImage.url).toUrl();
+    }
+
+    @Benchmark
+    public String templateUrlFor(final Emails pEmails)
+            throws GravatarException {
+        return pEmails.template.urlFor(pEmails.emails[pEmails.next()]);
+    }
+
+    @Benchmark
+    public StringBuilder templateWriteUrlToStringBuilder(
+            final Emails pEmails) throws GravatarException {
+        pEmails.builder.setLength(0);
+        return pEmails.template.writeUrl(pEmails.emails[pEmails.next()],
+                pEmails.builder);
+    }
+
+    @Benchmark
+    public ByteBuffer templateWriteUrlToByteBuffer(final Emails pEmails)
+            throws GravatarException {
+        pEmails.buffer.clear();
+        return pEmails.template.writeUrl(pEmails.emails[pEmails.next()],
+                pEmails.buffer);
+    }
+
+    @Benchmark
+    public String toUrlWithHashCache(final Emails pEmails,
+            final Cached pCached) throws GravatarException {
+        return Gravatar.forEmail(pEmails.emails[pEmails.next()]).toUrl();
+    }
+
+    @Benchmark
+    public String gravatarHex(final Emails pEmails)
+            throws NoSuchAlgorithmException, UnsupportedEncodingException {
+        return Gravatar.gravatarHex(pEmails.emails[pEmails.next()]);
+    }
+
+    @Benchmark
+    public String hex(final Emails pEmails) {
+        return Gravatar.hex(pEmails.digests[pEmails.next()]);
+    }
+
+    @Benchmark
+    public String specToUrl(final Emails pEmails) throws GravatarException {
+        return pEmails.spec.toUrl(pEmails.emails[pEmails.next()]);
+    }
+
+    @Benchmark
+    public String specToUrlWithHosts(final Emails pEmails)
+            throws GravatarException {
+        return pEmails.sharded.toUrl(pEmails.emails[pEmails.next()]);
+    }
+
+    @Benchmark
+    public ByteBuffer templateWriteUrlToByteBufferWithHosts(
+            final Emails pEmails) throws GravatarException {
+        pEmails.buffer.clear();
+        return pEmails.shardedTemplate.writeUrl(
+                pEmails.emails[pEmails.next()], pEmails.buffer);
+    }
+
+    @Benchmark
+    public String srcsetPerSize(final Emails pEmails)
+            throws GravatarException {
+        final String email = pEmails.emails[pEmails.next()];
+        return Gravatar.forEmail(email).size(40).toUrl() + " 1x, "
+                + Gravatar.forEmail(email).size(80).toUrl() + " 2x, "
+                + Gravatar.forEmail(email).size(120).toUrl() + " 3x";
+    }
+
+    @Benchmark
+    public String srcsetFor(final Emails pEmails) throws GravatarException {
+        return pEmails.srcset.srcsetFor(pEmails.emails[pEmails.next()]);
+    }
+}
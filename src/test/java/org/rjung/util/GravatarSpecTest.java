@@ -0,0 +1,145 @@
+package org.rjung.util;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.junit.Test;
+import org.rjung.util.gravatar.Default;
+import org.rjung.util.gravatar.Protocol;
+import org.rjung.util.gravatar.Rating;
+import org.rjung.util.gravatar.hash.HashAlgorithm;
+
+public class GravatarSpecTest {
+
+    private static final String EXAMPLE_EMAIL = "example@example.com";
+    private static final String GRAVATAR_URL_FOR_EXAMPLE_EMAIL = "://s.gravatar.com/avatar/23463b99b62a72f26ed677cc556c44e8";
+    private static final String EXAMPLE_DEFAULT_URL = "http://some.url/to/image.png?a=b c";
+
+    @Test
+    public void verifyDefaultRendersPlainUrl() throws GravatarException {
+        assertThat(GravatarSpec.DEFAULT.toUrl(EXAMPLE_EMAIL),
+                equalTo(GRAVATAR_URL_FOR_EXAMPLE_EMAIL));
+    }
+
+    @Test
+    public void verifyWithDoesNotChangeInstance() throws GravatarException {
+        final GravatarSpec spec = GravatarSpec.DEFAULT.withSize(80);
+        final GravatarSpec other = spec.with(Protocol.HTTPS).with(Rating.G)
+                .withDefaultImage(Default.MM);
+        assertThat(spec.toUrl(EXAMPLE_EMAIL),
+                equalTo(GRAVATAR_URL_FOR_EXAMPLE_EMAIL + "?s=80"));
+        assertThat(other.toUrl(EXAMPLE_EMAIL), equalTo("https"
+                + GRAVATAR_URL_FOR_EXAMPLE_EMAIL + "?r=g&s=80&d=mm"));
+        assertThat(GravatarSpec.DEFAULT.getSize(), equalTo(0));
+    }
+
+    @Test
+    public void verifyParametersHaveCanonicalOrder() throws GravatarException {
+        final GravatarSpec first = GravatarSpec.DEFAULT
+                .withDefaultImage(EXAMPLE_DEFAULT_URL).withSize(120)
+                .with(Rating.X);
+        final GravatarSpec second = GravatarSpec.DEFAULT.with(Rating.X)
+                .withDefaultImage(EXAMPLE_DEFAULT_URL).withSize(120);
+        assertThat(first.toUrl(EXAMPLE_EMAIL),
+                equalTo(GRAVATAR_URL_FOR_EXAMPLE_EMAIL
+                        + "?r=x&s=120&d=http%3A%2F%2Fsome.url%2Fto%2Fimage.png%3Fa%3Db+c"));
+        assertThat(second.toUrl(EXAMPLE_EMAIL),
+                equalTo(first.toUrl(EXAMPLE_EMAIL)));
+        assertThat(second, equalTo(first));
+        assertThat(second.hashCode(), equalTo(first.hashCode()));
+    }
+
+    @Test
+    public void verifySpecMatchesBuilder() throws GravatarException {
+        final Gravatar builder = Gravatar.forEmail(EXAMPLE_EMAIL)
+                .with(Protocol.HTTP).size(2048).with(Rating.PG)
+                .defaultImage(Default.FOUR_O_FOUR);
+        final GravatarSpec spec = builder.getSpec();
+        assertThat(spec.toUrl(EXAMPLE_EMAIL), equalTo(builder.toUrl()));
+        assertThat(Gravatar.forEmail(EXAMPLE_EMAIL, spec).toUrl(),
+                equalTo(builder.toUrl()));
+        assertThat(spec.compile().urlFor(EXAMPLE_EMAIL),
+                equalTo(builder.toUrl()));
+        builder.size(null);
+        assertThat(builder.getSpec(), not(equalTo(spec)));
+        assertThat(spec.getSize(), equalTo(2048));
+    }
+
+    @Test
+    public void verifyNullRemovesOptions() {
+        final GravatarSpec spec = GravatarSpec.DEFAULT.with(Protocol.HTTPS)
+                .with(Rating.R).withSize(1).withDefaultImage(Default.RETRO);
+        assertThat(spec.with((Protocol) null).with((Rating) null)
+                .withSize(null).withDefaultImage((Default) null),
+                equalTo(GravatarSpec.DEFAULT));
+    }
+
+    @Test
+    public void verifyUnchangedOptionsReturnSameInstance() {
+        final GravatarSpec spec = GravatarSpec.DEFAULT.withSize(80)
+                .withDefaultImage(EXAMPLE_DEFAULT_URL);
+        assertThat(spec.withSize(80).withDefaultImage(EXAMPLE_DEFAULT_URL)
+                .with(Protocol.NONE), sameInstance(spec));
+    }
+
+    @Test
+    public void verifySha256HashesNormalizedEmail() throws GravatarException,
+            NoSuchAlgorithmException {
+        final GravatarSpec spec = GravatarSpec.DEFAULT
+                .with(HashAlgorithm.SHA256).withSize(80);
+        final String expected = "://s.gravatar.com/avatar/"
+                + sha256(EXAMPLE_EMAIL) + "?s=80";
+        assertThat(spec.toUrl(" Example@Example.COM "), equalTo(expected));
+        assertThat(spec.compile().urlFor(EXAMPLE_EMAIL), equalTo(expected));
+        assertThat(Gravatar.forEmail(EXAMPLE_EMAIL).with(HashAlgorithm.SHA256)
+                .size(80).toUrl(), equalTo(expected));
+        assertThat(spec, not(equalTo(GravatarSpec.DEFAULT.withSize(80))));
+        assertThat(spec.with((HashAlgorithm) null),
+                equalTo(GravatarSpec.DEFAULT.withSize(80)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void verifyToSmallSizeRaises() {
+        GravatarSpec.DEFAULT.withSize(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void verifyToBigSizeRaises() {
+        GravatarSpec.DEFAULT.withSize(2049);
+    }
+
+    @Test
+    public void verifyUrlOfHashMatchesToUrl() throws GravatarException {
+        final GravatarSpec spec = GravatarSpec.DEFAULT.with(Protocol.HTTPS)
+                .with(Rating.PG).withSize(40).withDefaultImage(Default.RETRO);
+        assertThat(spec.toUrlOfHash("23463B99B62A72F26ED677CC556C44E8"),
+                equalTo(spec.toUrl(EXAMPLE_EMAIL)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void verifyUrlOfHashChecksLength() throws GravatarException {
+        GravatarSpec.DEFAULT.with(HashAlgorithm.SHA256)
+                .toUrlOfHash("23463b99b62a72f26ed677cc556c44e8");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void verifyUrlOfHashChecksDigits() throws GravatarException {
+        GravatarSpec.DEFAULT.toUrlOfHash("23463b99b62a72f26ed677cc556c44e/");
+    }
+
+    static String sha256(final String pNormalized)
+            throws NoSuchAlgorithmException {
+        final StringBuilder result = new StringBuilder();
+        for (final byte b : MessageDigest.getInstance("SHA-256")
+                .digest(pNormalized.getBytes(StandardCharsets.UTF_8))) {
+            result.append(String.format("%02x", b & 0xFF));
+        }
+        return result.toString();
+    }
+}
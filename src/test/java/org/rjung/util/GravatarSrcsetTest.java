@@ -0,0 +1,103 @@
+package org.rjung.util;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Test;
+import org.rjung.util.gravatar.Default;
+import org.rjung.util.gravatar.Protocol;
+import org.rjung.util.gravatar.Rating;
+import org.rjung.util.gravatar.hash.HashAlgorithm;
+import org.rjung.util.gravatar.metrics.GravatarListener.Render;
+import org.rjung.util.gravatar.metrics.GravatarMetrics;
+
+public class GravatarSrcsetTest {
+
+    private static final String EXAMPLE_EMAIL = "example@example.com";
+    private static final GravatarSpec SPEC = GravatarSpec.DEFAULT
+            .with(Protocol.HTTPS).with(Rating.PG).withSize(40)
+            .withDefaultImage(Default.MONSTERID);
+
+    @After
+    public void reset() {
+        Gravatar.setListener(null);
+    }
+
+    @Test
+    public void verifyDensitiesMatchToUrl() throws GravatarException {
+        assertThat(SPEC.srcset(1, 2, 3).srcsetFor(EXAMPLE_EMAIL),
+                equalTo(SPEC.toUrl(EXAMPLE_EMAIL) + " 1x, "
+                        + SPEC.withSize(80).toUrl(EXAMPLE_EMAIL) + " 2x, "
+                        + SPEC.withSize(120).toUrl(EXAMPLE_EMAIL) + " 3x"));
+    }
+
+    @Test
+    public void verifyWidthsMatchToUrl() throws GravatarException {
+        final GravatarSpec spec = SPEC.with(HashAlgorithm.SHA256);
+        assertThat(spec.srcsetWidths(32, 64).srcsetFor(" Example@Example.com"),
+                equalTo(spec.withSize(32).toUrl(EXAMPLE_EMAIL) + " 32w, "
+                        + spec.withSize(64).toUrl(EXAMPLE_EMAIL) + " 64w"));
+    }
+
+    @Test
+    public void verifyUrlsMatchToUrl() throws GravatarException {
+        final GravatarSrcset srcset = SPEC.srcsetWidths(16, 2048);
+        assertThat(Arrays.asList(srcset.urlsFor(EXAMPLE_EMAIL)),
+                equalTo(Arrays.asList(SPEC.withSize(16).toUrl(EXAMPLE_EMAIL),
+                        SPEC.withSize(2048).toUrl(EXAMPLE_EMAIL))));
+        assertThat(srcset.getSizes(), equalTo(new int[] { 16, 2048 }));
+    }
+
+    @Test
+    public void verifyFractionalDensities() throws GravatarException {
+        final GravatarSrcset srcset = SPEC.srcset(1.5, 2.25);
+        assertThat(srcset.getSizes(), equalTo(new int[] { 60, 90 }));
+        assertThat(srcset.srcsetFor(EXAMPLE_EMAIL),
+                equalTo(SPEC.withSize(60).toUrl(EXAMPLE_EMAIL) + " 1.5x, "
+                        + SPEC.withSize(90).toUrl(EXAMPLE_EMAIL) + " 2.25x"));
+    }
+
+    @Test
+    public void verifyDensitiesDefaultTo80Pixels() throws GravatarException {
+        assertThat(GravatarSpec.DEFAULT.srcset(1, 2).getSizes(),
+                equalTo(new int[] { 80, 160 }));
+        assertThat(Gravatar.forEmail(EXAMPLE_EMAIL).toSrcset(2),
+                equalTo(Gravatar.forEmail(EXAMPLE_EMAIL).size(160).toUrl()
+                        + " 2x"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void verifyDensityBeyondMaximumSizeIsRejected()
+            throws GravatarException {
+        GravatarSpec.DEFAULT.withSize(1000).srcset(1, 2, 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void verifyZeroWidthIsRejected() throws GravatarException {
+        SPEC.srcsetWidths(0, 40);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void verifyNegativeDensityIsRejected() throws GravatarException {
+        SPEC.srcset(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void verifyEmptySrcsetIsRejected() throws GravatarException {
+        SPEC.srcset();
+    }
+
+    @Test
+    public void verifyEmailIsHashedOnce() throws GravatarException {
+        final GravatarMetrics metrics = new GravatarMetrics();
+        Gravatar.setListener(metrics);
+        final GravatarSrcset srcset = SPEC.srcset(1, 2, 3);
+        srcset.srcsetFor(EXAMPLE_EMAIL);
+        srcset.urlsFor(EXAMPLE_EMAIL);
+        assertThat(metrics.getHashes(), equalTo(2L));
+        assertThat(metrics.getRenders(Render.URL), equalTo(6L));
+    }
+}
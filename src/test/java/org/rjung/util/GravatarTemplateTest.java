@@ -0,0 +1,251 @@
+package org.rjung.util;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+import org.rjung.util.gravatar.Default;
+import org.rjung.util.gravatar.Hosts;
+import org.rjung.util.gravatar.Protocol;
+import org.rjung.util.gravatar.Rating;
+import org.rjung.util.gravatar.cache.EvictionPolicy;
+import org.rjung.util.gravatar.cache.HashCache;
+import org.rjung.util.gravatar.hash.EmailNormalizer;
+import org.rjung.util.gravatar.hash.HashAlgorithm;
+
+public class GravatarTemplateTest {
+
+    private static final String EXAMPLE_EMAIL = "example@example.com";
+    private static final String GRAVATAR_URL_FOR_EXAMPLE_EMAIL = "://s.gravatar.com/avatar/23463b99b62a72f26ed677cc556c44e8";
+    private static final String[] EMAILS = { EXAMPLE_EMAIL,
+            " Mixed.Case@Example.COM ", "", null, "jürgen@müller.de",
+            "Šimon@example.com" };
+
+    @Test
+    public void verifySimpleTemplateRendersUrl() throws GravatarException {
+        assertThat(Gravatar.forEmail(null).compile().urlFor(EXAMPLE_EMAIL),
+                equalTo(GRAVATAR_URL_FOR_EXAMPLE_EMAIL));
+    }
+
+    @Test
+    public void verifyTemplateMatchesToUrl() throws GravatarException {
+        for (int variant = 0; variant < 5; variant++) {
+            final GravatarTemplate template = configure(variant,
+                    Gravatar.forEmail(null)).compile();
+            for (final String email : EMAILS) {
+                assertThat(template.urlFor(email), equalTo(
+                        configure(variant, Gravatar.forEmail(email)).toUrl()));
+            }
+        }
+    }
+
+    @Test
+    public void verifyTemplateIsNotChangedByBuilder()
+            throws GravatarException {
+        final Gravatar builder = Gravatar.forEmail(null).size(80);
+        final GravatarTemplate template = builder.compile();
+        builder.size(100).with(Protocol.HTTPS);
+        assertThat(template.urlFor(EXAMPLE_EMAIL),
+                equalTo(GRAVATAR_URL_FOR_EXAMPLE_EMAIL + "?s=80"));
+    }
+
+    @Test
+    public void verifyPrefixAndSuffix() throws GravatarException {
+        final GravatarTemplate template = Gravatar.forEmail(null)
+                .with(Protocol.HTTPS).with(Rating.G).compile();
+        assertThat(template.getPrefix(),
+                equalTo("https://s.gravatar.com/avatar/"));
+        assertThat(template.getSuffix(), equalTo("?r=g"));
+    }
+
+    @Test
+    public void verifyUrlsForKeepsOrder() throws GravatarException {
+        final GravatarTemplate template = Gravatar.forEmail(null).size(80)
+                .compile();
+        final List<String> emails = new ArrayList<String>();
+        for (int i = 0; i < 5000; i++) {
+            emails.add("User" + i + "@Example.com");
+        }
+        final List<String> urls = template.urlsFor(emails);
+        assertThat(urls.size(), equalTo(emails.size()));
+        for (int i = 0; i < emails.size(); i++) {
+            assertThat(urls.get(i), equalTo(template.urlFor(emails.get(i))));
+        }
+    }
+
+    @Test
+    public void verifyUrlsForRunsOnExecutor() throws GravatarException {
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            final GravatarTemplate template = Gravatar.forEmail(null)
+                    .compile();
+            final List<String> emails = new ArrayList<String>();
+            for (int i = 0; i < 3000; i++) {
+                emails.add(i % 7 == 0 ? null : "user" + i + "@example.com");
+            }
+            assertThat(template.urlsFor(emails, executor),
+                    equalTo(template.urlsFor(emails)));
+            assertThat(template.urlsFor(emails, executor).get(7),
+                    equalTo(template.urlFor(null)));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void verifyUrlsForEmptyList() throws GravatarException {
+        assertThat(Gravatar.forEmail(null).compile()
+                .urlsFor(new ArrayList<String>()).size(), equalTo(0));
+    }
+
+    @Test
+    public void verifyWriteUrlMatchesUrlFor() throws GravatarException,
+            IOException {
+        for (int variant = 0; variant < 5; variant++) {
+            final GravatarTemplate template = configure(variant,
+                    Gravatar.forEmail(null)).compile();
+            for (final String email : EMAILS) {
+                final String expected = template.urlFor(email);
+                assertThat(template.writeUrl(email, new StringBuilder("x"))
+                        .toString(), equalTo("x" + expected));
+                assertThat(template.writeUrl(email, (Appendable) new StringWriter())
+                        .toString(), equalTo(expected));
+                final ByteBuffer buffer = template.writeUrl(email,
+                        ByteBuffer.allocate(template.length()));
+                assertThat(buffer.position(), equalTo(expected.length()));
+                assertThat(new String(buffer.array(), StandardCharsets.US_ASCII),
+                        equalTo(expected));
+            }
+        }
+    }
+
+    @Test
+    public void verifyWriteUrlDoesNotWritePartialUrl()
+            throws GravatarException {
+        final GravatarTemplate template = Gravatar.forEmail(null).compile();
+        final ByteBuffer buffer = ByteBuffer.allocate(template.length() - 1);
+        try {
+            template.writeUrl(EXAMPLE_EMAIL, buffer);
+            fail("URL does not fit");
+        } catch (BufferOverflowException e) {
+            assertThat(buffer.position(), equalTo(0));
+        }
+    }
+
+    @Test
+    public void verifyTemplateWithSha256() throws GravatarException,
+            IOException, NoSuchAlgorithmException {
+        final GravatarTemplate md5 = Gravatar.forEmail(null).with(Rating.G)
+                .compile();
+        final GravatarTemplate sha256 = md5.with(HashAlgorithm.SHA256);
+        final String expected = "://s.gravatar.com/avatar/"
+                + GravatarSpecTest.sha256(EXAMPLE_EMAIL) + "?r=g";
+        assertThat(sha256.getAlgorithm(), equalTo(HashAlgorithm.SHA256));
+        assertThat(sha256.length(), equalTo(expected.length()));
+        assertThat(sha256.urlFor(" Example@example.com"), equalTo(expected));
+        assertThat(sha256.writeUrl(EXAMPLE_EMAIL, new StringBuilder())
+                .toString(), equalTo(expected));
+        final ByteBuffer buffer = sha256.writeUrl(EXAMPLE_EMAIL,
+                ByteBuffer.allocate(sha256.length()));
+        assertThat(new String(buffer.array(), StandardCharsets.US_ASCII),
+                equalTo(expected));
+        assertThat(sha256.urlsFor(Arrays.asList(EMAILS)).get(0),
+                equalTo(expected));
+        for (final String email : EMAILS) {
+            assertThat(sha256.urlFor(email), equalTo(Gravatar.forEmail(email)
+                    .with(Rating.G).with(HashAlgorithm.SHA256).toUrl()));
+        }
+        assertThat(sha256.with(null).urlFor(EXAMPLE_EMAIL),
+                equalTo(md5.urlFor(EXAMPLE_EMAIL)));
+        assertThat(md5.with(HashAlgorithm.MD5) == md5, equalTo(true));
+    }
+
+    @Test
+    public void verifyHostsAreSelectedAlikeEverywhere()
+            throws GravatarException, IOException {
+        // hosts of different length, the URLs are not of the same length
+        final Hosts hosts = Hosts.of("secure.gravatar.com", "0.gravatar.com",
+                "www.gravatar.com");
+        final GravatarSpec spec = GravatarSpec.DEFAULT.with(Protocol.HTTPS)
+                .with(hosts).withSize(40);
+        final GravatarTemplate template = spec.compile();
+        final List<String> emails = new ArrayList<String>();
+        for (int i = 0; i < 300; i++) {
+            emails.add("user" + i + "@example.com");
+        }
+        emails.addAll(Arrays.asList(EMAILS));
+        final List<String> urls = template.urlsFor(emails);
+        final int[] counts = new int[hosts.size()];
+        for (int i = 0; i < emails.size(); i++) {
+            final String email = emails.get(i);
+            final String url = spec.toUrl(email);
+            final int host = hosts.select(HashAlgorithm.MD5.engine().digest(
+                    EmailNormalizer.encode(EmailNormalizer.normalize(email))),
+                    0);
+            counts[host]++;
+            assertThat(url, equalTo("https://" + hosts.get(host) + "/avatar/"
+                    + Gravatar.forEmail(email).toUrl().substring(25)
+                    + "?s=40"));
+            assertThat(urls.get(i), equalTo(url));
+            assertThat(template.urlFor(email), equalTo(url));
+            assertThat(template.writeUrl(email, new StringBuilder())
+                    .toString(), equalTo(url));
+            final ByteBuffer buffer = ByteBuffer.allocate(template.length());
+            template.writeUrl(email, buffer).flip();
+            assertThat(StandardCharsets.US_ASCII.decode(buffer).toString(),
+                    equalTo(url));
+            assertThat(Gravatar.forEmail(email).with(Protocol.HTTPS)
+                    .with(hosts).size(40).toUrl(), equalTo(url));
+            assertThat(spec.srcsetWidths(40).urlsFor(email)[0], equalTo(url));
+            assertThat(spec.srcsetWidths(40).srcsetFor(email),
+                    equalTo(url + " 40w"));
+            assertThat(spec.toUrlOfHash(url.substring(url.length() - 37,
+                    url.length() - 5)), equalTo(url));
+        }
+        for (final int count : counts) {
+            assertThat(count > 80, equalTo(true));
+        }
+        Gravatar.setHashCache(new HashCache(100, EvictionPolicy.lru()));
+        try {
+            for (final String email : emails) {
+                final String url = spec.toUrl(email);
+                assertThat(template.writeUrl(email, new StringBuilder())
+                        .toString(), equalTo(url));
+                assertThat(template.urlFor(email), equalTo(url));
+            }
+        } finally {
+            Gravatar.setHashCache(null);
+        }
+    }
+
+    private static Gravatar configure(final int pVariant,
+            final Gravatar pGravatar) {
+        switch (pVariant) {
+        case 1:
+            return pGravatar.with(Protocol.HTTPS);
+        case 2:
+            return pGravatar.with(Rating.X).size(2048);
+        case 3:
+            return pGravatar.defaultImage(Default.FOUR_O_FOUR).size(80)
+                    .with(Protocol.HTTP).with(Rating.PG);
+        case 4:
+            return pGravatar
+                    .defaultImage("http://some.url/to/image.png?a=b c&ä=€");
+        default:
+            return pGravatar;
+        }
+    }
+}
@@ -8,13 +8,19 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Test;
 import org.rjung.util.gravatar.Default;
 import org.rjung.util.gravatar.Protocol;
 import org.rjung.util.gravatar.Rating;
+import org.rjung.util.gravatar.hash.Hex;
 
 public class GravatarTest {
 
@@ -151,6 +157,16 @@ public class GravatarTest {
                         .encode(EXAMPLE_DEFAULT_URL, GRAVATAR_CHARSET)));
     }
 
+    @Test
+    public void verifyDefaultUrlIsEncodedLikeUrlEncoder()
+            throws UnsupportedEncodingException, GravatarException {
+        final String url = "http://some.url/~x/a b?c=d&\u00e4=\u20ac+*_-."
+                + "\u0130\uD83D\uDE00\u0081";
+        assertThat(Gravatar.forEmail(EXAMPLE_EMAIL).defaultImage(url).toUrl(),
+                equalTo(GRAVATAR_URL_FOR_EXAMPLE_EMAIL + "?d="
+                        + URLEncoder.encode(url, GRAVATAR_CHARSET)));
+    }
+
     @Test
     public void verifyDefaultUrlCanBeCleared()
             throws UnsupportedEncodingException, GravatarException {
@@ -184,4 +200,44 @@ public class GravatarTest {
         assertThat(queryParameters.get("s"), equalTo("80"));
         assertThat(queryParameters.get("d"), equalTo("404"));
     }
+
+    @Test
+    public void verifyUrlsCanBeBuiltForList() throws GravatarException {
+        assertThat(
+                Gravatar.toUrls(Arrays.asList(EXAMPLE_EMAIL, EXAMPLE_EMAIL),
+                        Gravatar.forEmail(null).with(Rating.G)),
+                equalTo(Arrays.asList(GRAVATAR_URL_FOR_EXAMPLE_EMAIL + "?r=g",
+                        GRAVATAR_URL_FOR_EXAMPLE_EMAIL + "?r=g")));
+    }
+
+    @Test
+    public void verifyHashesCanBeBuiltForList() throws GravatarException {
+        final List<String> emails = new ArrayList<String>();
+        for (int i = 0; i < 2000; i++) {
+            emails.add(i % 2 == 0 ? EXAMPLE_EMAIL : "other" + i);
+        }
+        final byte[] hashes = Gravatar.toHashes(emails);
+        assertThat(hashes.length, equalTo(emails.size() * 16));
+        for (int i = 0; i < emails.size(); i++) {
+            final String hash = Hex.encode(
+                    Arrays.copyOfRange(hashes, i * 16, i * 16 + 16));
+            assertThat(Gravatar.forEmail(emails.get(i)).toUrl(),
+                    equalTo("://s.gravatar.com/avatar/" + hash));
+        }
+    }
+
+    @Test
+    public void verifyWriteUrlMatchesToUrl() throws GravatarException {
+        final Gravatar builder = Gravatar.forEmail(EXAMPLE_EMAIL)
+                .with(Protocol.HTTPS).with(Rating.PG).size(80)
+                .defaultImage(EXAMPLE_DEFAULT_URL);
+        assertThat(builder.writeUrl(new StringBuilder()).toString(),
+                equalTo(builder.toUrl()));
+        final ByteBuffer buffer = builder.writeUrl(ByteBuffer.allocate(200));
+        assertThat(new String(buffer.array(), 0, buffer.position(),
+                StandardCharsets.US_ASCII), equalTo(builder.toUrl()));
+        builder.size(null);
+        assertThat(builder.writeUrl(new StringBuilder()).toString(),
+                equalTo(builder.toUrl()));
+    }
 }
@@ -0,0 +1,173 @@
+package org.rjung.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+
+/**
+ * Measures the time to the first Gravatar-URL in fresh processes: on a plain
+ * JVM, with MD5 in plain Java instead of the security providers, with an
+ * AppCDS archive and as a native image (if it was built with the
+ * <code>native</code> profile). Every variant runs {@link StartupProbe} a
+ * number of times and the medians of the wall-clock time of the process and
+ * of the first URL are printed:
+ *
+ * <pre>
+ * mvn -Pstartup verify -DskipTests -Dstartup.args="20"
+ * mvn -Pnative,startup verify -DskipTests
+ * </pre>
+ *
+ * The classes are packed into <code>target/startup.jar</code> first, as CDS
+ * only archives classes loaded from jars.
+ */
+public final class StartupBenchmark {
+
+    private static final int DEFAULT_RUNS = 10;
+    private static final Path TARGET = Paths.get("target");
+    private static final String PROBE = StartupProbe.class.getName();
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(final String[] pArgs)
+            throws IOException, InterruptedException {
+        final int runs = pArgs.length == 0 ? DEFAULT_RUNS
+                : Integer.parseInt(pArgs[0]);
+        final String java = Paths.get(System.getProperty("java.home"), "bin",
+                "java").toString();
+        final String jar = packClasses().toString();
+        final Path archive = TARGET.resolve("startup.jsa");
+        Files.deleteIfExists(archive);
+        System.out.printf("%-12s %14s %16s%n", "variant", "process [ms]",
+                "first url [us]");
+        report("jvm", runs, java, "-cp", jar, PROBE);
+        report("jvm-java-md5", runs, java,
+                "-Dorg.rjung.util.gravatar.md5=java", "-cp", jar, PROBE);
+        if (run(java, "-XX:ArchiveClassesAtExit=" + archive, "-cp", jar,
+                PROBE) != null && Files.exists(archive)) {
+            report("appcds", runs, java, "-XX:SharedArchiveFile=" + archive,
+                    "-cp", jar, PROBE);
+        } else {
+            System.out.printf("%-12s %s%n", "appcds",
+                    "skipped, needs Java 13 or newer");
+        }
+        final Path image = TARGET.resolve("gravatar-startup");
+        if (Files.isExecutable(image)) {
+            report("native", runs, image.toString());
+        } else {
+            System.out.printf("%-12s %s%n", "native",
+                    "skipped, build it with -Pnative");
+        }
+    }
+
+    private static void report(final String pName, final int pRuns,
+            final String... pCommand) throws IOException, InterruptedException {
+        final long[] process = new long[pRuns];
+        final long[] first = new long[pRuns];
+        for (int i = 0; i < pRuns; i++) {
+            final long start = System.nanoTime();
+            final String output = run(pCommand);
+            process[i] = System.nanoTime() - start;
+            if (output == null) {
+                System.out.printf("%-12s %s%n", pName, "failed");
+                return;
+            }
+            first[i] = firstUrl(output);
+        }
+        System.out.printf("%-12s %14.1f %16d%n", pName,
+                median(process) / 1e6, median(first));
+    }
+
+    /**
+     * Run a command and return its output, or <code>null</code> if it
+     * failed.
+     */
+    private static String run(final String... pCommand)
+            throws IOException, InterruptedException {
+        final Process process = new ProcessBuilder(pCommand)
+                .redirectErrorStream(true).start();
+        final StringBuilder output = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.append(line).append('\n');
+            }
+        }
+        return process.waitFor() == 0 ? output.toString() : null;
+    }
+
+    private static long firstUrl(final String pOutput) {
+        final int start = pOutput.indexOf("first-url-us=");
+        if (start < 0) {
+            return -1;
+        }
+        final int from = start + "first-url-us=".length();
+        int to = from;
+        while (to < pOutput.length()
+                && Character.isDigit(pOutput.charAt(to))) {
+            to++;
+        }
+        return Long.parseLong(pOutput.substring(from, to));
+    }
+
+    private static long median(final long[] pValues) {
+        final long[] sorted = pValues.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    /**
+     * Pack the class directories of the class path into one jar, the jars of
+     * the dependencies are not needed by the probe.
+     */
+    private static Path packClasses() throws IOException {
+        final Path jar = TARGET.resolve("startup.jar");
+        Files.createDirectories(TARGET);
+        try (JarOutputStream out = new JarOutputStream(
+                Files.newOutputStream(jar))) {
+            final Set<String> written = new HashSet<String>();
+            for (final String element : System.getProperty("java.class.path")
+                    .split(File.pathSeparator)) {
+                final Path directory = Paths.get(element);
+                if (Files.isDirectory(directory)) {
+                    pack(directory, out, written);
+                }
+            }
+        }
+        return jar;
+    }
+
+    private static void pack(final Path pDirectory, final JarOutputStream pOut,
+            final Set<String> pWritten) throws IOException {
+        final List<Path> files = new ArrayList<Path>();
+        try (Stream<Path> stream = Files.walk(pDirectory)) {
+            stream.filter(Files::isRegularFile).forEach(files::add);
+        }
+        Collections.sort(files);
+        for (final Path file : files) {
+            final String name = pDirectory.relativize(file).toString()
+                    .replace(File.separatorChar, '/');
+            if (name.startsWith("META-INF/versions/") || !pWritten.add(name)) {
+                continue;
+            }
+            pOut.putNextEntry(new JarEntry(name));
+            Files.copy(file, pOut);
+            pOut.closeEntry();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.rjung.util;
+
+/**
+ * Renders a single Gravatar-URL and prints how long it took, the way a
+ * short-lived process (a serverless function, a CLI) would. The first URL
+ * pays for loading and initializing the classes involved, so this measures
+ * the start-up cost of the library; {@link StartupBenchmark} runs it in fresh
+ * processes. It is also the main class of the native image built with the
+ * <code>native</code> profile.
+ */
+public final class StartupProbe {
+
+    private StartupProbe() {
+    }
+
+    public static void main(final String[] pArgs) throws GravatarException {
+        final long start = System.nanoTime();
+        final String url = Gravatar
+                .forEmail(pArgs.length == 0 ? "someone@example.com"
+                        : pArgs[0])
+                .size(80).defaultImage("https://example.com/avatar.png")
+                .toUrl();
+        final long first = System.nanoTime();
+        Gravatar.forEmail("someone.else@example.com").size(80).toUrl();
+        final long second = System.nanoTime();
+        System.out.println(url);
+        System.out.println("first-url-us=" + (first - start) / 1000
+                + " second-url-us=" + (second - first) / 1000);
+    }
+}
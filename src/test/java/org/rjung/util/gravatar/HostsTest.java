@@ -0,0 +1,96 @@
+package org.rjung.util.gravatar;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.junit.Test;
+import org.rjung.util.GravatarException;
+import org.rjung.util.GravatarSpec;
+
+public class HostsTest {
+
+    private static final int EMAILS = 30000;
+
+    @Test
+    public void verifyNumberedHosts() {
+        final Hosts hosts = Hosts.numbered(3);
+        assertThat(hosts.size(), equalTo(3));
+        assertThat(hosts.get(0), equalTo("0.gravatar.com"));
+        assertThat(hosts.get(2), equalTo("2.gravatar.com"));
+        assertThat(hosts, equalTo(Hosts.of("0.gravatar.com",
+                "1.gravatar.com", "2.gravatar.com")));
+    }
+
+    @Test
+    public void verifyHostsAreLowerCased() {
+        assertThat(Hosts.of("Secure.Gravatar.COM").get(0),
+                equalTo("secure.gravatar.com"));
+        assertThat(Hosts.of("S.gravatar.com"), sameInstance(Hosts.DEFAULT));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void verifyNoHostsAreRejected() {
+        Hosts.of();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void verifyDuplicateHostsAreRejected() {
+        Hosts.of("0.gravatar.com", "0.Gravatar.com");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void verifyInvalidHostIsRejected() {
+        Hosts.of("gravatar.com/avatar");
+    }
+
+    @Test
+    public void verifySelectCoversAllHosts() {
+        final Hosts hosts = Hosts.numbered(3);
+        assertThat(hosts.select(0), equalTo(0));
+        assertThat(hosts.select(0x55555555), equalTo(0));
+        assertThat(hosts.select(0x55555556), equalTo(1));
+        assertThat(hosts.select(0xAAAAAAAB), equalTo(2));
+        assertThat(hosts.select(0xFFFFFFFF), equalTo(2));
+        assertThat(hosts.select(new byte[] { 0, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, (byte) 0xFF }, 1), equalTo(2));
+        assertThat(Hosts.DEFAULT.select(0xFFFFFFFF), equalTo(0));
+    }
+
+    @Test
+    public void verifyHostsAreEvenlyDistributed()
+            throws NoSuchAlgorithmException {
+        final Hosts hosts = Hosts.numbered(3);
+        final MessageDigest md5 = MessageDigest.getInstance("MD5");
+        final int[] counts = new int[hosts.size()];
+        for (int i = 0; i < EMAILS; i++) {
+            counts[hosts.select(md5.digest(("user" + i + "@example.com")
+                    .getBytes(StandardCharsets.US_ASCII)), 0)]++;
+        }
+        // a third each, the standard deviation is about 82
+        for (final int count : counts) {
+            assertThat(Math.abs(count - EMAILS / 3), lessThan(300));
+        }
+    }
+
+    @Test
+    public void verifyUrlsUseSelectedHost() throws GravatarException {
+        final GravatarSpec spec = GravatarSpec.DEFAULT.with(Protocol.HTTPS)
+                .with(Hosts.numbered(3));
+        final int[] counts = new int[3];
+        for (int i = 0; i < 3000; i++) {
+            final String url = spec.toUrl("user" + i + "@example.com");
+            assertThat(url.substring(0, 8), equalTo("https://"));
+            assertThat(url.substring(9, 30), equalTo(".gravatar.com/avatar/"));
+            counts[url.charAt(8) - '0']++;
+        }
+        for (final int count : counts) {
+            assertThat(Math.abs(count - 1000), lessThan(100));
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.rjung.util.gravatar.bulk;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rjung.util.Gravatar;
+import org.rjung.util.GravatarException;
+import org.rjung.util.gravatar.Hosts;
+import org.rjung.util.gravatar.Protocol;
+import org.rjung.util.gravatar.hash.HashAlgorithm;
+
+public class BulkHasherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void verifyRowsMatchGravatar() throws IOException, GravatarException {
+        final List<String> emails = new ArrayList<String>();
+        for (int i = 0; i < 3000; i++) {
+            emails.add("User." + i + "@Example.com");
+        }
+        final File input = write(emails, "\n");
+        final File output = folder.newFile();
+        final long rows = new BulkHasher(
+                Gravatar.forEmail(null).with(Protocol.HTTPS).size(80).compile())
+                        .parallelism(3).chunkSize(1000)
+                        .run(input.toPath(), output.toPath());
+        assertThat(rows, equalTo(3000L));
+        final List<String> lines = Files.readAllLines(output.toPath(),
+                StandardCharsets.UTF_8);
+        assertThat(lines.size(), equalTo(emails.size()));
+        for (int i = 0; i < emails.size(); i++) {
+            assertThat(lines.get(i), equalTo(row(emails.get(i), Gravatar
+                    .forEmail(emails.get(i)).with(Protocol.HTTPS).size(80))));
+        }
+    }
+
+    @Test
+    public void verifySpecialLinesAreHandled()
+            throws IOException, GravatarException {
+        final File input = write(Arrays.asList(
+                "  Example@Example.com\t", "", "   ", "jürgen@MÜLLER.de",
+                "\"odd,name\"@example.com", "last@example.com"), "\r\n");
+        final File output = folder.newFile();
+        final long rows = new BulkHasher(Gravatar.forEmail(null).compile())
+                .chunkSize(7).run(input.toPath(), output.toPath());
+        assertThat(rows, equalTo(4L));
+        final List<String> lines = Files.readAllLines(output.toPath(),
+                StandardCharsets.UTF_8);
+        assertThat(lines.get(0), equalTo(
+                row("Example@Example.com", Gravatar.forEmail("example@example.com"))));
+        assertThat(lines.get(1), equalTo(
+                row("jürgen@MÜLLER.de", Gravatar.forEmail("jürgen@müller.de"))));
+        assertThat(lines.get(2),
+                equalTo("\"\"\"odd,name\"\"@example.com\","
+                        + hash(Gravatar.forEmail("\"odd,name\"@example.com"))
+                        + "," + Gravatar.forEmail("\"odd,name\"@example.com")
+                                .toUrl()));
+        assertThat(lines.get(3), equalTo(
+                row("last@example.com", Gravatar.forEmail("last@example.com"))));
+    }
+
+    @Test
+    public void verifySha256Rows() throws IOException, GravatarException {
+        final List<String> emails = Arrays.asList("User@Example.com",
+                "jürgen@müller.de", "last@example.com");
+        final File input = write(emails, "\n");
+        final File output = folder.newFile();
+        new BulkHasher(Gravatar.forEmail(null).with(HashAlgorithm.SHA256)
+                .compile()).run(input.toPath(), output.toPath());
+        final List<String> lines = Files.readAllLines(output.toPath(),
+                StandardCharsets.UTF_8);
+        for (int i = 0; i < emails.size(); i++) {
+            assertThat(lines.get(i), equalTo(row(emails.get(i), Gravatar
+                    .forEmail(emails.get(i)).with(HashAlgorithm.SHA256))));
+        }
+    }
+
+    @Test
+    public void verifyRowsWithHosts() throws IOException, GravatarException {
+        final List<String> emails = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            emails.add("user" + i + "@example.com");
+        }
+        final Hosts hosts = Hosts.of("secure.gravatar.com", "0.gravatar.com");
+        final File input = write(emails, "\n");
+        final File output = folder.newFile();
+        new BulkHasher(Gravatar.forEmail(null).with(hosts).compile())
+                .chunkSize(300).run(input.toPath(), output.toPath());
+        final List<String> lines = Files.readAllLines(output.toPath(),
+                StandardCharsets.UTF_8);
+        for (int i = 0; i < emails.size(); i++) {
+            assertThat(lines.get(i), equalTo(row(emails.get(i),
+                    Gravatar.forEmail(emails.get(i)).with(hosts))));
+        }
+    }
+
+    @Test
+    public void verifyEmptyInput() throws IOException, GravatarException {
+        final File output = folder.newFile();
+        assertThat(new BulkHasher(Gravatar.forEmail(null).compile())
+                .run(folder.newFile().toPath(), output.toPath()), equalTo(0L));
+        assertThat(output.length(), equalTo(0L));
+    }
+
+    private File write(final List<String> pLines, final String pSeparator)
+            throws IOException {
+        final File result = folder.newFile();
+        final StringBuilder content = new StringBuilder();
+        for (final String line : pLines) {
+            content.append(line).append(pSeparator);
+        }
+        Files.write(result.toPath(),
+                content.toString().getBytes(StandardCharsets.UTF_8));
+        return result;
+    }
+
+    private static String row(final String pEmail, final Gravatar pGravatar)
+            throws GravatarException {
+        return pEmail + "," + hash(pGravatar) + "," + pGravatar.toUrl();
+    }
+
+    private static String hash(final Gravatar pGravatar)
+            throws GravatarException {
+        final String url = pGravatar.toUrl();
+        final int start = url.indexOf("/avatar/") + 8;
+        return url.substring(start, start
+                + pGravatar.getSpec().getAlgorithm().getDigestLength() * 2);
+    }
+}
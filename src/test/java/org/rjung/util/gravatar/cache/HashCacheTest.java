@@ -0,0 +1,118 @@
+package org.rjung.util.gravatar.cache;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.After;
+import org.junit.Test;
+import org.rjung.util.Gravatar;
+import org.rjung.util.GravatarException;
+import org.rjung.util.gravatar.hash.HashAlgorithm;
+
+public class HashCacheTest {
+
+    private static final String EXAMPLE_EMAIL = "example@example.com";
+    private static final String EXAMPLE_HASH = "23463b99b62a72f26ed677cc556c44e8";
+
+    @After
+    public void resetGravatar() {
+        Gravatar.setHashCache(null);
+    }
+
+    @Test
+    public void verifyCachedHashIsReturned() {
+        final HashCache cache = new HashCache(10);
+        assertThat(cache.get("a"), nullValue());
+        cache.put("a", "1");
+        assertThat(cache.get("a"), equalTo("1"));
+        assertThat(cache.getHitCount(), equalTo(1L));
+        assertThat(cache.getMissCount(), equalTo(1L));
+    }
+
+    @Test
+    public void verifySizeIsBounded() {
+        final HashCache cache = new HashCache(100, EvictionPolicy.lru(), 8);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("user" + i, Integer.toString(i));
+        }
+        assertThat(cache.size(), equalTo(100));
+        assertThat(cache.getEvictionCount(), equalTo(900L));
+    }
+
+    @Test
+    public void verifyLruRemovesLeastRecentlyUsed() {
+        final HashCache cache = new HashCache(2, EvictionPolicy.lru(), 1);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+        assertThat(cache.get("a"), equalTo("1"));
+        assertThat(cache.get("b"), nullValue());
+        assertThat(cache.get("c"), equalTo("3"));
+    }
+
+    @Test
+    public void verifyLfuRemovesLeastFrequentlyUsed() {
+        final HashCache cache = new HashCache(3, EvictionPolicy.lfu(), 1);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+        cache.get("a");
+        cache.get("a");
+        cache.get("b");
+        cache.get("c");
+        cache.get("c");
+        cache.put("d", "4");
+        assertThat(cache.get("b"), nullValue());
+        cache.put("e", "5");
+        assertThat(cache.get("d"), nullValue());
+        assertThat(cache.get("a"), equalTo("1"));
+        assertThat(cache.get("c"), equalTo("3"));
+        assertThat(cache.get("e"), equalTo("5"));
+    }
+
+    @Test
+    public void verifyClearRemovesEverything() {
+        final HashCache cache = new HashCache(10, EvictionPolicy.lfu(), 2);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.clear();
+        assertThat(cache.size(), equalTo(0));
+        cache.put("c", "3");
+        assertThat(cache.get("c"), equalTo("3"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void verifyEmptyCapacityRaises() {
+        new HashCache(0);
+    }
+
+    @Test
+    public void verifyGravatarUsesCache() throws GravatarException {
+        final HashCache cache = new HashCache(10);
+        Gravatar.setHashCache(cache);
+        assertThat(Gravatar.forEmail(" Example@Example.com ").toUrl(),
+                equalTo("://s.gravatar.com/avatar/" + EXAMPLE_HASH));
+        assertThat(cache.get(EXAMPLE_EMAIL), equalTo(EXAMPLE_HASH));
+        assertThat(Gravatar.forEmail(EXAMPLE_EMAIL).toUrl(),
+                equalTo("://s.gravatar.com/avatar/" + EXAMPLE_HASH));
+        assertThat(cache.getHitCount(), equalTo(2L));
+        assertThat(cache.getMissCount(), equalTo(1L));
+    }
+
+    @Test
+    public void verifyAlgorithmsDoNotShareEntries() throws GravatarException {
+        final HashCache cache = new HashCache(10);
+        Gravatar.setHashCache(cache);
+        final String md5 = Gravatar.forEmail(EXAMPLE_EMAIL).toUrl();
+        final String sha256 = Gravatar.forEmail(EXAMPLE_EMAIL)
+                .with(HashAlgorithm.SHA256).toUrl();
+        assertThat(cache.size(), equalTo(2));
+        assertThat(sha256.length(), equalTo(md5.length() + 32));
+        assertThat(Gravatar.forEmail(EXAMPLE_EMAIL).toUrl(), equalTo(md5));
+        assertThat(Gravatar.forEmail(EXAMPLE_EMAIL).with(HashAlgorithm.SHA256)
+                .toUrl(), equalTo(sha256));
+        assertThat(cache.getHitCount(), equalTo(2L));
+    }
+}
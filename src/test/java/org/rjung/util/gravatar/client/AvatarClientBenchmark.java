@@ -0,0 +1,92 @@
+package org.rjung.util.gravatar.client;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures throughput and latency of the {@link AvatarClient} against a local
+ * {@link StubAvatarServer}: a full download, a revalidation answered with
+ * <code>304 Not Modified</code> and a burst of requests limited by
+ * <code>concurrency</code>.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AvatarClientBenchmark {
+
+    private static final int BURST = 64;
+
+    @State(Scope.Benchmark)
+    public static class Server {
+        @Param({ "4", "32" })
+        int concurrency;
+        StubAvatarServer server;
+        AvatarClient download;
+        AvatarClient revalidate;
+        URI uri;
+        URI[] burst;
+
+        @Setup
+        public void setup() throws IOException, InterruptedException,
+                ExecutionException {
+            server = new StubAvatarServer(4096);
+            download = AvatarClient.builder().baseUri(server.baseUri())
+                    .maxConcurrency(concurrency).build();
+            revalidate = AvatarClient.builder().baseUri(server.baseUri())
+                    .maxConcurrency(concurrency)
+                    .cache(new MemoryAvatarCache(1 << 20)).build();
+            uri = server.baseUri().resolve("23463b99b62a72f26ed677cc556c44e8");
+            revalidate.fetch(uri).get();
+            burst = new URI[BURST];
+            for (int i = 0; i < BURST; i++) {
+                burst[i] = server.baseUri().resolve("a" + i);
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            server.close();
+        }
+    }
+
+    @Benchmark
+    public Avatar download(final Server pServer)
+            throws InterruptedException, ExecutionException {
+        return pServer.download.fetch(pServer.uri).get();
+    }
+
+    @Benchmark
+    public Avatar revalidate(final Server pServer)
+            throws InterruptedException, ExecutionException {
+        return pServer.revalidate.fetch(pServer.uri).get();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public Object burst(final Server pServer) {
+        final CompletableFuture<?>[] results = new CompletableFuture<?>[BURST];
+        for (int i = 0; i < BURST; i++) {
+            results[i] = pServer.download.fetch(pServer.burst[i]);
+        }
+        return CompletableFuture.allOf(results).join();
+    }
+}
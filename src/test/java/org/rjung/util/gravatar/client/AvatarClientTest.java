@@ -0,0 +1,168 @@
+package org.rjung.util.gravatar.client;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rjung.util.Gravatar;
+import org.rjung.util.GravatarException;
+import org.rjung.util.GravatarSpec;
+import org.rjung.util.gravatar.Hosts;
+import org.rjung.util.gravatar.Protocol;
+
+public class AvatarClientTest {
+
+    private static final String EXAMPLE_EMAIL = "example@example.com";
+    private static final String EXAMPLE_HASH = "23463b99b62a72f26ed677cc556c44e8";
+
+    private StubAvatarServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new StubAvatarServer(1024);
+    }
+
+    @After
+    public void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void verifyGravatarIsFetched() throws GravatarException,
+            InterruptedException, ExecutionException {
+        final Avatar avatar = client(4, AvatarCache.NONE)
+                .fetch(Gravatar.forEmail(EXAMPLE_EMAIL).size(80)).get();
+        assertThat(avatar.getStatus(), equalTo(200));
+        assertThat(avatar.getBody(), equalTo(server.image()));
+        assertThat(avatar.getContentType(), equalTo("image/png"));
+        assertThat(avatar.getEtag(), equalTo(StubAvatarServer.ETAG));
+        assertThat(avatar.getUri(),
+                equalTo(server.baseUri().resolve(EXAMPLE_HASH + "?s=80")));
+    }
+
+    @Test
+    public void verifyGravatarUrlsAreResolvedAgainstBaseUri() {
+        final AvatarClient client = AvatarClient.builder().build();
+        assertThat(client.resolve("://s.gravatar.com/avatar/abc?s=1"),
+                equalTo(URI.create("https://s.gravatar.com/avatar/abc?s=1")));
+        assertThat(client.resolve("http://s.gravatar.com/avatar/abc"),
+                equalTo(URI.create("https://s.gravatar.com/avatar/abc")));
+        assertThat(client.resolve("http://example.com/s.gravatar.com/avatar/"),
+                equalTo(URI.create("http://example.com/s.gravatar.com/avatar/")));
+        assertThat(client.resolve("://1.gravatar.com/avatar/abc?s=1"),
+                equalTo(URI.create("https://s.gravatar.com/avatar/abc?s=1")));
+        assertThat(client.resolve("https://Secure.Gravatar.com/avatar/abc"),
+                equalTo(URI.create("https://s.gravatar.com/avatar/abc")));
+        assertThat(client.resolve("://cdn.example.com/avatar/abc"),
+                equalTo(URI.create("https://s.gravatar.com/avatar/abc")));
+        assertThat(client.resolve("https://notgravatar.com/avatar/abc"),
+                equalTo(URI.create("https://notgravatar.com/avatar/abc")));
+    }
+
+    @Test
+    public void verifyShardedGravatarIsFetchedFromBaseUri()
+            throws GravatarException, InterruptedException,
+            ExecutionException {
+        server.cacheControl("max-age=300");
+        final AvatarClient client = client(4, new MemoryAvatarCache(4096));
+        final Hosts hosts = Hosts.numbered(3);
+        assertThat(client.fetch(Gravatar.forEmail(EXAMPLE_EMAIL).with(hosts))
+                .get().getBody(), equalTo(server.image()));
+        assertThat(client.fetch(Gravatar.forEmail(EXAMPLE_EMAIL).with(hosts)
+                .with(Protocol.HTTPS)).get().getBody(),
+                equalTo(server.image()));
+        assertThat(client.fetch(GravatarSpec.DEFAULT.with(hosts)
+                .toUrl(EXAMPLE_EMAIL)).get().getBody(),
+                equalTo(server.image()));
+        assertThat(client.fetch(Gravatar.forEmail(EXAMPLE_EMAIL)).get()
+                .getBody(), equalTo(server.image()));
+        // one image, one cache entry
+        assertThat(server.requests(), equalTo(1));
+    }
+
+    @Test
+    public void verifyEtagIsRevalidated() throws GravatarException,
+            InterruptedException, ExecutionException {
+        final AvatarClient client = client(4, new MemoryAvatarCache(4096));
+        final Gravatar gravatar = Gravatar.forEmail(EXAMPLE_EMAIL)
+                .with(Protocol.HTTPS);
+        final Avatar first = client.fetch(gravatar).get();
+        final Avatar second = client.fetch(gravatar).get();
+        assertThat(first.isRevalidated(), equalTo(false));
+        assertThat(second.isRevalidated(), equalTo(true));
+        assertThat(second.getBody(), sameInstance(first.getBody()));
+        assertThat(server.requests(), equalTo(2));
+        assertThat(server.notModified(), equalTo(1));
+    }
+
+    @Test
+    public void verifyLastModifiedIsRevalidated() throws InterruptedException,
+            ExecutionException {
+        server.etag(false);
+        final AvatarClient client = client(4, new MemoryAvatarCache(4096));
+        final String url = "://s.gravatar.com/avatar/" + EXAMPLE_HASH;
+        assertThat(client.fetch(url).get().getLastModified(),
+                equalTo(StubAvatarServer.LAST_MODIFIED));
+        assertThat(client.fetch(url).get().isRevalidated(), equalTo(true));
+        assertThat(server.notModified(), equalTo(1));
+    }
+
+    @Test
+    public void verifyConcurrencyIsLimited() throws InterruptedException,
+            ExecutionException {
+        server.delay(20);
+        final AvatarClient client = client(2, AvatarCache.NONE);
+        final List<CompletableFuture<Avatar>> results = new ArrayList<CompletableFuture<Avatar>>();
+        for (int i = 0; i < 12; i++) {
+            results.add(client.fetch("://s.gravatar.com/avatar/a" + i));
+        }
+        for (final CompletableFuture<Avatar> result : results) {
+            assertThat(result.get().getBody().length, equalTo(1024));
+        }
+        assertThat(server.requests(), equalTo(12));
+        assertThat(server.maxRunning() <= 2, equalTo(true));
+        assertThat(client.running(), equalTo(0));
+        assertThat(client.waiting(), equalTo(0));
+    }
+
+    @Test
+    public void verifyMissingGravatarIsNotFound() throws InterruptedException,
+            ExecutionException {
+        final Avatar avatar = client(1, AvatarCache.NONE)
+                .fetch("://s.gravatar.com/avatar/00?d=404").get();
+        assertThat(avatar.getStatus(), equalTo(404));
+        assertThat(avatar.isFound(), equalTo(false));
+        assertThat(avatar.getBody().length, equalTo(0));
+    }
+
+    @Test
+    public void verifyServerErrorFails() throws InterruptedException {
+        server.status(500);
+        final AvatarClient client = client(1, AvatarCache.NONE);
+        try {
+            client.fetch("://s.gravatar.com/avatar/" + EXAMPLE_HASH).get();
+            fail("server error");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(IOException.class));
+        }
+        assertThat(client.running(), equalTo(0));
+    }
+
+    private AvatarClient client(final int pConcurrency,
+            final AvatarCache pCache) {
+        return AvatarClient.builder().baseUri(server.baseUri())
+                .maxConcurrency(pConcurrency).cache(pCache).build();
+    }
+}
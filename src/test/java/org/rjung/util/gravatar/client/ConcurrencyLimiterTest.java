@@ -0,0 +1,62 @@
+package org.rjung.util.gravatar.client;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+public class ConcurrencyLimiterTest {
+
+    @Test
+    public void verifyTasksAboveLimitWaitInOrder() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(2);
+        final List<CompletableFuture<Integer>> tasks = new ArrayList<CompletableFuture<Integer>>();
+        final List<Integer> started = new ArrayList<Integer>();
+        final List<CompletableFuture<Integer>> results = new ArrayList<CompletableFuture<Integer>>();
+        for (int i = 0; i < 5; i++) {
+            final int index = i;
+            tasks.add(new CompletableFuture<Integer>());
+            results.add(limiter.submit(() -> {
+                started.add(index);
+                return tasks.get(index);
+            }));
+        }
+        assertThat(started.size(), equalTo(2));
+        assertThat(limiter.running(), equalTo(2));
+        assertThat(limiter.waiting(), equalTo(3));
+        tasks.get(1).complete(1);
+        assertThat(results.get(1).join(), equalTo(1));
+        assertThat(started.get(2), equalTo(2));
+        for (int i = 0; i < 5; i++) {
+            tasks.get(i).complete(i);
+        }
+        assertThat(started.size(), equalTo(5));
+        assertThat(limiter.running(), equalTo(0));
+        assertThat(limiter.waiting(), equalTo(0));
+    }
+
+    @Test
+    public void verifyLongQueueOfFailingTasksDoesNotGrowStack() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+        final CompletableFuture<Object> first = new CompletableFuture<Object>();
+        limiter.submit(() -> first);
+        final List<CompletableFuture<Object>> results = new ArrayList<CompletableFuture<Object>>();
+        for (int i = 0; i < 100000; i++) {
+            results.add(limiter.submit(() -> {
+                // like HttpRequest.newBuilder on a URI that is not http
+                throw new IllegalArgumentException("invalid URI scheme");
+            }));
+        }
+        assertThat(limiter.waiting(), equalTo(100000));
+        first.complete(null);
+        for (final CompletableFuture<Object> result : results) {
+            assertThat(result.isCompletedExceptionally(), equalTo(true));
+        }
+        assertThat(limiter.running(), equalTo(0));
+        assertThat(limiter.waiting(), equalTo(0));
+    }
+}
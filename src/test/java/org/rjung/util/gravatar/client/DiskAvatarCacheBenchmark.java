@@ -0,0 +1,116 @@
+package org.rjung.util.gravatar.client;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares hits of the {@link DiskAvatarCache}, read into an {@link Avatar} or
+ * transferred to a channel, with hits of the {@link MemoryAvatarCache}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiskAvatarCacheBenchmark {
+
+    private static final int ENTRIES = 1000;
+
+    @State(Scope.Benchmark)
+    public static class Caches {
+        Path directory;
+        DiskAvatarCache disk;
+        MemoryAvatarCache memory;
+        final WritableByteChannel sink = new WritableByteChannel() {
+            @Override
+            public int write(final ByteBuffer pSource) {
+                final int result = pSource.remaining();
+                pSource.position(pSource.limit());
+                return result;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+                // nothing to close
+            }
+        };
+
+        @Setup
+        public void setup() throws IOException {
+            directory = Files.createTempDirectory("avatars");
+            disk = DiskAvatarCache.open(directory, 64 << 20);
+            memory = new MemoryAvatarCache(64 << 20);
+            for (int i = 0; i < ENTRIES; i++) {
+                final Avatar avatar = new Avatar(URI.create("https://x/" + i),
+                        200, new byte[4096], "image/png", "\"" + i + "\"",
+                        null);
+                disk.put(keyOf(i), avatar);
+                memory.put(keyOf(i), avatar);
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            disk.close();
+            try (Stream<Path> files = Files.list(directory)) {
+                for (final Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        String key() {
+            next = (next + 1) % ENTRIES;
+            return keyOf(next);
+        }
+    }
+
+    @Benchmark
+    public Avatar diskGet(final Caches pCaches, final Cursor pCursor) {
+        return pCaches.disk.get(pCursor.key());
+    }
+
+    @Benchmark
+    public long diskTransferTo(final Caches pCaches, final Cursor pCursor)
+            throws IOException {
+        return pCaches.disk.transferTo(pCursor.key(), pCaches.sink);
+    }
+
+    @Benchmark
+    public Avatar memoryGet(final Caches pCaches, final Cursor pCursor) {
+        return pCaches.memory.get(pCursor.key());
+    }
+
+    private static String keyOf(final int pIndex) {
+        return Integer.toHexString(pIndex * 0x9E3779B1) + "?s=80";
+    }
+}
@@ -0,0 +1,282 @@
+package org.rjung.util.gravatar.client;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rjung.util.Gravatar;
+import org.rjung.util.GravatarException;
+
+public class DiskAvatarCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void verifyEntriesSurviveReopen() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        try (DiskAvatarCache cache = DiskAvatarCache.open(directory, 1 << 20)) {
+            cache.put("a?s=80", avatar(1, 100, "\"a\""));
+            cache.put("b", avatar(2, 200, null));
+            cache.put("a?s=80", avatar(3, 300, "\"a2\""));
+        }
+        try (DiskAvatarCache cache = DiskAvatarCache.open(directory, 1 << 20)) {
+            assertThat(cache.size(), equalTo(2));
+            final Avatar a = cache.get("a?s=80");
+            assertThat(a.getBody(), equalTo(avatar(3, 300, null).getBody()));
+            assertThat(a.getEtag(), equalTo("\"a2\""));
+            assertThat(a.getContentType(), equalTo("image/png"));
+            assertThat(a.getUri(), equalTo(URI.create("https://x/3")));
+            assertThat(a.getExpires(), equalTo(12345L));
+            assertThat(cache.get("b").getEtag(), nullValue());
+            assertThat(cache.get("c"), nullValue());
+        }
+    }
+
+    @Test
+    public void verifyTransferToCopiesImage() throws IOException {
+        try (DiskAvatarCache cache = DiskAvatarCache
+                .open(folder.getRoot().toPath(), 1 << 20)) {
+            cache.put("a", avatar(1, 5000, "\"a\""));
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            assertThat(cache.transferTo("a", Channels.newChannel(output)),
+                    equalTo(5000L));
+            assertThat(output.toByteArray(),
+                    equalTo(avatar(1, 5000, null).getBody()));
+            assertThat(cache.transferTo("b", Channels.newChannel(output)),
+                    equalTo(-1L));
+        }
+    }
+
+    @Test
+    public void verifyTransferToOutlivesRemove() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        try (DiskAvatarCache cache = DiskAvatarCache.open(directory,
+                32 << 10)) {
+            // the large image fills the first segment on its own
+            cache.put("a", avatar(1, 20000, null));
+            cache.put("b", avatar(2, 100, null));
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final WritableByteChannel target = Channels.newChannel(output);
+            final WritableByteChannel removing = new WritableByteChannel() {
+                @Override
+                public int write(final ByteBuffer pSource) throws IOException {
+                    // deletes the first segment in the middle of the transfer
+                    cache.remove("a");
+                    return target.write(pSource);
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return true;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+            assertThat(cache.transferTo("a", removing), equalTo(20000L));
+            assertThat(output.toByteArray(),
+                    equalTo(avatar(1, 20000, null).getBody()));
+            assertThat(cache.get("a"), nullValue());
+            assertThat(segments(directory).size(), equalTo(1));
+        }
+    }
+
+    @Test
+    public void verifySizeIsBoundedByLeastRecentlyUsed() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        try (DiskAvatarCache cache = DiskAvatarCache.open(directory,
+                64 << 10)) {
+            for (int i = 0; i < 200; i++) {
+                cache.put("k" + i, avatar(i, 1000, "\"" + i + "\""));
+                // keep the first entry in use
+                assertThat(cache.get("k0").getBody().length, equalTo(1000));
+            }
+            assertThat(cache.bytes() <= 64 << 10, equalTo(true));
+            assertThat(cache.diskBytes() <= 3 * (64 << 10), equalTo(true));
+            assertThat(cache.get("k1"), nullValue());
+            assertThat(cache.get("k199").getEtag(), equalTo("\"199\""));
+            assertThat(cache.size() > 40, equalTo(true));
+        }
+        try (DiskAvatarCache cache = DiskAvatarCache.open(directory,
+                64 << 10)) {
+            assertThat(cache.get("k0").getEtag(), equalTo("\"0\""));
+            assertThat(cache.get("k199").getEtag(), equalTo("\"199\""));
+            assertThat(cache.bytes() <= 64 << 10, equalTo(true));
+        }
+    }
+
+    @Test
+    public void verifyTtlRemovesOldEntries() throws IOException,
+            InterruptedException {
+        final Path directory = folder.getRoot().toPath();
+        try (DiskAvatarCache cache = DiskAvatarCache.open(directory, 1 << 20,
+                Duration.ofMillis(100))) {
+            cache.put("a", avatar(1, 10, null));
+            assertThat(cache.get("a").getBody().length, equalTo(10));
+            Thread.sleep(150);
+            assertThat(cache.get("a"), nullValue());
+            cache.put("b", avatar(1, 10, null));
+        }
+        Thread.sleep(150);
+        try (DiskAvatarCache cache = DiskAvatarCache.open(directory, 1 << 20,
+                Duration.ofMillis(100))) {
+            assertThat(cache.size(), equalTo(0));
+        }
+    }
+
+    @Test
+    public void verifyRemoveSurvivesReopen() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        try (DiskAvatarCache cache = DiskAvatarCache.open(directory, 1 << 20)) {
+            cache.put("a", avatar(1, 10, null));
+            cache.put("b", avatar(2, 10, null));
+            cache.remove("a");
+            assertThat(cache.get("a"), nullValue());
+        }
+        try (DiskAvatarCache cache = DiskAvatarCache.open(directory, 1 << 20)) {
+            assertThat(cache.get("a"), nullValue());
+            assertThat(cache.get("b").getBody().length, equalTo(10));
+        }
+    }
+
+    @Test
+    public void verifyTornWriteIsDropped() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        try (DiskAvatarCache cache = DiskAvatarCache.open(directory, 1 << 20)) {
+            cache.put("a", avatar(1, 100, null));
+            cache.put("b", avatar(2, 100, null));
+            cache.put("c", avatar(3, 100, null));
+        }
+        final Path segment = segments(directory).get(0);
+        try (FileChannel channel = FileChannel.open(segment,
+                StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 10);
+        }
+        try (DiskAvatarCache cache = DiskAvatarCache.open(directory, 1 << 20)) {
+            assertThat(cache.size(), equalTo(2));
+            assertThat(cache.get("c"), nullValue());
+            cache.put("d", avatar(4, 100, null));
+        }
+        try (DiskAvatarCache cache = DiskAvatarCache.open(directory, 1 << 20)) {
+            assertThat(cache.get("b").getBody(),
+                    equalTo(avatar(2, 100, null).getBody()));
+            assertThat(cache.get("d").getBody(),
+                    equalTo(avatar(4, 100, null).getBody()));
+        }
+    }
+
+    @Test
+    public void verifyCorruptRecordIsNotReturned() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        try (DiskAvatarCache cache = DiskAvatarCache.open(directory, 1 << 20)) {
+            cache.put("a", avatar(1, 100, null));
+            cache.put("b", avatar(2, 100, null));
+        }
+        final Path segment = segments(directory).get(0);
+        try (FileChannel channel = FileChannel.open(segment,
+                StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 42 }),
+                    channel.size() - 5);
+        }
+        try (DiskAvatarCache cache = DiskAvatarCache.open(directory, 1 << 20)) {
+            assertThat(cache.get("a").getBody(),
+                    equalTo(avatar(1, 100, null).getBody()));
+            assertThat(cache.get("b"), nullValue());
+        }
+    }
+
+    @Test
+    public void verifyClientUsesFreshEntriesWithoutRequest()
+            throws IOException, GravatarException, InterruptedException,
+            ExecutionException {
+        try (StubAvatarServer server = new StubAvatarServer(512);
+                DiskAvatarCache cache = DiskAvatarCache
+                        .open(folder.getRoot().toPath(), 1 << 20)) {
+            server.cacheControl("max-age=300");
+            final AvatarClient client = AvatarClient.builder()
+                    .baseUri(server.baseUri()).cache(cache).build();
+            final Gravatar gravatar = Gravatar.forEmail("a@example.com")
+                    .size(80);
+            assertThat(client.fetch(gravatar).get().getBody(),
+                    equalTo(server.image()));
+            assertThat(client.fetch(gravatar).get().getBody(),
+                    equalTo(server.image()));
+            assertThat(server.requests(), equalTo(1));
+            assertThat(cache.size(), equalTo(1));
+            server.cacheControl("no-store");
+            client.fetch(Gravatar.forEmail("b@example.com")).get();
+            assertThat(cache.size(), equalTo(1));
+        }
+    }
+
+    @Test
+    public void verifyFailingDiskIsACacheMiss() throws IOException,
+            GravatarException, InterruptedException, ExecutionException {
+        final Path directory = folder.getRoot().toPath();
+        try (StubAvatarServer server = new StubAvatarServer(3000);
+                DiskAvatarCache cache = DiskAvatarCache.open(directory,
+                        32 << 10)) {
+            cache.put("a", avatar(1, 3000, null));
+            // the next segment can not be created, as if the disk was full
+            Files.createDirectory(
+                    directory.resolve(String.format("%016d.seg", 2)));
+            server.cacheControl("max-age=300");
+            final AvatarClient client = AvatarClient.builder()
+                    .baseUri(server.baseUri()).cache(cache).build();
+            final Gravatar gravatar = Gravatar.forEmail("b@example.com");
+            assertThat(client.fetch(gravatar).get().getBody(),
+                    equalTo(server.image()));
+            assertThat(client.fetch(gravatar).get().getBody(),
+                    equalTo(server.image()));
+            assertThat(server.requests(), equalTo(2));
+            assertThat(cache.size(), equalTo(1));
+            assertThat(cache.get("a").getBody(),
+                    equalTo(avatar(1, 3000, null).getBody()));
+        }
+    }
+
+    private static Avatar avatar(final int pSeed, final int pSize,
+            final String pEtag) {
+        final byte[] body = new byte[pSize];
+        for (int i = 0; i < pSize; i++) {
+            body[i] = (byte) (i * 31 + pSeed);
+        }
+        return new Avatar(URI.create("https://x/" + pSeed), 200, body,
+                "image/png", pEtag, null, 12345L);
+    }
+
+    private static List<Path> segments(final Path pDirectory)
+            throws IOException {
+        final List<Path> result = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files
+                .newDirectoryStream(pDirectory, "*.seg")) {
+            for (final Path file : stream) {
+                result.add(file);
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+}
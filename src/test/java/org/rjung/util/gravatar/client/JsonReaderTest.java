@@ -0,0 +1,87 @@
+package org.rjung.util.gravatar.client;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class JsonReaderTest {
+
+    @Test
+    public void verifyValuesAreRead() throws IOException {
+        final JsonReader reader = new JsonReader(new StringReader(
+                " {\"a\": \"x\\\"y\\u00e9\\n\", \"b\" : -1.5e3, \"c\":true,"
+                        + "\"d\":null, \"e\":[1, \"2\"]}"));
+        reader.beginObject();
+        assertThat(reader.nextName(), equalTo("a"));
+        assertThat(reader.nextString(), equalTo("x\"yé\n"));
+        assertThat(reader.nextName(), equalTo("b"));
+        assertThat(reader.peek(), equalTo(JsonReader.Token.NUMBER));
+        assertThat(reader.nextString(), equalTo("-1.5e3"));
+        assertThat(reader.nextName(), equalTo("c"));
+        assertThat(reader.nextString(), equalTo("true"));
+        assertThat(reader.nextName(), equalTo("d"));
+        assertThat(reader.nextString(), nullValue());
+        assertThat(reader.nextName(), equalTo("e"));
+        reader.beginArray();
+        assertThat(reader.nextString(), equalTo("1"));
+        assertThat(reader.nextString(), equalTo("2"));
+        assertThat(reader.hasNext(), equalTo(false));
+        reader.endArray();
+        reader.endObject();
+        assertThat(reader.peek(), equalTo(JsonReader.Token.END_DOCUMENT));
+    }
+
+    @Test
+    public void verifyNestedValuesAreSkipped() throws IOException {
+        final JsonReader reader = new JsonReader(new StringReader(
+                "{\"skip\":{\"a\":[{},[],{\"b\":[1,2,{\"c\":\"}\"}]}]},"
+                        + "\"keep\":\"k\"}"));
+        reader.beginObject();
+        assertThat(reader.nextName(), equalTo("skip"));
+        reader.skipValue();
+        assertThat(reader.nextName(), equalTo("keep"));
+        assertThat(reader.nextString(), equalTo("k"));
+        reader.endObject();
+    }
+
+    @Test
+    public void verifyLongDocumentsAreReadInPieces() throws IOException {
+        final StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 1000; i++) {
+            json.append(i == 0 ? "" : ",").append("\"value-").append(i)
+                    .append('"');
+        }
+        final JsonReader reader = new JsonReader(
+                new StringReader(json.append(']').toString()));
+        reader.beginArray();
+        int count = 0;
+        while (reader.hasNext()) {
+            assertThat(reader.nextString(), equalTo("value-" + count++));
+        }
+        reader.endArray();
+        assertThat(count, equalTo(1000));
+    }
+
+    @Test(expected = IOException.class)
+    public void verifyMissingCommaFails() throws IOException {
+        final JsonReader reader = new JsonReader(
+                new StringReader("[\"a\" \"b\"]"));
+        reader.beginArray();
+        reader.nextString();
+        reader.nextString();
+    }
+
+    @Test(expected = IOException.class)
+    public void verifyTruncatedDocumentFails() throws IOException {
+        final JsonReader reader = new JsonReader(
+                new StringReader("{\"a\":{\"b\":"));
+        reader.beginObject();
+        reader.nextName();
+        reader.skipValue();
+    }
+}
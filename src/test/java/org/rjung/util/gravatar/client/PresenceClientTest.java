@@ -0,0 +1,172 @@
+package org.rjung.util.gravatar.client;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rjung.util.GravatarException;
+import org.rjung.util.gravatar.hash.Hex;
+
+public class PresenceClientTest {
+
+    private StubAvatarServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new StubAvatarServer(0);
+    }
+
+    @After
+    public void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void verifyProbeSendsHeadWithD404() throws InterruptedException,
+            ExecutionException {
+        final PresenceClient client = client().build();
+        final String email = email(false);
+        assertThat(client.presence(email), equalTo(Presence.UNKNOWN));
+        assertThat(client.probe(" " + email.toUpperCase()).get(),
+                equalTo(true));
+        assertThat(server.lastMethod(), equalTo("HEAD"));
+        assertThat(server.lastQuery(), equalTo("d=404&s=1"));
+        assertThat(client.hasAvatar(email), equalTo(true));
+        assertThat(client.presence(email), equalTo(Presence.PRESENT));
+    }
+
+    @Test
+    public void verifyMissingAvatarIsRecorded() throws InterruptedException,
+            ExecutionException {
+        final PresenceClient client = client().build();
+        final String email = email(true);
+        assertThat(client.probe(email).get(), equalTo(false));
+        assertThat(client.hasAvatar(email), equalTo(false));
+        assertThat(client.presence(email), equalTo(Presence.ABSENT));
+        assertThat(client.probe(email).get(), equalTo(false));
+        assertThat(server.requests(), equalTo(1));
+    }
+
+    @Test
+    public void verifyBatchProbeIsConcurrentAndBounded()
+            throws GravatarException, InterruptedException,
+            ExecutionException {
+        server.delay(50);
+        final List<String> emails = new ArrayList<String>();
+        for (int i = 0; i < 39; i++) {
+            emails.add("user" + i + "@example.com");
+        }
+        emails.add(email(true));
+        // a duplicate is probed once
+        emails.add("user0@example.com");
+        final PresenceClient client = client().maxConcurrency(8).build();
+        final long start = System.nanoTime();
+        final Map<String, Boolean> result = client.probeAll(emails).get();
+        final long millis = (System.nanoTime() - start) / 1000000;
+        assertThat(new ArrayList<String>(result.keySet()),
+                equalTo(emails.subList(0, 40)));
+        for (final String email : emails.subList(0, 40)) {
+            assertThat(result.get(email), equalTo(!missing(email)));
+            assertThat(client.hasAvatar(email), equalTo(!missing(email)));
+        }
+        assertThat(server.requests(), equalTo(40));
+        assertThat(server.maxRunning() <= 8, equalTo(true));
+        assertThat(server.maxRunning() > 1, equalTo(true));
+        assertThat(millis < 40 * 50, equalTo(true));
+        client.probeAll(emails).get();
+        assertThat(server.requests(), equalTo(40));
+    }
+
+    @Test
+    public void verifyConcurrentProbesShareRequest()
+            throws InterruptedException, ExecutionException {
+        server.delay(100);
+        final PresenceClient client = client().build();
+        final List<CompletableFuture<Boolean>> probes = new ArrayList<CompletableFuture<Boolean>>();
+        for (int i = 0; i < 10; i++) {
+            probes.add(client.probe("a@example.com"));
+        }
+        for (final CompletableFuture<Boolean> probe : probes) {
+            assertThat(probe.get(), equalTo(!missing("a@example.com")));
+        }
+        assertThat(server.requests(), equalTo(1));
+    }
+
+    @Test
+    public void verifyServerErrorFailsAndIsNotRecorded()
+            throws InterruptedException, ExecutionException {
+        server.status(500);
+        final PresenceClient client = client().build();
+        final String email = email(false);
+        try {
+            client.probe(email).get();
+            fail("expected a failure");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(IOException.class));
+        }
+        assertThat(client.presence(email), equalTo(Presence.UNKNOWN));
+        server.status(200);
+        assertThat(client.probe(email).get(), equalTo(true));
+        assertThat(server.requests(), equalTo(2));
+    }
+
+    @Test
+    public void verifySharedIndexIsUsed() throws InterruptedException,
+            ExecutionException {
+        final PresenceIndex index = new PresenceIndex(100,
+                Duration.ofHours(1), Duration.ofHours(1));
+        client().index(index).build().probe(email(false)).get();
+        final PresenceClient other = client().index(index).build();
+        assertThat(other.getIndex(), equalTo(index));
+        assertThat(other.hasAvatar(email(false)), equalTo(true));
+        assertThat(server.requests(), equalTo(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void verifyBaseUriWithoutSlashIsRejected() {
+        PresenceClient.builder().baseUri(URI.create("http://localhost/x"));
+    }
+
+    private static String email(final boolean pMissing) {
+        for (int i = 0;; i++) {
+            final String email = "user" + i + "@example.com";
+            if (missing(email) == pMissing) {
+                return email;
+            }
+        }
+    }
+
+    // the stub has no avatar for hashes starting with 0
+    private static boolean missing(final String pNormalized) {
+        return md5(pNormalized).charAt(0) == '0';
+    }
+
+    private static String md5(final String pNormalized) {
+        try {
+            return Hex.encode(MessageDigest.getInstance("MD5")
+                    .digest(pNormalized.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private PresenceClient.Builder client() {
+        return PresenceClient.builder().baseUri(server.baseUri());
+    }
+}
@@ -0,0 +1,141 @@
+package org.rjung.util.gravatar.client;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PresenceIndexTest {
+
+    private static final long TTL = 4000;
+    private static final long NEGATIVE_TTL = 400;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicLong now = new AtomicLong(1000000);
+    private final Random random = new Random(42);
+
+    @Test
+    public void verifyRecordedHashesAreFound() {
+        final PresenceIndex index = index(1000);
+        final byte[] present = hash();
+        final byte[] absent = hash();
+        index.record(present, 0, true);
+        index.record(absent, 0, false);
+        assertThat(index.lookup(present, 0), equalTo(Presence.PRESENT));
+        assertThat(index.lookup(absent, 0), equalTo(Presence.ABSENT));
+        assertThat(index.lookup(hash(), 0), equalTo(Presence.UNKNOWN));
+    }
+
+    @Test
+    public void verifyHashAtOffsetIsFound() {
+        final PresenceIndex index = index(1000);
+        final byte[] hashes = new byte[48];
+        random.nextBytes(hashes);
+        index.record(hashes, 16, true);
+        assertThat(index.lookup(hashes, 16), equalTo(Presence.PRESENT));
+        assertThat(index.lookup(hashes, 32), equalTo(Presence.UNKNOWN));
+    }
+
+    @Test
+    public void verifyPresentOverridesAbsent() {
+        final PresenceIndex index = index(1000);
+        final byte[] hash = hash();
+        index.record(hash, 0, false);
+        index.record(hash, 0, true);
+        assertThat(index.lookup(hash, 0), equalTo(Presence.PRESENT));
+    }
+
+    @Test
+    public void verifyEntriesExpireWithTheirTtl() {
+        final PresenceIndex index = index(1000);
+        final byte[] present = hash();
+        final byte[] absent = hash();
+        index.record(present, 0, true);
+        index.record(absent, 0, false);
+        now.addAndGet(NEGATIVE_TTL / 2);
+        assertThat(index.lookup(absent, 0), equalTo(Presence.ABSENT));
+        now.addAndGet(NEGATIVE_TTL);
+        assertThat(index.lookup(absent, 0), equalTo(Presence.UNKNOWN));
+        assertThat(index.lookup(present, 0), equalTo(Presence.PRESENT));
+        now.addAndGet(TTL);
+        assertThat(index.lookup(present, 0), equalTo(Presence.UNKNOWN));
+    }
+
+    @Test
+    public void verifyExpiredGenerationIsReused() {
+        final PresenceIndex index = index(1000);
+        final byte[] old = hash();
+        index.record(old, 0, false);
+        now.addAndGet(NEGATIVE_TTL * 2);
+        final byte[] recent = hash();
+        index.record(recent, 0, false);
+        assertThat(index.lookup(recent, 0), equalTo(Presence.ABSENT));
+        assertThat(index.lookup(old, 0), equalTo(Presence.UNKNOWN));
+    }
+
+    @Test
+    public void verifyFalsePositiveRateAtCapacity() {
+        final PresenceIndex index = index(10000);
+        for (int i = 0; i < 10000; i++) {
+            index.record(hash(), 0, true);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (index.lookup(hash(), 0) != Presence.UNKNOWN) {
+                falsePositives++;
+            }
+        }
+        assertThat(falsePositives < 1500, equalTo(true));
+    }
+
+    @Test
+    public void verifySavedIndexIsLoaded() throws IOException {
+        final PresenceIndex index = index(1000);
+        final byte[] present = hash();
+        final byte[] absent = hash();
+        index.record(present, 0, true);
+        index.record(absent, 0, false);
+        final Path file = folder.getRoot().toPath().resolve("presence.idx");
+        index.save(file);
+        index.save(file);
+        final PresenceIndex loaded = PresenceIndex.load(file, now::get);
+        assertThat(loaded.getCapacity(), equalTo(1000));
+        assertThat(loaded.lookup(present, 0), equalTo(Presence.PRESENT));
+        assertThat(loaded.lookup(absent, 0), equalTo(Presence.ABSENT));
+        assertThat(loaded.lookup(hash(), 0), equalTo(Presence.UNKNOWN));
+        now.addAndGet(NEGATIVE_TTL * 2);
+        assertThat(loaded.lookup(absent, 0), equalTo(Presence.UNKNOWN));
+    }
+
+    @Test(expected = IOException.class)
+    public void verifyOtherFileIsRejected() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("other.idx");
+        Files.write(file, "not an index".getBytes("US-ASCII"));
+        PresenceIndex.load(file);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void verifyShortHashIsRejected() {
+        index(1000).record(new byte[16], 1, true);
+    }
+
+    private PresenceIndex index(final int pCapacity) {
+        return new PresenceIndex(pCapacity, TTL, NEGATIVE_TTL, now::get);
+    }
+
+    private byte[] hash() {
+        final byte[] result = new byte[16];
+        random.nextBytes(result);
+        return result;
+    }
+}
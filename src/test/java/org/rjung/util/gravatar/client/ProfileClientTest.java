@@ -0,0 +1,188 @@
+package org.rjung.util.gravatar.client;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rjung.util.GravatarException;
+import org.rjung.util.gravatar.hash.Hex;
+
+public class ProfileClientTest {
+
+    private static final String MISSING = "00000000000000000000000000000000";
+
+    private StubAvatarServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new StubAvatarServer(0);
+        server.json(ProfileClientTest::profile);
+    }
+
+    @After
+    public void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void verifyProfileIsParsed() throws GravatarException,
+            InterruptedException, ExecutionException {
+        try (ProfileClient client = client().build()) {
+            final Profile profile = client.lookup(" A@Example.com ").get();
+            assertThat(profile.getHash(),
+                    equalTo(md5("a@example.com")));
+            assertThat(profile.getDisplayName(), equalTo("User \u00e9"));
+            assertThat(profile.getPreferredUsername(),
+                    equalTo(profile.getHash().substring(0, 8)));
+            assertThat(profile.getProfileUrl(),
+                    equalTo("http://gravatar.com/" + profile.getHash()));
+            assertThat(profile.getAboutMe(), nullValue());
+            assertThat(profile.getUrls().size(), equalTo(2));
+            assertThat(profile.getUrls().get(1).getTitle(), equalTo("Blog"));
+            assertThat(profile.getUrls().get(1).getValue(),
+                    equalTo("https://example.com/blog"));
+        }
+    }
+
+    @Test
+    public void verifyProfilesAreCached() throws GravatarException,
+            InterruptedException, ExecutionException {
+        try (ProfileClient client = client().build()) {
+            client.lookup("a@example.com").get();
+            client.lookup("a@example.com").get();
+            assertThat(server.requests(), equalTo(1));
+        }
+    }
+
+    @Test
+    public void verifyMissingProfilesAreCachedForNegativeTtl()
+            throws GravatarException, InterruptedException,
+            ExecutionException {
+        try (ProfileClient client = client()
+                .negativeTtl(Duration.ofMillis(200)).build()) {
+            assertThat(client.lookupHash(MISSING).get(), nullValue());
+            assertThat(client.lookupHash(MISSING).get(), nullValue());
+            assertThat(server.requests(), equalTo(1));
+            Thread.sleep(250);
+            assertThat(client.lookupHash(MISSING).get(), nullValue());
+            assertThat(server.requests(), equalTo(2));
+        }
+    }
+
+    @Test
+    public void verifyBatchLookupIsConcurrentAndBounded()
+            throws GravatarException, InterruptedException,
+            ExecutionException {
+        server.delay(50);
+        final List<String> emails = new ArrayList<String>();
+        for (int i = 0; i < 40; i++) {
+            emails.add("user" + i + "@example.com");
+        }
+        // a duplicate is looked up once
+        emails.add("user0@example.com");
+        try (ProfileClient client = client().maxConcurrency(8).build()) {
+            final long start = System.nanoTime();
+            final Map<String, Profile> profiles = client.lookupAll(emails)
+                    .get();
+            final long millis = (System.nanoTime() - start) / 1000000;
+            // hashes starting with 0 have no profile
+            int found = 0;
+            for (int i = 0; i < 40; i++) {
+                final String hash = md5("user" + i + "@example.com");
+                if (hash.charAt(0) != '0') {
+                    found++;
+                    assertThat(profiles.get("user" + i + "@example.com")
+                            .getHash(), equalTo(hash));
+                }
+            }
+            assertThat(profiles.size(), equalTo(found));
+            assertThat(server.requests(), equalTo(40));
+            assertThat(server.maxRunning() <= 8, equalTo(true));
+            assertThat(server.maxRunning() > 1, equalTo(true));
+            assertThat(millis < 40 * 50, equalTo(true));
+        }
+    }
+
+    @Test
+    public void verifyConcurrentLookupsShareRequest()
+            throws GravatarException, InterruptedException,
+            ExecutionException {
+        server.delay(100);
+        try (ProfileClient client = client().build()) {
+            final List<CompletableFuture<Profile>> lookups = new ArrayList<CompletableFuture<Profile>>();
+            for (int i = 0; i < 10; i++) {
+                lookups.add(client.lookup("a@example.com"));
+            }
+            for (final CompletableFuture<Profile> lookup : lookups) {
+                assertThat(lookup.get().getDisplayName(),
+                        equalTo("User \u00e9"));
+            }
+            assertThat(server.requests(), equalTo(1));
+        }
+    }
+
+    @Test
+    public void verifyServerErrorFailsAndIsNotCached()
+            throws GravatarException, InterruptedException,
+            ExecutionException {
+        server.status(500);
+        try (ProfileClient client = client().build()) {
+            try {
+                client.lookup("a@example.com").get();
+                fail("expected a failure");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), instanceOf(IOException.class));
+            }
+            server.status(200);
+            assertThat(client.lookup("a@example.com").get().getDisplayName(),
+                    equalTo("User \u00e9"));
+            assertThat(server.requests(), equalTo(2));
+        }
+    }
+
+    private static String md5(final String pNormalized) {
+        try {
+            return Hex.encode(MessageDigest.getInstance("MD5")
+                    .digest(pNormalized.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private ProfileClient.Builder client() {
+        return ProfileClient.builder().baseUri(server.baseUri());
+    }
+
+    private static String profile(final String pHash) {
+        return "{\"entry\":[{\"id\":\"1\",\"hash\":\"" + pHash + "\","
+                + "\"requestHash\":\"" + pHash + "\","
+                + "\"profileUrl\":\"http:\\/\\/gravatar.com\\/" + pHash
+                + "\",\"preferredUsername\":\"" + pHash.substring(0, 8)
+                + "\",\"thumbnailUrl\":\"https:\\/\\/x\\/" + pHash + "\","
+                + "\"photos\":[{\"value\":\"https:\\/\\/x\\/" + pHash
+                + "\",\"type\":\"thumbnail\"}],"
+                + "\"name\":{\"givenName\":\"User\"},"
+                + "\"displayName\":\"User \\u00e9\",\"aboutMe\":null,"
+                + "\"urls\":" + Arrays.asList(
+                        "{\"value\":\"https:\\/\\/example.com\",\"title\":\"Home\"}",
+                        "{\"value\":\"https:\\/\\/example.com\\/blog\",\"title\":\"Blog\"}")
+                + "}]}";
+    }
+}
@@ -0,0 +1,150 @@
+package org.rjung.util.gravatar.client;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rjung.util.Gravatar;
+import org.rjung.util.GravatarException;
+
+public class SingleFlightTest {
+
+    private static final int THREADS = 16;
+    private static final int FETCHES_PER_THREAD = 50;
+    private static final int KEYS = 5;
+
+    private StubAvatarServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new StubAvatarServer(2048);
+    }
+
+    @After
+    public void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void verifyConcurrentFetchesCollapseToOneRequestPerKey()
+            throws InterruptedException, ExecutionException {
+        server.delay(300);
+        final AvatarClient client = AvatarClient.builder()
+                .baseUri(server.baseUri()).maxConcurrency(2).build();
+        final List<CompletableFuture<Avatar>> results = new CopyOnWriteArrayList<CompletableFuture<Avatar>>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int offset = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < FETCHES_PER_THREAD; i++) {
+                        results.add(client.fetch(gravatar((offset + i) % KEYS)));
+                    }
+                } catch (InterruptedException | GravatarException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        for (final CompletableFuture<Avatar> result : results) {
+            assertThat(result.get().getBody(), equalTo(server.image()));
+        }
+        assertThat(results.size(), equalTo(THREADS * FETCHES_PER_THREAD));
+        assertThat(server.requests(), equalTo(KEYS));
+        assertThat(client.coalesced(),
+                equalTo((long) THREADS * FETCHES_PER_THREAD - KEYS));
+        assertThat(client.inFlight(), equalTo(0));
+    }
+
+    @Test
+    public void verifyDifferentQueriesAreNotShared()
+            throws InterruptedException, ExecutionException, GravatarException {
+        server.delay(100);
+        final AvatarClient client = AvatarClient.builder()
+                .baseUri(server.baseUri()).build();
+        final CompletableFuture<Avatar> small = client
+                .fetch(Gravatar.forEmail("a@example.com").size(80));
+        final CompletableFuture<Avatar> large = client
+                .fetch(Gravatar.forEmail("a@example.com").size(160));
+        small.get();
+        large.get();
+        assertThat(server.requests(), equalTo(2));
+        assertThat(client.coalesced(), equalTo(0L));
+    }
+
+    @Test
+    public void verifyFailureIsPropagatedToAllCallers()
+            throws InterruptedException, GravatarException {
+        server.delay(100);
+        server.status(503);
+        final AvatarClient client = AvatarClient.builder()
+                .baseUri(server.baseUri()).build();
+        final CompletableFuture<?>[] results = new CompletableFuture<?>[20];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = client.fetch(gravatar(1));
+        }
+        for (final CompletableFuture<?> result : results) {
+            try {
+                result.get();
+                fail("server error");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), instanceOf(IOException.class));
+            }
+        }
+        assertThat(server.requests(), equalTo(1));
+    }
+
+    @Test
+    public void verifyWaitingIsBounded() throws InterruptedException,
+            ExecutionException {
+        final SingleFlight<String, String> flights = new SingleFlight<String, String>(
+                Duration.ofMillis(50));
+        final CompletableFuture<String> slow = new CompletableFuture<String>();
+        final AtomicInteger started = new AtomicInteger();
+        final CompletableFuture<String> first = flights.run("a", () -> {
+            started.incrementAndGet();
+            return slow;
+        });
+        final CompletableFuture<String> second = flights.run("a", () -> {
+            started.incrementAndGet();
+            return slow;
+        });
+        try {
+            second.get();
+            fail("wait is bounded");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(TimeoutException.class));
+        }
+        assertThat(first.isCompletedExceptionally(), equalTo(true));
+        assertThat(started.get(), equalTo(1));
+        assertThat(flights.inFlight(), equalTo(1));
+        slow.complete("done");
+        assertThat(flights.inFlight(), equalTo(0));
+        assertThat(flights.run("a", () -> CompletableFuture
+                .completedFuture("again")).get(), equalTo("again"));
+    }
+
+    private static Gravatar gravatar(final int pKey) {
+        return Gravatar.forEmail("user" + pKey + "@example.com").size(80);
+    }
+}
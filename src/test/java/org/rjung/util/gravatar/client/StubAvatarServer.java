@@ -0,0 +1,193 @@
+package org.rjung.util.gravatar.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for the Gravatar image server. Every hash is answered with
+ * the same image and <code>ETag</code>, hashes starting with <code>0</code>
+ * are not found. With {@link #json(Function)} it answers the
+ * <code>.json</code>-requests of the profile server instead.
+ */
+final class StubAvatarServer implements AutoCloseable {
+
+    static final String ETAG = "\"v1\"";
+    static final String LAST_MODIFIED = "Wed, 21 Oct 2015 07:28:00 GMT";
+
+    static {
+        // headers and body are written separately, without this every
+        // response with a body waits for a delayed ACK
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final byte[] image;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private volatile boolean etag = true;
+    private volatile int status = 200;
+    private volatile long delayMillis;
+    private volatile String cacheControl;
+    private volatile Function<String, String> json;
+    private volatile String method;
+    private volatile String query;
+
+    StubAvatarServer(final int pImageSize) throws IOException {
+        this.image = new byte[pImageSize];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (byte) i;
+        }
+        this.executor = Executors.newCachedThreadPool();
+        this.server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/avatar/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    URI baseUri() {
+        return URI.create("http://127.0.0.1:"
+                + server.getAddress().getPort() + "/avatar/");
+    }
+
+    byte[] image() {
+        return image;
+    }
+
+    int requests() {
+        return requests.get();
+    }
+
+    int notModified() {
+        return notModified.get();
+    }
+
+    int maxRunning() {
+        return maxRunning.get();
+    }
+
+    String lastMethod() {
+        return method;
+    }
+
+    String lastQuery() {
+        return query;
+    }
+
+    void etag(final boolean pEtag) {
+        this.etag = pEtag;
+    }
+
+    void status(final int pStatus) {
+        this.status = pStatus;
+    }
+
+    void delay(final long pMillis) {
+        this.delayMillis = pMillis;
+    }
+
+    void cacheControl(final String pCacheControl) {
+        this.cacheControl = pCacheControl;
+    }
+
+    /**
+     * Answer <code>&lt;hash&gt;.json</code> with the JSON built for the hash,
+     * like the profile server.
+     */
+    void json(final Function<String, String> pProfile) {
+        this.json = pProfile;
+    }
+
+    private void handle(final HttpExchange pExchange) throws IOException {
+        requests.incrementAndGet();
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+            if (delayMillis > 0) {
+                Thread.sleep(delayMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // the client may start its next request as soon as it has the
+            // response, so this request is no longer counted before that
+            running.decrementAndGet();
+        }
+        try {
+            method = pExchange.getRequestMethod();
+            query = pExchange.getRequestURI().getQuery();
+            respond(pExchange);
+        } finally {
+            pExchange.close();
+        }
+    }
+
+    private void respond(final HttpExchange pExchange) throws IOException {
+        final String hash = pExchange.getRequestURI().getPath()
+                .substring("/avatar/".length());
+        if (hash.startsWith("0") || status != 200) {
+            pExchange.sendResponseHeaders(hash.startsWith("0") ? 404 : status,
+                    -1);
+            return;
+        }
+        final Function<String, String> profile = json;
+        if (profile != null) {
+            final byte[] body = profile
+                    .apply(hash.substring(0, hash.length() - ".json".length()))
+                    .getBytes(StandardCharsets.UTF_8);
+            pExchange.getResponseHeaders().set("Content-Type",
+                    "application/json");
+            pExchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = pExchange.getResponseBody()) {
+                output.write(body);
+            }
+            return;
+        }
+        final String ifNoneMatch = pExchange.getRequestHeaders()
+                .getFirst("If-None-Match");
+        final String ifModifiedSince = pExchange.getRequestHeaders()
+                .getFirst("If-Modified-Since");
+        if (cacheControl != null) {
+            pExchange.getResponseHeaders().set("Cache-Control", cacheControl);
+        }
+        if (etag) {
+            pExchange.getResponseHeaders().set("ETag", ETAG);
+        } else {
+            pExchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+        }
+        if (etag ? ETAG.equals(ifNoneMatch)
+                : LAST_MODIFIED.equals(ifModifiedSince)) {
+            notModified.incrementAndGet();
+            pExchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        pExchange.getResponseHeaders().set("Content-Type", "image/png");
+        if ("HEAD".equals(pExchange.getRequestMethod())) {
+            pExchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        pExchange.sendResponseHeaders(200, image.length);
+        try (OutputStream body = pExchange.getResponseBody()) {
+            body.write(image);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,317 @@
+package org.rjung.util.gravatar.flow;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.rjung.util.Gravatar;
+import org.rjung.util.GravatarException;
+import org.rjung.util.GravatarTemplate;
+import org.rjung.util.gravatar.Hosts;
+import org.rjung.util.gravatar.Protocol;
+import org.rjung.util.gravatar.hash.HashAlgorithm;
+import org.rjung.util.gravatar.hash.Hex;
+
+public class GravatarProcessorTest {
+
+    @Test
+    public void verifyUrlsKeepOrder() throws GravatarException,
+            InterruptedException {
+        final GravatarTemplate template = Gravatar.forEmail(null)
+                .with(Protocol.HTTPS).size(80).compile();
+        final List<String> emails = emails(1000);
+        final GravatarProcessor processor = GravatarProcessor.urls(template)
+                .batchSize(16).parallelism(4).build();
+        final Collector collector = new Collector(Long.MAX_VALUE);
+        processor.subscribe(collector);
+        new ListPublisher(emails).subscribe(processor);
+        collector.await();
+        assertThat(collector.error, nullValue());
+        assertThat(values(collector.results), equalTo(template.urlsFor(emails)));
+        assertThat(collector.results.get(0).getEmail(), equalTo(emails.get(0)));
+    }
+
+    @Test
+    public void verifyUrlsWithHosts() throws GravatarException,
+            InterruptedException {
+        final GravatarTemplate template = Gravatar.forEmail(null)
+                .with(Hosts.of("secure.gravatar.com", "0.gravatar.com"))
+                .compile();
+        final List<String> emails = emails(100);
+        final GravatarProcessor processor = GravatarProcessor.urls(template)
+                .batchSize(16).build();
+        final Collector collector = new Collector(Long.MAX_VALUE);
+        processor.subscribe(collector);
+        new ListPublisher(emails).subscribe(processor);
+        collector.await();
+        assertThat(values(collector.results), equalTo(template.urlsFor(emails)));
+    }
+
+    @Test
+    public void verifyUnorderedDeliversAll() throws GravatarException,
+            InterruptedException {
+        final GravatarTemplate template = Gravatar.forEmail(null).compile();
+        final List<String> emails = emails(1000);
+        final GravatarProcessor processor = GravatarProcessor.urls(template)
+                .batchSize(8).parallelism(8).ordered(false).build();
+        final Collector collector = new Collector(Long.MAX_VALUE);
+        processor.subscribe(collector);
+        new ListPublisher(emails).subscribe(processor);
+        collector.await();
+        assertThat(new HashSet<String>(values(collector.results)),
+                equalTo(new HashSet<String>(template.urlsFor(emails))));
+        assertThat(collector.results.size(), equalTo(1000));
+    }
+
+    @Test
+    public void verifyHashes() throws InterruptedException {
+        final GravatarProcessor processor = GravatarProcessor
+                .hashes(HashAlgorithm.SHA256).build();
+        final Collector collector = new Collector(Long.MAX_VALUE);
+        processor.subscribe(collector);
+        new ListPublisher(Collections.singletonList(" A@Example.com "))
+                .subscribe(processor);
+        collector.await();
+        assertThat(collector.results.get(0).getValue(), equalTo(
+                Hex.encode(HashAlgorithm.SHA256.engine().digest(
+                        "a@example.com".getBytes()))));
+    }
+
+    @Test
+    public void verifyDemandIsHonoured() throws InterruptedException {
+        final ListPublisher publisher = new ListPublisher(emails(10000));
+        final GravatarProcessor processor = GravatarProcessor.hashes(null)
+                .batchSize(10).parallelism(2).executor(Runnable::run).build();
+        final Collector collector = new Collector(5);
+        processor.subscribe(collector);
+        publisher.subscribe(processor);
+        assertThat(collector.results.size(), equalTo(5));
+        // no more than two batches are requested ahead
+        assertThat(publisher.requested.get(), equalTo(20L));
+        collector.subscription.request(100);
+        assertThat(collector.results.size(), equalTo(105));
+        assertThat(publisher.requested.get() <= 105 + 20, equalTo(true));
+        collector.subscription.request(Long.MAX_VALUE);
+        collector.await();
+        assertThat(collector.results.size(), equalTo(10000));
+    }
+
+    @Test
+    public void verifyRejectedBatchesBecomeFailedResults()
+            throws InterruptedException {
+        final GravatarProcessor processor = GravatarProcessor.hashes(null)
+                .executor(pTask -> {
+                    throw new RejectedExecutionException("shut down");
+                }).build();
+        final Collector collector = new Collector(Long.MAX_VALUE);
+        processor.subscribe(collector);
+        new ListPublisher(emails(3)).subscribe(processor);
+        collector.await();
+        assertThat(collector.error, nullValue());
+        assertThat(collector.results.size(), equalTo(3));
+        assertThat(collector.results.get(1).isSuccess(), equalTo(false));
+        assertThat(collector.results.get(1).getError().getCause(),
+                instanceOf(RejectedExecutionException.class));
+    }
+
+    @Test
+    public void verifyUpstreamErrorFollowsResults()
+            throws InterruptedException {
+        final GravatarProcessor processor = GravatarProcessor.hashes(null)
+                .build();
+        final Collector collector = new Collector(Long.MAX_VALUE);
+        processor.subscribe(collector);
+        processor.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(final long pCount) {
+                // items are pushed below
+            }
+
+            @Override
+            public void cancel() {
+                // nothing to stop
+            }
+        });
+        processor.onNext("a@example.com");
+        processor.onError(new IllegalStateException("broken"));
+        collector.await();
+        assertThat(collector.results.size(), equalTo(1));
+        assertThat(collector.error, instanceOf(IllegalStateException.class));
+    }
+
+    @Test
+    public void verifySecondSubscriberIsRejected() throws InterruptedException {
+        final GravatarProcessor processor = GravatarProcessor.hashes(null)
+                .build();
+        processor.subscribe(new Collector(1));
+        final Collector second = new Collector(1);
+        processor.subscribe(second);
+        second.await();
+        assertThat(second.error, instanceOf(IllegalStateException.class));
+    }
+
+    @Test
+    public void verifyInvalidRequestFailsAndCancelsUpstream()
+            throws InterruptedException {
+        final ListPublisher publisher = new ListPublisher(emails(10));
+        final GravatarProcessor processor = GravatarProcessor.hashes(null)
+                .build();
+        final Collector collector = new Collector(0);
+        processor.subscribe(collector);
+        publisher.subscribe(processor);
+        collector.await();
+        assertThat(collector.error, instanceOf(IllegalArgumentException.class));
+        assertThat(publisher.cancelled, equalTo(true));
+    }
+
+    @Test
+    public void verifyConcurrentPublisher() throws InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final GravatarProcessor processor = GravatarProcessor
+                    .hashes(null).batchSize(4).parallelism(3)
+                    .executor(executor).build();
+            final Collector collector = new Collector(Long.MAX_VALUE);
+            processor.subscribe(collector);
+            final ListPublisher publisher = new ListPublisher(emails(5000));
+            publisher.subscribe(processor);
+            collector.await();
+            assertThat(collector.results.size(), equalTo(5000));
+            assertThat(collector.results.get(4999).getEmail(),
+                    equalTo("user4999@example.com"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static List<String> emails(final int pCount) {
+        final List<String> result = new ArrayList<String>(pCount);
+        for (int i = 0; i < pCount; i++) {
+            result.add("user" + i + "@example.com");
+        }
+        return result;
+    }
+
+    private static List<String> values(final List<GravatarResult> pResults) {
+        final List<String> result = new ArrayList<String>();
+        for (final GravatarResult value : pResults) {
+            result.add(value.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Publishes a list synchronously, as far as it is requested.
+     */
+    private static final class ListPublisher
+            implements Flow.Publisher<String> {
+
+        private final List<String> items;
+        private final AtomicLong requested = new AtomicLong();
+        private volatile boolean cancelled;
+        private int position;
+        private long demand;
+        private boolean emitting;
+
+        ListPublisher(final List<String> pItems) {
+            this.items = pItems;
+        }
+
+        @Override
+        public void subscribe(final Flow.Subscriber<? super String> pSubscriber) {
+            pSubscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(final long pCount) {
+                    requested.addAndGet(pCount);
+                    synchronized (ListPublisher.this) {
+                        demand += pCount;
+                        if (emitting) {
+                            return;
+                        }
+                        emitting = true;
+                    }
+                    while (true) {
+                        final String item;
+                        synchronized (ListPublisher.this) {
+                            if (cancelled || demand == 0
+                                    || position == items.size()) {
+                                emitting = false;
+                                break;
+                            }
+                            demand--;
+                            item = items.get(position++);
+                        }
+                        pSubscriber.onNext(item);
+                    }
+                    synchronized (ListPublisher.this) {
+                        if (position != items.size() || cancelled) {
+                            return;
+                        }
+                        position++;
+                    }
+                    pSubscriber.onComplete();
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled = true;
+                }
+            });
+        }
+    }
+
+    private static final class Collector
+            implements Flow.Subscriber<GravatarResult> {
+
+        private final long initial;
+        private final List<GravatarResult> results = new CopyOnWriteArrayList<GravatarResult>();
+        private final CountDownLatch terminated = new CountDownLatch(1);
+        private volatile Flow.Subscription subscription;
+        private volatile Throwable error;
+
+        Collector(final long pInitial) {
+            this.initial = pInitial;
+        }
+
+        @Override
+        public void onSubscribe(final Flow.Subscription pSubscription) {
+            subscription = pSubscription;
+            pSubscription.request(initial);
+        }
+
+        @Override
+        public void onNext(final GravatarResult pItem) {
+            results.add(pItem);
+        }
+
+        @Override
+        public void onError(final Throwable pError) {
+            error = pError;
+            terminated.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            terminated.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertThat(terminated.await(10, TimeUnit.SECONDS), equalTo(true));
+        }
+    }
+}
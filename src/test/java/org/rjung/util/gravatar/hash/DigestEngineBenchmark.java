@@ -0,0 +1,55 @@
+package org.rjung.util.gravatar.hash;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares a {@link MessageDigest} looked up per call, as
+ * {@link org.rjung.util.Gravatar} did before, with the pooled
+ * {@link DigestEngine}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DigestEngineBenchmark {
+
+    @State(Scope.Thread)
+    public static class Input {
+        final byte[] email = "user.number.42@example.com"
+                .getBytes(StandardCharsets.US_ASCII);
+        final byte[] output = new byte[16];
+        DigestEngine engine;
+
+        @Setup
+        public void setup() throws NoSuchAlgorithmException {
+            engine = DigestEngine.forAlgorithm("MD5");
+        }
+    }
+
+    @Benchmark
+    public byte[] messageDigestPerCall(final Input pInput)
+            throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("MD5").digest(pInput.email);
+    }
+
+    @Benchmark
+    public int pooledEngine(final Input pInput) {
+        return pInput.engine.digest(pInput.email, 0, pInput.email.length,
+                pInput.output, 0);
+    }
+}
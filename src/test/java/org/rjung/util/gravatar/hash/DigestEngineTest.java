@@ -0,0 +1,112 @@
+package org.rjung.util.gravatar.hash;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class DigestEngineTest {
+
+    private static final byte[] EXAMPLE = "example@example.com"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    public void verifyDigestMatchesMessageDigest()
+            throws NoSuchAlgorithmException {
+        assertThat(DigestEngine.forAlgorithm("MD5").digest(EXAMPLE),
+                equalTo(MessageDigest.getInstance("MD5").digest(EXAMPLE)));
+    }
+
+    @Test
+    public void verifyDigestIsWrittenToOffset()
+            throws NoSuchAlgorithmException {
+        final byte[] output = new byte[20];
+        assertThat(DigestEngine.forAlgorithm("MD5").digest(EXAMPLE, 0,
+                EXAMPLE.length, output, 4), equalTo(16));
+        final byte[] expected = new byte[20];
+        System.arraycopy(MessageDigest.getInstance("MD5").digest(EXAMPLE), 0,
+                expected, 4, 16);
+        assertThat(output, equalTo(expected));
+    }
+
+    @Test
+    public void verifyEngineIsShared() throws NoSuchAlgorithmException {
+        assertThat(DigestEngine.forAlgorithm("MD5"),
+                sameInstance(DigestEngine.forAlgorithm("MD5")));
+    }
+
+    @Test
+    public void verifyReleasedDigesterIsReset()
+            throws NoSuchAlgorithmException {
+        final DigestEngine engine = DigestEngine.forAlgorithm("MD5");
+        final Digester digester = engine.acquire();
+        digester.update(EXAMPLE, 0, 3);
+        engine.release(digester);
+        assertThat(engine.digest(EXAMPLE),
+                equalTo(MessageDigest.getInstance("MD5").digest(EXAMPLE)));
+    }
+
+    @Test(expected = NoSuchAlgorithmException.class)
+    public void verifyUnknownAlgorithmRaises() throws NoSuchAlgorithmException {
+        DigestEngine.forAlgorithm("NO-SUCH-ALGORITHM");
+    }
+
+    @Test
+    public void verifyConcurrentUseIsConsistent() throws Exception {
+        final DigestEngine engine = DigestEngine.forAlgorithm("MD5");
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int t = 0; t < 8; t++) {
+                final int seed = t;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        final MessageDigest reference = MessageDigest
+                                .getInstance("MD5");
+                        for (int i = 0; i < 2000; i++) {
+                            final byte[] input = ("user" + seed + "." + i
+                                    + "@example.com")
+                                            .getBytes(StandardCharsets.US_ASCII);
+                            if (!MessageDigest.isEqual(engine.digest(input),
+                                    reference.digest(input))) {
+                                return Boolean.FALSE;
+                            }
+                        }
+                        return Boolean.TRUE;
+                    }
+                }));
+            }
+            for (final Future<Boolean> result : results) {
+                assertThat(result.get(), equalTo(Boolean.TRUE));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void verifyPlainMd5CanBeSelected() {
+        final String property = "org.rjung.util.gravatar.md5";
+        try {
+            assertThat(DigestEngine.plainMd5(), equalTo(false));
+            System.setProperty(property, "java");
+            assertThat(DigestEngine.plainMd5(), equalTo(true));
+            System.setProperty(property, "jdk");
+            assertThat(DigestEngine.plainMd5(), equalTo(false));
+        } finally {
+            System.clearProperty(property);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.rjung.util.gravatar.hash;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class EmailNormalizerTest {
+
+    private static final int RANDOM_ITERATIONS = 20000;
+
+    @Test
+    public void verifyEveryCharMatchesStringOperations()
+            throws UnsupportedEncodingException {
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            final String single = String.valueOf((char) c);
+            verifyMatchesStringOperations(single);
+            verifyMatchesStringOperations(" Ab" + single + "@X.org\t");
+        }
+    }
+
+    @Test
+    public void verifyRandomCp1252StringsMatchStringOperations()
+            throws UnsupportedEncodingException {
+        final CharsetEncoder encoder = Charset
+                .forName(EmailNormalizer.CHARSET).newEncoder();
+        final StringBuilder representable = new StringBuilder();
+        for (char c = 0; c < Character.MAX_VALUE; c++) {
+            if (encoder.canEncode(c)) {
+                representable.append(c);
+            }
+        }
+        final Random random = new Random(42);
+        for (int i = 0; i < RANDOM_ITERATIONS; i++) {
+            verifyMatchesStringOperations(
+                    randomString(random, representable));
+        }
+    }
+
+    @Test
+    public void verifyRandomStringsMatchStringOperations()
+            throws UnsupportedEncodingException {
+        final Random random = new Random(4711);
+        for (int i = 0; i < RANDOM_ITERATIONS; i++) {
+            final char[] chars = new char[random.nextInt(40)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = (char) random.nextInt(Character.MAX_VALUE + 1);
+            }
+            verifyMatchesStringOperations(new String(chars));
+        }
+    }
+
+    @Test
+    public void verifySurrogatePairsBecomeOneUnmappableByte()
+            throws UnsupportedEncodingException {
+        verifyMatchesStringOperations("a😀b");
+        verifyMatchesStringOperations("a\uD83Db");
+        verifyMatchesStringOperations("a\uDE00\uD83D");
+    }
+
+    @Test
+    public void verifyResultDoesNotDependOnDefaultLocale() {
+        final Locale locale = Locale.getDefault();
+        try {
+            Locale.setDefault(new Locale("tr", "TR"));
+            assertThat(normalize("INFO@EXAMPLE.COM"),
+                    equalTo(normalize("info@example.com")));
+            assertThat(EmailNormalizer.normalize("INFO@EXAMPLE.COM"),
+                    equalTo("info@example.com"));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    public void verifyNullIsEmpty() {
+        assertThat(EmailNormalizer.normalize(null, new byte[0]), equalTo(0));
+    }
+
+    @Test
+    public void verifyTooSmallOutputIsRejected() {
+        assertThat(EmailNormalizer.normalize("abc", new byte[2]),
+                equalTo(-1));
+        assertThat(EmailNormalizer.normalize("aİ", new byte[2]),
+                equalTo(-1));
+    }
+
+    @Test
+    public void verifyEncodeMatchesCharset()
+            throws UnsupportedEncodingException {
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            final String single = String.valueOf((char) c);
+            final byte[] expected = single.getBytes(EmailNormalizer.CHARSET);
+            assertThat(single, EmailNormalizer.encode(single),
+                    equalTo(expected));
+            assertThat(single, EmailNormalizer.encode((char) c),
+                    equalTo(expected[0]));
+        }
+        final String pair = "a\uD83D\uDE00b\uD83Dc";
+        assertThat(EmailNormalizer.encode(pair),
+                equalTo(pair.getBytes(EmailNormalizer.CHARSET)));
+    }
+
+    private static String randomString(final Random pRandom,
+            final CharSequence pChars) {
+        final StringBuilder result = new StringBuilder();
+        final int length = pRandom.nextInt(40);
+        for (int i = 0; i < length; i++) {
+            if (pRandom.nextInt(8) == 0) {
+                result.append((char) pRandom.nextInt(' ' + 1));
+            } else {
+                result.append(pChars.charAt(pRandom.nextInt(pChars.length())));
+            }
+        }
+        return result.toString();
+    }
+
+    private static void verifyMatchesStringOperations(final String pEmail)
+            throws UnsupportedEncodingException {
+        assertThat(pEmail, normalize(pEmail), equalTo(pEmail.trim()
+                .toLowerCase(Locale.ROOT).getBytes(EmailNormalizer.CHARSET)));
+    }
+
+    private static byte[] normalize(final String pEmail) {
+        final byte[] output = new byte[pEmail.length() * 2];
+        return Arrays.copyOf(output,
+                EmailNormalizer.normalize(pEmail, output));
+    }
+}
@@ -0,0 +1,68 @@
+package org.rjung.util.gravatar.hash;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rjung.util.Gravatar;
+import org.rjung.util.GravatarException;
+import org.rjung.util.GravatarTemplate;
+
+/**
+ * Compares the {@link HashAlgorithm}s for the raw digest of a normalized
+ * email-address and for a full URL rendered by a {@link GravatarTemplate}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashAlgorithmBenchmark {
+
+    @State(Scope.Thread)
+    public static class Input {
+        @Param({ "MD5", "SHA-256" })
+        String algorithm;
+        final String email = "User.Number.42@Example.com";
+        final byte[] normalized = new byte[64];
+        byte[] output;
+        int length;
+        DigestEngine engine;
+        GravatarTemplate template;
+        ByteBuffer url;
+
+        @Setup
+        public void setup() throws GravatarException {
+            final HashAlgorithm value = "MD5".equals(algorithm)
+                    ? HashAlgorithm.MD5 : HashAlgorithm.SHA256;
+            engine = value.engine();
+            template = Gravatar.forEmail(null).size(80).compile().with(value);
+            url = ByteBuffer.allocate(template.length());
+            output = new byte[value.getDigestLength()];
+            length = EmailNormalizer.normalize(email, normalized);
+        }
+    }
+
+    @Benchmark
+    public int digest(final Input pInput) {
+        return pInput.engine.digest(pInput.normalized, 0, pInput.length,
+                pInput.output, 0);
+    }
+
+    @Benchmark
+    public ByteBuffer templateWriteUrl(final Input pInput)
+            throws GravatarException {
+        pInput.url.clear();
+        return pInput.template.writeUrl(pInput.email, pInput.url);
+    }
+}
@@ -0,0 +1,72 @@
+package org.rjung.util.gravatar.hash;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class Md5Test {
+
+    @Test
+    public void verifyRfc1321Examples() {
+        verifyHex("", "d41d8cd98f00b204e9800998ecf8427e");
+        verifyHex("a", "0cc175b9c0f1b6a831c399e269772661");
+        verifyHex("abc", "900150983cd24fb0d6963f7d28e17f72");
+        verifyHex("message digest", "f96b697d7cb7938d525a2f31aaf161d0");
+        verifyHex("12345678901234567890123456789012345678901234567890123456789"
+                + "012345678901234567890", "57edf4a22be3c955ac49da2e2107b67a");
+    }
+
+    @Test
+    public void verifyAllLengthsMatchTheJdk() throws NoSuchAlgorithmException {
+        final MessageDigest jdk = MessageDigest.getInstance("MD5");
+        final Md5 md5 = new Md5();
+        final Random random = new Random(42);
+        for (int length = 0; length < 300; length++) {
+            final byte[] input = new byte[length];
+            random.nextBytes(input);
+            final int split = length == 0 ? 0 : random.nextInt(length);
+            md5.update(input, 0, split);
+            for (int i = split; i < length; i++) {
+                md5.update(input[i]);
+            }
+            assertThat("length " + length, md5.digest(),
+                    equalTo(jdk.digest(input)));
+        }
+    }
+
+    @Test
+    public void verifyDigestIsWrittenToOffset() throws DigestException {
+        final Md5 md5 = new Md5();
+        md5.update("abc".getBytes(StandardCharsets.US_ASCII));
+        final byte[] output = new byte[20];
+        assertThat(md5.digest(output, 4, 16), equalTo(16));
+        assertThat(Hex.encode(output).substring(8),
+                equalTo("900150983cd24fb0d6963f7d28e17f72"));
+    }
+
+    @Test
+    public void verifyCloneIsIndependent() throws CloneNotSupportedException {
+        final Md5 md5 = new Md5();
+        md5.update("ab".getBytes(StandardCharsets.US_ASCII));
+        final MessageDigest clone = (MessageDigest) md5.clone();
+        md5.update((byte) 'c');
+        clone.update((byte) 'x');
+        assertThat(Hex.encode(md5.digest()),
+                equalTo("900150983cd24fb0d6963f7d28e17f72"));
+        clone.reset();
+        assertThat(Hex.encode(clone.digest()),
+                equalTo("d41d8cd98f00b204e9800998ecf8427e"));
+    }
+
+    private static void verifyHex(final String pInput, final String pHex) {
+        assertThat(pInput, Hex.encode(new Md5().digest(
+                pInput.getBytes(StandardCharsets.US_ASCII))), equalTo(pHex));
+    }
+}
@@ -0,0 +1,82 @@
+package org.rjung.util.gravatar.hash;
+
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares hashing email-addresses one by one with the pooled
+ * {@link DigestEngine} against {@link MultiLaneMd5}. Run it with the
+ * <code>vector</code> profile to include the Vector API implementation:
+ * <code>mvn -Pbenchmark,vector verify -Djmh.args="MultiLaneMd5Benchmark"</code>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(MultiLaneMd5Benchmark.EMAILS)
+public class MultiLaneMd5Benchmark {
+
+    static final int EMAILS = 1024;
+
+    @State(Scope.Thread)
+    public static class Input {
+        final byte[] data = new byte[EMAILS * 32];
+        final int[] offsets = new int[EMAILS];
+        final int[] lengths = new int[EMAILS];
+        final byte[] output = new byte[EMAILS * 16];
+        DigestEngine engine;
+        MultiLaneMd5 best;
+
+        @Setup
+        public void setup() throws NoSuchAlgorithmException {
+            engine = DigestEngine.forAlgorithm("MD5");
+            best = MultiLaneMd5.get();
+            int position = 0;
+            for (int i = 0; i < EMAILS; i++) {
+                final byte[] email = ("user.number." + i + "@example.com")
+                        .getBytes(StandardCharsets.US_ASCII);
+                System.arraycopy(email, 0, data, position, email.length);
+                offsets[i] = position;
+                lengths[i] = email.length;
+                position += email.length;
+            }
+        }
+    }
+
+    @Benchmark
+    public byte[] perEmail(final Input pInput) {
+        for (int i = 0; i < EMAILS; i++) {
+            pInput.engine.digest(pInput.data, pInput.offsets[i],
+                    pInput.lengths[i], pInput.output, i * 16);
+        }
+        return pInput.output;
+    }
+
+    @Benchmark
+    public byte[] multiLaneScalar(final Input pInput) {
+        MultiLaneMd5.scalar().digest(pInput.data, pInput.offsets,
+                pInput.lengths, EMAILS, pInput.output, 0);
+        return pInput.output;
+    }
+
+    @Benchmark
+    public byte[] multiLaneBest(final Input pInput) {
+        pInput.best.digest(pInput.data, pInput.offsets, pInput.lengths,
+                EMAILS, pInput.output, 0);
+        return pInput.output;
+    }
+}
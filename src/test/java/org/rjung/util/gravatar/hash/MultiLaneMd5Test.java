@@ -0,0 +1,84 @@
+package org.rjung.util.gravatar.hash;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MultiLaneMd5Test {
+
+    @Test
+    public void verifyVectorImplementationIsUsedIfExpected() {
+        if (Boolean.getBoolean("gravatar.vector.expected")) {
+            assertThat(MultiLaneMd5.get(),
+                    not(instanceOf(MultiLaneMd5.ScalarMd5.class)));
+        }
+    }
+
+    @Test
+    public void verifyBestMatchesMessageDigest()
+            throws NoSuchAlgorithmException {
+        verifyMatchesMessageDigest(MultiLaneMd5.get());
+    }
+
+    @Test
+    public void verifyScalarMatchesMessageDigest()
+            throws NoSuchAlgorithmException {
+        verifyMatchesMessageDigest(MultiLaneMd5.scalar());
+    }
+
+    @Test
+    public void verifyEmailBatchMatchesEmailNormalizer()
+            throws Exception {
+        final String[] emails = { " Example@Example.COM ", "",
+                "jürgen@example.com", null, "a@b.c" };
+        final EmailBatch batch = new EmailBatch(1);
+        for (final String email : emails) {
+            batch.add(email);
+        }
+        final byte[] output = new byte[emails.length * 16];
+        batch.digest(MultiLaneMd5.get(), output, 0);
+        for (int i = 0; i < emails.length; i++) {
+            assertThat(slice(output, i * 16),
+                    equalTo(MessageDigest.getInstance("MD5")
+                            .digest(EmailNormalizer.encode(
+                                    EmailNormalizer.normalize(emails[i])))));
+        }
+    }
+
+    private static void verifyMatchesMessageDigest(final MultiLaneMd5 pEngine)
+            throws NoSuchAlgorithmException {
+        final Random random = new Random(42);
+        final MessageDigest md5 = MessageDigest.getInstance("MD5");
+        for (final int count : new int[] { 0, 1, 7, 17, 33, 100 }) {
+            final int[] offsets = new int[count];
+            final int[] lengths = new int[count];
+            final byte[] input = new byte[count * 120 + 3];
+            int position = 3;
+            for (int i = 0; i < count; i++) {
+                offsets[i] = position;
+                lengths[i] = random.nextInt(121);
+                position += lengths[i];
+            }
+            random.nextBytes(input);
+            final byte[] output = new byte[count * 16 + 5];
+            pEngine.digest(input, offsets, lengths, count, output, 5);
+            for (int i = 0; i < count; i++) {
+                md5.update(input, offsets[i], lengths[i]);
+                assertThat(slice(output, 5 + i * 16), equalTo(md5.digest()));
+            }
+        }
+    }
+
+    private static byte[] slice(final byte[] pInput, final int pOffset) {
+        final byte[] result = new byte[16];
+        System.arraycopy(pInput, pOffset, result, 0, 16);
+        return result;
+    }
+}
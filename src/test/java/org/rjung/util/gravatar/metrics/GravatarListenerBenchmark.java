@@ -0,0 +1,84 @@
+package org.rjung.util.gravatar.metrics;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rjung.util.Gravatar;
+import org.rjung.util.GravatarException;
+import org.rjung.util.GravatarTemplate;
+import org.rjung.util.gravatar.Protocol;
+import org.rjung.util.gravatar.Rating;
+
+/**
+ * Cost of a {@link GravatarListener} on rendering. With <code>none</code>
+ * the numbers match the ones of {@link org.rjung.util.GravatarBenchmark}
+ * before the listener existed; <code>metrics</code> adds two timestamps and
+ * the counters, <code>allocations</code> also reads the allocated bytes of
+ * the thread, <code>jfr</code> emits events without a recording running.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GravatarListenerBenchmark {
+
+    private static final int EMAIL_COUNT = 1024;
+
+    @Param({ "none", "metrics", "allocations", "jfr" })
+    String listener;
+
+    String[] emails;
+    GravatarTemplate template;
+    ByteBuffer buffer;
+    int index;
+
+    @Setup
+    public void setup() throws GravatarException {
+        emails = new String[EMAIL_COUNT];
+        for (int i = 0; i < EMAIL_COUNT; i++) {
+            emails[i] = " User.Number" + i + "@Example.com ";
+        }
+        template = Gravatar.forEmail(null).with(Protocol.HTTPS)
+                .with(Rating.PG).size(80).compile();
+        buffer = ByteBuffer.allocateDirect(template.length());
+        if ("metrics".equals(listener)) {
+            Gravatar.setListener(new GravatarMetrics());
+        } else if ("allocations".equals(listener)) {
+            Gravatar.setListener(new GravatarMetrics(true));
+        } else if ("jfr".equals(listener)) {
+            Gravatar.setListener(new JfrGravatarListener());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        Gravatar.setListener(null);
+    }
+
+    @Benchmark
+    public ByteBuffer templateWriteUrlToByteBuffer() throws GravatarException {
+        buffer.clear();
+        index = (index + 1) & (EMAIL_COUNT - 1);
+        return template.writeUrl(emails[index], buffer);
+    }
+
+    @Benchmark
+    public String toUrl() throws GravatarException {
+        index = (index + 1) & (EMAIL_COUNT - 1);
+        return Gravatar.forEmail(emails[index]).toUrl();
+    }
+}
@@ -0,0 +1,151 @@
+package org.rjung.util.gravatar.metrics;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rjung.util.Gravatar;
+import org.rjung.util.GravatarException;
+import org.rjung.util.GravatarTemplate;
+import org.rjung.util.gravatar.cache.HashCache;
+import org.rjung.util.gravatar.hash.HashAlgorithm;
+import org.rjung.util.gravatar.metrics.GravatarListener.Cache;
+import org.rjung.util.gravatar.metrics.GravatarListener.Render;
+import org.rjung.util.gravatar.store.HashStore;
+
+public class GravatarMetricsTest {
+
+    private static final List<String> EMAILS = Arrays.asList(
+            "a@example.com", "b@example.com", "c@example.com");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void reset() {
+        Gravatar.setListener(null);
+        Gravatar.setHashCache(null);
+        Gravatar.setHashStore(null);
+    }
+
+    @Test
+    public void verifyDefaultIsNoop() {
+        assertThat(Gravatar.getListener(), equalTo(GravatarListener.NOOP));
+        Gravatar.setListener(new GravatarMetrics());
+        Gravatar.setListener(null);
+        assertThat(Gravatar.getListener(), equalTo(GravatarListener.NOOP));
+    }
+
+    @Test
+    public void verifyRendersAreCounted() throws GravatarException {
+        final GravatarMetrics metrics = new GravatarMetrics();
+        Gravatar.setListener(metrics);
+        final String url = Gravatar.forEmail("a@example.com").size(80)
+                .toUrl();
+        final GravatarTemplate template = Gravatar.forEmail(null).size(80)
+                .compile();
+        template.writeUrl("a@example.com", new StringBuilder());
+        template.writeUrl("a@example.com",
+                ByteBuffer.allocate(template.length()));
+        template.urlsFor(EMAILS);
+        assertThat(metrics.getRenders(Render.URL), equalTo(1L));
+        assertThat(metrics.getChars(Render.URL), equalTo((long) url.length()));
+        assertThat(metrics.getRenders(Render.WRITE), equalTo(2L));
+        assertThat(metrics.getLatency(Render.WRITE).getCount(), equalTo(2L));
+        assertThat(metrics.getRenders(Render.BATCH), equalTo(3L));
+        assertThat(metrics.getChars(Render.BATCH),
+                equalTo(3L * template.length()));
+        assertThat(metrics.getHashes(), equalTo(6L));
+        assertThat(metrics.getAllocatedPerRender(Render.URL), equalTo(-1.0));
+    }
+
+    @Test
+    public void verifyAllocationsAreMeasured() throws GravatarException {
+        final GravatarMetrics metrics = new GravatarMetrics(true);
+        Gravatar.setListener(metrics);
+        Gravatar.forEmail("a@example.com").toUrl();
+        // the 57 chars of the url alone take more than 57 bytes
+        assertThat(metrics.getAllocatedPerRender(Render.URL) > 57,
+                equalTo(true));
+    }
+
+    @Test
+    public void verifyCacheHitsAndMissesAreCounted()
+            throws GravatarException, IOException {
+        final GravatarMetrics metrics = new GravatarMetrics();
+        Gravatar.setListener(metrics);
+        Gravatar.setHashCache(new HashCache(10));
+        Gravatar.forEmail("a@example.com").toUrl();
+        Gravatar.forEmail("A@example.com ").toUrl();
+        assertThat(metrics.getMisses(Cache.HASH_CACHE), equalTo(1L));
+        assertThat(metrics.getHits(Cache.HASH_CACHE), equalTo(1L));
+        assertThat(metrics.getHashes(), equalTo(1L));
+        Gravatar.setHashCache(null);
+        final Path file = folder.getRoot().toPath().resolve("hashes.store");
+        try (HashStore store = HashStore.open(file)) {
+            Gravatar.setHashStore(store);
+            Gravatar.forEmail("b@example.com").toUrl();
+            Gravatar.forEmail("b@example.com").toUrl();
+            Gravatar.setHashStore(null);
+        }
+        assertThat(metrics.getMisses(Cache.HASH_STORE), equalTo(1L));
+        assertThat(metrics.getHits(Cache.HASH_STORE), equalTo(1L));
+        assertThat(metrics.getHashes(), equalTo(2L));
+    }
+
+    @Test
+    public void verifyEmptyBatchesAreIgnored() throws GravatarException {
+        final GravatarMetrics metrics = new GravatarMetrics();
+        Gravatar.setListener(metrics);
+        final List<String> none = Collections.emptyList();
+        assertThat(Gravatar.toHashes(none).length, equalTo(0));
+        assertThat(Gravatar.forEmail(null).compile().urlsFor(none).size(),
+                equalTo(0));
+        metrics.hashed(HashAlgorithm.MD5, 0, 100L);
+        metrics.rendered(Render.BATCH, 0, 0, 100L, -1L);
+        assertThat(metrics.getHashes(), equalTo(0L));
+        assertThat(metrics.getHashLatency().getCount(), equalTo(0L));
+        assertThat(metrics.getRenders(Render.BATCH), equalTo(0L));
+        assertThat(metrics.getLatency(Render.BATCH).getCount(), equalTo(0L));
+    }
+
+    @Test
+    public void verifyHistogramPercentiles() {
+        final Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertThat(histogram.getCount(), equalTo(1000L));
+        assertThat(histogram.getMax(), equalTo(1000L));
+        assertThat(histogram.getMean(), equalTo(500.5));
+        assertThat(within(histogram.getPercentile(50), 500), equalTo(true));
+        assertThat(within(histogram.getPercentile(99), 990), equalTo(true));
+        assertThat(histogram.getPercentile(100), equalTo(1000L));
+        assertThat(new Histogram().getPercentile(99), equalTo(0L));
+    }
+
+    @Test
+    public void verifyHistogramBucketsCoverAllValues() {
+        long previous = -1;
+        for (int i = 0; i < 488; i++) {
+            assertThat(Histogram.index(previous + 1), equalTo(i));
+            assertThat(Histogram.index(Histogram.upperBound(i)), equalTo(i));
+            previous = Histogram.upperBound(i);
+        }
+        assertThat(previous, equalTo(Long.MAX_VALUE));
+    }
+
+    private static boolean within(final long pValue, final long pExpected) {
+        return pValue >= pExpected && pValue <= pExpected * 9 / 8;
+    }
+}
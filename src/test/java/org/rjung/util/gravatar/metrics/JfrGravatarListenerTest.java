@@ -0,0 +1,89 @@
+package org.rjung.util.gravatar.metrics;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rjung.util.Gravatar;
+import org.rjung.util.GravatarException;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class JfrGravatarListenerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void reset() {
+        Gravatar.setListener(null);
+    }
+
+    @Test
+    public void verifyEventsAreRecorded() throws GravatarException,
+            IOException {
+        assumeTrue(FlightRecorder.isAvailable());
+        Gravatar.setListener(new JfrGravatarListener());
+        final Path file = folder.getRoot().toPath().resolve("gravatar.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("org.rjung.gravatar.Render");
+            recording.enable("org.rjung.gravatar.Hash");
+            recording.start();
+            Gravatar.forEmail("a@example.com").toUrl();
+            Gravatar.forEmail("b@example.com").writeUrl(new StringBuilder());
+            recording.stop();
+            recording.dump(file);
+        }
+        final List<String> renders = new ArrayList<String>();
+        int hashes = 0;
+        for (final RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            final String name = event.getEventType().getName();
+            if ("org.rjung.gravatar.Render".equals(name)) {
+                renders.add(event.getString("render"));
+                assertThat(event.getInt("length"), equalTo(57));
+            } else if ("org.rjung.gravatar.Hash".equals(name)) {
+                assertThat(event.getString("algorithm"), equalTo("MD5"));
+                hashes++;
+            }
+        }
+        assertThat(renders.toString(), equalTo("[URL, WRITE]"));
+        assertThat(hashes, equalTo(2));
+    }
+
+    @Test
+    public void verifyCacheEventsAreDisabledByDefault()
+            throws GravatarException, IOException {
+        assumeTrue(FlightRecorder.isAvailable());
+        final JfrGravatarListener listener = new JfrGravatarListener();
+        final Path file = folder.getRoot().toPath().resolve("gravatar.jfr");
+        try (Recording recording = new Recording()) {
+            recording.start();
+            listener.cacheHit(GravatarListener.Cache.HASH_CACHE);
+            listener.rendered(GravatarListener.Render.URL, 1, 10, 100L, -1L);
+            recording.stop();
+            recording.dump(file);
+        }
+        int events = 0;
+        for (final RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            if (event.getEventType().getName()
+                    .startsWith("org.rjung.gravatar.")) {
+                assertThat(event.getEventType().getName(),
+                        equalTo("org.rjung.gravatar.Render"));
+                events++;
+            }
+        }
+        assertThat(events, equalTo(1));
+    }
+}
@@ -0,0 +1,61 @@
+package org.rjung.util.gravatar.render;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rjung.util.gravatar.Default;
+
+/**
+ * Measures rendering a fallback image without and with a cache hit.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AvatarRendererBenchmark {
+
+    @State(Scope.Thread)
+    public static class Renderers {
+        @Param({ "IDENTICON", "RETRO" })
+        Default style;
+        @Param({ "80", "512" })
+        int size;
+        // too small to keep any image
+        final AvatarRenderer uncached = new AvatarRenderer(1);
+        final AvatarRenderer cached = new AvatarRenderer(1 << 20);
+        final byte[] hash = new byte[16];
+        int counter;
+    }
+
+    @Benchmark
+    public byte[] renderPng(final Renderers pRenderers) {
+        pRenderers.hash[0] = (byte) ++pRenderers.counter;
+        pRenderers.hash[1] = (byte) (pRenderers.counter >>> 8);
+        return pRenderers.uncached.render(pRenderers.style, ImageFormat.PNG,
+                pRenderers.hash, 0, pRenderers.size);
+    }
+
+    @Benchmark
+    public byte[] renderSvg(final Renderers pRenderers) {
+        pRenderers.hash[0] = (byte) ++pRenderers.counter;
+        pRenderers.hash[1] = (byte) (pRenderers.counter >>> 8);
+        return pRenderers.uncached.render(pRenderers.style, ImageFormat.SVG,
+                pRenderers.hash, 0, pRenderers.size);
+    }
+
+    @Benchmark
+    public byte[] cachedPng(final Renderers pRenderers) {
+        return pRenderers.cached.render(pRenderers.style, ImageFormat.PNG,
+                pRenderers.hash, 0, pRenderers.size);
+    }
+}
@@ -0,0 +1,164 @@
+package org.rjung.util.gravatar.render;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+import org.rjung.util.Gravatar;
+import org.rjung.util.GravatarException;
+import org.rjung.util.gravatar.Default;
+import org.rjung.util.gravatar.hash.Hex;
+
+public class AvatarRendererTest {
+
+    private static final String HASH = "23463b99b62a72f26ed677cc556c44e8";
+
+    @Test
+    public void verifyPngIsReadable() throws IOException {
+        final BufferedImage image = read(new AvatarRenderer(1 << 20)
+                .render(Default.IDENTICON, ImageFormat.PNG, HASH, 80));
+        assertThat(image.getWidth(), equalTo(80));
+        assertThat(image.getHeight(), equalTo(80));
+        final Set<Integer> colors = new HashSet<Integer>();
+        for (int y = 0; y < 80; y++) {
+            for (int x = 0; x < 80; x++) {
+                colors.add(image.getRGB(x, y) & 0xFFFFFF);
+            }
+        }
+        assertThat(colors.size(), equalTo(2));
+        assertThat(colors.contains(0xFFFFFF), equalTo(true));
+    }
+
+    @Test
+    public void verifyIdenticonIsTurnedSymmetric() throws IOException {
+        for (final String hash : hashes()) {
+            final BufferedImage image = read(new AvatarRenderer(1 << 20)
+                    .render(Default.IDENTICON, ImageFormat.PNG, hash, 96));
+            for (int y = 0; y < 96; y++) {
+                for (int x = 0; x < 96; x++) {
+                    assertThat(hash + " at " + x + "," + y,
+                            image.getRGB(95 - y, x), equalTo(image.getRGB(x, y)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void verifyRetroIsMirrored() throws IOException {
+        for (final String hash : hashes()) {
+            final BufferedImage image = read(new AvatarRenderer(1 << 20)
+                    .render(Default.RETRO, ImageFormat.PNG, hash, 40));
+            for (int y = 0; y < 40; y++) {
+                for (int x = 0; x < 40; x++) {
+                    assertThat(image.getRGB(39 - x, y),
+                            equalTo(image.getRGB(x, y)));
+                }
+                // blocks of 5 by 5 pixels
+                assertThat(image.getRGB(0, y), equalTo(image.getRGB(4, y)));
+            }
+        }
+    }
+
+    @Test
+    public void verifyRenderingIsDeterministic() {
+        final byte[] first = new AvatarRenderer(1 << 20)
+                .render(Default.RETRO, ImageFormat.PNG, HASH, 64);
+        final byte[] second = new AvatarRenderer(1 << 20)
+                .render(Default.RETRO, ImageFormat.PNG, HASH.toUpperCase(), 64);
+        assertThat(Arrays.equals(first, second), equalTo(true));
+        final byte[] other = new AvatarRenderer(1 << 20).render(
+                Default.RETRO, ImageFormat.PNG, hashes()[1], 64);
+        assertThat(Arrays.equals(first, other), equalTo(false));
+    }
+
+    @Test
+    public void verifyHashOfEmailMatchesHexHash() throws GravatarException {
+        final byte[] hashes = Gravatar
+                .toHashes(Arrays.asList("a@example.com", "b@example.com"));
+        final AvatarRenderer renderer = new AvatarRenderer(1 << 20);
+        final byte[] image = renderer.render(Default.IDENTICON,
+                ImageFormat.SVG, hashes, 16, 80);
+        assertThat(renderer.render(Default.IDENTICON, ImageFormat.SVG,
+                Hex.encode(Arrays.copyOfRange(hashes, 16, 32)), 80),
+                sameInstance(image));
+    }
+
+    @Test
+    public void verifySvgIsRendered() {
+        final String svg = new String(new AvatarRenderer(1 << 20).render(
+                Default.RETRO, ImageFormat.SVG, HASH, 80),
+                StandardCharsets.UTF_8);
+        assertThat(svg.startsWith("<svg xmlns=\"http://www.w3.org/2000/svg\""
+                + " width=\"80\" height=\"80\" viewBox=\"0 0 8 8\">"
+                + "<rect width=\"8\" height=\"8\" fill=\"#ffffff\"/>"
+                + "<path fill=\"#"), equalTo(true));
+        assertThat(svg.endsWith("Z\"/></svg>"), equalTo(true));
+    }
+
+    @Test
+    public void verifyCacheIsBounded() {
+        final AvatarRenderer renderer = new AvatarRenderer(1000);
+        final byte[] image = renderer.render(Default.IDENTICON,
+                ImageFormat.PNG, HASH, 32);
+        assertThat(renderer.render(Default.IDENTICON, ImageFormat.PNG, HASH,
+                32), sameInstance(image));
+        assertThat(renderer.render(Default.RETRO, ImageFormat.PNG, HASH, 32),
+                not(sameInstance(image)));
+        for (final String hash : hashes()) {
+            renderer.render(Default.IDENTICON, ImageFormat.PNG, hash, 32);
+        }
+        assertThat(renderer.bytes() <= 1000, equalTo(true));
+        assertThat(renderer.size() < hashes().length, equalTo(true));
+    }
+
+    @Test
+    public void verifySupportedStyles() {
+        assertThat(AvatarRenderer.supports(Default.IDENTICON), equalTo(true));
+        assertThat(AvatarRenderer.supports(Default.RETRO), equalTo(true));
+        assertThat(AvatarRenderer.supports(Default.MM), equalTo(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void verifyUnsupportedStyleIsRejected() {
+        new AvatarRenderer(1 << 20).render(Default.WAVATAR, ImageFormat.PNG,
+                HASH, 80);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void verifySizeIsChecked() {
+        new AvatarRenderer(1 << 20).render(Default.RETRO, ImageFormat.PNG,
+                HASH, 2049);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void verifyInvalidHashIsRejected() {
+        new AvatarRenderer(1 << 20).render(Default.RETRO, ImageFormat.PNG,
+                "23463b99b62a72f26ed677cc556c44eg", 80);
+    }
+
+    private static String[] hashes() {
+        final String[] result = new String[32];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = Hex.encode(new byte[] { (byte) (i * 37), (byte) (i * 91),
+                    (byte) (i * 13), 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12,
+                    (byte) i });
+        }
+        return result;
+    }
+
+    private static BufferedImage read(final byte[] pPng) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(pPng));
+    }
+}
@@ -0,0 +1,208 @@
+package org.rjung.util.gravatar.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.rjung.util.gravatar.client.AvatarClient;
+import org.rjung.util.gravatar.client.MemoryAvatarCache;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Puts load on an {@link AvatarServer} and reports the requests per second
+ * and the latency percentiles. Every connection is a thread sending
+ * keep-alive requests one after another for 1000 different email-addresses.
+ * In <code>proxy</code>-mode the images come from a local stand-in for
+ * Gravatar, so after the first round they are answered from the cache:
+ *
+ * <pre>
+ * mvn -Ploadtest verify -DskipTests -Dloadtest.args="10 64 proxy"
+ * </pre>
+ *
+ * The arguments are the seconds to measure, the number of connections and
+ * the mode, <code>redirect</code> or <code>proxy</code>.
+ */
+public final class AvatarServerLoad {
+
+    private static final int DEFAULT_SECONDS = 10;
+    private static final int DEFAULT_CONNECTIONS = 32;
+    private static final int EMAILS = 1000;
+    private static final byte[] IMAGE = new byte[2048];
+
+    private AvatarServerLoad() {
+    }
+
+    public static void main(final String[] pArgs) throws Exception {
+        final int seconds = pArgs.length > 0 ? Integer.parseInt(pArgs[0])
+                : DEFAULT_SECONDS;
+        final int connections = pArgs.length > 1
+                ? Integer.parseInt(pArgs[1])
+                : DEFAULT_CONNECTIONS;
+        final boolean proxy = pArgs.length > 2 && "proxy".equals(pArgs[2]);
+        // the upstream is started before AvatarServer would set it
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        final HttpServer upstream = upstream();
+        final AvatarServer.Builder builder = AvatarServer.builder().port(0);
+        if (proxy) {
+            builder.proxy(AvatarClient.builder()
+                    .baseUri(URI.create("http://127.0.0.1:"
+                            + upstream.getAddress().getPort() + "/avatar/"))
+                    .cache(new MemoryAvatarCache(64 << 20)).build());
+        }
+        try (AvatarServer server = builder.start()) {
+            final int port = server.getAddress().getPort();
+            // warm up for a fifth of the time, then measure
+            run(port, connections, Math.max(1, seconds / 5) * 1000000000L);
+            final long start = System.nanoTime();
+            final long[] latencies = run(port, connections,
+                    seconds * 1000000000L);
+            final double elapsed = (System.nanoTime() - start) / 1e9;
+            Arrays.sort(latencies);
+            System.out.printf(
+                    "%s, %d connections: %d requests, %.0f requests/s,"
+                            + " p50 %.0f us, p99 %.0f us, max %.0f us%n",
+                    proxy ? "proxy" : "redirect", connections,
+                    latencies.length, latencies.length / elapsed,
+                    percentile(latencies, 0.50) / 1e3,
+                    percentile(latencies, 0.99) / 1e3,
+                    latencies[latencies.length - 1] / 1e3);
+        } finally {
+            upstream.stop(0);
+        }
+    }
+
+    private static long[] run(final int pPort, final int pConnections,
+            final long pNanos) throws Exception {
+        final ExecutorService threads = Executors
+                .newFixedThreadPool(pConnections);
+        try {
+            final long end = System.nanoTime() + pNanos;
+            final List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+            for (int i = 0; i < pConnections; i++) {
+                final int offset = i * 31;
+                results.add(threads.submit(() -> connection(pPort, offset,
+                        end)));
+            }
+            long[] result = new long[0];
+            for (final Future<long[]> future : results) {
+                final long[] latencies = future.get();
+                final int length = result.length;
+                result = Arrays.copyOf(result, length + latencies.length);
+                System.arraycopy(latencies, 0, result, length,
+                        latencies.length);
+            }
+            return result;
+        } finally {
+            threads.shutdown();
+        }
+    }
+
+    private static long[] connection(final int pPort, final int pOffset,
+            final long pEnd) throws IOException {
+        long[] latencies = new long[1024];
+        int count = 0;
+        final byte[] buffer = new byte[8192];
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                pPort)) {
+            socket.setTcpNoDelay(true);
+            final OutputStream output = socket.getOutputStream();
+            final InputStream input = socket.getInputStream();
+            for (int i = pOffset; System.nanoTime() < pEnd; i++) {
+                final byte[] request = ("GET /avatar/user" + i % EMAILS
+                        + "@example.com?s=80&d=identicon HTTP/1.1\r\n"
+                        + "Host: localhost\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII);
+                final long start = System.nanoTime();
+                output.write(request);
+                output.flush();
+                readResponse(input, buffer);
+                if (count == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                }
+                latencies[count++] = System.nanoTime() - start;
+            }
+        }
+        return Arrays.copyOf(latencies, count);
+    }
+
+    /**
+     * Read the header and, by its <code>Content-Length</code>, the body of
+     * a response.
+     */
+    private static void readResponse(final InputStream pInput,
+            final byte[] pBuffer) throws IOException {
+        int length = 0;
+        int headerEnd = -1;
+        while (headerEnd < 0) {
+            final int read = pInput.read(pBuffer, length,
+                    pBuffer.length - length);
+            if (read < 0) {
+                throw new IOException("connection closed");
+            }
+            length += read;
+            for (int i = Math.max(3, length - read); i < length; i++) {
+                if (pBuffer[i] == '\n' && pBuffer[i - 1] == '\r'
+                        && pBuffer[i - 2] == '\n' && pBuffer[i - 3] == '\r') {
+                    headerEnd = i + 1;
+                    break;
+                }
+            }
+        }
+        final String header = new String(pBuffer, 0, headerEnd,
+                StandardCharsets.US_ASCII).toLowerCase();
+        final int index = header.indexOf("content-length:");
+        long remaining = index < 0 ? 0
+                : Long.parseLong(header.substring(index + 15,
+                        header.indexOf('\r', index)).trim());
+        remaining -= length - headerEnd;
+        while (remaining > 0) {
+            final int read = pInput.read(pBuffer, 0,
+                    (int) Math.min(pBuffer.length, remaining));
+            if (read < 0) {
+                throw new IOException("connection closed");
+            }
+            remaining -= read;
+        }
+    }
+
+    private static double percentile(final long[] pSorted,
+            final double pPercentile) {
+        return pSorted[(int) Math.min(pSorted.length - 1,
+                Math.ceil(pPercentile * pSorted.length) - 1)];
+    }
+
+    private static HttpServer upstream() throws IOException {
+        final HttpServer result = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        result.createContext("/avatar/", exchange -> {
+            try {
+                exchange.getResponseHeaders().set("Content-Type",
+                        "image/png");
+                exchange.getResponseHeaders().set("ETag", "\"v1\"");
+                exchange.getResponseHeaders().set("Cache-Control",
+                        "max-age=300");
+                exchange.sendResponseHeaders(200, IMAGE.length);
+                try (OutputStream body = exchange.getResponseBody()) {
+                    body.write(IMAGE);
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+        result.setExecutor(Executors.newCachedThreadPool());
+        result.start();
+        return result;
+    }
+}
@@ -0,0 +1,309 @@
+package org.rjung.util.gravatar.server;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rjung.util.GravatarException;
+import org.rjung.util.GravatarSpec;
+import org.rjung.util.gravatar.Default;
+import org.rjung.util.gravatar.Hosts;
+import org.rjung.util.gravatar.Protocol;
+import org.rjung.util.gravatar.Rating;
+import org.rjung.util.gravatar.client.Avatar;
+import org.rjung.util.gravatar.client.AvatarCache;
+import org.rjung.util.gravatar.client.AvatarClient;
+import org.rjung.util.gravatar.client.MemoryAvatarCache;
+import org.rjung.util.gravatar.hash.HashAlgorithm;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class AvatarServerTest {
+
+    private static final String EXAMPLE_EMAIL = "example@example.com";
+    private static final String EXAMPLE_HASH = "23463b99b62a72f26ed677cc556c44e8";
+    private static final GravatarSpec HTTPS = GravatarSpec.DEFAULT
+            .with(Protocol.HTTPS);
+    private static final byte[] IMAGE = { 1, 2, 3, 4 };
+
+    private final HttpClient http = HttpClient.newHttpClient();
+    private final AtomicInteger upstreamRequests = new AtomicInteger();
+    private HttpServer upstream;
+    private ExecutorService executor;
+    private AvatarServer server;
+
+    @Before
+    public void startUpstream() throws IOException {
+        executor = Executors.newCachedThreadPool();
+        upstream = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        upstream.createContext("/avatar/", this::image);
+        upstream.setExecutor(executor);
+        upstream.start();
+    }
+
+    @After
+    public void stop() {
+        if (server != null) {
+            server.close();
+        }
+        upstream.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void verifyEmailIsRedirected() throws IOException,
+            InterruptedException, GravatarException {
+        server = AvatarServer.builder().port(0).start();
+        final HttpResponse<Void> response = get(
+                "/avatar/Example@Example.com?s=40&d=retro&r=pg");
+        assertThat(response.statusCode(), equalTo(302));
+        assertThat(response.headers().firstValue("Location").get(),
+                equalTo(HTTPS.with(Rating.PG).withSize(40)
+                        .withDefaultImage(Default.RETRO)
+                        .toUrl(EXAMPLE_EMAIL)));
+        assertThat(response.headers().firstValue("Cache-Control").get(),
+                equalTo("public, max-age=86400"));
+    }
+
+    @Test
+    public void verifyHashIsRedirected() throws IOException,
+            InterruptedException, GravatarException {
+        server = AvatarServer.builder().port(0).start();
+        assertThat(location("/avatar/" + EXAMPLE_HASH.toUpperCase()
+                + ".jpg?size=2048&default=404&rating=X&f=y"),
+                equalTo(HTTPS.with(Rating.X).withSize(2048)
+                        .withDefaultImage(Default.FOUR_O_FOUR)
+                        .toUrl(EXAMPLE_EMAIL)));
+        assertThat(location("/avatar/" + EXAMPLE_HASH),
+                equalTo(HTTPS.toUrl(EXAMPLE_EMAIL)));
+    }
+
+    @Test
+    public void verifyParametersAreSetOnTopOfSpec() throws IOException,
+            InterruptedException, GravatarException {
+        final GravatarSpec spec = GravatarSpec.DEFAULT.with(Protocol.HTTP)
+                .with(HashAlgorithm.SHA256).withSize(80)
+                .withDefaultImage(Default.MM);
+        server = AvatarServer.builder().port(0).spec(spec).start();
+        assertThat(location("/avatar/example@example.com?s=20"),
+                equalTo(spec.withSize(20).toUrl(EXAMPLE_EMAIL)));
+        assertThat(location("/avatar/example@example.com"
+                + "?d=https%3A%2F%2Fexample.com%2Fa.png"),
+                equalTo(spec.withDefaultImage("https://example.com/a.png")
+                        .toUrl(EXAMPLE_EMAIL)));
+        // a MD5-hash is no SHA-256-hash
+        assertThat(get("/avatar/" + EXAMPLE_HASH).statusCode(),
+                equalTo(404));
+    }
+
+    @Test
+    public void verifyInvalidRequestsAreRejected() throws IOException,
+            InterruptedException {
+        server = AvatarServer.builder().port(0).start();
+        assertThat(get("/avatar/" + EXAMPLE_HASH + "?s=2049").statusCode(),
+                equalTo(400));
+        assertThat(get("/avatar/" + EXAMPLE_HASH + "?s=x").statusCode(),
+                equalTo(400));
+        assertThat(get("/avatar/" + EXAMPLE_HASH + "?r=nc17").statusCode(),
+                equalTo(400));
+        assertThat(get("/avatar/nobody").statusCode(), equalTo(404));
+        assertThat(get("/avatar/").statusCode(), equalTo(404));
+        assertThat(get("/avatar/a/b@c").statusCode(), equalTo(404));
+        assertThat(get("/other").statusCode(), equalTo(404));
+        assertThat(http.send(
+                HttpRequest.newBuilder(uri("/avatar/" + EXAMPLE_HASH))
+                        .DELETE().build(),
+                HttpResponse.BodyHandlers.discarding()).statusCode(),
+                equalTo(405));
+    }
+
+    @Test
+    public void verifyImageIsProxiedAndCached() throws IOException,
+            InterruptedException {
+        server = AvatarServer.builder().port(0).proxy(client()).start();
+        final HttpResponse<byte[]> response = http.send(
+                HttpRequest.newBuilder(uri("/avatar/" + EXAMPLE_EMAIL
+                        + "?s=40")).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        assertThat(response.statusCode(), equalTo(200));
+        assertThat(response.body(), equalTo(IMAGE));
+        assertThat(response.headers().firstValue("Content-Type").get(),
+                equalTo("image/png"));
+        assertThat(response.headers().firstValue("Cache-Control").get(),
+                equalTo("public, max-age=86400"));
+        assertThat(http.send(
+                HttpRequest.newBuilder(uri("/avatar/" + EXAMPLE_HASH
+                        + "?s=40")).build(),
+                HttpResponse.BodyHandlers.ofByteArray()).body(),
+                equalTo(IMAGE));
+        assertThat(upstreamRequests.get(), equalTo(1));
+    }
+
+    @Test
+    public void verifyProxyAnswersConditionalRequests() throws IOException,
+            InterruptedException {
+        server = AvatarServer.builder().port(0).proxy(client()).start();
+        final HttpResponse<byte[]> response = http.send(
+                HttpRequest.newBuilder(uri("/avatar/" + EXAMPLE_HASH))
+                        .header("If-None-Match", "\"v1\"").build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        assertThat(response.statusCode(), equalTo(304));
+        assertThat(response.headers().firstValue("ETag").get(),
+                equalTo("\"v1\""));
+    }
+
+    @Test
+    public void verifyProxyPassesNotFound() throws IOException,
+            InterruptedException {
+        server = AvatarServer.builder().port(0).proxy(client()).start();
+        final HttpResponse<Void> response = get(
+                "/avatar/00000000000000000000000000000000?d=404");
+        assertThat(response.statusCode(), equalTo(404));
+        assertThat(response.headers().firstValue("Cache-Control").get(),
+                equalTo("no-cache"));
+    }
+
+    @Test
+    public void verifyHeadHasNoBody() throws IOException,
+            InterruptedException {
+        server = AvatarServer.builder().port(0).proxy(client()).start();
+        final HttpResponse<byte[]> response = http.send(
+                HttpRequest.newBuilder(uri("/avatar/" + EXAMPLE_HASH))
+                        .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                        .build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        assertThat(response.statusCode(), equalTo(200));
+        assertThat(response.body().length, equalTo(0));
+        assertThat(response.headers().firstValue("Content-Length")
+                .orElse(null), equalTo("4"));
+    }
+
+    @Test
+    public void verifyProxyFetchesShardedHosts() throws IOException,
+            InterruptedException {
+        server = AvatarServer.builder().port(0)
+                .spec(GravatarSpec.DEFAULT.with(Hosts.numbered(3)))
+                .proxy(client()).start();
+        // on 0.gravatar.com, 2.gravatar.com and 1.gravatar.com, without protocol
+        for (final int i : new int[] { 0, 2, 3 }) {
+            final HttpResponse<byte[]> response = http.send(
+                    HttpRequest.newBuilder(uri("/avatar/user" + i
+                            + "@example.com")).build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+            assertThat(response.statusCode(), equalTo(200));
+            assertThat(response.body(), equalTo(IMAGE));
+        }
+        assertThat(upstreamRequests.get(), equalTo(3));
+    }
+
+    @Test
+    public void verifyFailingProxyIsBadGateway() throws IOException,
+            InterruptedException {
+        final AvatarCache broken = new AvatarCache() {
+            @Override
+            public Avatar get(final String pKey) {
+                throw new UncheckedIOException(new IOException("disk failed"));
+            }
+
+            @Override
+            public void put(final String pKey, final Avatar pAvatar) {
+                // nothing is kept
+            }
+
+            @Override
+            public void remove(final String pKey) {
+                // nothing is kept
+            }
+        };
+        server = AvatarServer.builder().port(0).proxy(AvatarClient.builder()
+                .baseUri(upstreamUri()).cache(broken).build())
+                .start();
+        for (int i = 0; i < 2; i++) {
+            final HttpResponse<String> response = http.send(
+                    HttpRequest.newBuilder(uri("/avatar/" + EXAMPLE_HASH))
+                            .build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertThat(response.statusCode(), equalTo(502));
+            assertThat(response.body(), equalTo("bad gateway\n"));
+        }
+        assertThat(upstreamRequests.get(), equalTo(0));
+    }
+
+    @Test
+    public void verifyRequestParsing() {
+        final AvatarRequest request = AvatarRequest.parse(
+                URI.create("/avatar/a%40b.c?x=1&s=7&d=&r=g&d=identicon"), 32);
+        assertThat(request.getEmail(), equalTo("a@b.c"));
+        assertThat(request.getHash(), nullValue());
+        assertThat(request.getSize(), equalTo(7));
+        assertThat(request.getRating(), equalTo(Rating.G));
+        assertThat(request.getDefaultImage(), equalTo(Default.IDENTICON));
+        assertThat(request.getDefaultUrl(), nullValue());
+    }
+
+    private AvatarClient client() {
+        return AvatarClient.builder().baseUri(upstreamUri())
+                .cache(new MemoryAvatarCache(1 << 20)).build();
+    }
+
+    private URI upstreamUri() {
+        return URI.create("http://127.0.0.1:" + upstream.getAddress().getPort()
+                + "/avatar/");
+    }
+
+    private String location(final String pPath)
+            throws IOException, InterruptedException {
+        final HttpResponse<Void> response = get(pPath);
+        assertThat(response.statusCode(), equalTo(302));
+        return response.headers().firstValue("Location").get();
+    }
+
+    private HttpResponse<Void> get(final String pPath)
+            throws IOException, InterruptedException {
+        return http.send(HttpRequest.newBuilder(uri(pPath)).build(),
+                HttpResponse.BodyHandlers.discarding());
+    }
+
+    private URI uri(final String pPath) {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort()
+                + pPath);
+    }
+
+    private void image(final HttpExchange pExchange) throws IOException {
+        upstreamRequests.incrementAndGet();
+        try {
+            if (pExchange.getRequestURI().getPath().startsWith("/avatar/0")) {
+                pExchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            pExchange.getResponseHeaders().set("ETag", "\"v1\"");
+            pExchange.getResponseHeaders().set("Cache-Control",
+                    "max-age=300");
+            pExchange.getResponseHeaders().set("Content-Type", "image/png");
+            pExchange.sendResponseHeaders(200, IMAGE.length);
+            try (OutputStream body = pExchange.getResponseBody()) {
+                body.write(IMAGE);
+            }
+        } finally {
+            pExchange.close();
+        }
+    }
+}
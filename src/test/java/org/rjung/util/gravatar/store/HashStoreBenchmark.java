@@ -0,0 +1,160 @@
+package org.rjung.util.gravatar.store;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rjung.util.gravatar.hash.DigestEngine;
+import org.rjung.util.gravatar.hash.Hex;
+
+/**
+ * Lookup latency of a {@link HashStore} with a million entries, compared with
+ * a <code>HashMap&lt;String, String&gt;</code> and with calculating the MD5.
+ * {@link #main(String[])} compares the memory needed by both.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashStoreBenchmark {
+
+    private static final int ENTRIES = 1000000;
+    private static final int KEYS = 1 << 16;
+
+    @State(Scope.Benchmark)
+    public static class Entries {
+        Path file;
+        HashStore store;
+        Map<String, String> map;
+        String[] strings;
+        byte[][] normalized;
+        DigestEngine engine;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException, NoSuchAlgorithmException {
+            engine = DigestEngine.forAlgorithm("MD5");
+            file = Files.createTempFile("hashes", ".store");
+            Files.delete(file);
+            store = HashStore.open(file, ENTRIES);
+            map = new HashMap<String, String>();
+            strings = new String[KEYS];
+            normalized = new byte[KEYS][];
+            for (int i = 0; i < ENTRIES; i++) {
+                final String email = email(i);
+                final byte[] bytes = email.getBytes(StandardCharsets.US_ASCII);
+                final byte[] digest = engine.digest(bytes);
+                store.put(bytes, 0, bytes.length, digest, 0);
+                map.put(email, Hex.encode(digest));
+                if (i < KEYS) {
+                    strings[i] = email;
+                    normalized[i] = bytes;
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            store.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        final byte[] output = new byte[16];
+        int index;
+
+        int next() {
+            index = (index + 1) & (KEYS - 1);
+            return index;
+        }
+    }
+
+    @Benchmark
+    public boolean hashStoreGet(final Entries pEntries, final Cursor pCursor) {
+        final byte[] key = pEntries.normalized[pCursor.next()];
+        return pEntries.store.get(key, 0, key.length, pCursor.output, 0);
+    }
+
+    @Benchmark
+    public String hashMapGet(final Entries pEntries, final Cursor pCursor) {
+        return pEntries.map.get(pEntries.strings[pCursor.next()]);
+    }
+
+    @Benchmark
+    public int md5(final Entries pEntries, final Cursor pCursor) {
+        final byte[] key = pEntries.normalized[pCursor.next()];
+        return pEntries.engine.digest(key, 0, key.length, pCursor.output, 0);
+    }
+
+    /**
+     * Print the memory needed for a million entries by a {@link HashStore}
+     * and by a <code>HashMap&lt;String, String&gt;</code>.
+     *
+     * @param pArgs
+     *            not used
+     * @throws Exception
+     *             If the store can not be written.
+     */
+    public static void main(final String[] pArgs) throws Exception {
+        final DigestEngine engine = DigestEngine.forAlgorithm("MD5");
+        final long empty = usedHeap();
+        final Map<String, String> map = new HashMap<String, String>();
+        for (int i = 0; i < ENTRIES; i++) {
+            final String email = email(i);
+            map.put(email, Hex.encode(
+                    engine.digest(email.getBytes(StandardCharsets.US_ASCII))));
+        }
+        final long withMap = usedHeap();
+        System.out.printf("HashMap<String,String>: %,d bytes heap (%d entries)%n",
+                withMap - empty, map.size());
+        map.clear();
+        final Path file = Files.createTempFile("hashes", ".store");
+        Files.delete(file);
+        final long before = usedHeap();
+        try (HashStore store = HashStore.open(file, ENTRIES)) {
+            for (int i = 0; i < ENTRIES; i++) {
+                final byte[] bytes = email(i)
+                        .getBytes(StandardCharsets.US_ASCII);
+                store.put(bytes, 0, bytes.length, engine.digest(bytes), 0);
+            }
+            System.out.printf(
+                    "HashStore: %,d bytes heap, %,d bytes mapped file (%d entries)%n",
+                    Math.max(0, usedHeap() - before), Files.size(file),
+                    store.size());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static String email(final int pIndex) {
+        return "user.number." + pIndex + "@example.com";
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,191 @@
+package org.rjung.util.gravatar.store;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rjung.util.Gravatar;
+import org.rjung.util.GravatarException;
+import org.rjung.util.gravatar.hash.EmailNormalizer;
+import org.rjung.util.gravatar.hash.Hex;
+import org.rjung.util.gravatar.metrics.GravatarListener.Cache;
+import org.rjung.util.gravatar.metrics.GravatarMetrics;
+
+public class HashStoreTest {
+
+    private static final String EXAMPLE_EMAIL = "example@example.com";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void resetStore() {
+        Gravatar.setHashStore(null);
+        Gravatar.setListener(null);
+    }
+
+    @Test
+    public void verifyStoredDigestIsFound()
+            throws IOException, NoSuchAlgorithmException {
+        try (HashStore store = HashStore.open(file())) {
+            assertThat(store.get(EXAMPLE_EMAIL), nullValue());
+            store.put(EXAMPLE_EMAIL, md5(EXAMPLE_EMAIL));
+            assertThat(store.get(" Example@Example.COM "),
+                    equalTo(md5(EXAMPLE_EMAIL)));
+            assertThat(store.get("other@example.com"), nullValue());
+            assertThat(store.size(), equalTo(1));
+        }
+    }
+
+    @Test
+    public void verifyStoreGrowsAndSurvivesReopen()
+            throws IOException, NoSuchAlgorithmException {
+        final Path file = file();
+        try (HashStore store = HashStore.open(file, 1)) {
+            for (int i = 0; i < 5000; i++) {
+                store.put(email(i), md5(email(i)));
+            }
+            assertThat(store.size(), equalTo(5000));
+        }
+        try (HashStore store = HashStore.open(file)) {
+            assertThat(store.size(), equalTo(5000));
+            assertThat(Files.size(file),
+                    equalTo(64L + store.capacity() * 32L));
+            for (int i = 0; i < 5000; i++) {
+                assertThat(store.get(email(i)), equalTo(md5(email(i))));
+            }
+        }
+    }
+
+    @Test
+    public void verifyCompactDropsRemovedDigests()
+            throws IOException, NoSuchAlgorithmException {
+        try (HashStore store = HashStore.open(file())) {
+            for (int i = 0; i < 2000; i++) {
+                store.put(email(i), md5(email(i)));
+            }
+            for (int i = 0; i < 2000; i += 2) {
+                assertThat(store.remove(email(i)), equalTo(true));
+            }
+            assertThat(store.remove(email(0)), equalTo(false));
+            final int capacity = store.capacity();
+            store.compact();
+            assertThat(store.capacity(), equalTo(capacity / 2));
+            assertThat(store.size(), equalTo(1000));
+            for (int i = 0; i < 2000; i++) {
+                assertThat(store.get(email(i)),
+                        equalTo(i % 2 == 0 ? null : md5(email(i))));
+            }
+        }
+    }
+
+    @Test
+    public void verifyDigestIsReplaced()
+            throws IOException, NoSuchAlgorithmException {
+        try (HashStore store = HashStore.open(file())) {
+            store.put(EXAMPLE_EMAIL, new byte[16]);
+            store.put(EXAMPLE_EMAIL, md5(EXAMPLE_EMAIL));
+            assertThat(store.size(), equalTo(1));
+            assertThat(store.get(EXAMPLE_EMAIL), equalTo(md5(EXAMPLE_EMAIL)));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void verifyOtherFilesAreRejected() throws IOException {
+        final Path file = file();
+        Files.write(file, new byte[100]);
+        HashStore.open(file);
+    }
+
+    @Test
+    public void verifyGravatarConsultsStore()
+            throws IOException, GravatarException, NoSuchAlgorithmException {
+        try (HashStore store = HashStore.open(file())) {
+            Gravatar.setHashStore(store);
+            final byte[] digest = new byte[16];
+            digest[15] = 1;
+            store.put("stored@example.com", digest);
+            assertThat(Gravatar.forEmail("Stored@Example.com").toUrl(),
+                    equalTo("://s.gravatar.com/avatar/" + Hex.encode(digest)));
+            assertThat(Gravatar.forEmail(EXAMPLE_EMAIL).toUrl(),
+                    equalTo("://s.gravatar.com/avatar/"
+                            + Hex.encode(md5(EXAMPLE_EMAIL))));
+            assertThat(store.get(EXAMPLE_EMAIL), equalTo(md5(EXAMPLE_EMAIL)));
+        }
+    }
+
+    @Test
+    public void verifyBatchesConsultStore()
+            throws IOException, GravatarException, NoSuchAlgorithmException {
+        try (HashStore store = HashStore.open(file())) {
+            Gravatar.setHashStore(store);
+            final byte[] digest = new byte[16];
+            digest[15] = 1;
+            store.put("stored@example.com", digest);
+            final List<String> emails = Arrays.asList("Stored@Example.com",
+                    EXAMPLE_EMAIL);
+            assertThat(Gravatar.toUrls(emails, Gravatar.forEmail(null)),
+                    equalTo(Arrays.asList(
+                            "://s.gravatar.com/avatar/" + Hex.encode(digest),
+                            "://s.gravatar.com/avatar/"
+                                    + Hex.encode(md5(EXAMPLE_EMAIL)))));
+            assertThat(store.get(EXAMPLE_EMAIL), equalTo(md5(EXAMPLE_EMAIL)));
+            store.remove(EXAMPLE_EMAIL);
+            final byte[] hashes = Gravatar.toHashes(emails);
+            assertThat(Arrays.copyOfRange(hashes, 0, 16), equalTo(digest));
+            assertThat(Arrays.copyOfRange(hashes, 16, 32),
+                    equalTo(md5(EXAMPLE_EMAIL)));
+            assertThat(store.get(EXAMPLE_EMAIL), equalTo(md5(EXAMPLE_EMAIL)));
+        }
+    }
+
+    @Test
+    public void verifyGravatarIgnoresFailingStore()
+            throws IOException, GravatarException, NoSuchAlgorithmException {
+        final Path file = file();
+        try (HashStore store = HashStore.open(file, 1)) {
+            for (int i = 0; i < 12; i++) {
+                store.put(email(i), md5(email(i)));
+            }
+            // the next digest needs a larger file, which can not be written
+            final Path temporary = file.resolveSibling("hashes.store.tmp");
+            Files.createDirectory(temporary);
+            Files.write(temporary.resolve("blocked"), new byte[1]);
+            final GravatarMetrics metrics = new GravatarMetrics();
+            Gravatar.setListener(metrics);
+            Gravatar.setHashStore(store);
+            assertThat(Gravatar.forEmail(EXAMPLE_EMAIL).toUrl(),
+                    equalTo("://s.gravatar.com/avatar/"
+                            + Hex.encode(md5(EXAMPLE_EMAIL))));
+            assertThat(metrics.getFailures(Cache.HASH_STORE), equalTo(1L));
+            assertThat(store.get(EXAMPLE_EMAIL), nullValue());
+            assertThat(store.size(), equalTo(12));
+        }
+    }
+
+    private Path file() throws IOException {
+        return folder.newFolder().toPath().resolve("hashes.store");
+    }
+
+    private static String email(final int pIndex) {
+        return "user." + pIndex + "@example.com";
+    }
+
+    private static byte[] md5(final String pEmail)
+            throws NoSuchAlgorithmException, IOException {
+        return MessageDigest.getInstance("MD5").digest(EmailNormalizer
+                .encode(EmailNormalizer.normalize(pEmail)));
+    }
+}
@@ -0,0 +1,156 @@
+package org.rjung.util.gravatar.hash;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link MultiLaneMd5} on the incubating Vector API. Each lane of an
+ * {@link IntVector} holds the state of one message, so as many single-block
+ * messages are hashed at once as the preferred species has lanes (8 with
+ * AVX2, 16 with AVX-512). Longer messages are handed to the scalar
+ * implementation.
+ */
+final class VectorMd5 extends MultiLaneMd5 {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    private static final int[] K = { 0xd76aa478, 0xe8c7b756, 0x242070db,
+            0xc1bdceee, 0xf57c0faf, 0x4787c62a, 0xa8304613, 0xfd469501,
+            0x698098d8, 0x8b44f7af, 0xffff5bb1, 0x895cd7be, 0x6b901122,
+            0xfd987193, 0xa679438e, 0x49b40821, 0xf61e2562, 0xc040b340,
+            0x265e5a51, 0xe9b6c7aa, 0xd62f105d, 0x02441453, 0xd8a1e681,
+            0xe7d3fbc8, 0x21e1cde6, 0xc33707d6, 0xf4d50d87, 0x455a14ed,
+            0xa9e3e905, 0xfcefa3f8, 0x676f02d9, 0x8d2a4c8a, 0xfffa3942,
+            0x8771f681, 0x6d9d6122, 0xfde5380c, 0xa4beea44, 0x4bdecfa9,
+            0xf6bb4b60, 0xbebfbc70, 0x289b7ec6, 0xeaa127fa, 0xd4ef3085,
+            0x04881d05, 0xd9d4d039, 0xe6db99e5, 0x1fa27cf8, 0xc4ac5665,
+            0xf4292244, 0x432aff97, 0xab9423a7, 0xfc93a039, 0x655b59c3,
+            0x8f0ccc92, 0xffeff47d, 0x85845dd1, 0x6fa87e4f, 0xfe2ce6e0,
+            0xa3014314, 0x4e0811a1, 0xf7537e82, 0xbd3af235, 0x2ad7d2bb,
+            0xeb86d391 };
+    private static final int[] S = { 7, 12, 17, 22, 5, 9, 14, 20, 4, 11, 16,
+            23, 6, 10, 15, 21 };
+    private static final int A = 0x67452301;
+    private static final int B = 0xefcdab89;
+    private static final int C = 0x98badcfe;
+    private static final int D = 0x10325476;
+
+    private final ScalarMd5 scalar = new ScalarMd5();
+
+    VectorMd5() {
+        if (LANES < 2) {
+            throw new IllegalStateException("no vector lanes available");
+        }
+    }
+
+    @Override
+    public int lanes() {
+        return LANES;
+    }
+
+    @Override
+    public void digest(final byte[] pInput, final int[] pOffsets,
+            final int[] pLengths, final int pCount, final byte[] pOutput,
+            final int pOutputOffset) {
+        final int[] words = new int[16 * LANES];
+        final int[] state = new int[4 * LANES];
+        final int[] messages = new int[LANES];
+        int filled = 0;
+        for (int m = 0; m < pCount; m++) {
+            if (pLengths[m] > MAX_SINGLE_BLOCK) {
+                scalar.digest(pInput, pOffsets[m], pLengths[m], pOutput,
+                        pOutputOffset + m * DIGEST_LENGTH);
+                continue;
+            }
+            load(pInput, pOffsets[m], pLengths[m], words, filled);
+            messages[filled++] = m;
+            if (filled == LANES) {
+                compress(words, state);
+                store(state, messages, filled, pOutput, pOutputOffset);
+                filled = 0;
+            }
+        }
+        if (filled > 0) {
+            compress(words, state);
+            store(state, messages, filled, pOutput, pOutputOffset);
+        }
+    }
+
+    private static void load(final byte[] pInput, final int pOffset,
+            final int pLength, final int[] pWords, final int pLane) {
+        for (int w = 0; w < 16; w++) {
+            pWords[w * LANES + pLane] = 0;
+        }
+        for (int i = 0; i < pLength; i++) {
+            pWords[(i >>> 2) * LANES + pLane] |= (pInput[pOffset + i]
+                    & 0xFF) << ((i & 3) << 3);
+        }
+        pWords[(pLength >>> 2) * LANES + pLane] |= 0x80 << ((pLength & 3) << 3);
+        pWords[14 * LANES + pLane] = pLength << 3;
+    }
+
+    private static void store(final int[] pState, final int[] pMessages,
+            final int pCount, final byte[] pOutput, final int pOutputOffset) {
+        for (int lane = 0; lane < pCount; lane++) {
+            int position = pOutputOffset + pMessages[lane] * DIGEST_LENGTH;
+            for (int word = 0; word < 4; word++) {
+                final int value = pState[word * LANES + lane];
+                pOutput[position++] = (byte) value;
+                pOutput[position++] = (byte) (value >>> 8);
+                pOutput[position++] = (byte) (value >>> 16);
+                pOutput[position++] = (byte) (value >>> 24);
+            }
+        }
+    }
+
+    private static void compress(final int[] pWords, final int[] pState) {
+        IntVector a = IntVector.broadcast(SPECIES, A);
+        IntVector b = IntVector.broadcast(SPECIES, B);
+        IntVector c = IntVector.broadcast(SPECIES, C);
+        IntVector d = IntVector.broadcast(SPECIES, D);
+        IntVector t;
+        for (int i = 0; i < 16; i++) {
+            t = a.add(b.and(c).or(b.not().and(d))).add(K[i])
+                    .add(word(pWords, i));
+            a = d;
+            d = c;
+            c = b;
+            b = b.add(t.lanewise(VectorOperators.ROL, S[i & 3]));
+        }
+        for (int i = 16; i < 32; i++) {
+            t = a.add(d.and(b).or(d.not().and(c))).add(K[i])
+                    .add(word(pWords, (5 * i + 1) & 15));
+            a = d;
+            d = c;
+            c = b;
+            b = b.add(t.lanewise(VectorOperators.ROL, S[4 + (i & 3)]));
+        }
+        for (int i = 32; i < 48; i++) {
+            t = a.add(b.lanewise(VectorOperators.XOR, c)
+                    .lanewise(VectorOperators.XOR, d)).add(K[i])
+                    .add(word(pWords, (3 * i + 5) & 15));
+            a = d;
+            d = c;
+            c = b;
+            b = b.add(t.lanewise(VectorOperators.ROL, S[8 + (i & 3)]));
+        }
+        for (int i = 48; i < 64; i++) {
+            t = a.add(c.lanewise(VectorOperators.XOR, b.or(d.not())))
+                    .add(K[i]).add(word(pWords, (7 * i) & 15));
+            a = d;
+            d = c;
+            c = b;
+            b = b.add(t.lanewise(VectorOperators.ROL, S[12 + (i & 3)]));
+        }
+        a.add(A).intoArray(pState, 0);
+        b.add(B).intoArray(pState, LANES);
+        c.add(C).intoArray(pState, 2 * LANES);
+        d.add(D).intoArray(pState, 3 * LANES);
+    }
+
+    private static IntVector word(final int[] pWords, final int pIndex) {
+        return IntVector.fromArray(SPECIES, pWords, pIndex * LANES);
+    }
+}